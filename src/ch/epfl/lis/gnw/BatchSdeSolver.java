@@ -0,0 +1,307 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+
+
+package ch.epfl.lis.gnw;
+
+import cern.colt.matrix.DoubleMatrix2D;
+import ch.epfl.lis.sde.CounterRandomEngine;
+import ch.epfl.lis.sde.ZigguratNormal;
+
+
+/** Integrates B replicates (trajectories) of the SDEs of a gene network together in one thread.
+ * 
+ * This is the stochastic counterpart of EnsembleODESolver: the states of the replicates are
+ * stored as structure of arrays with the replicates innermost (variable i of replicate b is
+ * at i*B + b), the drift and diffusion of all replicates are computed with a single pass
+ * over the structure of the network (see CompiledGeneNetwork.computeEnsembleDriftAndDiffusion()),
+ * and the Milstein update and the positivity clamp are simple loops over the replicates that
+ * the JIT can vectorize. The overhead per gene (index lookups, module and state loops) is
+ * thus shared by the B replicates.
+ * 
+ * The scheme is the derivative-free Milstein scheme of the class Milstein for the
+ * Stratonovich interpretation (as used by Solver), with the step size timeStepSDE and the
+ * noise coefficient noiseCoefficientSDE of the settings. Negative concentrations are set
+ * to zero after each step (see SdeSolver.checkX()).
+ * 
+ * Each replicate draws its Wiener increments from its own CounterRandomEngine, defined
+ * by (seed, experiment, replicate), in the same order as the scalar solver. In the EXACT
+ * Hill function mode, replicate b is thus bit-identical to a Milstein solver of a
+ * GeneNetworkSDE that uses the same stream (see SdeEnsemble), independently of B.
+ * 
+ * @author Thomas Schaffter (firstname.name@gmail.com)
+ * @author Daniel Marbach (firstname.name@gmail.com)
+ * 
+ */
+public class BatchSdeSolver {
+	
+	/** Compiled gene network used to evaluate the drift and diffusion */
+	private CompiledGeneNetwork compiledGrn_;
+	/** Number of replicates (stride of the arrays) */
+	private int numReplicates_;
+	/** Number of state variables per replicate */
+	private int dimension_;
+	
+	/** States of the replicates (dimension x B) */
+	private double[] X_;
+	/** Drift and diffusion at X_ */
+	private double[] F_, G_;
+	/** Support vector of the Milstein scheme and the diffusion at it */
+	private double[] supportX_, supportF_, supportG_;
+	/** Wiener increments of the current step (dimension x B) */
+	private double[] dW_;
+	/** Wiener increments of one replicate */
+	private double[] dWReplicate_;
+	/** Max transcription rates and relative activations of the replicates (same for all) */
+	private double[] max_, alpha_;
+	
+	/** Gaussian random number generator of each replicate */
+	private ZigguratNormal[] normal_;
+	
+	/** Current time */
+	private double t_;
+	/** Time step dt of step() */
+	private double dt_;
+	/** Integration step size */
+	private double h_;
+	/** Noise coefficient */
+	private double noiseCoefficient_;
+	/** Number of integration steps */
+	private int numSteps_;
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/**
+	 * Constructor, the batch has the given number of replicates. The parameters are the
+	 * current parameters of the gene network (i.e., apply the perturbation before). The
+	 * random streams are those of the replicates 0 ... B-1 of experiment 0 with the seed
+	 * of the settings, see setRandomStreams(). The states are initialized with zeros,
+	 * see setState().
+	 */
+	public BatchSdeSolver(GeneNetwork grn, int numReplicates) {
+		
+		GnwSettings set = GnwSettings.getInstance();
+		
+		compiledGrn_ = new CompiledGeneNetwork(grn);
+		numReplicates_ = numReplicates;
+		dimension_ = compiledGrn_.getModelTranslation() ? 2*grn.getSize() : grn.getSize();
+		
+		int n = dimension_ * numReplicates;
+		X_ = new double[n];
+		F_ = new double[n];
+		G_ = new double[n];
+		supportX_ = new double[n];
+		supportF_ = new double[n];
+		supportG_ = new double[n];
+		dW_ = new double[n];
+		dWReplicate_ = new double[dimension_];
+		
+		max_ = new double[grn.getSize() * numReplicates];
+		alpha_ = new double[compiledGrn_.getNumAlpha() * numReplicates];
+		for (int b=0; b<numReplicates; b++)
+			compiledGrn_.copyEnsembleParameters(b, numReplicates, max_, alpha_);
+		
+		long seed = (set.getRandomSeed() == -1) ? System.currentTimeMillis() : set.getRandomSeed();
+		setRandomStreams(seed, 0, 0);
+		
+		t_ = 0;
+		dt_ = set.getDt();
+		h_ = set.getTimeStepSDE();
+		noiseCoefficient_ = set.getNoiseCoefficientSDE();
+		numSteps_ = 0;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Set the random streams: replicate b of the batch uses the stream of replicate
+	 * firstReplicate+b of the given experiment (see CounterRandomEngine).
+	 */
+	public void setRandomStreams(long seed, int experiment, int firstReplicate) {
+		
+		normal_ = new ZigguratNormal[numReplicates_];
+		for (int b=0; b<numReplicates_; b++)
+			normal_[b] = new ZigguratNormal(new CounterRandomEngine(seed, experiment, firstReplicate + b));
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Set the state of replicate b */
+	public void setState(int b, double[] xy) {
+		
+		for (int i=0; i<dimension_; i++)
+			X_[i*numReplicates_ + b] = xy[i];
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Set the state of all replicates */
+	public void setState(double[] xy) {
+		
+		for (int b=0; b<numReplicates_; b++)
+			setState(b, xy);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Advance the time of all replicates by dt with steps of size h (the last step may
+	 * end after t+dt, as in SdeSolver.step()).
+	 * @return The time step (dt)
+	 * @throws Exception If the diffusion is NaN (e.g., negative concentrations)
+	 */
+	public double step() throws Exception {
+		
+		double t2 = t_ + dt_;
+		double t1 = t_;
+		
+		while (t1 < t2) {
+			generateW();
+			evaluate(X_, F_, G_);
+			advance();
+			checkX();
+			t1 += h_;
+			numSteps_++;
+		}
+		t_ = t2;
+		
+		return dt_;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return the state of replicate b (copy) */
+	public double[] getState(int b) {
+		
+		double[] xy = new double[dimension_];
+		for (int i=0; i<dimension_; i++)
+			xy[i] = X_[i*numReplicates_ + b];
+		return xy;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Copy the state of replicate b to the given row of the matrix */
+	public void getState(int b, DoubleMatrix2D M, int row) {
+		
+		for (int i=0; i<dimension_; i++)
+			M.setQuick(row, i, X_[i*numReplicates_ + b]);
+	}
+	
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/**
+	 * Draw the Wiener increments of all replicates, each from its own stream and in the
+	 * same order as SdeSolver.generateW() (one block of N(0,h) numbers per step).
+	 */
+	private void generateW() {
+		
+		int B = numReplicates_;
+		double sqrt_h = Math.sqrt(h_);
+		
+		for (int b=0; b<B; b++) {
+			normal_[b].fill(dWReplicate_, sqrt_h);
+			for (int i=0; i<dimension_; i++)
+				dW_[i*B + b] = dWReplicate_[i];
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Compute the drift F and diffusion G (multiplied with the noise coefficient) at X */
+	private void evaluate(double[] X, double[] F, double[] G) throws Exception {
+		
+		int n = X.length;
+		double m = noiseCoefficient_;
+		
+		compiledGrn_.computeEnsembleDriftAndDiffusion(X, F, G, numReplicates_, numReplicates_, max_, alpha_);
+		
+		for (int q=0; q<n; q++)
+			G[q] *= m;
+		
+		// a NaN propagates through the sum
+		double sum = 0;
+		for (int q=0; q<n; q++)
+			sum += G[q];
+		if (Double.isNaN(sum))
+			throw new Exception("BatchSdeSolver: NaN diffusion at t = " + t_);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Milstein step (Stratonovich) of all replicates, see Milstein.advance() */
+	private void advance() throws Exception {
+		
+		int n = X_.length;
+		double h = h_;
+		double sqrt_h = Math.sqrt(h);
+		double c = 1.0/(2.0*sqrt_h);
+		
+		// vector supporting value
+		for (int q=0; q<n; q++)
+			supportX_[q] = X_[q] + F_[q]*h + G_[q]*sqrt_h;
+		
+		evaluate(supportX_, supportF_, supportG_);
+		
+		for (int q=0; q<n; q++) {
+			double dW = dW_[q];
+			X_[q] = X_[q] + F_[q]*h + G_[q]*dW + c*(supportG_[q] - G_[q])*(dW*dW);
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Set negative concentrations to zero, see SdeSolver.checkX() */
+	private void checkX() {
+		
+		for (int q=0; q<X_.length; q++)
+			if (X_[q] < 0)
+				X_[q] = 0;
+	}
+	
+	
+	// ============================================================================
+	// SETTERS AND GETTERS
+	
+	public int getNumReplicates() { return numReplicates_; }
+	public int getDimension() { return dimension_; }
+	public double getTime() { return t_; }
+	public int getNumSteps() { return numSteps_; }
+}
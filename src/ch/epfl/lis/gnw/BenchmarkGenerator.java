@@ -27,6 +27,7 @@ THE SOFTWARE.
 package ch.epfl.lis.gnw;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.io.*;
@@ -34,6 +35,7 @@ import java.net.URL;
 
 import cern.colt.matrix.DoubleMatrix1D;
 import cern.colt.matrix.impl.DenseDoubleMatrix1D;
+import ch.epfl.lis.gnw.StageScheduler.Stage;
 
 
 /** Class used to generate the DREAM3 and DREAM4 in silico challenges.
@@ -57,6 +59,16 @@ public class BenchmarkGenerator {
 	DoubleMatrix1D wildTypeODE_;
 	/** The perturbations applied to the time-series */
 	Perturbation timeSeriesPerturbations_;
+	/** Wild-type states shared by the stochastic time-series as initial conditions (see BurnInPool) */
+	BurnInPool burnInPool_;
+	/** The stage of the simulation of each experiment (see StageScheduler) */
+	HashMap<Experiment, Stage> simulationStages_;
+	/** The stage of the wild type used as initial condition (ODE for the steady states, stochastic if SDEs are simulated for the time series) */
+	Stage wildTypeStage_;
+	/** The stochastic simulations share a random number generator, each one depends on the previous one */
+	Stage lastStochasticStage_;
+	/** Initial condition of the time series (see getTimeSeriesInitialCondition()) */
+	DoubleMatrix1D timeSeriesInitialCondition_;
 	
     /** Logger for this class */
     private static Logger log = Logger.getLogger(BenchmarkGenerator.class.getName());
@@ -77,13 +89,33 @@ public class BenchmarkGenerator {
 		timeSeriesExperimentsODE_ = new ArrayList<TimeSeriesExperiment>();
 		wildTypeODE_ = null;
 		timeSeriesPerturbations_ = null;
+		burnInPool_ = null;
+		simulationStages_ = new HashMap<Experiment, Stage>();
+		wildTypeStage_ = null;
+		lastStochasticStage_ = null;
+		timeSeriesInitialCondition_ = null;
 	}
 
 	
 	// ----------------------------------------------------------------------------
 
 	/** 
-	 * Run all experiments, save the gold standards and the datasets.
+	 * Run all experiments, save the gold standards and the datasets. The simulations of the
+	 * experiments and the writing of the files are stages of a StageScheduler, stages that
+	 * don't depend on each other are executed at the same time if the setting numStageThreads
+	 * is larger than one (see addSteadyStateStages() and addTimeSeriesStages()). The files
+	 * are written one after the other in a separate chain of stages, the data of each
+	 * experiment is written as soon as it has been simulated.
+	 * 
+	 * If the setting checkpointInterval is set, the simulated perturbations are saved
+	 * periodically to checkpoints in the output directory (see Experiment.setCheckpoint()),
+	 * as well as the state of the random number generator of GnwSettings at the start.
+	 * With the setting resume, an interrupted benchmark generation continues from the
+	 * checkpoints. The checkpoints are deleted when the benchmark generation is done.
+	 * 
+	 * If the setting resultCacheDirectory is set, the simulated experiments are stored in
+	 * a result cache and experiments that have already been simulated with the same model,
+	 * perturbations and settings are read from the cache (see ResultCache).
 	 * @throws CancelException, Exception 
 	 */
 	public void generateGoldStandard() throws CancelException, Exception {
@@ -95,39 +127,45 @@ public class BenchmarkGenerator {
 		
 		checkForInterruption();
 		
-		// save DREAM gold standard
-		String filename = "file://" + GnwSettings.getInstance().getOutputDirectory() + grn_.getId() + "_goldstandard.tsv";
-		URL url = new URL(filename);
-		
-		log.log(Level.INFO, "Writing file " + url.getPath());
-		TSVParserGNW parser = new TSVParserGNW(grn_, url);
-		parser.writeGoldStandard();
-		
-		checkForInterruption();
+		GnwSettings set = GnwSettings.getInstance();
 		
-		// save signed network
-		filename = "file://" + GnwSettings.getInstance().getOutputDirectory() + grn_.getId() + "_goldstandard_signed.tsv";
-		url = new URL(filename);
-		grn_.saveTSV(url);
+		// The user should have selected either ODEs, SDEs, or both
+		if (!set.getSimulateODE() && !set.getSimulateSDE())
+			throw new IllegalArgumentException("At least one of simulateODE_ and simulateSDE_ must be selected in GnwSettings");
 		
-		checkForInterruption();
+		StageScheduler scheduler = new StageScheduler(set.getNumStageThreads());
 		
-		// save the complete network in smbl2
-		filename = "file://" + GnwSettings.getInstance().getOutputDirectory() + grn_.getId() + ".xml";
-		url = new URL(filename);
-		grn_.writeSBML(url);
-
-		log.log(Level.INFO, "");
+		// the perturbations and the experimental noise are drawn from the same random state as in the interrupted run
+		boolean checkpoints = (set.getCheckpointInterval() > 0 || set.getResume());
+		if (checkpoints)
+			initializeRandomState();
 		
-		checkForInterruption();
+		// save the gold standards
+		Stage files = scheduler.add(new Stage("gold standard") {
+			public void run() throws Exception {
+				writeGoldStandard();
+			}
+		});
 		
-		// create and run the experiments
+		// create the experiments and the stages to run them
 		// loadInitialConditions("tmp/InSilicoSize10-Yeast3-initial-conditions.tsv");
-		runAll();
+		addSteadyStateStages(scheduler);
+		addTimeSeriesStages(scheduler);
+		
+		if (checkpoints) {
+			for (Experiment experiment : simulationStages_.keySet()) {
+				String type = (experiment instanceof TimeSeriesExperiment) ? "timeseries" : "steadystates";
+				String name = type + "_" + experiment.getLabel() + "_" + experiment.getSolverType();
+				experiment.setCheckpoint(getCheckpointFilename(name), set.getCheckpointInterval(), set.getResume());
+			}
+		}
 		
-		checkForInterruption();
+		if (!set.getResultCacheDirectory().equals("")) {
+			ResultCache cache = new ResultCache(set.getResultCacheDirectory(), set.getResultCacheMaxSize());
+			for (Experiment experiment : simulationStages_.keySet())
+				experiment.setResultCache(cache);
+		}
 		
-		GnwSettings set = GnwSettings.getInstance();
 		boolean addExperimentalNoise = set.getAddNormalNoise() || set.getAddLognormalNoise() || set.getAddMicroarrayNoise(); 
 		
 		// print the data
@@ -135,84 +173,148 @@ public class BenchmarkGenerator {
 		if (addExperimentalNoise)
 			postfix = "_noexpnoise";
 		
-		checkForInterruption();
-		
 		for (int i=0; i<steadyStateExperiments_.size(); i++) {
-			SteadyStateExperiment exp = steadyStateExperiments_.get(i);
-			exp.printAll(postfix);
-			String label = exp.getLabel();
-			if (label == "multifactorial" || label == "dream4_timeseries" || label == "dualknockouts")
-				exp.getPerturbation().printPerturbations(exp.getLabel());
+			String label = steadyStateExperiments_.get(i).getLabel();
+			boolean printPerturbations = (label == "multifactorial" || label == "dream4_timeseries" || label == "dualknockouts");
+			files = scheduler.add(new PrintStage(steadyStateExperiments_.get(i), postfix, printPerturbations, files));
 		}
-		
-		checkForInterruption();
-		
 		for (int i=0; i<steadyStateExperimentsODE_.size(); i++)
-			steadyStateExperimentsODE_.get(i).printAll("_nonoise");
-
-		checkForInterruption();
+			files = scheduler.add(new PrintStage(steadyStateExperimentsODE_.get(i), "_nonoise", false, files));
 		
 		for (int i=0; i<timeSeriesExperiments_.size(); i++) {
-			TimeSeriesExperiment exp = timeSeriesExperiments_.get(i);
-			exp.printAll(postfix);
-			String label = exp.getLabel();
-			if (label == "dream4_timeseries" || label == "multifactorial_timeseries" || label == "dualknockout_timeseries")
-				exp.getPerturbation().printPerturbations(exp.getLabel());
+			String label = timeSeriesExperiments_.get(i).getLabel();
+			boolean printPerturbations = (label == "dream4_timeseries" || label == "multifactorial_timeseries" || label == "dualknockout_timeseries");
+			files = scheduler.add(new PrintStage(timeSeriesExperiments_.get(i), postfix, printPerturbations, files));
 		}
-		
-		checkForInterruption();
-		
 		for (int i=0; i<timeSeriesExperimentsODE_.size(); i++)
-			timeSeriesExperimentsODE_.get(i).printAll("_nonoise");
-
-		checkForInterruption();
+			files = scheduler.add(new PrintStage(timeSeriesExperimentsODE_.get(i), "_nonoise", false, files));
 		
-		// add noise, normalize, and print
+		// add noise, normalize, and print (all experiments are done and printed at this point)
 		if (addExperimentalNoise) {
-			
-			addExperimentalNoise();
-			if (set.getNormalizeAfterAddingNoise())
-				normalize();
-			
-			for (int i=0; i<steadyStateExperiments_.size(); i++)
-				steadyStateExperiments_.get(i).printAll("");
-			for (int i=0; i<timeSeriesExperiments_.size(); i++)
-				timeSeriesExperiments_.get(i).printAll("");
+			scheduler.add(new Stage("experimental noise", files) {
+				public void run() throws Exception {
+					checkForInterruption();
+					
+					addExperimentalNoise();
+					if (GnwSettings.getInstance().getNormalizeAfterAddingNoise())
+						normalize();
+					
+					for (int i=0; i<steadyStateExperiments_.size(); i++)
+						steadyStateExperiments_.get(i).printAll("");
+					for (int i=0; i<timeSeriesExperiments_.size(); i++)
+						timeSeriesExperiments_.get(i).printAll("");
+				}
+			});
+		}
+		
+		scheduler.run();
+		
+		if (checkpoints) {
+			for (Experiment experiment : simulationStages_.keySet())
+				experiment.deleteCheckpoint();
+			new CheckpointFile(getCheckpointFilename("random")).delete();
 		}
 	}
 
 		
 	// ============================================================================
 	// PRIVATE METHODS
-
+	
 	/** 
-	 * Run all experiments. If the timeSeriesExperiments_ have
-	 * already been created (e.g. with loadInitialConditions()), they are run as is.
-	 * Otherwise, they are created with random initial conditions according to the
-	 * settings in GnwSettings.
+	 * Save the DREAM gold standard, the signed network and the complete network in SBML
 	 * @throws CancelException, Exception 
 	 */
-	private void runAll() throws CancelException, Exception {
-
-		GnwSettings set = GnwSettings.getInstance();
+	private void writeGoldStandard() throws CancelException, Exception {
 		
-		// The user should have selected either ODEs, SDEs, or both
-		if (!set.getSimulateODE() && !set.getSimulateSDE())
-			throw new IllegalArgumentException("At least one of simulateODE_ and simulateSDE_ must be selected in GnwSettings");
+		checkForInterruption();
+		
+		// save DREAM gold standard
+		String filename = "file://" + GnwSettings.getInstance().getOutputDirectory() + grn_.getId() + "_goldstandard.tsv";
+		URL url = new URL(filename);
+		
+		log.log(Level.INFO, "Writing file " + url.getPath());
+		TSVParserGNW parser = new TSVParserGNW(grn_, url);
+		parser.writeGoldStandard();
 		
-		runSteadyStateExperiments();
 		checkForInterruption();
-		runTimeSeriesExperiments();
-	}
+		
+		// save signed network
+		filename = "file://" + GnwSettings.getInstance().getOutputDirectory() + grn_.getId() + "_goldstandard_signed.tsv";
+		url = new URL(filename);
+		grn_.saveTSV(url);
+		
+		checkForInterruption();
+		
+		// save the complete network in smbl2
+		filename = "file://" + GnwSettings.getInstance().getOutputDirectory() + grn_.getId() + ".xml";
+		url = new URL(filename);
+		grn_.writeSBML(url);
 
+		log.log(Level.INFO, "");
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * When resuming, restore the state of the random number generator of GnwSettings from
+	 * the checkpoint, otherwise save it there (if checkpoints are written). The perturbations
+	 * are created and the experimental noise is added with this generator, they are thus the
+	 * same as in the interrupted run.
+	 */
+	private void initializeRandomState() throws IOException {
+		
+		GnwSettings set = GnwSettings.getInstance();
+		CheckpointFile checkpoint = new CheckpointFile(getCheckpointFilename("random"));
+		
+		if (set.getResume() && checkpoint.exists()) {
+			ObjectInputStream in = new ObjectInputStream(checkpoint.openForReading());
+			try {
+				set.readRandomState(in);
+			} finally {
+				in.close();
+			}
+			log.log(Level.INFO, "Restored the random number generator from checkpoint " + checkpoint.getFilename());
+			
+		} else if (set.getCheckpointInterval() > 0) {
+			try {
+				ObjectOutputStream out = new ObjectOutputStream(checkpoint.openForWriting());
+				set.writeRandomState(out);
+				out.flush();
+				checkpoint.commit();
+			} catch (IOException e) {
+				checkpoint.abort();
+				throw e;
+			}
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return the path of the checkpoint with the given name in the output directory */
+	private String getCheckpointFilename(String name) {
+		
+		return GnwSettings.getInstance().getOutputDirectory() + grn_.getId() + "_" + name + ".checkpoint";
+	}
+	
 	
 	// ----------------------------------------------------------------------------
 
 	/**
-	 * Create and run all steady-state experiments
-	 * @throws CancelException, Exception 
+	 * Create all steady-state experiments and add the stages to run them. The perturbations
+	 * are created here, in the same order as when the experiments were run one after the
+	 * other, the simulations don't use the random number generator of GnwSettings.
+	 * Dependencies of the stages:
+	 * - The ODE wild type doesn't depend on anything. The ODE perturbations depend on the
+	 *   ODE wild type (initial condition), the knockdowns also on the knockouts if
+	 *   continuation is enabled.
+	 * - The stochastic simulation of an experiment depends on the ODE simulation (time to
+	 *   convergence, linear noise approximation) and, since the stochastic simulations
+	 *   share the random number generator of SdeSettings, on the previous stochastic
+	 *   simulation (they are executed in the same order as before).
 	 */
-	private void runSteadyStateExperiments() throws CancelException, Exception {
+	private void addSteadyStateStages(StageScheduler scheduler) {
 		
 		GnwSettings set = GnwSettings.getInstance();
 				
@@ -220,34 +322,35 @@ public class BenchmarkGenerator {
 		// we use the ODE wild-type as intial condition for the SDE wild-type, and the time-to-
 		// convergence of the ODE as limit for the SDEs
 		
-		checkForInterruption();
-		
 		// the wild-type
-		SteadyStateExperiment wt = new SteadyStateExperiment(Solver.type.ODE, null, "wildtype");
+		final SteadyStateExperiment wt = new SteadyStateExperiment(Solver.type.ODE, null, "wildtype");
 		wt.setGrn(grn_);
-		wt.run(null);
-		wildTypeODE_ = constructInitialConditionFromWildType(wt);
 		steadyStateExperiments_.add(wt);
-				
-		checkForInterruption();
+		Stage wtStage = scheduler.add(new Stage("wildtype") {
+			public void run() throws Exception {
+				checkForInterruption();
+				wt.run(null);
+				wildTypeODE_ = constructInitialConditionFromWildType(wt);
+			}
+		});
+		simulationStages_.put(wt, wtStage);
+		wildTypeStage_ = wtStage;
 		
 		// knockouts
+		SteadyStateExperiment ssKnockouts = null;
 		if (set.generateSsKnockouts()) {
 			PerturbationSingleGene knockouts = new PerturbationSingleGene(grn_);
 			knockouts.singleGenePerturbations(0);
-			createAndRunSsExperiment(Solver.type.ODE, knockouts, "knockouts");
+			ssKnockouts = addSsExperiment(scheduler, Solver.type.ODE, knockouts, "knockouts", null);
 		}
 		
-		checkForInterruption();
-		
 		// knockdowns
 		if (set.generateSsKnockdowns()) {
 			PerturbationSingleGene knockdowns = new PerturbationSingleGene(grn_);
 			knockdowns.singleGenePerturbations(0.5);
-			createAndRunSsExperiment(Solver.type.ODE, knockdowns, "knockdowns");
+			// with continuation, the knockdowns start from the knockouts
+			addSsExperiment(scheduler, Solver.type.ODE, knockdowns, "knockdowns", ssKnockouts);
 		}
-		
-		checkForInterruption();
 
 		// multifactorial weak (DREAM4)
 		if (set.generateSsMultifactorial()) {
@@ -259,11 +362,9 @@ public class BenchmarkGenerator {
 			else
 				multifact.loadPerturbations(label);
 						
-			createAndRunSsExperiment(Solver.type.ODE, multifact, label);
+			addSsExperiment(scheduler, Solver.type.ODE, multifact, label, null);
 		}
 		
-		checkForInterruption();
-		
 		// multifactorial strong (not used for steady-states in DREAM4)
 		if (set.generateSsDREAM4TimeSeries()) {
 			PerturbationMultifactorial multifact = new PerturbationMultifactorial(grn_);
@@ -274,11 +375,9 @@ public class BenchmarkGenerator {
 			else
 				multifact.loadPerturbations("dream4_timeseries");
 
-			createAndRunSsExperiment(Solver.type.ODE, multifact, label);
+			addSsExperiment(scheduler, Solver.type.ODE, multifact, label, null);
 		}
 		
-		checkForInterruption();
-		
 		// dual knockouts
 		if (set.generateSsDualKnockouts()) {
 			PerturbationDual dualKnockouts = new PerturbationDual(grn_);
@@ -289,11 +388,9 @@ public class BenchmarkGenerator {
 			else
 				dualKnockouts.loadPerturbations(label);
 			
-			createAndRunSsExperiment(Solver.type.ODE, dualKnockouts, label);
+			addSsExperiment(scheduler, Solver.type.ODE, dualKnockouts, label, null);
 		}
 		
-		checkForInterruption();
-		
 		// if we want to simulate SDEs
 		if (set.getSimulateSDE()) {
 			
@@ -301,28 +398,40 @@ public class BenchmarkGenerator {
 			steadyStateExperimentsODE_ = steadyStateExperiments_;
 			steadyStateExperiments_ = new ArrayList<SteadyStateExperiment>();
 			
-			// start at 1 because the wild-type is already done
 			for (int i=0; i<steadyStateExperimentsODE_.size(); i++) {
 				
-				checkForInterruption();
-				
-				SteadyStateExperiment ssODE = steadyStateExperimentsODE_.get(i);
+				final SteadyStateExperiment ssODE = steadyStateExperimentsODE_.get(i);
 				Perturbation perturbation = ssODE.getPerturbation();
 				String label = ssODE.getLabel();
 				
-				SteadyStateExperiment ss = new SteadyStateExperiment(Solver.type.SDE, perturbation, label);
+				final SteadyStateExperiment ss = new SteadyStateExperiment(set.getStochasticModel(), perturbation, label);
 				ss.setGrn(grn_);
+				if (set.getLinearNoiseApproximation())
+					ss.setLinearNoiseApproximationSource(ssODE);
 				
 				// the wild-type needs only a short simulation time
-				if (i == 0) {
+				final boolean isWildType = (i == 0);
+				if (isWildType) {
 					if (label != "wildtype")
 						throw new RuntimeException("The first ODE experiment must be the wild-type");
 					ss.setMaxtSDE(set.getMaxtWildTypeSDE()); // set maxt to a short time because we already initialized with wt
-				} else
-					ss.setTimeToConvergenceODE(ssODE.getTimeToConvergenceODE());
+				}
 				
-				ss.run(wildTypeODE_);
+				Stage stage = scheduler.add(new Stage(label + " (" + set.getStochasticModel() + ")", simulationStages_.get(ssODE), wtStage, lastStochasticStage_) {
+					public void run() throws Exception {
+						checkForInterruption();
+						if (!isWildType)
+							ss.setTimeToConvergenceODE(ssODE.getTimeToConvergenceODE());
+						ss.run(wildTypeODE_);
+					}
+				});
+				simulationStages_.put(ss, stage);
+				lastStochasticStage_ = stage;
 				steadyStateExperiments_.add(ss);
+				
+				// the time series start from the stochastic wild-type
+				if (isWildType)
+					wildTypeStage_ = stage;
 			}
 			
 			if (!set.getSimulateODE())
@@ -335,14 +444,15 @@ public class BenchmarkGenerator {
 
 	/**
 	 * The given experiment should be the wild-type, returns the concatenated mRNA
-	 * and protein concentrations
+	 * and protein concentrations (a copy, the stochastic time series change their
+	 * initial condition)
 	 */
 	private DoubleMatrix1D constructInitialConditionFromWildType(SteadyStateExperiment wildType) {
 		
 		DoubleMatrix1D x = wildType.getSsPerturbation().viewRow(0);
-		DoubleMatrix1D y = wildType.getSsPerturbationProteins().viewRow(0);
 
 		if (GnwSettings.getInstance().getModelTranslation()) {
+			DoubleMatrix1D y = wildType.getSsPerturbationProteins().viewRow(0);
 			DoubleMatrix1D xy0 = new DenseDoubleMatrix1D(2*grn_.getSize());
 			
 			for (int i=0; i<x.size(); i++)
@@ -354,52 +464,48 @@ public class BenchmarkGenerator {
 			return xy0;
 			
 		} else
-			return x;
+			return x.copy();
 	}
 	
 	
 	// ----------------------------------------------------------------------------
 
 	/**
-	 * Run all time-series experiments
-	 * @throws CancelException 
+	 * Create all time-series experiments and add the stages to run them. As for the
+	 * steady states (see addSteadyStateStages()), the perturbations are created here. The
+	 * time series depend on the wild type that is used as initial condition (the stochastic
+	 * one if SDEs are simulated), the stochastic time series also on the previous stochastic
+	 * simulation. The ODE time series (if both SDEs and ODEs are simulated) only depend on
+	 * the ODE wild type.
 	 */
-	private void runTimeSeriesExperiments() throws CancelException {
+	private void addTimeSeriesStages(StageScheduler scheduler) {
 		
 		if (steadyStateExperiments_ == null)
 			throw new RuntimeException("The wild-type must be simulated to run time-series experiments");
 		
 		// wild-type will be used as initial condition below (note, this is the SDE wild-type if SDEs are used)
-		SteadyStateExperiment wildType = steadyStateExperiments_.get(0);
-		if (wildType.getLabel() != "wildtype")
+		if (steadyStateExperiments_.get(0).getLabel() != "wildtype")
 			throw new RuntimeException("The first steady-state experiment must be the wild-type");
-		DoubleMatrix1D xy0 = constructInitialConditionFromWildType(wildType);
 		
 		GnwSettings set = GnwSettings.getInstance();
 		Solver.type simulationType = Solver.type.ODE; 
 		if (set.getSimulateSDE())
-			simulationType = Solver.type.SDE;		
-		
-		checkForInterruption();
+			simulationType = set.getStochasticModel();		
 		
 		// knockouts
 		if (set.generateTsKnockouts()) {
 			PerturbationSingleGene knockouts = new PerturbationSingleGene(grn_);
 			knockouts.singleGenePerturbations(0);
-			createAndRunTsExperiment(simulationType, knockouts, false, "knockout_timeseries", xy0);
+			addTsExperiment(scheduler, simulationType, knockouts, false, "knockout_timeseries");
 		}
 		
-		checkForInterruption();
-		
 		// knockdowns
 		if (set.generateTsKnockdowns()) {
 			PerturbationSingleGene knockdowns = new PerturbationSingleGene(grn_);
 			knockdowns.singleGenePerturbations(0.5);
-			createAndRunTsExperiment(simulationType, knockdowns, false, "knockdown_timeseries", xy0);
+			addTsExperiment(scheduler, simulationType, knockdowns, false, "knockdown_timeseries");
 		}
 		
-		checkForInterruption();
-		
 		// multifactorial weak
 		if (set.generateTsMultifactorial()) {
 			PerturbationMultifactorial multifact = null;
@@ -408,9 +514,6 @@ public class BenchmarkGenerator {
 			if (!set.getLoadPerturbations()) {
 				// use the same perturbations as for the steady-state experiments, if they were simulated
 				for (int i=0; i<steadyStateExperiments_.size(); i++) {
-					
-					checkForInterruption();
-					
 					if (steadyStateExperiments_.get(i).getLabel() == "multifactorial") {
 						multifact = (PerturbationMultifactorial) steadyStateExperiments_.get(i).getPerturbation();
 						break;
@@ -424,11 +527,9 @@ public class BenchmarkGenerator {
 				multifact = new PerturbationMultifactorial(grn_);
 				multifact.loadPerturbations("multifactorial");
 			}
-			createAndRunTsExperiment(simulationType, multifact, false, label, xy0);
+			addTsExperiment(scheduler, simulationType, multifact, false, label);
 		}
 		
-		checkForInterruption();
-		
 		// multifactorial strong
 		if (set.generateTsDREAM4TimeSeries()) {
 			PerturbationMultifactorial multifact = null;
@@ -437,9 +538,6 @@ public class BenchmarkGenerator {
 			if (!set.getLoadPerturbations()) {
 				// use the same perturbations as for the steady-state experiments, if they were simulated
 				for (int i=0; i<steadyStateExperiments_.size(); i++) {
-					
-					checkForInterruption();
-					
 					if (steadyStateExperiments_.get(i).getLabel() == "dream4_timeseries") {
 						multifact = (PerturbationMultifactorial) steadyStateExperiments_.get(i).getPerturbation();
 						break;
@@ -453,11 +551,9 @@ public class BenchmarkGenerator {
 				multifact = new PerturbationMultifactorial(grn_);
 				multifact.loadPerturbations(label);
 			}
-			createAndRunTsExperiment(simulationType, multifact, true, label, xy0);
+			addTsExperiment(scheduler, simulationType, multifact, true, label);
 		}
 		
-		checkForInterruption();
-		
 		// dual knockouts
 		if (set.generateTsDualKnockouts()) {
 			PerturbationDual dualKnockouts = null;
@@ -466,9 +562,6 @@ public class BenchmarkGenerator {
 			if (!set.getLoadPerturbations()) {
 				// use the same perturbations as for the steady-state experiments, if they were simulated
 				for (int i=0; i<steadyStateExperiments_.size(); i++) {
-					
-					checkForInterruption();
-					
 					if (steadyStateExperiments_.get(i).getLabel() == "dualknockouts") {
 						dualKnockouts = (PerturbationDual) steadyStateExperiments_.get(i).getPerturbation();
 						break;
@@ -482,52 +575,136 @@ public class BenchmarkGenerator {
 				dualKnockouts = new PerturbationDual(grn_);
 				dualKnockouts.loadPerturbations("dualknockouts");
 			}
-			createAndRunTsExperiment(simulationType, dualKnockouts, false, label, xy0);
+			addTsExperiment(scheduler, simulationType, dualKnockouts, false, label);
 		}
 		
-		checkForInterruption();
-		
 		// if we want to simulate both SDEs and ODEs
 		if (set.getSimulateSDE() && set.getSimulateODE()) {
 			
+			Stage wtStage = simulationStages_.get(steadyStateExperimentsODE_.get(0));
 			for (int i=0; i<timeSeriesExperiments_.size(); i++) {
 				
-				checkForInterruption();
-				
 				Perturbation perturbation = timeSeriesExperiments_.get(i).getPerturbation();
 				String label = timeSeriesExperiments_.get(i).getLabel();
 				boolean restoreWildTypeAtHalftime = timeSeriesExperiments_.get(i).getRestoreWildTypeAtHalftime();
-				TimeSeriesExperiment ts = new TimeSeriesExperiment(Solver.type.ODE, perturbation, restoreWildTypeAtHalftime, label);
+				final TimeSeriesExperiment ts = new TimeSeriesExperiment(Solver.type.ODE, perturbation, restoreWildTypeAtHalftime, label);
 				ts.setGrn(grn_);
-				ts.run(wildTypeODE_);
+				
+				Stage stage = scheduler.add(new Stage(label + " (ODE)", wtStage) {
+					public void run() throws Exception {
+						checkForInterruption();
+						ts.run(wildTypeODE_);
+					}
+				});
+				simulationStages_.put(ts, stage);
 				timeSeriesExperimentsODE_.add(ts);
 			}
 		}
+		
+		// stochastic replicates of the wild type (there is no ODE version, the replicates differ only by the noise).
+		// They have their own random streams, but they start from the initial condition of the time series, which
+		// is changed by phase 0 of the previous stochastic time series
+		if (set.getNumWildTypeReplicates() > 0) {
+			if (simulationType == Solver.type.SDE) {
+				final TimeSeriesExperiment ts = new TimeSeriesExperiment(set.getNumWildTypeReplicates(), "wildtype_replicates");
+				ts.setGrn(grn_);
+				
+				Stage stage = scheduler.add(new Stage("wildtype_replicates", wildTypeStage_, lastStochasticStage_) {
+					public void run() throws Exception {
+						checkForInterruption();
+						ts.run(getTimeSeriesInitialCondition());
+					}
+				});
+				simulationStages_.put(ts, stage);
+				lastStochasticStage_ = stage;
+				timeSeriesExperiments_.add(ts);
+			} else
+				log.log(Level.INFO, "The replicates of the wild type are only simulated with SDEs (simulateSDE must be set and stochasticModel must be sde)");
+		}
 	}
 	
 	
 	// ----------------------------------------------------------------------------
 
-	/** Create and run a steady-state experiment, add it to steadyStateExperiments_ */
-	private void createAndRunSsExperiment(Solver.type simulationType, Perturbation perturbation, String label) {
-		SteadyStateExperiment ss = new SteadyStateExperiment(simulationType, perturbation, label);
+	/**
+	 * Create a steady-state experiment, add it to steadyStateExperiments_ and add the stage to run it
+	 * (depends on the ODE wild type and, if given, the continuation source). The continuation source is
+	 * optional (see SteadyStateExperiment.setContinuationSource()), it's only used if continuation is
+	 * enabled in the settings.
+	 */
+	private SteadyStateExperiment addSsExperiment(StageScheduler scheduler, Solver.type simulationType, Perturbation perturbation, String label, SteadyStateExperiment continuationSource) {
+		
+		final SteadyStateExperiment ss = new SteadyStateExperiment(simulationType, perturbation, label);
 		ss.setGrn(grn_);
-		ss.run(wildTypeODE_);
+		ss.setContinuationSource(continuationSource);
+		
+		Stage continuationStage = null;
+		if (continuationSource != null && GnwSettings.getInstance().getSteadyStateContinuation())
+			continuationStage = simulationStages_.get(continuationSource);
+		
+		Stage stage = scheduler.add(new Stage(label, wildTypeStage_, continuationStage) {
+			public void run() throws Exception {
+				checkForInterruption();
+				ss.run(wildTypeODE_);
+			}
+		});
+		simulationStages_.put(ss, stage);
 		steadyStateExperiments_.add(ss);
+		return ss;
 	}
 	
 	
 	// ----------------------------------------------------------------------------
 
-	/** Create and run a time-series experiment, add it to timeSeriesExperiments_ */
-	private void createAndRunTsExperiment(Solver.type simulationType, Perturbation perturbation, boolean restoreWildTypeAtHalftime, String label, DoubleMatrix1D xy0) {
-		TimeSeriesExperiment ts = new TimeSeriesExperiment(simulationType, perturbation, restoreWildTypeAtHalftime, label);
+	/**
+	 * Create a time-series experiment, add it to timeSeriesExperiments_ and add the stage to run it.
+	 * The initial condition is the wild type of steadyStateExperiments_.
+	 */
+	private void addTsExperiment(StageScheduler scheduler, final Solver.type simulationType, Perturbation perturbation, boolean restoreWildTypeAtHalftime, String label) {
+		
+		final TimeSeriesExperiment ts = new TimeSeriesExperiment(simulationType, perturbation, restoreWildTypeAtHalftime, label);
 		ts.setGrn(grn_);
-		ts.run(xy0);
+		
+		// the stochastic simulations are done one after the other
+		Stage previous = (simulationType != Solver.type.ODE) ? lastStochasticStage_ : null;
+		Stage stage = scheduler.add(new Stage(label, wildTypeStage_, previous) {
+			public void run() throws Exception {
+				checkForInterruption();
+				
+				DoubleMatrix1D xy0 = getTimeSeriesInitialCondition();
+				// the stochastic time-series of all experiments start from the states of the same pool
+				GnwSettings set = GnwSettings.getInstance();
+				if (simulationType != Solver.type.ODE && set.getBurnInPool()) {
+					if (burnInPool_ == null)
+						burnInPool_ = new BurnInPool(grn_, simulationType, xy0.toArray(), set.getMaxtTimeSeries()/10.0);
+					ts.setBurnInPool(burnInPool_);
+				}
+				ts.run(xy0);
+			}
+		});
+		simulationStages_.put(ts, stage);
+		if (simulationType != Solver.type.ODE)
+			lastStochasticStage_ = stage;
 		timeSeriesExperiments_.add(ts);
 	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Return the initial condition of the time series (created from the wild type of
+	 * steadyStateExperiments_ when needed). As before, all time series use the same
+	 * vector, thus the stochastic time series without burn-in pool start from the state
+	 * at the end of phase 0 of the previous one.
+	 */
+	private synchronized DoubleMatrix1D getTimeSeriesInitialCondition() {
 		
-		
+		if (timeSeriesInitialCondition_ == null)
+			timeSeriesInitialCondition_ = constructInitialConditionFromWildType(steadyStateExperiments_.get(0));
+		return timeSeriesInitialCondition_;
+	}
+	
+	
 	// ----------------------------------------------------------------------------
 
 	/**
@@ -601,5 +778,36 @@ public class BenchmarkGenerator {
 		if (GnwSettings.getInstance().stopBenchmarkGeneration())
 			throw new CancelException("Benchmark generation canceled!");
 	}
+	
+	
+	// ============================================================================
+	// PRIVATE CLASSES
+	
+	/** Prints the data of an experiment, after it was simulated and the previous files were written */
+	private class PrintStage extends Stage {
+		
+		/** The experiment */
+		private Experiment experiment_;
+		/** Appended to the filenames (see Experiment.printAll()) */
+		private String postfix_;
+		/** Set true to print the perturbations as well */
+		private boolean printPerturbations_;
+		
+		public PrintStage(Experiment experiment, String postfix, boolean printPerturbations, Stage previous) {
+			
+			super("print " + experiment.getLabel() + postfix, simulationStages_.get(experiment), previous);
+			experiment_ = experiment;
+			postfix_ = postfix;
+			printPerturbations_ = printPerturbations;
+		}
+		
+		public void run() throws Exception {
+			
+			checkForInterruption();
+			experiment_.printAll(postfix_);
+			if (printPerturbations_)
+				experiment_.getPerturbation().printPerturbations(experiment_.getLabel());
+		}
+	}
 
 }
@@ -0,0 +1,246 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+
+package ch.epfl.lis.gnw;
+
+import java.util.ArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/** Pool of decorrelated wild-type states used as initial conditions of stochastic time series.
+ * 
+ * Before each stochastic time series, the wild type used to be simulated for maxt/10 from
+ * the initial condition to get an independent noisy starting point (phase 0). Instead, the
+ * pool simulates one long wild-type trajectory (SDEs or SSA) and harvests snapshots that
+ * are spaced by the decorrelation time of the trajectory, each time series starts from
+ * its own snapshot (see nextSample()).
+ * 
+ * The trajectory is first simulated for the burn-in duration (the duration of phase 0).
+ * Then, during a pilot phase of NUM_PILOT_BURN_INS burn-in durations, the state is recorded
+ * NUM_STATES_PER_BURN_IN times per burn-in duration and the autocorrelation function of
+ * each variable is computed. The spacing of the snapshots is the smallest lag at which the
+ * autocorrelation of all variables is below maxCorrelation_ (decorrelation check), but at
+ * most the burn-in duration, i.e., the snapshots are at least as decorrelated as the
+ * starting points of phase 0 would be. The snapshots of the pilot phase are used as well.
+ * 
+ * The pool must be used while the network has the wild-type parameters. It can be shared
+ * by several time-series experiments of the same network, the trajectory is continued as
+ * more snapshots are needed.
+ * 
+ * @author Daniel Marbach (firstname.name@gmail.com)
+ * 
+ */
+public class BurnInPool {
+	
+	/** Duration of the pilot phase, in burn-in durations */
+	private static final int NUM_PILOT_BURN_INS = 4;
+	/** Number of recorded states per burn-in duration during the pilot phase */
+	private static final int NUM_STATES_PER_BURN_IN = 100;
+	
+	/** The gene network */
+	private GeneNetwork grn_;
+	/** Type of the simulations (SDE or SSA) */
+	private Solver.type solverType_;
+	/** The initial condition of the trajectory */
+	private double[] xy0_;
+	/** Duration of the burn-in (same as phase 0 of the time series) */
+	private double burnIn_;
+	/** Largest autocorrelation of the variables at the spacing of the snapshots */
+	private double maxCorrelation_;
+	
+	/** Solver of the trajectory (null before the first snapshot) */
+	private Solver solver_;
+	/** Time of the trajectory */
+	private double t_;
+	/** Time between two snapshots */
+	private double spacing_;
+	/** Time of the next snapshot after those of the pilot phase */
+	private double nextSnapshotTime_;
+	/** Largest autocorrelation of the variables at lag spacing_ (estimated during the pilot phase) */
+	private double correlation_;
+	/** Snapshots that have not been used yet */
+	private ArrayList<double[]> snapshots_;
+	/** Number of snapshots returned by nextSample() */
+	private int numSamples_;
+	
+	/** Logger for this class */
+	private static Logger log = Logger.getLogger(BurnInPool.class.getName());
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/**
+	 * Constructor, the trajectory starts at xy0 (the vector is copied) and is only simulated
+	 * when the first sample is needed.
+	 */
+	public BurnInPool(GeneNetwork grn, Solver.type solverType, double[] xy0, double burnIn) {
+		
+		if (solverType == Solver.type.ODE)
+			throw new IllegalArgumentException("BurnInPool: only for stochastic simulations");
+		if (burnIn <= 0)
+			throw new IllegalArgumentException("BurnInPool: the burn-in duration must be positive");
+		
+		grn_ = grn;
+		solverType_ = solverType;
+		xy0_ = xy0.clone();
+		burnIn_ = burnIn;
+		maxCorrelation_ = GnwSettings.getInstance().getBurnInMaxCorrelation();
+		solver_ = null;
+		t_ = 0;
+		spacing_ = 0;
+		nextSnapshotTime_ = 0;
+		correlation_ = Double.NaN;
+		snapshots_ = new ArrayList<double[]>();
+		numSamples_ = 0;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return the next decorrelated wild-type state (a new array) */
+	public double[] nextSample() throws Exception {
+		
+		if (solver_ == null)
+			initialize();
+		
+		if (snapshots_.isEmpty()) {
+			// continue the trajectory
+			advance(nextSnapshotTime_ - t_);
+			snapshots_.add(solver_.getState().clone());
+			nextSnapshotTime_ += spacing_;
+		}
+		numSamples_++;
+		return snapshots_.remove(0);
+	}
+	
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/**
+	 * Simulate the burn-in and the pilot phase, set the spacing of the snapshots and
+	 * harvest the snapshots of the pilot phase.
+	 */
+	private void initialize() throws Exception {
+		
+		double resolution = burnIn_/NUM_STATES_PER_BURN_IN;
+		solver_ = new Solver(solverType_, grn_, xy0_);
+		solver_.setUpdateNetworkState(false);
+		solver_.setStepSize(resolution);
+		
+		advance(burnIn_);
+		
+		// the pilot phase
+		int numStates = NUM_PILOT_BURN_INS*NUM_STATES_PER_BURN_IN + 1;
+		double[][] states = new double[numStates][];
+		states[0] = solver_.getState().clone();
+		for (int k=1; k<numStates; k++) {
+			advance(resolution);
+			states[k] = solver_.getState().clone();
+		}
+		
+		int lag = decorrelationLag(states, NUM_STATES_PER_BURN_IN);
+		spacing_ = lag*resolution;
+		for (int k=0; k<numStates; k+=lag)
+			snapshots_.add(states[k]);
+		// the trajectory is continued from the end of the pilot phase
+		nextSnapshotTime_ = burnIn_ + snapshots_.size()*spacing_;
+		
+		log.log(Level.INFO, "Burn-in pool: snapshots every t = " + spacing_ + " (autocorrelation " + correlation_ + ", burn-in " + burnIn_ + ")");
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Advance the trajectory by the given duration (a multiple of the step size of the solver) */
+	private void advance(double duration) throws Exception {
+		
+		double tEnd = t_ + duration - 1e-9*burnIn_;
+		while (t_ < tEnd)
+			t_ += solver_.step();
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Return the smallest lag (number of states) at which the autocorrelation of all variables
+	 * is at most maxCorrelation_, or maxLag if there is no such lag. Variables that are constant
+	 * (e.g., zero) are ignored. Sets correlation_.
+	 */
+	private int decorrelationLag(double[][] states, int maxLag) {
+		
+		int numStates = states.length;
+		int dimension = states[0].length;
+		
+		// Welford's algorithm for the mean and variance of each variable
+		double[] mean = new double[dimension];
+		double[] m2 = new double[dimension];
+		for (int k=0; k<numStates; k++) {
+			for (int i=0; i<dimension; i++) {
+				double delta = states[k][i] - mean[i];
+				mean[i] += delta/(k+1);
+				m2[i] += delta*(states[k][i] - mean[i]);
+			}
+		}
+		
+		for (int lag=1; lag<=maxLag; lag++) {
+			correlation_ = 0;
+			for (int i=0; i<dimension; i++) {
+				if (m2[i] == 0)
+					continue;
+				double c = 0;
+				for (int k=0; k+lag<numStates; k++)
+					c += (states[k][i] - mean[i])*(states[k+lag][i] - mean[i]);
+				correlation_ = Math.max(correlation_, c/m2[i]);
+				if (correlation_ > maxCorrelation_)
+					break;
+			}
+			if (correlation_ <= maxCorrelation_)
+				return lag;
+		}
+		return maxLag;
+	}
+	
+	
+	// ============================================================================
+	// SETTERS AND GETTERS
+	
+	public double getBurnIn() { return burnIn_; }
+	public double[] getInitialCondition() { return xy0_; }
+	public Solver.type getSolverType() { return solverType_; }
+	
+	/** Return the time between two snapshots (0 before the first sample) */
+	public double getSpacing() { return spacing_; }
+	/** Return the largest autocorrelation of the variables at the spacing of the snapshots (estimated) */
+	public double getCorrelation() { return correlation_; }
+	/** Return the total simulated time of the trajectory */
+	public double getTime() { return t_; }
+	public int getNumSamples() { return numSamples_; }
+}
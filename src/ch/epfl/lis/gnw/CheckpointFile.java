@@ -0,0 +1,151 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+
+package ch.epfl.lis.gnw;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+
+/** A checkpoint file of a long computation (see Experiment.saveCheckpoint()).
+ * 
+ * The checkpoint is written atomically: the data is first written to a temporary file
+ * in the same directory, which then replaces the checkpoint file by a rename. If the
+ * process is killed while writing, the previous checkpoint is still complete.
+ * 
+ * @author Daniel Marbach (firstname.name@gmail.com)
+ * 
+ */
+public class CheckpointFile {
+	
+	/** The checkpoint file */
+	private File file_;
+	/** The temporary file that is written */
+	private File tmpFile_;
+	/** The stream writing the temporary file (null if it's not open) */
+	private DataOutputStream out_;
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/** Constructor */
+	public CheckpointFile(String filename) {
+		
+		file_ = new File(filename);
+		tmpFile_ = new File(filename + ".tmp");
+		out_ = null;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Open the temporary file for writing, the checkpoint is only replaced by commit() */
+	public DataOutputStream openForWriting() throws IOException {
+		
+		if (out_ != null)
+			throw new IllegalStateException("CheckpointFile: " + file_.getName() + " is already being written");
+		
+		out_ = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile_)));
+		return out_;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Close the temporary file and replace the checkpoint with it */
+	public void commit() throws IOException {
+		
+		if (out_ == null)
+			throw new IllegalStateException("CheckpointFile: " + file_.getName() + " is not being written");
+		
+		try {
+			out_.close();
+		} finally {
+			out_ = null;
+		}
+		
+		try {
+			Files.move(tmpFile_.toPath(), file_.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tmpFile_.toPath(), file_.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Close and delete the temporary file after an error, the checkpoint isn't changed */
+	public void abort() {
+		
+		if (out_ != null) {
+			try {
+				out_.close();
+			} catch (IOException e) {
+				// the file is deleted anyway
+			}
+			out_ = null;
+		}
+		tmpFile_.delete();
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Open the checkpoint for reading */
+	public DataInputStream openForReading() throws IOException {
+		
+		return new DataInputStream(new BufferedInputStream(new FileInputStream(file_)));
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Delete the checkpoint (and the temporary file if it's left over) */
+	public void delete() {
+		
+		abort();
+		file_.delete();
+	}
+	
+	
+	// ============================================================================
+	// SETTERS AND GETTERS
+	
+	public boolean exists() { return file_.exists(); }
+	public String getFilename() { return file_.getPath(); }
+	
+}
@@ -0,0 +1,1298 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+
+package ch.epfl.lis.gnw;
+
+import java.util.ArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/** Compiled form of the dynamical model of a gene network.
+ * 
+ * The kinetic model of a GeneNetwork is spread over many objects (genes, regulatory
+ * modules, lists of input genes), and evaluating it through these objects involves
+ * index lookups and temporary arrays for every gene. This class stores the same model
+ * in flat primitive arrays (CSR layout): the modules of gene i are the modules
+ * moduleStart_[i] ... moduleStart_[i+1]-1, the inputs of module j are the inputs
+ * inputStart_[j] ... inputStart_[j+1]-1, and the alpha vector of gene i starts at
+ * alphaStart_[i]. The rates are evaluated without any allocation and with exactly
+ * the same sequence of floating-point operations as HillGene and RegulatoryModule,
+ * i.e., the results are identical.
+ * 
+ * The structure is compiled once in the constructor. The parameters that are changed
+ * by perturbations (max, delta, alpha, etc.) are copied again automatically whenever
+ * the parameter version of the gene network has changed (see GeneNetwork.parametersChanged()).
+ * Alternatively, a perturbation can be given as a ParameterOverlay (see setParameterOverlay()),
+ * which is applied on top of the parameters of the gene network without changing the network.
+ * 
+ * The terms xi = (x/k)^n of the Hill functions are computed in one pass over all inputs
+ * before the modules are evaluated. How they are computed is defined by the Hill function
+ * evaluation mode (see GnwSettings.getHillFunctionEvaluation()):
+ * - EXACT: Math.pow(x/k, n), identical to RegulatoryModule.computeActivation()
+ * - FAST: log(x) is computed only once per regulator and reused for all its targets
+ *   as exp(n*(log(x) - log(k))), where log(k) is precomputed. If n is an integer, a
+ *   chain of multiplications is used instead.
+ * - TABLE: same as FAST, but exp() is replaced by a lookup in a table of 2^f, f in [0 1],
+ *   with linear interpolation (see exp()). The relative error of xi is then bounded by
+ *   (ln(2)/EXP_TABLE_SIZE)^2/8 (about 5.7e-8), in addition to the rounding errors.
+ * The error of the approximate modes can be checked with reportHillFunctionAccuracy() (see
+ * KineticsBenchmark).
+ * 
+ * The Jacobian of dx/dt is computed analytically and stored in a SparseMatrix whose
+ * pattern is given by the edges of the network (see createJacobian() and computeJacobian()).
+ * It always uses the exact evaluation of the Hill functions. checkJacobian() compares it
+ * to finite differences.
+ * 
+ * computeEnsembleDxydt() evaluates the rates of an ensemble of K states at once (see
+ * EnsembleODESolver), computeEnsembleDriftAndDiffusion() the drift and diffusion of the
+ * SDEs (see BatchSdeSolver). The states are stored as structure of arrays with the members
+ * innermost (variable i of member k is at i*K + k), thus the innermost loops run over
+ * the members with unit stride and no index lookups. The members share all parameters
+ * except the max transcription rates and the relative activations (the parameters
+ * changed by perturbations), which are given per member in the same layout.
+ * 
+ * An instance is not thread-safe (it uses internal workspaces), use one instance
+ * per integrator.
+ * 
+ * @author Daniel Marbach (firstname.name@gmail.com)
+ * @author Thomas Schaffter (firstname.name@gmail.com)
+ * 
+ */
+public class CompiledGeneNetwork {
+
+	/** Evaluation modes of the Hill functions (see introductory comment) */
+	public enum hillFunction {EXACT, FAST, TABLE};
+	
+	/** Number of intervals of the table of 2^f used in the TABLE mode */
+	public static final int EXP_TABLE_SIZE = 1024;
+	/** Table of 2^f for f = j/EXP_TABLE_SIZE, j = 0 ... EXP_TABLE_SIZE */
+	private static final double[] EXP_TABLE = new double[EXP_TABLE_SIZE+1];
+	/** log2(e) */
+	private static final double LOG2E = 1 / Math.log(2);
+	/** Integer Hill coefficients up to this value are evaluated with multiplication chains in the FAST and TABLE modes */
+	private static final int MAX_INTEGER_N = 16;
+	
+	static {
+		for (int j=0; j<=EXP_TABLE_SIZE; j++)
+			EXP_TABLE[j] = Math.pow(2, (double)j / EXP_TABLE_SIZE);
+	}
+
+	/** The gene network that was compiled */
+	private GeneNetwork grn_;
+	/** Number of genes */
+	private int size_;
+	/** True if translation is modelled (state vector is [x y]) */
+	private boolean modelTranslation_;
+	/** Parameter version of grn_ at the time the parameters were copied */
+	private int parameterVersion_;
+	/** Perturbed parameters that override those of grn_ (null for the parameters of grn_) */
+	private ParameterOverlay overlay_;
+	/** Evaluation mode of the Hill functions */
+	private hillFunction hillFunction_;
+	
+	/** Modules of gene i are moduleStart_[i] ... moduleStart_[i+1]-1 */
+	private int[] moduleStart_;
+	/** Alpha vector of gene i starts at alphaStart_[i] (it has 2^numModules elements) */
+	private int[] alphaStart_;
+	/** Inputs of module j are inputStart_[j] ... inputStart_[j+1]-1 */
+	private int[] inputStart_;
+	/** Number of activators of module j (the first inputs of the module are the activators) */
+	private int[] numActivators_;
+	/** True if module j binds as a complex */
+	private boolean[] bindsAsComplex_;
+	/** Index of the gene corresponding to input l */
+	private int[] input_;
+	/** Dissociation constant of input l */
+	private double[] k_;
+	/** Hill coefficient of input l */
+	private double[] n_;
+	/** log(k) of input l (FAST and TABLE modes) */
+	private double[] logK_;
+	/** The Hill coefficient of input l if it is an integer in [1 MAX_INTEGER_N], 0 otherwise (FAST and TABLE modes) */
+	private int[] integerN_;
+	/** Indexes of the genes that are inputs of at least one gene */
+	private int[] regulators_;
+	
+	/** Relative activations of all genes (concatenated) */
+	private double[] alpha_;
+	/** Maximum transcription rates */
+	private double[] max_;
+	/** mRNA degradation rates */
+	private double[] delta_;
+	/** Maximum translation rates */
+	private double[] maxTranslation_;
+	/** Protein degradation rates */
+	private double[] deltaProtein_;
+	
+	/** Workspace for xi = (x/k)^n of all inputs */
+	private double[] xi_;
+	/** Workspace for log(x) of the regulators (FAST and TABLE modes) */
+	private double[] logX_;
+	/** Row i of the Jacobian starts at jacobianRowStart_[i] (null until createJacobian() is called) */
+	private int[] jacobianRowStart_;
+	/** Column indexes of the non-zero elements of the Jacobian */
+	private int[] jacobianColumns_;
+	/** Position in the Jacobian of the derivative of the production rate w.r.t. input l */
+	private int[] jacobianInputPosition_;
+	/** Position in the Jacobian of the diagonal element of the mRNA rows */
+	private int[] jacobianDiagonalPosition_;
+	/** Workspace for dxi/dx of all inputs */
+	private double[] dxi_;
+	/** Workspace for the derivatives of the module activations w.r.t. xi of all inputs */
+	private double[] dmdxi_;
+	/** Workspace for the derivatives of the production rate of a gene w.r.t. the module activations */
+	private double[] dpdm_;
+	
+	/** Workspace for the mean activations of the modules of a gene */
+	private double[] m_;
+	/** Workspace for the probabilities of the states of the modules of a gene */
+	private double[] stateProbabilities_;
+	/** Workspace for the production rates */
+	private double[] production_;
+	
+	/** Stride (maximum number of members) of the ensemble workspaces */
+	private int ensembleStride_;
+	/** Ensemble workspace for xi (numInputs x K) */
+	private double[] ensembleXi_;
+	/** Ensemble workspace for log(x) of the regulators (size x K, FAST and TABLE modes) */
+	private double[] ensembleLogX_;
+	/** Ensemble workspace for the mean activations of the modules of a gene (maxModules x K) */
+	private double[] ensembleM_;
+	/** Ensemble workspace for the probabilities of the states of the modules of a gene (2^maxModules x K) */
+	private double[] ensembleP_;
+	/** Ensemble workspace for the partition functions of a module (K) */
+	private double[] ensembleDenominator_;
+	
+    /** Logger for this class */
+	private static Logger log = Logger.getLogger(CompiledGeneNetwork.class.getName());
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/** Constructor, compiles the given gene network (all genes must be HillGenes) */
+	public CompiledGeneNetwork(GeneNetwork grn) {
+		
+		grn_ = grn;
+		size_ = grn.getSize();
+		modelTranslation_ = GnwSettings.getInstance().getModelTranslation();
+		hillFunction_ = GnwSettings.getInstance().getHillFunctionEvaluation();
+		
+		compileStructure();
+		
+		max_ = new double[size_];
+		delta_ = new double[size_];
+		maxTranslation_ = new double[size_];
+		deltaProtein_ = new double[size_];
+		production_ = new double[size_];
+		
+		overlay_ = null;
+		copyParameters();
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Compute the rate of change of all state variables x (and y if translation is modelled).
+	 * Same as GeneNetwork.computeDxydt(), except that the state of the gene network (x_ and y_)
+	 * is not set.
+	 * @param xy Gene expressions x and protein concentrations y (if translation)
+	 * @param dxydt Variations of x and y (output)
+	 */
+	public void computeDxydt(double[] xy, double[] dxydt) {
+		
+		updateParameters();
+		
+		// dxydt temporarily used to store the production rates of mRNA
+		if (modelTranslation_)
+			computeMRnaProductionRates(xy, size_, dxydt);
+		else
+			computeMRnaProductionRates(xy, 0, dxydt);
+		
+		for (int i=0; i<size_; i++)
+			dxydt[i] = dxydt[i] - delta_[i]*xy[i];
+		
+		if (modelTranslation_)
+			for (int i=0; i<size_; i++)
+				dxydt[size_+i] = maxTranslation_[i]*xy[i] - deltaProtein_[i]*xy[size_+i];
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Compute the production rates of all genes. The concentrations of the regulators
+	 * are read from c[offset] ... c[offset+size-1] (offset is the network size if the
+	 * regulators are the proteins of a state vector [x y], 0 otherwise).
+	 * @param c Concentrations of the regulators
+	 * @param offset Index of the concentration of the first gene in c
+	 * @param productionRates Return the production rates of all the genes
+	 */
+	public void computeMRnaProductionRates(double[] c, int offset, double[] productionRates) {
+		
+		updateParameters();
+		
+		if (hillFunction_ == hillFunction.EXACT)
+			computeXiExact(c, offset);
+		else
+			computeXiFast(c, offset);
+		
+		for (int i=0; i<size_; i++)
+			productionRates[i] = computeMRnaProductionRate(i);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Compute the drift (production - degradation) and the square root of the sum
+	 * of the rates (production + degradation) of all state variables. This is what
+	 * the chemical Langevin equation needs, see GeneNetworkSDE.
+	 * @param xy Gene expressions x and protein concentrations y (if translation)
+	 * @param drift Return production - degradation
+	 * @param diffusion Return sqrt(production + degradation), not yet multiplied with the noise coefficient
+	 */
+	public void computeDriftAndDiffusion(double[] xy, double[] drift, double[] diffusion) {
+		
+		updateParameters();
+		
+		if (modelTranslation_)
+			computeMRnaProductionRates(xy, size_, production_);
+		else
+			computeMRnaProductionRates(xy, 0, production_);
+		
+		for (int i=0; i<size_; i++) {
+			double v = production_[i];
+			double d = delta_[i]*xy[i];
+			drift[i] = v - d;
+			diffusion[i] = Math.sqrt(v + d);
+		}
+		
+		if (modelTranslation_) {
+			for (int i=0; i<size_; i++) {
+				double v = maxTranslation_[i]*xy[i];
+				double d = deltaProtein_[i]*xy[size_+i];
+				drift[size_+i] = v - d;
+				diffusion[size_+i] = Math.sqrt(v + d);
+			}
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Compute dx/dt (see computeDxydt()) for the first numMembers members of an ensemble
+	 * of states with stride K (variable i of member k is at i*K + k). The max transcription
+	 * rates and the relative activations are given per member in the same layout (see
+	 * copyEnsembleParameters()), all other parameters are those of the gene network. In
+	 * the EXACT mode, the result for each member is identical to computeDxydt().
+	 * @param xy States of the ensemble
+	 * @param dxydt Returns the rates of change of the ensemble
+	 * @param K Stride, i.e., the maximum number of members
+	 * @param numMembers Number of members to evaluate (the first ones)
+	 * @param max Max transcription rates of the members (size x K)
+	 * @param alpha Relative activations of the members (getNumAlpha() x K)
+	 */
+	public void computeEnsembleDxydt(double[] xy, double[] dxydt, int K, int numMembers, double[] max, double[] alpha) {
+		
+		// dxydt temporarily used to store the production rates of mRNA
+		computeEnsembleMRnaProductionRates(xy, dxydt, K, numMembers, max, alpha);
+		
+		for (int i=0; i<size_; i++) {
+			int r = i*K;
+			double delta = delta_[i];
+			for (int e=0; e<numMembers; e++)
+				dxydt[r+e] = dxydt[r+e] - delta*xy[r+e];
+		}
+		
+		if (modelTranslation_) {
+			for (int i=0; i<size_; i++) {
+				int x = i*K;
+				int y = (size_+i)*K;
+				double maxTranslation = maxTranslation_[i];
+				double deltaProtein = deltaProtein_[i];
+				for (int e=0; e<numMembers; e++)
+					dxydt[y+e] = maxTranslation*xy[x+e] - deltaProtein*xy[y+e];
+			}
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Compute the drift and the diffusion (see computeDriftAndDiffusion()) for the first
+	 * numMembers members of an ensemble of states with stride K, same layout as
+	 * computeEnsembleDxydt(). In the EXACT mode, the result for each member is identical
+	 * to computeDriftAndDiffusion().
+	 * @param xy States of the ensemble
+	 * @param drift Returns production - degradation
+	 * @param diffusion Returns sqrt(production + degradation), not yet multiplied with the noise coefficient
+	 * @param K Stride, i.e., the maximum number of members
+	 * @param numMembers Number of members to evaluate (the first ones)
+	 * @param max Max transcription rates of the members (size x K)
+	 * @param alpha Relative activations of the members (getNumAlpha() x K)
+	 */
+	public void computeEnsembleDriftAndDiffusion(double[] xy, double[] drift, double[] diffusion, int K, int numMembers,
+			double[] max, double[] alpha) {
+		
+		// drift temporarily used to store the production rates of mRNA
+		computeEnsembleMRnaProductionRates(xy, drift, K, numMembers, max, alpha);
+		
+		for (int i=0; i<size_; i++) {
+			int r = i*K;
+			double delta = delta_[i];
+			for (int e=0; e<numMembers; e++) {
+				double v = drift[r+e];
+				double d = delta*xy[r+e];
+				drift[r+e] = v - d;
+				diffusion[r+e] = Math.sqrt(v + d);
+			}
+		}
+		
+		if (modelTranslation_) {
+			for (int i=0; i<size_; i++) {
+				int x = i*K;
+				int y = (size_+i)*K;
+				double maxTranslation = maxTranslation_[i];
+				double deltaProtein = deltaProtein_[i];
+				for (int e=0; e<numMembers; e++) {
+					double v = maxTranslation*xy[x+e];
+					double d = deltaProtein*xy[y+e];
+					drift[y+e] = v - d;
+					diffusion[y+e] = Math.sqrt(v + d);
+				}
+			}
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Compute the production rates of mRNA (max transcription rate times relative activation)
+	 * for the first numMembers members of an ensemble with stride K, see computeEnsembleDxydt().
+	 * @param productionRates Returns the production rates (size x K)
+	 */
+	public void computeEnsembleMRnaProductionRates(double[] xy, double[] productionRates, int K, int numMembers,
+			double[] max, double[] alpha) {
+		
+		updateParameters();
+		if (ensembleStride_ != K)
+			allocateEnsembleWorkspaces(K);
+		
+		double[] xi = ensembleXi_;
+		double[] m = ensembleM_;
+		double[] p = ensembleP_;
+		int offset = modelTranslation_ ? size_ : 0;
+		
+		// xi of all inputs and members
+		if (hillFunction_ == hillFunction.EXACT) {
+			for (int l=0; l<input_.length; l++) {
+				int c = (offset + input_[l]) * K;
+				int x = l*K;
+				double k = k_[l];
+				double n = n_[l];
+				for (int e=0; e<numMembers; e++)
+					xi[x+e] = Math.pow(xy[c+e] / k, n);
+			}
+		} else
+			computeEnsembleXiFast(xy, offset, K, numMembers);
+		
+		for (int i=0; i<size_; i++) {
+			int firstModule = moduleStart_[i];
+			int numModules = moduleStart_[i+1] - firstModule;
+			
+			// mean activations of the modules
+			for (int j=0; j<numModules; j++)
+				computeEnsembleActivation(firstModule + j, j*K, K, numMembers);
+			
+			// probabilities of the states (see ModuleStates.computeRelativeActivation())
+			for (int e=0; e<numMembers; e++)
+				p[e] = 1;
+			for (int j=0, half=1; j<numModules; j++, half<<=1) {
+				for (int s=0; s<half; s++) {
+					int on = (s+half)*K;
+					int off = s*K;
+					for (int e=0; e<numMembers; e++) {
+						double mj = m[j*K+e];
+						p[on+e] = p[off+e] * mj;
+						p[off+e] *= 1 - mj;
+					}
+				}
+			}
+			
+			// relative activation and production
+			int r = i*K;
+			for (int e=0; e<numMembers; e++)
+				productionRates[r+e] = 0;
+			for (int s=0, numStates=1<<numModules; s<numStates; s++) {
+				int a = (alphaStart_[i] + s)*K;
+				int ps = s*K;
+				for (int e=0; e<numMembers; e++)
+					productionRates[r+e] += alpha[a+e] * p[ps+e];
+			}
+			for (int e=0; e<numMembers; e++)
+				productionRates[r+e] = max[r+e]*productionRates[r+e];
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Copy the current parameters of the gene network (e.g., with a perturbation applied
+	 * or with the parameter overlay) that may differ between the members of an ensemble to member k, see computeEnsembleDxydt().
+	 * @param k Index of the member
+	 * @param K Stride of the ensemble
+	 * @param max Max transcription rates of the members (size x K)
+	 * @param alpha Relative activations of the members (getNumAlpha() x K)
+	 */
+	public void copyEnsembleParameters(int k, int K, double[] max, double[] alpha) {
+		
+		updateParameters();
+		
+		for (int i=0; i<size_; i++)
+			max[i*K+k] = max_[i];
+		for (int a=0; a<alpha_.length; a++)
+			alpha[a*K+k] = alpha_[a];
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Copy the parameters again if they have been changed in the gene network since the last call */
+	public void updateParameters() {
+		
+		if (parameterVersion_ != grn_.getParameterVersion())
+			copyParameters();
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Set the perturbed parameters, they override the parameters of the gene network
+	 * (also when the latter are updated). Set null to use the parameters of the gene
+	 * network. The adaptive solvers must be restarted if this is done between two steps.
+	 */
+	public void setParameterOverlay(ParameterOverlay overlay) {
+		
+		overlay_ = overlay;
+		copyParameters();
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Compute the production rate of gene i only (see computeMRnaProductionRates()), only the
+	 * terms xi of the inputs of gene i are evaluated. Used by GillespieSolver, which updates
+	 * only the propensities that depend on the species changed by a reaction.
+	 * @param c Concentrations of the regulators
+	 * @param offset Index of the concentration of the first gene in c
+	 * @param i Index of the gene
+	 */
+	public double computeMRnaProductionRate(double[] c, int offset, int i) {
+		
+		updateParameters();
+		
+		int first = inputStart_[moduleStart_[i]];
+		int end = inputStart_[moduleStart_[i+1]];
+		
+		if (hillFunction_ == hillFunction.EXACT) {
+			for (int l=first; l<end; l++)
+				xi_[l] = Math.pow(c[offset + input_[l]] / k_[l], n_[l]);
+		} else {
+			for (int l=first; l<end; l++)
+				logX_[input_[l]] = Math.log(c[offset + input_[l]]);
+			computeXiFast(c, offset, first, end);
+		}
+		return computeMRnaProductionRate(i);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return the indexes of the input genes of gene i (each gene only once, in increasing order) */
+	public int[] getInputGenes(int i) {
+		
+		int first = inputStart_[moduleStart_[i]];
+		int end = inputStart_[moduleStart_[i+1]];
+		
+		boolean[] isInput = new boolean[size_];
+		int numInputs = 0;
+		for (int l=first; l<end; l++) {
+			if (!isInput[input_[l]])
+				numInputs++;
+			isInput[input_[l]] = true;
+		}
+		
+		int[] inputs = new int[numInputs];
+		int k = 0;
+		for (int g=0; g<size_; g++)
+			if (isInput[g])
+				inputs[k++] = g;
+		
+		return inputs;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return the largest Hill coefficient of the inputs that gene g regulates (0 if g is not a regulator) */
+	public double getMaxHillCoefficient(int g) {
+		
+		double max = 0;
+		for (int l=0; l<input_.length; l++)
+			if (input_[l] == g && n_[l] > max)
+				max = n_[l];
+		
+		return max;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Compare the production rates computed with the given Hill function evaluation mode
+	 * to those of the exact evaluation for numSamples random states (uniformly distributed
+	 * in [0 1]). The result is written to the log.
+	 * @return The maximum relative error of the production rates (relative to the maximum
+	 * transcription rate of the gene)
+	 */
+	public static double reportHillFunctionAccuracy(GeneNetwork grn, hillFunction mode, int numSamples) {
+		
+		CompiledGeneNetwork exact = new CompiledGeneNetwork(grn);
+		exact.setHillFunctionEvaluation(hillFunction.EXACT);
+		CompiledGeneNetwork approx = new CompiledGeneNetwork(grn);
+		approx.setHillFunctionEvaluation(mode);
+		
+		int size = grn.getSize();
+		double[] c = new double[size];
+		double[] exactRates = new double[size];
+		double[] approxRates = new double[size];
+		cern.jet.random.Uniform uniform = GnwSettings.getInstance().getUniformDistribution();
+		
+		double maxError = 0;
+		double sumError = 0;
+		for (int s=0; s<numSamples; s++) {
+			for (int i=0; i<size; i++)
+				c[i] = uniform.nextDouble();
+			
+			exact.computeMRnaProductionRates(c, 0, exactRates);
+			approx.computeMRnaProductionRates(c, 0, approxRates);
+			
+			for (int i=0; i<size; i++) {
+				double error = Math.abs(approxRates[i] - exactRates[i]) / exact.max_[i];
+				sumError += error;
+				if (error > maxError)
+					maxError = error;
+			}
+		}
+		log.log(Level.INFO, "Accuracy of the Hill function evaluation mode " + mode + " (" + numSamples + " random states): max relative error " + maxError + ", mean relative error " + sumError/(numSamples*size));
+		
+		return maxError;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Create a sparse matrix with the pattern of the Jacobian of dx/dt (the values are
+	 * zero, use computeJacobian() to set them). Row i of the mRNA block has non-zeros
+	 * for x_i and for each distinct input of gene i (column of the protein if translation
+	 * is modelled), the protein rows have non-zeros for x_i and y_i.
+	 */
+	public SparseMatrix createJacobian() {
+		
+		if (jacobianRowStart_ == null)
+			compileJacobianPattern();
+		
+		int dim = modelTranslation_ ? 2*size_ : size_;
+		return new SparseMatrix(dim, dim, jacobianRowStart_, jacobianColumns_);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Compute the Jacobian of dx/dt (see computeDxydt()) at the given state. The
+	 * Hill functions are always evaluated exactly.
+	 * @param xy Gene expressions x and protein concentrations y (if translation)
+	 * @param J Returns the Jacobian, must have been created with createJacobian() of this object
+	 */
+	public void computeJacobian(double[] xy, SparseMatrix J) {
+		
+		if (J.getColumns() != jacobianColumns_)
+			throw new IllegalArgumentException("The Jacobian must be created with CompiledGeneNetwork.createJacobian()");
+		
+		updateParameters();
+		
+		int offset = modelTranslation_ ? size_ : 0;
+		double[] values = J.getValues();
+		J.clear();
+		
+		// xi and dxi/dx of all inputs
+		computeXiExact(xy, offset);
+		for (int l=0; l<input_.length; l++)
+			dxi_[l] = n_[l] / k_[l] * Math.pow(xy[offset + input_[l]] / k_[l], n_[l] - 1);
+		
+		for (int i=0; i<size_; i++) {
+			int firstModule = moduleStart_[i];
+			int numModules = moduleStart_[i+1] - firstModule;
+			
+			for (int j=0; j<numModules; j++)
+				m_[j] = computeActivation(firstModule + j);
+			
+			for (int j=0; j<numModules; j++)
+				dpdm_[j] = max_[i] * ModuleStates.computeRelativeActivationDerivative(alpha_, alphaStart_[i], m_, numModules, j, stateProbabilities_);
+			
+			// chain rule: dp/dx = dp/dm * dm/dxi * dxi/dx
+			for (int j=0; j<numModules; j++) {
+				int module = firstModule + j;
+				computeActivationDerivatives(module, m_[j]);
+				
+				for (int l=inputStart_[module]; l<inputStart_[module+1]; l++)
+					values[jacobianInputPosition_[l]] += dpdm_[j] * dmdxi_[l] * dxi_[l];
+			}
+			values[jacobianDiagonalPosition_[i]] -= delta_[i];
+		}
+		
+		if (modelTranslation_) {
+			// row size_+i has exactly two elements: x_i and y_i
+			for (int i=0; i<size_; i++) {
+				int k = jacobianRowStart_[size_+i];
+				values[k] = maxTranslation_[i];
+				values[k+1] = -deltaProtein_[i];
+			}
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Compare the analytic Jacobian to central finite differences of dx/dt at the given
+	 * state (forward differences for variables that are too close to zero). The largest
+	 * error is written to the log. Costs 2*dim evaluations of dx/dt, use for testing only.
+	 * @param xy Gene expressions x and protein concentrations y (if translation)
+	 * @return The maximum error |J_fd - J| / (|J| + 1e-6*max|J|) over all elements
+	 */
+	public double checkJacobian(double[] xy) {
+		
+		SparseMatrix J = createJacobian();
+		computeJacobian(xy, J);
+		
+		int dim = xy.length;
+		double maxAbs = 0;
+		for (double v : J.getValues())
+			maxAbs = Math.max(maxAbs, Math.abs(v));
+		double tolerance = 1e-6 * maxAbs;
+		
+		hillFunction mode = hillFunction_;
+		hillFunction_ = hillFunction.EXACT;
+		
+		double[] xyh = xy.clone();
+		double[] fPlus = new double[dim];
+		double[] fMinus = new double[dim];
+		double maxError = 0;
+		int maxErrorRow = -1;
+		int maxErrorColumn = -1;
+		
+		for (int c=0; c<dim; c++) {
+			double h = 1e-6 * Math.max(Math.abs(xy[c]), 1e-2);
+			double denominator;
+			
+			xyh[c] = xy[c] + h;
+			computeDxydt(xyh, fPlus);
+			if (xy[c] - h >= 0) {
+				xyh[c] = xy[c] - h;
+				denominator = 2*h;
+			} else {
+				xyh[c] = xy[c];
+				denominator = h;
+			}
+			computeDxydt(xyh, fMinus);
+			xyh[c] = xy[c];
+			
+			for (int r=0; r<dim; r++) {
+				double fd = (fPlus[r] - fMinus[r]) / denominator;
+				double analytic = J.get(r, c);
+				double error = Math.abs(fd - analytic) / (Math.abs(analytic) + tolerance);
+				if (error > maxError) {
+					maxError = error;
+					maxErrorRow = r;
+					maxErrorColumn = c;
+				}
+			}
+		}
+		hillFunction_ = mode;
+		
+		log.log(Level.INFO, "Jacobian check (" + J.getNumNonZeros() + " non-zeros): max error " + maxError + " at (" + maxErrorRow + ", " + maxErrorColumn + ")");
+		return maxError;
+	}
+	
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/**
+	 * Compute xi = (x/k)^n of all inputs exactly as RegulatoryModule.computeActivation().
+	 * The concentrations of the regulators are read from c starting at c[offset].
+	 */
+	private void computeXiExact(double[] c, int offset) {
+		
+		for (int l=0; l<input_.length; l++)
+			xi_[l] = Math.pow(c[offset + input_[l]] / k_[l], n_[l]);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Compute xi = (x/k)^n of all inputs with the FAST or TABLE mode, see introductory
+	 * comment. The concentrations of the regulators are read from c starting at c[offset].
+	 */
+	private void computeXiFast(double[] c, int offset) {
+		
+		// log(x) of each regulator, computed only once
+		for (int r=0; r<regulators_.length; r++)
+			logX_[regulators_[r]] = Math.log(c[offset + regulators_[r]]);
+		
+		computeXiFast(c, offset, 0, input_.length);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Compute xi of the inputs first ... end-1 with the FAST or TABLE mode, logX_ must
+	 * already be set for the regulators of these inputs.
+	 */
+	private void computeXiFast(double[] c, int offset, int first, int end) {
+		
+		boolean table = (hillFunction_ == hillFunction.TABLE);
+		
+		for (int l=first; l<end; l++) {
+			int n = integerN_[l];
+			
+			if (n > 0) {
+				// multiplication chain (exponentiation by squaring)
+				double base = c[offset + input_[l]] / k_[l];
+				double xi = 1;
+				while (true) {
+					if ((n & 1) == 1)
+						xi *= base;
+					n >>= 1;
+					if (n == 0)
+						break;
+					base *= base;
+				}
+				xi_[l] = xi;
+				
+			} else {
+				double z = n_[l] * (logX_[input_[l]] - logK_[l]);
+				xi_[l] = table ? exp(z) : Math.exp(z);
+			}
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Same as computeXiFast() for the first numMembers members of an ensemble with stride K */
+	private void computeEnsembleXiFast(double[] xy, int offset, int K, int numMembers) {
+		
+		boolean table = (hillFunction_ == hillFunction.TABLE);
+		double[] xi = ensembleXi_;
+		double[] logX = ensembleLogX_;
+		
+		// log(x) of each regulator, computed only once
+		for (int r=0; r<regulators_.length; r++) {
+			int g = regulators_[r]*K;
+			int c = (offset + regulators_[r])*K;
+			for (int e=0; e<numMembers; e++)
+				logX[g+e] = Math.log(xy[c+e]);
+		}
+		
+		for (int l=0; l<input_.length; l++) {
+			int x = l*K;
+			int n = integerN_[l];
+			
+			if (n > 0) {
+				// multiplication chain (exponentiation by squaring)
+				int c = (offset + input_[l])*K;
+				double k = k_[l];
+				for (int e=0; e<numMembers; e++) {
+					double base = xy[c+e] / k;
+					double product = 1;
+					int b = n;
+					while (true) {
+						if ((b & 1) == 1)
+							product *= base;
+						b >>= 1;
+						if (b == 0)
+							break;
+						base *= base;
+					}
+					xi[x+e] = product;
+				}
+			} else {
+				int g = input_[l]*K;
+				double nl = n_[l];
+				double logK = logK_[l];
+				for (int e=0; e<numMembers; e++) {
+					double z = nl * (logX[g+e] - logK);
+					xi[x+e] = table ? exp(z) : Math.exp(z);
+				}
+			}
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Approximation of exp(z) using the table of 2^f: z*log2(e) = i + f where i is
+	 * an integer and f in [0 1[, exp(z) = 2^i * 2^f, where 2^f is linearly interpolated
+	 * from the table. The relative error is bounded by (ln(2)/EXP_TABLE_SIZE)^2/8.
+	 */
+	private static double exp(double z) {
+		
+		double t = z * LOG2E;
+		
+		if (t < -1075) // also handles -Infinity (x = 0)
+			return 0;
+		else if (t >= 1024)
+			return Double.POSITIVE_INFINITY;
+		else if (Double.isNaN(t))
+			return Double.NaN;
+		
+		double i = Math.floor(t);
+		double index = (t - i) * EXP_TABLE_SIZE;
+		int j = (int) index;
+		if (j == EXP_TABLE_SIZE) // t - i rounded to 1
+			j--;
+		double twoPowF = EXP_TABLE[j] + (index - j) * (EXP_TABLE[j+1] - EXP_TABLE[j]);
+		
+		return Math.scalb(twoPowF, (int) i);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Compute the production rate of gene i, same as HillGene.computeMRnaProductionRate()
+	 * (the operations are done in the same order so that the result is identical).
+	 * The terms xi_ must already be computed.
+	 */
+	private double computeMRnaProductionRate(int i) {
+		
+		int firstModule = moduleStart_[i];
+		int numModules = moduleStart_[i+1] - firstModule;
+		
+		// Compute the mean activations
+		for (int j=0; j<numModules; j++)
+			m_[j] = computeActivation(firstModule + j);
+		
+		// The relative activation of the gene
+		double alpha = ModuleStates.computeRelativeActivation(alpha_, alphaStart_[i], m_, numModules, stateProbabilities_);
+		return max_[i] * alpha;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Compute the activation of module j, same as RegulatoryModule.computeActivation().
+	 * The terms xi_ must already be computed.
+	 */
+	private double computeActivation(int j) {
+		
+		int first = inputStart_[j];
+		int end = inputStart_[j+1];
+		int lastActivator = first + numActivators_[j];
+		
+		// the numerator is the product of the xi of the activators
+		double multiplyActivators = 1;
+		// the partition function
+		double denominator = 1;
+		
+		if (bindsAsComplex_[j]) {
+			for (int l=first; l<lastActivator; l++)
+				multiplyActivators *= xi_[l];
+			
+			// activated complex bound
+			denominator += multiplyActivators;
+			
+			if (end > lastActivator) {
+				double multiplyAllInputs = multiplyActivators;
+				for (int l=lastActivator; l<end; l++)
+					multiplyAllInputs *= xi_[l];
+				denominator += multiplyAllInputs;
+			}
+		} else {
+			for (int l=first; l<end; l++) {
+				if (l < lastActivator)
+					multiplyActivators *= xi_[l];
+				denominator *= (xi_[l] + 1);
+			}
+		}
+		return multiplyActivators / denominator;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Compute the activation of module j for the first numMembers members of an ensemble
+	 * with stride K (same operations as computeActivation()), the result is written to
+	 * ensembleM_ starting at mOffset. The terms ensembleXi_ must already be computed.
+	 */
+	private void computeEnsembleActivation(int j, int mOffset, int K, int numMembers) {
+		
+		int first = inputStart_[j];
+		int end = inputStart_[j+1];
+		int lastActivator = first + numActivators_[j];
+		double[] xi = ensembleXi_;
+		double[] numerator = ensembleM_; // the product of the xi of the activators
+		double[] denominator = ensembleDenominator_; // the partition function
+		
+		for (int e=0; e<numMembers; e++) {
+			numerator[mOffset+e] = 1;
+			denominator[e] = 1;
+		}
+		
+		if (bindsAsComplex_[j]) {
+			for (int l=first; l<lastActivator; l++)
+				for (int e=0; e<numMembers; e++)
+					numerator[mOffset+e] *= xi[l*K+e];
+			
+			// activated complex bound
+			for (int e=0; e<numMembers; e++)
+				denominator[e] += numerator[mOffset+e];
+			
+			if (end > lastActivator) {
+				for (int e=0; e<numMembers; e++) {
+					double multiplyAllInputs = numerator[mOffset+e];
+					for (int l=lastActivator; l<end; l++)
+						multiplyAllInputs *= xi[l*K+e];
+					denominator[e] += multiplyAllInputs;
+				}
+			}
+		} else {
+			for (int l=first; l<end; l++) {
+				int x = l*K;
+				if (l < lastActivator)
+					for (int e=0; e<numMembers; e++)
+						numerator[mOffset+e] *= xi[x+e];
+				for (int e=0; e<numMembers; e++)
+					denominator[e] *= (xi[x+e] + 1);
+			}
+		}
+		
+		for (int e=0; e<numMembers; e++)
+			numerator[mOffset+e] /= denominator[e];
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Compute the derivatives dm/dxi of the activation m of module j w.r.t. xi of
+	 * its inputs (written to dmdxi_). The terms xi_ must already be computed.
+	 * Without complex: m = N/D, N = prod(xi_a), D = prod(1+xi), thus
+	 *    dm/dxi_a = N_{-a}/D - m/(1+xi_a) for activators, -m/(1+xi_d) for deactivators.
+	 * Complex: m = N/D, D = 1 + N + N*M, M = prod(xi_d), thus
+	 *    dm/dxi_a = N_{-a}/D^2 and dm/dxi_d = -N^2*M_{-d}/D^2
+	 * where N_{-a} is the product without a (computed without division, xi may be zero).
+	 */
+	private void computeActivationDerivatives(int j, double m) {
+		
+		int first = inputStart_[j];
+		int end = inputStart_[j+1];
+		int lastActivator = first + numActivators_[j];
+		
+		if (bindsAsComplex_[j]) {
+			double N = 1;
+			for (int l=first; l<lastActivator; l++)
+				N *= xi_[l];
+			double M = 1;
+			for (int l=lastActivator; l<end; l++)
+				M *= xi_[l];
+			double D = 1 + N;
+			if (end > lastActivator)
+				D += N*M;
+			double D2 = D*D;
+			
+			for (int l=first; l<lastActivator; l++)
+				dmdxi_[l] = productWithout(first, lastActivator, l) / D2;
+			for (int l=lastActivator; l<end; l++)
+				dmdxi_[l] = -N*N * productWithout(lastActivator, end, l) / D2;
+			
+		} else {
+			double D = 1;
+			for (int l=first; l<end; l++)
+				D *= xi_[l] + 1;
+			
+			for (int l=first; l<end; l++) {
+				dmdxi_[l] = -m / (1 + xi_[l]);
+				if (l < lastActivator)
+					dmdxi_[l] += productWithout(first, lastActivator, l) / D;
+			}
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return the product of xi_[first] ... xi_[end-1] without xi_[skip] */
+	private double productWithout(int first, int end, int skip) {
+		
+		double product = 1;
+		for (int l=first; l<end; l++)
+			if (l != skip)
+				product *= xi_[l];
+		return product;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Build the pattern of the Jacobian, see createJacobian() */
+	private void compileJacobianPattern() {
+		
+		int offset = modelTranslation_ ? size_ : 0;
+		int dim = modelTranslation_ ? 2*size_ : size_;
+		
+		jacobianRowStart_ = new int[dim+1];
+		jacobianInputPosition_ = new int[input_.length];
+		jacobianDiagonalPosition_ = new int[size_];
+		
+		// upper bound of the number of non-zeros, duplicates are removed below
+		int[] columns = new int[input_.length + size_ + (modelTranslation_ ? 2*size_ : 0)];
+		int nnz = 0;
+		
+		for (int i=0; i<size_; i++) {
+			jacobianRowStart_[i] = nnz;
+			int firstInput = inputStart_[moduleStart_[i]];
+			int endInput = inputStart_[moduleStart_[i+1]];
+			
+			// the diagonal and the inputs, sorted without duplicates
+			columns[nnz] = i;
+			for (int l=firstInput; l<endInput; l++)
+				columns[nnz + 1 + l - firstInput] = offset + input_[l];
+			int rowEnd = nnz + 1 + endInput - firstInput;
+			java.util.Arrays.sort(columns, nnz, rowEnd);
+			
+			int k = nnz;
+			for (int r=nnz+1; r<rowEnd; r++)
+				if (columns[r] != columns[k])
+					columns[++k] = columns[r];
+			nnz = k + 1;
+			
+			// positions of the diagonal and the inputs
+			jacobianDiagonalPosition_[i] = findColumn(columns, jacobianRowStart_[i], nnz, i);
+			for (int l=firstInput; l<endInput; l++)
+				jacobianInputPosition_[l] = findColumn(columns, jacobianRowStart_[i], nnz, offset + input_[l]);
+		}
+		
+		if (modelTranslation_) {
+			for (int i=0; i<size_; i++) {
+				jacobianRowStart_[size_+i] = nnz;
+				columns[nnz++] = i;
+				columns[nnz++] = size_ + i;
+			}
+		}
+		jacobianRowStart_[dim] = nnz;
+		
+		jacobianColumns_ = new int[nnz];
+		System.arraycopy(columns, 0, jacobianColumns_, 0, nnz);
+		
+		dxi_ = new double[input_.length];
+		dmdxi_ = new double[input_.length];
+		dpdm_ = new double[m_.length];
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return the index of the given column in the sorted array columns[from ... to-1] */
+	private static int findColumn(int[] columns, int from, int to, int column) {
+		
+		int k = java.util.Arrays.binarySearch(columns, from, to, column);
+		assert k >= 0;
+		return k;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Build the index arrays and copy the constants k and n of the modules */
+	private void compileStructure() {
+		
+		int numModules = 0;
+		int numInputs = 0;
+		int numAlpha = 0;
+		int maxModulesPerGene = 0;
+		
+		for (int i=0; i<size_; i++) {
+			HillGene gene = (HillGene) grn_.getGene(i);
+			int geneModules = gene.getRegulatoryModules().size();
+			numModules += geneModules;
+			numInputs += gene.getInputGenes().size();
+			numAlpha += gene.getAlpha().length;
+			maxModulesPerGene = Math.max(maxModulesPerGene, geneModules);
+		}
+		
+		moduleStart_ = new int[size_+1];
+		alphaStart_ = new int[size_+1];
+		inputStart_ = new int[numModules+1];
+		numActivators_ = new int[numModules];
+		bindsAsComplex_ = new boolean[numModules];
+		input_ = new int[numInputs];
+		k_ = new double[numInputs];
+		n_ = new double[numInputs];
+		logK_ = new double[numInputs];
+		integerN_ = new int[numInputs];
+		xi_ = new double[numInputs];
+		logX_ = new double[size_];
+		alpha_ = new double[numAlpha];
+		m_ = new double[maxModulesPerGene];
+		stateProbabilities_ = new double[1 << maxModulesPerGene];
+		
+		int j = 0; // module counter
+		int l = 0; // input counter
+		
+		for (int i=0; i<size_; i++) {
+			HillGene gene = (HillGene) grn_.getGene(i);
+			ArrayList<RegulatoryModule> modules = gene.getRegulatoryModules();
+			ArrayList<Gene> inputs = gene.getInputGenes();
+			int nextInput = 0;
+			
+			moduleStart_[i] = j;
+			alphaStart_[i+1] = alphaStart_[i] + gene.getAlpha().length;
+			
+			for (int m=0; m<modules.size(); m++) {
+				RegulatoryModule module = modules.get(m);
+				double[] k = module.getK();
+				double[] n = module.getN();
+				
+				inputStart_[j] = l;
+				numActivators_[j] = module.getNumActivators();
+				bindsAsComplex_[j] = module.bindsAsComplex();
+				
+				for (int r=0; r<module.getNumInputs(); r++) {
+					input_[l] = grn_.getIndexOfNode(inputs.get(nextInput++));
+					k_[l] = k[r];
+					n_[l] = n[r];
+					logK_[l] = Math.log(k[r]);
+					if (n[r] == Math.rint(n[r]) && n[r] >= 1 && n[r] <= MAX_INTEGER_N)
+						integerN_[l] = (int) n[r];
+					l++;
+				}
+				j++;
+			}
+		}
+		moduleStart_[size_] = j;
+		inputStart_[numModules] = l;
+		
+		// the genes that are inputs of at least one gene
+		boolean[] isRegulator = new boolean[size_];
+		int numRegulators = 0;
+		for (l=0; l<numInputs; l++) {
+			if (!isRegulator[input_[l]]) {
+				isRegulator[input_[l]] = true;
+				numRegulators++;
+			}
+		}
+		regulators_ = new int[numRegulators];
+		for (int i=0, r=0; i<size_; i++)
+			if (isRegulator[i])
+				regulators_[r++] = i;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Allocate the workspaces used by computeEnsembleDxydt() for ensembles with stride K */
+	private void allocateEnsembleWorkspaces(int K) {
+		
+		ensembleStride_ = K;
+		ensembleXi_ = new double[input_.length * K];
+		ensembleLogX_ = new double[size_ * K];
+		ensembleM_ = new double[m_.length * K];
+		ensembleP_ = new double[stateProbabilities_.length * K];
+		ensembleDenominator_ = new double[K];
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Copy the parameters that may be changed by perturbations */
+	private void copyParameters() {
+		
+		parameterVersion_ = grn_.getParameterVersion();
+		
+		for (int i=0; i<size_; i++) {
+			HillGene gene = (HillGene) grn_.getGene(i);
+			max_[i] = gene.getMax();
+			delta_[i] = gene.getDelta();
+			maxTranslation_[i] = gene.getMaxTranslation();
+			deltaProtein_[i] = gene.getDeltaProtein();
+			
+			double[] alpha = gene.getAlpha();
+			System.arraycopy(alpha, 0, alpha_, alphaStart_[i], alpha.length);
+		}
+		
+		if (overlay_ != null)
+			overlay_.apply(max_, alpha_, alphaStart_);
+	}
+	
+	
+	// ============================================================================
+	// SETTERS AND GETTERS
+	
+	public GeneNetwork getGrn() { return grn_; }
+	public int getSize() { return size_; }
+	public int getNumAlpha() { return alpha_.length; }
+	public boolean getModelTranslation() { return modelTranslation_; }
+	public ParameterOverlay getParameterOverlay() { return overlay_; }
+	
+	/** The current rates of gene i (call updateParameters() first if they might have been perturbed) */
+	public double getDelta(int i) { return delta_[i]; }
+	public double getMaxTranslation(int i) { return maxTranslation_[i]; }
+	public double getDeltaProtein(int i) { return deltaProtein_[i]; }
+	
+	public hillFunction getHillFunctionEvaluation() { return hillFunction_; }
+	public void setHillFunctionEvaluation(hillFunction mode) { hillFunction_ = mode; }
+	
+}
@@ -0,0 +1,387 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+
+package ch.epfl.lis.gnw;
+
+import org.opensourcephysics.numerics.ODE;
+
+
+/** Adaptive Dormand-Prince RK5(4) solver with PI step size control and dense output.
+ * 
+ * The solver takes steps of its own size (the step size is chosen so that the local
+ * error satisfies the absolute and relative precision of the settings) and the states
+ * at the requested times are interpolated with the continuous extension of order 4 of
+ * the method (see Hairer, Norsett & Wanner, Solving Ordinary Differential Equations I,
+ * Section II.6, and the code DOPRI5). Thus, the sampling times (e.g., the time points
+ * of a time series) do not constrain the step size.
+ * 
+ * The error of a step is the root mean square over all variables of the estimated local
+ * error divided by absolutePrecision + relativePrecision*max(|x_old|, |x_new|), the step
+ * is accepted if it's smaller than 1. The new step size is given by the PI controller of
+ * DOPRI5. The method has the first same as last property (the rate at the end of a step
+ * is the first rate of the next step), i.e., each accepted step costs six evaluations
+ * of the rates.
+ * 
+ * The state of the ODE (ODE.getState()) is set to the interpolated state at each time
+ * that is reached with step(), it's not used internally.
+ * 
+ * @author Daniel Marbach (firstname.name@gmail.com)
+ * @author Thomas Schaffter (firstname.name@gmail.com)
+ * 
+ */
+public class DormandPrinceSolver {
+	
+	/** Dormand-Prince coefficients */
+	private static final double C2 = 1.0/5.0, C3 = 3.0/10.0, C4 = 4.0/5.0, C5 = 8.0/9.0;
+	private static final double A21 = 1.0/5.0;
+	private static final double A31 = 3.0/40.0, A32 = 9.0/40.0;
+	private static final double A41 = 44.0/45.0, A42 = -56.0/15.0, A43 = 32.0/9.0;
+	private static final double A51 = 19372.0/6561.0, A52 = -25360.0/2187.0, A53 = 64448.0/6561.0, A54 = -212.0/729.0;
+	private static final double A61 = 9017.0/3168.0, A62 = -355.0/33.0, A63 = 46732.0/5247.0, A64 = 49.0/176.0, A65 = -5103.0/18656.0;
+	private static final double A71 = 35.0/384.0, A73 = 500.0/1113.0, A74 = 125.0/192.0, A75 = -2187.0/6784.0, A76 = 11.0/84.0;
+	/** Difference between the 5th and 4th order solutions */
+	private static final double E1 = 71.0/57600.0, E3 = -71.0/16695.0, E4 = 71.0/1920.0, E5 = -17253.0/339200.0, E6 = 22.0/525.0, E7 = -1.0/40.0;
+	/** Coefficients of the dense output */
+	private static final double D1 = -12715105075.0/11282082432.0, D3 = 87487479700.0/32700410799.0, D4 = -10690763975.0/1880347072.0,
+		D5 = 701980252875.0/199316789632.0, D6 = -1453857185.0/822651844.0, D7 = 69997945.0/29380423.0;
+	
+	/** Safety factor of the step size control */
+	private static final double SAFETY = 0.9;
+	/** Exponent of the previous error in the PI controller */
+	private static final double BETA = 0.04;
+	/** Bounds of the ratio new / old step size */
+	private static final double MIN_FACTOR = 0.2, MAX_FACTOR = 10;
+	/** Maximum number of steps (accepted and rejected) per call of step() */
+	private static final int MAX_STEPS = 100000;
+	
+	/** The ODE system */
+	private ODE ode_;
+	/** Number of variables */
+	private int dimension_;
+	/** Time of the internal state x_ */
+	private double t_;
+	/** Internal state (at the end of the last step) */
+	private double[] x_;
+	/** State at the beginning of the last step */
+	private double[] xOld_;
+	/** Time at the beginning and size of the last step */
+	private double tOld_, hOld_;
+	/** Proposed size of the next step */
+	private double h_;
+	/** Error of the last accepted step (PI controller) */
+	private double previousError_;
+	/** Stages */
+	private double[] k1_, k2_, k3_, k4_, k5_, k6_, k7_, tmp_;
+	/** Coefficients of the dense output of the last step */
+	private double[] r1_, r2_, r3_, r4_, r5_;
+	
+	/** Time that was last reached with step() */
+	private double time_;
+	/** Time step of step() */
+	private double stepSize_;
+	/** Absolute precision */
+	private double absolutePrecision_;
+	/** Relative precision */
+	private double relativePrecision_;
+	
+	/** Number of accepted steps */
+	private int numSteps_;
+	/** Number of rejected steps */
+	private int numRejectedSteps_;
+	/** Number of evaluations of the rates */
+	private int numEvaluations_;
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/** Constructor, the initial condition is the current state of the ODE */
+	public DormandPrinceSolver(ODE ode) {
+		
+		GnwSettings set = GnwSettings.getInstance();
+		
+		ode_ = ode;
+		dimension_ = ode.getState().length;
+		x_ = ode.getState().clone();
+		xOld_ = new double[dimension_];
+		k1_ = new double[dimension_];
+		k2_ = new double[dimension_];
+		k3_ = new double[dimension_];
+		k4_ = new double[dimension_];
+		k5_ = new double[dimension_];
+		k6_ = new double[dimension_];
+		k7_ = new double[dimension_];
+		tmp_ = new double[dimension_];
+		r1_ = new double[dimension_];
+		r2_ = new double[dimension_];
+		r3_ = new double[dimension_];
+		r4_ = new double[dimension_];
+		r5_ = new double[dimension_];
+		
+		absolutePrecision_ = set.getAbsolutePrecision();
+		relativePrecision_ = set.getRelativePrecision();
+		stepSize_ = set.getDt();
+		t_ = 0;
+		time_ = 0;
+		tOld_ = 0;
+		hOld_ = 0;
+		previousError_ = 1e-4;
+		numSteps_ = 0;
+		numRejectedSteps_ = 0;
+		numEvaluations_ = 0;
+		
+		evaluate(x_, k1_);
+		h_ = initialStepSize();
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Advance the time by the step size (dt of the settings by default), the state of the
+	 * ODE is set to the interpolated state at the new time.
+	 * @return The time step
+	 */
+	public double step() {
+		
+		double tEnd = time_ + stepSize_;
+		int numSteps = 0;
+		
+		// take steps until the internal time has passed tEnd
+		while (t_ < tEnd) {
+			if (++numSteps > MAX_STEPS)
+				throw new RuntimeException("DormandPrinceSolver: maximum number of steps exceeded at t = " + t_);
+			if (t_ + h_ == t_)
+				throw new RuntimeException("DormandPrinceSolver: step size too small at t = " + t_);
+			
+			tryStep();
+		}
+		
+		// the state at tEnd (the last step ended exactly at tEnd if it was not taken beyond)
+		double[] state = ode_.getState();
+		if (t_ == tEnd)
+			System.arraycopy(x_, 0, state, 0, dimension_);
+		else
+			interpolate(tEnd, state);
+		
+		time_ = tEnd;
+		return stepSize_;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Restart the integration from the state of the ODE at the time that was last reached
+	 * with step(). Must be called when the parameters of the network are changed during the
+	 * integration (the internal state is already beyond this time). The step size is
+	 * reinitialized (the state may change rapidly with the new parameters).
+	 */
+	public void restart() {
+		
+		System.arraycopy(ode_.getState(), 0, x_, 0, dimension_);
+		t_ = time_;
+		tOld_ = time_;
+		hOld_ = 0;
+		previousError_ = 1e-4;
+		evaluate(x_, k1_);
+		h_ = initialStepSize();
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Same as restart(), but the integration continues from the state of the ODE at time t
+	 * (e.g., after another solver was used) with the given initial step size.
+	 */
+	public void restart(double t, double h) {
+		
+		time_ = t;
+		restart();
+		h_ = h;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Interpolate the state at time t, which must be within the last step, i.e., between
+	 * getTime() and the internal time (dense output of order 4).
+	 */
+	public void interpolate(double t, double[] xy) {
+		
+		if (hOld_ == 0 || t < tOld_ || t > t_)
+			throw new IllegalArgumentException("DormandPrinceSolver: t = " + t + " is not within the last step");
+		
+		double theta = (t - tOld_) / hOld_;
+		double theta1 = 1 - theta;
+		for (int i=0; i<dimension_; i++)
+			xy[i] = r1_[i] + theta*(r2_[i] + theta1*(r3_[i] + theta*(r4_[i] + theta1*r5_[i])));
+	}
+	
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/** Try one step of size h_, update the state if it's accepted. Update the step size in any case. */
+	private void tryStep() {
+		
+		double h = h_;
+		double[] x = x_;
+		int n = dimension_;
+		
+		for (int i=0; i<n; i++)
+			tmp_[i] = x[i] + h*A21*k1_[i];
+		evaluate(tmp_, k2_);
+		for (int i=0; i<n; i++)
+			tmp_[i] = x[i] + h*(A31*k1_[i] + A32*k2_[i]);
+		evaluate(tmp_, k3_);
+		for (int i=0; i<n; i++)
+			tmp_[i] = x[i] + h*(A41*k1_[i] + A42*k2_[i] + A43*k3_[i]);
+		evaluate(tmp_, k4_);
+		for (int i=0; i<n; i++)
+			tmp_[i] = x[i] + h*(A51*k1_[i] + A52*k2_[i] + A53*k3_[i] + A54*k4_[i]);
+		evaluate(tmp_, k5_);
+		for (int i=0; i<n; i++)
+			tmp_[i] = x[i] + h*(A61*k1_[i] + A62*k2_[i] + A63*k3_[i] + A64*k4_[i] + A65*k5_[i]);
+		evaluate(tmp_, k6_);
+		// the new state (5th order), k7 is the rate at the new state
+		for (int i=0; i<n; i++)
+			tmp_[i] = x[i] + h*(A71*k1_[i] + A73*k3_[i] + A74*k4_[i] + A75*k5_[i] + A76*k6_[i]);
+		evaluate(tmp_, k7_);
+		
+		// error (root mean square of the scaled local errors)
+		double sum = 0;
+		for (int i=0; i<n; i++) {
+			double error = h*(E1*k1_[i] + E3*k3_[i] + E4*k4_[i] + E5*k5_[i] + E6*k6_[i] + E7*k7_[i]);
+			double scale = absolutePrecision_ + relativePrecision_*Math.max(Math.abs(x[i]), Math.abs(tmp_[i]));
+			sum += (error/scale) * (error/scale);
+		}
+		double error = Math.sqrt(sum / n);
+		if (Double.isNaN(error))
+			error = Double.POSITIVE_INFINITY;
+		
+		// PI step size control (see DOPRI5)
+		double factor;
+		if (error == 0)
+			factor = MAX_FACTOR;
+		else if (Double.isInfinite(error))
+			factor = MIN_FACTOR;
+		else {
+			factor = SAFETY * Math.pow(error, -0.2 + 0.75*BETA);
+			if (error <= 1)
+				factor *= Math.pow(previousError_, BETA);
+			factor = Math.max(MIN_FACTOR, Math.min(MAX_FACTOR, factor));
+		}
+		
+		if (error <= 1) {
+			// dense output coefficients
+			for (int i=0; i<n; i++) {
+				double dx = tmp_[i] - x[i];
+				double bspl = h*k1_[i] - dx;
+				r1_[i] = x[i];
+				r2_[i] = dx;
+				r3_[i] = bspl;
+				r4_[i] = dx - h*k7_[i] - bspl;
+				r5_[i] = h*(D1*k1_[i] + D3*k3_[i] + D4*k4_[i] + D5*k5_[i] + D6*k6_[i] + D7*k7_[i]);
+			}
+			
+			// accept the step
+			double[] swap = xOld_; xOld_ = x_; x_ = tmp_; tmp_ = swap;
+			swap = k1_; k1_ = k7_; k7_ = swap;
+			tOld_ = t_;
+			hOld_ = h;
+			t_ += h;
+			previousError_ = Math.max(error, 1e-4);
+			numSteps_++;
+			h_ = h * factor;
+		} else {
+			numRejectedSteps_++;
+			h_ = h * Math.min(1, factor);
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Initial step size such that an explicit Euler step changes the state by about 1%
+	 * (relative to the scale of the variables, see DOPRI5), at most the step size of step().
+	 */
+	private double initialStepSize() {
+		
+		double normX = 0;
+		double normF = 0;
+		for (int i=0; i<dimension_; i++) {
+			double scale = absolutePrecision_ + relativePrecision_*Math.abs(x_[i]);
+			normX += (x_[i]/scale) * (x_[i]/scale);
+			normF += (k1_[i]/scale) * (k1_[i]/scale);
+		}
+		normX = Math.sqrt(normX / dimension_);
+		normF = Math.sqrt(normF / dimension_);
+		
+		double h;
+		if (normX < 1e-5 || normF < 1e-5)
+			h = 1e-6;
+		else
+			h = 0.01 * normX / normF;
+		
+		return Math.min(h, stepSize_);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Evaluate the rates at the given state */
+	private void evaluate(double[] x, double[] rate) {
+		
+		ode_.getRate(x, rate);
+		numEvaluations_++;
+	}
+	
+	
+	// ============================================================================
+	// SETTERS AND GETTERS
+	
+	/** Set the time step of step() (dt of the settings by default) */
+	public void setStepSize(double dt) { stepSize_ = dt; }
+	public double getStepSize() { return stepSize_; }
+	
+	/** Time that was last reached with step() */
+	public double getTime() { return time_; }
+	/** The internal state, at the end of the last step (getInternalTime()) */
+	public double[] getInternalState() { return x_; }
+	public double getInternalTime() { return t_; }
+	/** The proposed size of the next internal step */
+	public double getInternalStepSize() { return h_; }
+	
+	public int getNumSteps() { return numSteps_; }
+	public int getNumRejectedSteps() { return numRejectedSteps_; }
+	public int getNumEvaluations() { return numEvaluations_; }
+	
+}
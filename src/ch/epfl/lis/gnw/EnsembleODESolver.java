@@ -0,0 +1,450 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+
+package ch.epfl.lis.gnw;
+
+
+/** Integrates the ODEs of an ensemble of K perturbations of a gene network in lockstep.
+ * 
+ * Instead of integrating one perturbation after the other (a new Solver and GeneNetworkODE
+ * for each one), the states of all perturbations are advanced together with the same time
+ * steps. The states are stored as structure of arrays (K x N, the members innermost, see
+ * CompiledGeneNetwork.computeEnsembleDxydt()), thus the structure of the network is
+ * traversed only once per evaluation for all members and the innermost loops are simple
+ * loops over the members that the JIT can vectorize. The kinetic parameters are shared,
+ * each member has its own max transcription rates and relative activations (the parameters
+ * changed by perturbations, see setParameters()).
+ * 
+ * The integration scheme is the embedded Runge-Kutta method of Dormand and Prince (RK45),
+ * as used by the ODEMultistepSolver of the default Solver, with the same error control:
+ * the absolute local error of all variables must be below the tolerance (relative precision
+ * of the settings). The step size is shared by the members, it's controlled by the largest
+ * error of the active members. step() advances the time by exactly dt.
+ * 
+ * If convergence is checked (steady-state experiments), each member has its own convergence
+ * flag (same criterion as GeneNetworkODE.converged()). Converged members drop out of the
+ * ensemble: their state is saved and the remaining members are compacted so that the loops
+ * only run over the active members.
+ * 
+ * @author Daniel Marbach (firstname.name@gmail.com)
+ * @author Thomas Schaffter (firstname.name@gmail.com)
+ * 
+ */
+public class EnsembleODESolver {
+	
+	/** Dormand-Prince coefficients */
+	private static final double A21 = 1.0/5.0;
+	private static final double A31 = 3.0/40.0, A32 = 9.0/40.0;
+	private static final double A41 = 44.0/45.0, A42 = -56.0/15.0, A43 = 32.0/9.0;
+	private static final double A51 = 19372.0/6561.0, A52 = -25360.0/2187.0, A53 = 64448.0/6561.0, A54 = -212.0/729.0;
+	private static final double A61 = 9017.0/3168.0, A62 = -355.0/33.0, A63 = 46732.0/5247.0, A64 = 49.0/176.0, A65 = -5103.0/18656.0;
+	private static final double B1 = 35.0/384.0, B3 = 500.0/1113.0, B4 = 125.0/192.0, B5 = -2187.0/6784.0, B6 = 11.0/84.0;
+	/** Difference between the 5th and 4th order solutions */
+	private static final double E1 = 71.0/57600.0, E3 = -71.0/16695.0, E4 = 71.0/1920.0, E5 = -17253.0/339200.0, E6 = 22.0/525.0, E7 = -1.0/40.0;
+	
+	/** Maximum number of rejected steps within one step() */
+	private static final int MAX_REJECTED_STEPS = 1000;
+	
+	/** Compiled gene network used to evaluate the rates */
+	private CompiledGeneNetwork compiledGrn_;
+	/** Number of members (stride of the arrays) */
+	private int numMembers_;
+	/** Number of state variables per member */
+	private int dimension_;
+	/** Number of active members, they are in slots 0 ... numActive_-1 */
+	private int numActive_;
+	/** Index of the member in each slot */
+	private int[] member_;
+	
+	/** States of the members (dimension x K) */
+	private double[] state_;
+	/** States at the last time point (used to check convergence) */
+	private double[] previousState_;
+	/** Max transcription rates of the members (size x K) */
+	private double[] max_;
+	/** Relative activations of the members (numAlpha x K) */
+	private double[] alpha_;
+	/** Runge-Kutta stages and temporary state */
+	private double[] k1_, k2_, k3_, k4_, k5_, k6_, k7_, tmp_;
+	/** True if k1_ is the rate at state_ (first same as last) */
+	private boolean k1Valid_;
+	
+	/** Final states of the members that converged (null for the others) */
+	private double[][] finalState_;
+	/** Time of convergence of each member (-1 if it has not converged) */
+	private double[] convergenceTime_;
+	
+	/** Check convergence after each step and remove converged members */
+	private boolean checkConvergence_;
+	/** Current time */
+	private double t_;
+	/** Time step dt of step() */
+	private double dt_;
+	/** Current (internal) step size */
+	private double h_;
+	/** Tolerance for the absolute local error */
+	private double tolerance_;
+	/** Absolute precision for the convergence criterion */
+	private double absolutePrecision_;
+	/** Relative precision for the convergence criterion */
+	private double relativePrecision_;
+	/** Number of accepted and rejected steps */
+	private int numSteps_, numRejectedSteps_;
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/**
+	 * Constructor, the ensemble has the given number of members. The parameters of all
+	 * members are initialized with the current parameters of the gene network and their
+	 * states with zeros, use setParameters() and setState() to initialize the members.
+	 */
+	public EnsembleODESolver(GeneNetwork grn, int numMembers) {
+		
+		GnwSettings set = GnwSettings.getInstance();
+		
+		compiledGrn_ = new CompiledGeneNetwork(grn);
+		numMembers_ = numMembers;
+		dimension_ = compiledGrn_.getModelTranslation() ? 2*grn.getSize() : grn.getSize();
+		numActive_ = numMembers;
+		member_ = new int[numMembers];
+		for (int k=0; k<numMembers; k++)
+			member_[k] = k;
+		
+		int n = dimension_ * numMembers;
+		state_ = new double[n];
+		previousState_ = new double[n];
+		k1_ = new double[n];
+		k2_ = new double[n];
+		k3_ = new double[n];
+		k4_ = new double[n];
+		k5_ = new double[n];
+		k6_ = new double[n];
+		k7_ = new double[n];
+		tmp_ = new double[n];
+		k1Valid_ = false;
+		
+		max_ = new double[grn.getSize() * numMembers];
+		alpha_ = new double[compiledGrn_.getNumAlpha() * numMembers];
+		for (int k=0; k<numMembers; k++)
+			compiledGrn_.copyEnsembleParameters(k, numMembers, max_, alpha_);
+		
+		finalState_ = new double[numMembers][];
+		convergenceTime_ = new double[numMembers];
+		for (int k=0; k<numMembers; k++)
+			convergenceTime_[k] = -1;
+		
+		checkConvergence_ = false;
+		t_ = 0;
+		dt_ = set.getDt();
+		h_ = dt_ / 10;
+		tolerance_ = set.getRelativePrecision();
+		absolutePrecision_ = set.getAbsolutePrecision();
+		relativePrecision_ = set.getRelativePrecision();
+		numSteps_ = 0;
+		numRejectedSteps_ = 0;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Set the parameters of member k to the current parameters of the gene network
+	 * (i.e., apply perturbation k to the network before calling this method). Only the
+	 * max transcription rates and relative activations can differ between the members.
+	 * Can be called during the integration (e.g., to restore the wild type).
+	 */
+	public void setParameters(int k) {
+		
+		int slot = getSlot(k);
+		if (slot >= 0)
+			compiledGrn_.copyEnsembleParameters(slot, numMembers_, max_, alpha_);
+		k1Valid_ = false;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Set the parameters of member k to the parameters of the gene network with the given
+	 * overlay (e.g., perturbation k, see Perturbation.getOverlay()), the network is not changed.
+	 */
+	public void setParameters(int k, ParameterOverlay overlay) {
+		
+		compiledGrn_.setParameterOverlay(overlay);
+		setParameters(k);
+		compiledGrn_.setParameterOverlay(null);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Set the state of member k (e.g., the initial condition) */
+	public void setState(int k, double[] xy) {
+		
+		int slot = getSlot(k);
+		if (slot < 0)
+			throw new IllegalArgumentException("EnsembleODESolver: member " + k + " is not active");
+		
+		for (int i=0; i<dimension_; i++) {
+			state_[i*numMembers_ + slot] = xy[i];
+			previousState_[i*numMembers_ + slot] = xy[i];
+		}
+		k1Valid_ = false;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Advance the time of all active members by dt (using an adaptive internal step size).
+	 * If convergence is checked, the members that converged are removed from the ensemble.
+	 * @return The time step (dt)
+	 */
+	public double step() {
+		
+		if (numActive_ == 0)
+			return dt_;
+		
+		int K = numMembers_;
+		double tEnd = t_ + dt_;
+		double t = t_;
+		int numRejected = 0;
+		
+		if (!k1Valid_) {
+			compiledGrn_.computeEnsembleDxydt(state_, k1_, K, numActive_, max_, alpha_);
+			k1Valid_ = true;
+		}
+		
+		while (t < tEnd) {
+			boolean last = (t + h_ >= tEnd);
+			double h = last ? tEnd - t : h_;
+			
+			stage(tmp_, h, A21, k1_, 0, null, 0, null, 0, null, 0, null, 0, null);
+			computeRates(tmp_, k2_);
+			stage(tmp_, h, A31, k1_, A32, k2_, 0, null, 0, null, 0, null, 0, null);
+			computeRates(tmp_, k3_);
+			stage(tmp_, h, A41, k1_, A42, k2_, A43, k3_, 0, null, 0, null, 0, null);
+			computeRates(tmp_, k4_);
+			stage(tmp_, h, A51, k1_, A52, k2_, A53, k3_, A54, k4_, 0, null, 0, null);
+			computeRates(tmp_, k5_);
+			stage(tmp_, h, A61, k1_, A62, k2_, A63, k3_, A64, k4_, A65, k5_, 0, null);
+			computeRates(tmp_, k6_);
+			// the 5th order solution, k7 is the rate at the new state
+			stage(tmp_, h, B1, k1_, 0, null, B3, k3_, B4, k4_, B5, k5_, B6, k6_);
+			computeRates(tmp_, k7_);
+			
+			// the largest local error of all variables of all active members
+			double error = 0;
+			for (int i=0; i<dimension_; i++) {
+				int r = i*K;
+				for (int e=0; e<numActive_; e++) {
+					int q = r + e;
+					double err = Math.abs(h * (E1*k1_[q] + E3*k3_[q] + E4*k4_[q] + E5*k5_[q] + E6*k6_[q] + E7*k7_[q]));
+					if (!(err <= error)) // also true if err is NaN
+						error = Double.isNaN(err) ? Double.POSITIVE_INFINITY : err;
+				}
+			}
+			error /= tolerance_;
+			
+			if (error <= 1) {
+				// accept the step
+				t = last ? tEnd : t + h;
+				double[] swap = state_; state_ = tmp_; tmp_ = swap;
+				swap = k1_; k1_ = k7_; k7_ = swap;
+				numSteps_++;
+			} else {
+				numRejectedSteps_++;
+				if (++numRejected > MAX_REJECTED_STEPS)
+					throw new RuntimeException("EnsembleODESolver: step size control failed at t = " + t);
+			}
+			
+			// new step size, h_ is not reduced if the step was shortened to land on tEnd
+			double factor = (error == 0) ? 10 : Math.min(10, Math.max(0.1, 0.9*Math.pow(error, -0.2)));
+			if (!(last && error <= 1 && factor*h < h_))
+				h_ = factor * h;
+		}
+		t_ = tEnd;
+		
+		if (checkConvergence_)
+			removeConvergedMembers();
+		
+		return dt_;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return the state of member k (copy), the final state if the member has converged */
+	public double[] getState(int k) {
+		
+		if (finalState_[k] != null)
+			return finalState_[k].clone();
+		
+		int slot = getSlot(k);
+		double[] xy = new double[dimension_];
+		for (int i=0; i<dimension_; i++)
+			xy[i] = state_[i*numMembers_ + slot];
+		return xy;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return true if all members have converged (or convergence is not checked and there are no members) */
+	public boolean converged() {
+		
+		return numActive_ == 0;
+	}
+	
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/** tmp = state + h*(a1*k1 + ... + a6*k6) for the active members (null stages are skipped) */
+	private void stage(double[] tmp, double h, double a1, double[] k1, double a2, double[] k2, double a3, double[] k3,
+			double a4, double[] k4, double a5, double[] k5, double a6, double[] k6) {
+		
+		int K = numMembers_;
+		for (int i=0; i<dimension_; i++) {
+			int r = i*K;
+			for (int e=0; e<numActive_; e++) {
+				int q = r + e;
+				double sum = a1*k1[q];
+				if (k2 != null) sum += a2*k2[q];
+				if (k3 != null) sum += a3*k3[q];
+				if (k4 != null) sum += a4*k4[q];
+				if (k5 != null) sum += a5*k5[q];
+				if (k6 != null) sum += a6*k6[q];
+				tmp[q] = state_[q] + h*sum;
+			}
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Compute the rates of the active members */
+	private void computeRates(double[] xy, double[] dxydt) {
+		
+		compiledGrn_.computeEnsembleDxydt(xy, dxydt, numMembers_, numActive_, max_, alpha_);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Check the convergence of each active member (same criterion as GeneNetworkODE.converged(),
+	 * comparing the state with the state at the previous time point), save the state of the
+	 * members that converged and remove them from the ensemble.
+	 */
+	private void removeConvergedMembers() {
+		
+		int K = numMembers_;
+		int slot = 0;
+		
+		while (slot < numActive_) {
+			boolean converged = true;
+			for (int i=0; i<dimension_; i++) {
+				int q = i*K + slot;
+				if (Math.abs(previousState_[q] - state_[q]) > absolutePrecision_ + relativePrecision_*Math.abs(state_[q])) {
+					converged = false;
+					break;
+				}
+			}
+			
+			if (converged) {
+				int k = member_[slot];
+				finalState_[k] = getState(k);
+				convergenceTime_[k] = t_;
+				
+				// move the last active member to this slot
+				int last = numActive_ - 1;
+				if (slot != last)
+					moveSlot(last, slot);
+				numActive_--;
+			} else
+				slot++;
+		}
+		
+		// remember the states
+		for (int i=0; i<dimension_; i++)
+			System.arraycopy(state_, i*K, previousState_, i*K, numActive_);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Copy the state and the parameters of slot 'from' to slot 'to' */
+	private void moveSlot(int from, int to) {
+		
+		int K = numMembers_;
+		for (int i=0; i<dimension_; i++) {
+			state_[i*K + to] = state_[i*K + from];
+			previousState_[i*K + to] = previousState_[i*K + from];
+			k1_[i*K + to] = k1_[i*K + from];
+		}
+		for (int i=0; i<max_.length; i+=K)
+			max_[i + to] = max_[i + from];
+		for (int i=0; i<alpha_.length; i+=K)
+			alpha_[i + to] = alpha_[i + from];
+		member_[to] = member_[from];
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return the slot of member k, -1 if it's not active */
+	private int getSlot(int k) {
+		
+		for (int slot=0; slot<numActive_; slot++)
+			if (member_[slot] == k)
+				return slot;
+		return -1;
+	}
+	
+	
+	// ============================================================================
+	// SETTERS AND GETTERS
+	
+	/** If set true, the convergence of each member is checked after each step() and converged members are removed */
+	public void setCheckConvergence(boolean b) { checkConvergence_ = b; }
+	public boolean getCheckConvergence() { return checkConvergence_; }
+	
+	/** Return true if member k has converged */
+	public boolean converged(int k) { return finalState_[k] != null; }
+	/** Return the time at which member k has converged, -1 if it has not converged */
+	public double getConvergenceTime(int k) { return convergenceTime_[k]; }
+	
+	public int getNumMembers() { return numMembers_; }
+	public int getNumActiveMembers() { return numActive_; }
+	public double getTime() { return t_; }
+	public int getNumSteps() { return numSteps_; }
+	public int getNumRejectedSteps() { return numRejectedSteps_; }
+	
+}
@@ -26,10 +26,23 @@ THE SOFTWARE.
 
 package ch.epfl.lis.gnw;
 
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import cern.colt.matrix.DoubleMatrix1D;
 import cern.jet.random.Normal;
+import cern.jet.random.engine.RandomEngine;
+import ch.epfl.lis.sde.CounterRandomEngine;
 
 
 /** Abstract class for an experiment type.
@@ -39,12 +52,33 @@ import cern.jet.random.Normal;
  * the corresponding simulations, this class contains everything that is common
  * to the different experiment types.
  * 
+ * The perturbations of an experiment can be simulated in parallel threads (setting
+ * parallelPerturbations, see runPerturbationsInParallel()). The perturbations are
+ * distributed over a fork-join pool, each one is simulated by simulatePerturbation()
+ * of the subclass and its results are written to its own row of the results, thus the
+ * order of the results is the same as for the sequential simulation. The stochastic
+ * simulations of perturbation i draw their random numbers from the stream (seed, hash
+ * of the label, i) of a CounterRandomEngine (see createRandomEngine()), the results
+ * don't depend on the number of threads.
+ * 
+ * The simulated perturbations can be saved periodically to a checkpoint file (see
+ * setCheckpoint()). When resuming, the perturbations saved in the checkpoint are restored
+ * and only the remaining ones are simulated. The subclasses write the results of the
+ * perturbations that are done and the state that is needed to continue the simulation
+ * exactly as without interruption (writeCheckpointData()), thus the final results are
+ * the same.
+ * 
+ * The results of the experiment can also be saved to a ResultCache (see setResultCache()),
+ * in the same format as the checkpoints. The key of the results is a hash of everything the
+ * simulation depends on (see computeCacheKey()), if the cache contains the results of the
+ * experiment, nothing is simulated.
+ * 
  * @author Daniel Marbach (firstname.name@gmail.com)
  * 
  */
 abstract public class Experiment {
 
-	/** Define which type of solver to use (ODE or SDE) */
+	/** Define which type of solver to use (ODE, SDE or SSA) */
 	Solver.type solverType_;
 	
 	/** The label of the experiment (appended to filenames when saving, e.g. wildtype, knockouts, ...) */
@@ -79,9 +113,32 @@ abstract public class Experiment {
 	private double lognormalStdev_;
 	/** Flag, set true after noise has been added to the data */
 	protected boolean noiseHasBeenAdded_;
+	/** Seed of the random streams of the perturbations (see createRandomEngine()) */
+	private long seed_;
+	
+	/** Checkpoint of the perturbations that are done (null: no checkpoints, see setCheckpoint()) */
+	private CheckpointFile checkpoint_;
+	/** Minimum time between two checkpoints in milliseconds (checkpoints are only read if <= 0) */
+	private long checkpointInterval_;
+	/** Set true to restore the perturbations saved in the checkpoint before simulating the others */
+	private boolean resume_;
+	/** Time when the last checkpoint was written */
+	private long lastCheckpointTime_;
+	/** done_[i] is set true when perturbation i has been simulated or restored from the checkpoint */
+	private boolean[] done_;
+	/** The cache of simulated experiments (null: no cache, see setResultCache()) */
+	private ResultCache resultCache_;
+	/** The key of the results in the cache (null if they aren't cached, see computeCacheKey()) */
+	private String cacheKey_;
+	/** Set true if the results have been restored from the cache */
+	private boolean restoredFromCache_;
+	
+	/** Identifies the format of the checkpoints */
+	private static final String CHECKPOINT_FORMAT = "GNW experiment checkpoint 1";
+	/** Identifies the format of the keys of the result cache, must be changed if the simulated data changes */
+	private static final String CACHE_KEY_FORMAT = "GNW result cache key 1";
 	
     /** Logger for this class */
-	@SuppressWarnings("unused")
 	private static Logger log = Logger.getLogger(Experiment.class.getName());
 	
 	
@@ -90,6 +147,16 @@ abstract public class Experiment {
 	
 	/** Perform the experiment */
 	abstract void run(DoubleMatrix1D xy0);
+	/** Simulate perturbation i and save its results, called in parallel threads (see runPerturbationsInParallel()) */
+	abstract void simulatePerturbation(int i) throws Exception;
+	/** Print all data to files, append the given string to the filenames (e.g. "_nonoise") */
+	abstract public void printAll(String postfix);
+	/** Write the results of the perturbations that are done (see isPerturbationDone()) and the state needed to continue the simulation */
+	abstract void writeCheckpointData(DataOutputStream out) throws IOException;
+	/** Read the data written by writeCheckpointData(), throw an IOException if it doesn't match the experiment */
+	abstract void readCheckpointData(DataInputStream in) throws IOException;
+	/** Write the inputs of the simulation that are specific to the subclass to the key of the result cache (see computeCacheKey()) */
+	abstract void writeCacheKey(DataOutputStream out) throws IOException;
 	
 	
 	// ============================================================================
@@ -124,6 +191,41 @@ abstract public class Experiment {
 		lognormalStdev_ = set.getLognormalStdev();
 		
 		noiseHasBeenAdded_ = false;
+		seed_ = (set.getRandomSeed() == -1) ? System.currentTimeMillis() : set.getRandomSeed();
+		
+		checkpoint_ = null;
+		checkpointInterval_ = 0;
+		resume_ = false;
+		done_ = null;
+		resultCache_ = null;
+		cacheKey_ = null;
+		restoredFromCache_ = false;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Save the perturbations that are done to the given checkpoint file, at most every
+	 * interval seconds and when all perturbations are done (no checkpoints are written
+	 * if interval <= 0). If resume is set, the perturbations saved in the checkpoint
+	 * are restored instead of being simulated (see restoreResults()).
+	 */
+	public void setCheckpoint(String filename, double interval, boolean resume) {
+		
+		checkpoint_ = new CheckpointFile(filename);
+		checkpointInterval_ = (long) (1000*interval);
+		resume_ = resume;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Delete the checkpoint file (if checkpoints are set) */
+	public void deleteCheckpoint() {
+		
+		if (checkpoint_ != null)
+			checkpoint_.delete();
 	}
 
 	
@@ -195,6 +297,328 @@ abstract public class Experiment {
 	}
 
 	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Simulate all perturbations with simulatePerturbation() on a fork-join pool, the number
+	 * of threads is defined by the setting numThreads (0: number of available processors).
+	 * Returns when all perturbations are done.
+	 */
+	protected void runPerturbationsInParallel() throws Exception {
+		
+		int numThreads = GnwSettings.getInstance().getNumThreads();
+		if (numThreads <= 0)
+			numThreads = Runtime.getRuntime().availableProcessors();
+		log.log(Level.INFO, "Simulating " + numExperiments_ + " perturbations using " + numThreads + " threads");
+		
+		// the settings shared by the stochastic solvers (they use their own random streams)
+		if (solverType_ != Solver.type.ODE)
+			Solver.initializeSdeSettings();
+		
+		ForkJoinPool pool = new ForkJoinPool(numThreads);
+		try {
+			pool.invoke(new PerturbationTask(0, numExperiments_));
+		} catch (RuntimeException e) {
+			// exceptions of the simulations are wrapped by PerturbationTask
+			if (e.getCause() instanceof Exception)
+				throw (Exception) e.getCause();
+			throw e;
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Called before simulating the perturbations, no perturbation is done. If the result
+	 * cache contains the results of this experiment, they are restored and all perturbations
+	 * are done. Otherwise, if resume is set and the checkpoint matches this experiment (same
+	 * network size, perturbations, solver, and the checks of readCheckpointData()), the
+	 * perturbations saved in the checkpoint are restored and flagged as done. Return true
+	 * if all perturbations are done.
+	 */
+	protected boolean restoreResults() {
+		
+		done_ = new boolean[numExperiments_];
+		lastCheckpointTime_ = System.currentTimeMillis();
+		restoredFromCache_ = false;
+		
+		// the key depends on the initial condition, which is changed when restoring the results
+		cacheKey_ = null;
+		if (resultCache_ != null)
+			cacheKey_ = computeCacheKey();
+		
+		if (cacheKey_ != null) {
+			CheckpointFile entry = resultCache_.lookup(cacheKey_);
+			if (entry != null && readResults(entry) && getNumPerturbationsDone() == numExperiments_) {
+				log.log(Level.INFO, "Restored " + label_ + " from the result cache (" + entry.getFilename() + ")");
+				restoredFromCache_ = true;
+				return true;
+			}
+			done_ = new boolean[numExperiments_];
+		}
+		
+		if (checkpoint_ == null || !resume_ || !checkpoint_.exists() || !readResults(checkpoint_))
+			return false;
+		
+		int numDone = getNumPerturbationsDone();
+		log.log(Level.INFO, "Restored " + numDone + " of " + numExperiments_ + " perturbations from checkpoint " + checkpoint_.getFilename());
+		
+		return numDone == numExperiments_;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Flag perturbation i as done, write the checkpoint if the last one is older than the checkpoint interval */
+	protected synchronized void perturbationDone(int i) {
+		
+		done_[i] = true;
+		if (System.currentTimeMillis() - lastCheckpointTime_ >= checkpointInterval_)
+			saveCheckpoint();
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Flag all perturbations as done, write the checkpoint and save the results to the result cache */
+	protected synchronized void allPerturbationsDone() {
+		
+		for (int i=0; i<numExperiments_; i++)
+			done_[i] = true;
+		saveCheckpoint();
+		
+		if (cacheKey_ != null && !restoredFromCache_ && writeResults(resultCache_.createEntry(cacheKey_)))
+			resultCache_.entryAdded();
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return true if perturbation i has been simulated or restored from the checkpoint */
+	protected boolean isPerturbationDone(int i) {
+		
+		return done_ != null && done_[i];
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Return the random stream of the stochastic simulation of perturbation i for the parallel
+	 * simulation. It's defined by (seed, hash of the label, i), thus it doesn't depend on the
+	 * thread and the experiments with different labels (e.g., knockouts and knockdowns) use
+	 * different streams.
+	 */
+	protected RandomEngine createRandomEngine(int i) {
+		return new CounterRandomEngine(seed_, label_.hashCode(), i);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Write the checkpoint (if checkpoints are set) */
+	private synchronized void saveCheckpoint() {
+		
+		if (checkpoint_ == null || checkpointInterval_ <= 0)
+			return;
+		
+		writeResults(checkpoint_);
+		lastCheckpointTime_ = System.currentTimeMillis();
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Write the results to the given checkpoint or cache entry: the header identifying the
+	 * experiment, the flags of the perturbations that are done, and the data of the subclass.
+	 * An error is only logged (the simulation continues without this file), return false in
+	 * this case.
+	 */
+	private boolean writeResults(CheckpointFile file) {
+		
+		try {
+			DataOutputStream out = file.openForWriting();
+			out.writeUTF(CHECKPOINT_FORMAT);
+			out.writeUTF(label_);
+			out.writeUTF(solverType_.name());
+			out.writeInt(numGenes_);
+			out.writeInt(numExperiments_);
+			out.writeBoolean(modelTranslation_);
+			out.writeLong(hashPerturbations());
+			out.writeLong(seed_);
+			for (int i=0; i<numExperiments_; i++)
+				out.writeBoolean(done_[i]);
+			writeCheckpointData(out);
+			file.commit();
+			return true;
+		} catch (IOException e) {
+			file.abort();
+			log.log(Level.INFO, "Error writing " + file.getFilename() + ", exception " + e.getMessage());
+			return false;
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Read the results written by writeResults(). If the file doesn't match this experiment
+	 * (see restoreResults()), no perturbation is done and false is returned.
+	 */
+	private boolean readResults(CheckpointFile file) {
+		
+		try {
+			DataInputStream in = file.openForReading();
+			try {
+				if (!in.readUTF().equals(CHECKPOINT_FORMAT) || !in.readUTF().equals(label_) || !in.readUTF().equals(solverType_.name())
+						|| in.readInt() != numGenes_ || in.readInt() != numExperiments_ || in.readBoolean() != modelTranslation_
+						|| in.readLong() != hashPerturbations())
+					throw new IOException("the file doesn't match the experiment");
+				
+				long seed = in.readLong();
+				for (int i=0; i<numExperiments_; i++)
+					done_[i] = in.readBoolean();
+				readCheckpointData(in);
+				seed_ = seed;
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			log.log(Level.INFO, file.getFilename() + " not used: " + e.getMessage());
+			done_ = new boolean[numExperiments_];
+			return false;
+		}
+		return true;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return the number of perturbations that are done */
+	private int getNumPerturbationsDone() {
+		
+		int numDone = 0;
+		for (int i=0; i<numExperiments_; i++)
+			if (done_[i])
+				numDone++;
+		return numDone;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Return the key of the results of this experiment in the result cache, a SHA-256 hash
+	 * (hexadecimal) of everything the simulated data depends on: the dynamical model (see
+	 * ResultCache.writeModel()), the perturbations, the initial condition, the simulation
+	 * settings (see GnwSettings.writeSimulationSettings()), for stochastic simulations the
+	 * seed and the label (the random streams depend on them), and the inputs specific to the
+	 * subclass (see writeCacheKey()). Return null if the results can't be cached, i.e., for
+	 * stochastic simulations with a random seed.
+	 */
+	private String computeCacheKey() {
+		
+		boolean stochastic = (solverType_ != Solver.type.ODE);
+		if (stochastic && GnwSettings.getInstance().getRandomSeed() == -1)
+			return null;
+		
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			OutputStream discard = new OutputStream() {
+				public void write(int b) {}
+				public void write(byte[] b, int off, int len) {}
+			};
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new DigestOutputStream(discard, digest)));
+			
+			out.writeUTF(CACHE_KEY_FORMAT);
+			out.writeUTF(getClass().getName());
+			out.writeUTF(solverType_.name());
+			out.writeInt(numGenes_);
+			out.writeInt(numExperiments_);
+			out.writeBoolean(modelTranslation_);
+			ResultCache.writeModel(grn_, out);
+			
+			out.writeBoolean(perturbation_ != null);
+			if (perturbation_ != null)
+				for (int i=0; i<numExperiments_; i++)
+					writeArray(out, perturbation_.getPerturbation(i).toArray());
+			out.writeBoolean(xy0_ != null);
+			if (xy0_ != null)
+				writeArray(out, xy0_.toArray());
+			
+			GnwSettings.getInstance().writeSimulationSettings(out);
+			if (stochastic) {
+				out.writeLong(seed_);
+				out.writeUTF(label_);
+			}
+			writeCacheKey(out);
+			
+			out.close();
+			return ResultCache.toHex(digest.digest());
+			
+		} catch (NoSuchAlgorithmException e) {
+			log.log(Level.INFO, "Results of " + label_ + " not cached: " + e.getMessage());
+			return null;
+		} catch (IOException e) {
+			log.log(Level.INFO, "Results of " + label_ + " not cached: " + e.getMessage());
+			return null;
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Hash of the perturbed values of all perturbations (0 for the wild type), identifies the experiment in the checkpoint */
+	private long hashPerturbations() {
+		
+		long hash = 0;
+		if (perturbation_ != null) {
+			for (int i=0; i<numExperiments_; i++) {
+				DoubleMatrix1D p = perturbation_.getPerturbation(i);
+				for (int g=0; g<p.size(); g++)
+					hash = 31*hash + Double.doubleToLongBits(p.get(g));
+			}
+		}
+		return hash;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Write the length and the values of the array v (used for the keys of the result cache) */
+	protected void writeArray(DataOutputStream out, double[] v) throws IOException {
+		
+		out.writeInt(v.length);
+		for (int i=0; i<v.length; i++)
+			out.writeDouble(v[i]);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Read the header of results written by writeResults() (e.g., an entry of the result cache)
+	 * and return a short description of the experiment
+	 */
+	static String readDescription(DataInputStream in) throws IOException {
+		
+		if (!in.readUTF().equals(CHECKPOINT_FORMAT))
+			throw new IOException("unknown format");
+		
+		String label = in.readUTF();
+		String solverType = in.readUTF();
+		int numGenes = in.readInt();
+		int numExperiments = in.readInt();
+		boolean modelTranslation = in.readBoolean();
+		
+		return label + " (" + solverType + "), " + numExperiments + " perturbations, " + numGenes + " genes" + (modelTranslation ? " with proteins" : "");
+	}
+	
+	
 	// ----------------------------------------------------------------------------
 	
 	/** Concatenate two vectors into one array */
@@ -212,6 +636,40 @@ abstract public class Experiment {
 	}
 
 	
+	// ============================================================================
+	// PRIVATE CLASSES
+	
+	/** Simulates the perturbations from ... to-1, splits the range until it contains one perturbation */
+	@SuppressWarnings("serial")
+	private class PerturbationTask extends RecursiveAction {
+		
+		/** Range of perturbations */
+		private int from_, to_;
+		
+		public PerturbationTask(int from, int to) {
+			from_ = from;
+			to_ = to;
+		}
+		
+		protected void compute() {
+			
+			if (to_ - from_ == 1) {
+				try {
+					if (!isPerturbationDone(from_)) {
+						simulatePerturbation(from_);
+						perturbationDone(from_);
+					}
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			} else if (to_ - from_ > 1) {
+				int mid = (from_ + to_) >>> 1;
+				invokeAll(new PerturbationTask(from_, mid), new PerturbationTask(mid, to_));
+			}
+		}
+	}
+	
+	
 	// ============================================================================
 	// SETTERS AND GETTERS
 	
@@ -219,8 +677,17 @@ abstract public class Experiment {
 
 	public void setNumGenes(int numGenes) { numGenes_ = numGenes; }
 	public int getNumGenes() { return numGenes_; }
+	public int getNumExperiments() { return numExperiments_; }
 	
 	public Perturbation getPerturbation() { return perturbation_; }
+	public Solver.type getSolverType() { return solverType_; }
+	
+	/** Set the cache where the results are looked up before simulating and saved after (null: no cache) */
+	public void setResultCache(ResultCache cache) { resultCache_ = cache; }
+	
+	/** Set the seed of the random streams of the parallel simulation (by default the seed of the settings) */
+	public void setSeed(long seed) { seed_ = seed; }
+	public long getSeed() { return seed_; }
 	
 	public GeneNetwork getGrn() { return grn_; }
 	/** Set the grn_ and numGenes_ */
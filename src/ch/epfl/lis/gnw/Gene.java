@@ -221,19 +221,29 @@ abstract public class Gene extends Node {
 	}
 
 		
+	// ----------------------------------------------------------------------------
+	
+	/** Notify the gene network that a parameter of this gene has been changed */
+	protected void parametersChanged() {
+		
+		if (grn_ != null)
+			grn_.parametersChanged();
+	}
+	
+	
 	// ============================================================================
 	// SETTERS AND GETTERS
 
-	public void setMax(double d) { max_ = d; }
+	public void setMax(double d) { max_ = d; parametersChanged(); }
 	public double getMax() { return max_; }
 
-	public void setDelta(double d) { delta_ = d; }
+	public void setDelta(double d) { delta_ = d; parametersChanged(); }
 	public double getDelta() { return delta_; }
 
-	public void setMaxTranslation(double d) { maxTranslation_ = d; }
+	public void setMaxTranslation(double d) { maxTranslation_ = d; parametersChanged(); }
 	public double getMaxTranslation() { return maxTranslation_; }
 
-	public void setDeltaProtein(double d) { deltaProtein_ = d; }
+	public void setDeltaProtein(double d) { deltaProtein_ = d; parametersChanged(); }
 	public double getDeltaProtein() { return deltaProtein_; }
 
 	//public void setPerturbationBasalActivation(double d) { perturbationBasalActivation_ = d; }
@@ -68,6 +68,8 @@ public class GeneNetwork extends ImodNetwork {
 	private DoubleMatrix1D x_;
 	/** Current protein expression levels */
 	private DoubleMatrix1D y_;
+	/** Incremented each time a parameter of a gene is changed (see CompiledGeneNetwork) */
+	private int parameterVersion_;
 	
     /** Logger for this class */
     private static Logger log = Logger.getLogger(GeneNetwork.class.getName());
@@ -199,14 +201,7 @@ public class GeneNetwork extends ImodNetwork {
 		//double[] dxydt = new double[xy.length];
 		int size = getSize();
 		
-		for (int i=0; i<size; i++)
-			x_.set(i, xy[i]);
-		
-		if (modelTranslation)
-			for (int i=0; i<size; i++)
-				y_.set(i, xy[size+i]);
-		else
-			y_ = x_;
+		setState(xy);
 		
 		// dxydt temporarily used to store the production rates of mRNA
 		computeMRnaProductionRates(dxydt);
@@ -220,6 +215,37 @@ public class GeneNetwork extends ImodNetwork {
 	}
 
 	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Set the current state of the network, i.e., x (and y if translation is modelled).
+	 * @param xy Concatenated gene expressions x and protein concentrations y (if translation)
+	 */
+	public void setState(double[] xy) {
+		
+		int size = getSize();
+		
+		for (int i=0; i<size; i++)
+			x_.set(i, xy[i]);
+		
+		if (GnwSettings.getInstance().getModelTranslation())
+			for (int i=0; i<size; i++)
+				y_.set(i, xy[size+i]);
+		else
+			y_ = x_;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Must be called whenever a parameter of a gene is changed (e.g., by a perturbation),
+	 * so that compiled forms of the network (see CompiledGeneNetwork) know that they
+	 * have to update their copy of the parameters.
+	 */
+	public void parametersChanged() { parameterVersion_++; }
+
+	
 	// ----------------------------------------------------------------------------
 	
 	/** 
@@ -616,4 +642,6 @@ public class GeneNetwork extends ImodNetwork {
 	
 	public DoubleMatrix1D getY() { return y_; }
 	public void setY(DoubleMatrix1D y) { y_ = y; }
+	
+	public int getParameterVersion() { return parameterVersion_; }
 }
@@ -45,14 +45,22 @@ public class GeneNetworkODE implements ODE {
 	
 	/** Reference to GeneNetwork system to integrate */
 	private GeneNetwork grn_;
+	/** Compiled form of grn_ used to evaluate the rates */
+	private CompiledGeneNetwork compiledGrn_;
 	/** State */
 	private double[] state_;
+	/** State of the last evaluation of the rates (see getRate()) */
+	private double[] lastEvaluatedState_;
 	/** Previous state (used to check convergence) */
 	private double[] previousState_;
 	/** Absolute precision (see converged()) */
 	private double absolutePrecision_;
 	/** Relative precision (see converged()) */
 	private double relativePrecision_;
+	/** Number of evaluations of the rates (getRate()) */
+	private int numEvaluations_;
+	/** If set false, the state of grn_ is not set in getRate() (e.g., when several ODEs of the same network are integrated in parallel threads) */
+	private boolean updateNetworkState_;
 	
     /** Logger for this class */
 	@SuppressWarnings("unused")
@@ -65,10 +73,14 @@ public class GeneNetworkODE implements ODE {
 	/** Constructor, x0 is the current state of the network (initial conditions) */
 	public GeneNetworkODE(GeneNetwork grn, double[] x0) {
 		grn_ = grn;
+		compiledGrn_ = new CompiledGeneNetwork(grn);
 		state_ = x0.clone(); 
 		previousState_ = x0.clone();
+		lastEvaluatedState_ = x0.clone();
 		absolutePrecision_ = GnwSettings.getInstance().getAbsolutePrecision();
 		relativePrecision_ = GnwSettings.getInstance().getRelativePrecision();
+		numEvaluations_ = 0;
+		updateNetworkState_ = true;
 	}
 	
 	
@@ -80,7 +92,12 @@ public class GeneNetworkODE implements ODE {
 	 * carrying out the solution.
 	 */
 	public void getRate(double[] state, double[] rate) {
-		grn_.computeDxydt(state, rate);
+		// the experiments read the final state from the gene network, keep it up to date
+		if (updateNetworkState_)
+			grn_.setState(state);
+		System.arraycopy(state, 0, lastEvaluatedState_, 0, state.length);
+		compiledGrn_.computeDxydt(state, rate);
+		numEvaluations_++;
 	}
 	
 	
@@ -114,8 +131,16 @@ public class GeneNetworkODE implements ODE {
 	
 	// ----------------------------------------------------------------------------
 	
-	public void setGrn(GeneNetwork grn) { grn_ = grn; }
+	public void setGrn(GeneNetwork grn) { grn_ = grn; compiledGrn_ = new CompiledGeneNetwork(grn); }
+	/** Set the perturbed parameters used to evaluate the rates (null for the parameters of the network) */
+	public void setParameterOverlay(ParameterOverlay overlay) { compiledGrn_.setParameterOverlay(overlay); }
 	public double[] getState() { return state_; }
+	/** Return the state of the last evaluation of the rates (the state of grn_ if updateNetworkState_ is set) */
+	public double[] getLastEvaluatedState() { return lastEvaluatedState_; }
+	public int getNumEvaluations() { return numEvaluations_; }
+	
+	public void setUpdateNetworkState(boolean b) { updateNetworkState_ = b; }
+	public boolean getUpdateNetworkState() { return updateNetworkState_; }
 	
 }
 
@@ -28,8 +28,6 @@ THE SOFTWARE.
 package ch.epfl.lis.gnw;
 
 import cern.colt.matrix.DoubleMatrix1D;
-import cern.colt.matrix.DoubleMatrix2D;
-import cern.colt.matrix.impl.DenseDoubleMatrix1D;
 import ch.epfl.lis.sde.Sde;
 
 public class GeneNetworkSDE extends Sde {
@@ -38,10 +36,8 @@ public class GeneNetworkSDE extends Sde {
 	private GeneNetwork grn_;
 	/** Network size */
 	private int networkSize_;
-	/** Support vector V (production) */
-	private DoubleMatrix1D V_;
-	/** Support vector D (degradation) */
-	private DoubleMatrix1D D_;
+	/** Compiled form of grn_ used to evaluate the rates */
+	private CompiledGeneNetwork compiledGrn_;
 	
 	
     // =======================================================================================
@@ -90,70 +86,37 @@ public class GeneNetworkSDE extends Sde {
 		networkSize_ = grn_.getSize();
 		id_ = grn_.getId();
 		
-		V_ = new DenseDoubleMatrix1D(networkSize_);
-		D_ = new DenseDoubleMatrix1D(networkSize_);
+		compiledGrn_ = new CompiledGeneNetwork(grn);
 	}
 	
 	
 	// ----------------------------------------------------------------------------
 
 	/**
-	 * Computes the drift coefficients F and diffusion coefficient G at a given time.
-	 * Take into account is translation is modelled or not.
+	 * Computes the drift coefficients F and diffusion coefficients G (diagonal noise)
+	 * at a given time. Take into account is translation is modelled or not.
 	 * 
 	 * @throws Exception
 	 */
-	public void getDriftAndDiffusion(final double t, final DoubleMatrix1D Xin,
-			DoubleMatrix1D F, DoubleMatrix2D G) throws Exception {
+	public void getDriftAndDiffusion(final double t, final double[] Xin,
+			double[] F, double[] G) throws Exception {
 		
-		GnwSettings settings = GnwSettings.getInstance();
+		// the state of grn_ is not set here (it is set by Solver.step() after each step),
+		// thus several GeneNetworkSDE of the same network can be evaluated in parallel threads
 		
-		grn_.setX(Xin.viewPart(0, networkSize_)); // set current mRNA concentrations [X]
-		if (settings.getModelTranslation())
-			grn_.setY(Xin.viewPart(networkSize_, networkSize_)); // set current protein concentrations [Y]
-		grn_.computeMRnaProductionRates(V_); // get mRNA production rates
-		grn_.computeMRnaDegradationRates(D_); // get mRNA degradation rates
+		// the diffusion is the square root of production + degradation
+		compiledGrn_.computeDriftAndDiffusion(Xin, F, G);
 		
 		double m = GnwSettings.getInstance().getNoiseCoefficientSDE();
-		Double sqrt = 0.;
 		
-		// Transcription
-		for (int i=0; i<networkSize_; i++) {
-			
-			// Set drift vector
-			F.set(i, V_.get(i)-D_.get(i));
-			
-			// Set diffusion matrix
-			sqrt = Math.sqrt(V_.get(i) + D_.get(i));
-			if (sqrt.isNaN()) {
-				throw new Exception("NaN mRNA");
-			}
-			else
-				G.set(i, i, m*sqrt);
-		}
-		
-		// Translation (if modelled)
-		if (settings.getModelTranslation()) {
-			
-			grn_.computeProteinProductionRates(V_); // get protein production rates
-			grn_.computeProteinDegradationRates(D_); // get protein degradation rates
-			
-			int index = 0;
-			
-			for (int i=0; i<networkSize_; i++) {
-				
-				index = i+networkSize_;
-				
-				// Set drift vector
-				F.set(index, V_.get(i)-D_.get(i));
-				
-				// Set diffusion matrix
-				sqrt = Math.sqrt(V_.get(i) + D_.get(i));
-				if (sqrt.isNaN())
-					throw new Exception("NaN protein");
+		for (int i=0; i<dimension_; i++) {
+			if (Double.isNaN(G[i])) {
+				if (i < networkSize_)
+					throw new Exception("NaN mRNA");
 				else
-					G.set(index, index, m*sqrt);
+					throw new Exception("NaN protein");
 			}
+			G[i] *= m;
 		}
 	}
 	
@@ -161,6 +124,8 @@ public class GeneNetworkSDE extends Sde {
 	// ============================================================================
 	// GETTERS AND SETTERS
 	
-	public void setGeneNetwork(GeneNetwork grn) { grn_ = grn; }
+	public void setGeneNetwork(GeneNetwork grn) { init(grn); }
 	public GeneNetwork getGeneNetwork() { return grn_; }
+	/** Set the perturbed parameters used to evaluate the drift and diffusion (null for the parameters of the network) */
+	public void setParameterOverlay(ParameterOverlay overlay) { compiledGrn_.setParameterOverlay(overlay); }
 }
@@ -0,0 +1,635 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+
+package ch.epfl.lis.gnw;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import cern.jet.random.Poisson;
+import cern.jet.random.engine.RandomEngine;
+import ch.epfl.lis.sde.SdeSettings;
+
+
+/** Exact stochastic simulation of the discrete model of a gene network (chemical master equation).
+ * 
+ * The state is the number of molecules of each mRNA (and protein if translation is modelled).
+ * The concentrations of the deterministic model are the copy numbers divided by the system
+ * size (number of molecules per unit concentration, see GnwSettings.getSystemSizeSSA()).
+ * Each species s has two reactions, production (reaction 2s) and degradation (reaction 2s+1),
+ * with the propensities:
+ * - transcription of gene i: systemSize * max_i * f_i(c), where f_i is the relative activation
+ *   of the gene given the concentrations c of the regulators (see CompiledGeneNetwork)
+ * - degradation of mRNA i: delta_i * #mRNA_i
+ * - translation of protein i: maxTranslation_i * #mRNA_i
+ * - degradation of protein i: deltaProtein_i * #protein_i
+ * The chemical Langevin equation of this model is the SDE of GeneNetworkSDE with
+ * noiseCoefficientSDE = 1/sqrt(systemSize). The copy numbers can't become negative, so
+ * unlike for the SDEs, no concentrations have to be clipped.
+ * 
+ * The reactions are simulated with the next reaction method of Gibson and Bruck (Efficient
+ * exact stochastic simulation of chemical systems with many species and many channels,
+ * J Phys Chem A, 2000). The absolute times at which the reactions fire next are kept in an
+ * indexed priority queue (binary heap). When a reaction fires, only the propensities of the
+ * reactions that depend on the species that was changed are updated (dependency graph, see
+ * buildDependencyGraph()): the degradation of the species, the translation of its mRNA, and
+ * the transcription of the targets of the gene in the network. The firing times of these
+ * reactions are rescaled to the new propensities without drawing new random numbers, only
+ * the reaction that fired draws a new time. Thus, an event costs O(d log R) operations,
+ * where d is the out-degree of the gene and R the number of reactions.
+ * 
+ * In tau-leaping mode (GnwSettings.getTauLeapingSSA()), the number of firings of each
+ * reaction during a leap tau is drawn from a Poisson distribution with mean propensity*tau.
+ * tau is chosen as in Cao, Gillespie & Petzold (Efficient step size selection for the
+ * tau-leaping simulation method, J Chem Phys, 2006) so that the relative change of the
+ * propensities is bounded by epsilon (GnwSettings.getTauLeapingEpsilonSSA()). For the
+ * transcription rates, the order of a regulator is taken as the largest Hill coefficient
+ * of its inputs (the relative change of a Hill function is at most n times the relative
+ * change of its input). A leap that would make a copy number negative is rejected and
+ * retried with tau/2. If the leap is shorter than a few expected reaction times (low
+ * propensities, e.g., small copy numbers), NUM_EXACT_STEPS reactions are simulated exactly
+ * instead.
+ * 
+ * The random numbers are drawn from the RandomEngine of SdeSettings, which is initialized
+ * with the seed of the settings at the first step (as in SdeSolver.initialize()), unless
+ * another engine is set with setRandomEngine() before the first step. If the parameters of the network
+ * are changed (perturbations), the propensities are recomputed automatically at the next
+ * step (the random firing times are then drawn again, which is exact because the process
+ * is Markovian).
+ * 
+ * @author Daniel Marbach (firstname.name@gmail.com)
+ * @author Thomas Schaffter (firstname.name@gmail.com)
+ * 
+ */
+public class GillespieSolver {
+	
+	/** Tau-leaping: a leap is only done if tau is at least this many times the expected time to the next reaction */
+	private static final double LEAP_THRESHOLD = 10;
+	/** Tau-leaping: number of reactions that are simulated exactly if the leap is too short */
+	private static final int NUM_EXACT_STEPS = 100;
+	
+	/** The gene network */
+	private GeneNetwork grn_;
+	/** Compiled form of grn_ used to evaluate the transcription rates */
+	private CompiledGeneNetwork compiledGrn_;
+	/** Number of genes */
+	private int size_;
+	/** Number of species (size_ or 2*size_ if translation is modelled) */
+	private int dimension_;
+	/** Index of the first regulator in the state (size_ if the proteins are the regulators, 0 otherwise) */
+	private int regulatorOffset_;
+	/** Number of reactions (2*dimension_) */
+	private int numReactions_;
+	/** Number of molecules per unit concentration */
+	private double systemSize_;
+	
+	/** Copy numbers of the species */
+	private int[] counts_;
+	/** Concentrations counts_/systemSize_ (the rates of the model are defined in concentrations) */
+	private double[] c_;
+	/** Propensities of the reactions */
+	private double[] propensity_;
+	/** Absolute time at which each reaction fires next (infinite if the propensity is zero) */
+	private double[] tau_;
+	/** Remaining exponential waiting time propensity*(tau - t) of each reaction, kept while the propensity is zero */
+	private double[] residual_;
+	/** Reactions whose propensities depend on species s are dependents_[dependentStart_[s]] ... dependents_[dependentStart_[s+1]-1] */
+	private int[] dependentStart_;
+	private int[] dependents_;
+	/** Indexed priority queue: binary heap of the reactions ordered by tau_ (the next reaction is heap_[0]) */
+	private int[] heap_;
+	/** Position of each reaction in heap_ */
+	private int[] heapPosition_;
+	
+	/** If set true, use tau-leaping (see introductory comment) */
+	private boolean tauLeaping_;
+	/** Tau-leaping: bound of the relative change of the propensities during a leap */
+	private double epsilon_;
+	/** Tau-leaping: order of each species in the propensities (the g_i of Cao et al.) */
+	private double[] order_;
+	/** Tau-leaping: workspace for the transcription rates */
+	private double[] production_;
+	/** Tau-leaping: workspace for the number of firings of each reaction */
+	private int[] firings_;
+	
+	/** Current time */
+	private double t_;
+	/** Time step of step() */
+	private double stepSize_;
+	/** False until the propensities and the firing times have been initialized */
+	private boolean initialized_;
+	/** Parameter version of grn_ at the last initialization of the propensities */
+	private int parameterVersion_;
+	/** Source of the random numbers */
+	private RandomEngine randomEngine_;
+	/** Poisson distribution (tau-leaping) */
+	private Poisson poisson_;
+	
+	/** Number of reactions simulated exactly */
+	private long numFiredReactions_;
+	/** Number of accepted leaps */
+	private int numLeaps_;
+	/** Number of rejected leaps */
+	private int numRejectedLeaps_;
+
+    /** Logger for this class */
+	private static Logger log = Logger.getLogger(GillespieSolver.class.getName());
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/**
+	 * Constructor, xy0 are the initial concentrations (they are rounded to the
+	 * nearest copy numbers).
+	 */
+	public GillespieSolver(GeneNetwork grn, double[] xy0) {
+		
+		GnwSettings set = GnwSettings.getInstance();
+		
+		grn_ = grn;
+		compiledGrn_ = new CompiledGeneNetwork(grn);
+		size_ = grn.getSize();
+		dimension_ = compiledGrn_.getModelTranslation() ? 2*size_ : size_;
+		regulatorOffset_ = compiledGrn_.getModelTranslation() ? size_ : 0;
+		numReactions_ = 2*dimension_;
+		systemSize_ = set.getSystemSizeSSA();
+		stepSize_ = set.getDt();
+		tauLeaping_ = set.getTauLeapingSSA();
+		epsilon_ = set.getTauLeapingEpsilonSSA();
+		
+		if (xy0.length != dimension_)
+			throw new IllegalArgumentException("GillespieSolver: xy0.length = " + xy0.length +
+					" doesn't match the number of species " + dimension_);
+		
+		counts_ = new int[dimension_];
+		c_ = new double[dimension_];
+		for (int s=0; s<dimension_; s++) {
+			counts_[s] = (int) Math.round(xy0[s]*systemSize_);
+			c_[s] = counts_[s] / systemSize_;
+		}
+		
+		propensity_ = new double[numReactions_];
+		tau_ = new double[numReactions_];
+		residual_ = new double[numReactions_];
+		heap_ = new int[numReactions_];
+		heapPosition_ = new int[numReactions_];
+		production_ = new double[size_];
+		firings_ = new int[numReactions_];
+		
+		buildDependencyGraph();
+		
+		// order of the species in the propensities (tau-leaping)
+		order_ = new double[dimension_];
+		for (int s=0; s<dimension_; s++) {
+			order_[s] = 1;
+			if (s >= regulatorOffset_)
+				order_[s] = Math.max(1, compiledGrn_.getMaxHillCoefficient(s - regulatorOffset_));
+		}
+		
+		t_ = 0;
+		initialized_ = false;
+		randomEngine_ = null;
+		numFiredReactions_ = 0;
+		numLeaps_ = 0;
+		numRejectedLeaps_ = 0;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Simulate the time interval dt of the settings (see setStepSize()), return it */
+	public double step() {
+		
+		if (!initialized_ || parameterVersion_ != grn_.getParameterVersion())
+			restart();
+		
+		double tEnd = t_ + stepSize_;
+		
+		if (tauLeaping_)
+			leap(tEnd);
+		else
+			fireReactions(tEnd, Integer.MAX_VALUE);
+		
+		t_ = tEnd;
+		return stepSize_;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Recompute all propensities (e.g., after the parameters of the network have been changed)
+	 * and draw new firing times. This is done automatically at the next step if the parameter
+	 * version of the network has changed.
+	 */
+	public void restart() {
+		
+		compiledGrn_.updateParameters();
+		parameterVersion_ = grn_.getParameterVersion();
+		
+		if (randomEngine_ == null) {
+			SdeSettings.getInstance().initializeRNG(); // use the defined seed to set up the RNG
+			randomEngine_ = SdeSettings.getInstance().getRandomEngine();
+		}
+		if (poisson_ == null)
+			poisson_ = new Poisson(1, randomEngine_);
+		
+		computePropensities();
+		initializeFiringTimes();
+		initialized_ = true;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Log the number of reactions and leaps */
+	public void logStatistics() {
+		
+		log.log(Level.INFO, "SSA: " + numFiredReactions_ + " reactions simulated exactly, " + numLeaps_ +
+				" tau-leaps (" + numRejectedLeaps_ + " rejected)");
+	}
+	
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/**
+	 * Build the dependency graph: the reactions whose propensities depend on species s are
+	 * its degradation, the translation of protein s (if s is an mRNA and translation is
+	 * modelled) and the transcription of the targets of gene s (if s is a regulator, i.e.,
+	 * the protein if translation is modelled, the mRNA otherwise).
+	 */
+	private void buildDependencyGraph() {
+		
+		// the input genes of each gene, and the number of targets of each gene
+		int[][] inputs = new int[size_][];
+		int[] numTargets = new int[size_];
+		for (int i=0; i<size_; i++) {
+			inputs[i] = compiledGrn_.getInputGenes(i);
+			for (int k=0; k<inputs[i].length; k++)
+				numTargets[inputs[i][k]]++;
+		}
+		
+		dependentStart_ = new int[dimension_+1];
+		for (int s=0; s<dimension_; s++) {
+			int numDependents = 1;
+			if (regulatorOffset_ > 0 && s < size_)
+				numDependents++;
+			if (s >= regulatorOffset_)
+				numDependents += numTargets[s - regulatorOffset_];
+			dependentStart_[s+1] = dependentStart_[s] + numDependents;
+		}
+		
+		dependents_ = new int[dependentStart_[dimension_]];
+		int[] next = new int[dimension_];
+		for (int s=0; s<dimension_; s++) {
+			next[s] = dependentStart_[s];
+			dependents_[next[s]++] = 2*s + 1;
+			if (regulatorOffset_ > 0 && s < size_)
+				dependents_[next[s]++] = 2*(size_ + s);
+		}
+		for (int i=0; i<size_; i++) {
+			for (int k=0; k<inputs[i].length; k++) {
+				int s = regulatorOffset_ + inputs[i][k];
+				dependents_[next[s]++] = 2*i;
+			}
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return the propensity of reaction r in the current state */
+	private double computePropensity(int r) {
+		
+		int s = r >> 1;
+		
+		if ((r & 1) == 1) {
+			if (s < size_)
+				return compiledGrn_.getDelta(s) * counts_[s];
+			else
+				return compiledGrn_.getDeltaProtein(s - size_) * counts_[s];
+			
+		} else if (s < size_)
+			return systemSize_ * compiledGrn_.computeMRnaProductionRate(c_, regulatorOffset_, s);
+		else
+			return compiledGrn_.getMaxTranslation(s - size_) * counts_[s - size_];
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Compute the propensities of all reactions (the transcription rates are evaluated in one pass) */
+	private void computePropensities() {
+		
+		compiledGrn_.computeMRnaProductionRates(c_, regulatorOffset_, production_);
+		
+		for (int i=0; i<size_; i++) {
+			propensity_[2*i] = systemSize_ * production_[i];
+			propensity_[2*i+1] = compiledGrn_.getDelta(i) * counts_[i];
+		}
+		if (regulatorOffset_ > 0) {
+			for (int i=0; i<size_; i++) {
+				propensity_[2*(size_+i)] = compiledGrn_.getMaxTranslation(i) * counts_[i];
+				propensity_[2*(size_+i)+1] = compiledGrn_.getDeltaProtein(i) * counts_[size_+i];
+			}
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Draw new firing times for all reactions (from the current time t_) and build the heap */
+	private void initializeFiringTimes() {
+		
+		for (int r=0; r<numReactions_; r++) {
+			residual_[r] = exponential();
+			tau_[r] = (propensity_[r] > 0) ? t_ + residual_[r]/propensity_[r] : Double.POSITIVE_INFINITY;
+			heap_[r] = r;
+			heapPosition_[r] = r;
+		}
+		for (int k=numReactions_/2-1; k>=0; k--)
+			siftDown(k);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Fire the next reactions until time tEnd or until maxReactions reactions have fired
+	 * (next reaction method), return the number of reactions that fired. The time t_ is
+	 * the time of the last reaction.
+	 */
+	private int fireReactions(double tEnd, int maxReactions) {
+		
+		int k = 0;
+		while (k < maxReactions) {
+			int mu = heap_[0];
+			if (!(tau_[mu] <= tEnd))
+				break;
+			
+			t_ = tau_[mu];
+			fire(mu);
+			k++;
+		}
+		numFiredReactions_ += k;
+		return k;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Execute reaction mu at time t_ and update the propensities and firing times of its dependents */
+	private void fire(int mu) {
+		
+		int s = mu >> 1;
+		if ((mu & 1) == 0)
+			counts_[s]++;
+		else
+			counts_[s]--;
+		c_[s] = counts_[s] / systemSize_;
+		
+		boolean selfDependent = false;
+		for (int k=dependentStart_[s]; k<dependentStart_[s+1]; k++) {
+			int r = dependents_[k];
+			if (r == mu) {
+				selfDependent = true;
+				continue;
+			}
+			
+			// rescale the remaining waiting time to the new propensity
+			double a = computePropensity(r);
+			if (propensity_[r] > 0)
+				residual_[r] = propensity_[r] * (tau_[r] - t_);
+			propensity_[r] = a;
+			tau_[r] = (a > 0) ? t_ + residual_[r]/a : Double.POSITIVE_INFINITY;
+			updateHeap(r);
+		}
+		
+		// the reaction that fired draws a new waiting time
+		if (selfDependent)
+			propensity_[mu] = computePropensity(mu);
+		residual_[mu] = exponential();
+		tau_[mu] = (propensity_[mu] > 0) ? t_ + residual_[mu]/propensity_[mu] : Double.POSITIVE_INFINITY;
+		updateHeap(mu);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Tau-leaping until time tEnd (see introductory comment) */
+	private void leap(double tEnd) {
+		
+		while (t_ < tEnd) {
+			computePropensities();
+			
+			double a0 = 0;
+			for (int r=0; r<numReactions_; r++)
+				a0 += propensity_[r];
+			if (a0 == 0)
+				break;
+			
+			double tau = selectLeap();
+			
+			if (tau < LEAP_THRESHOLD/a0) {
+				// the leap is too short, simulate some reactions exactly instead (new firing
+				// times can be drawn at any time because the process is Markovian)
+				initializeFiringTimes();
+				if (fireReactions(tEnd, NUM_EXACT_STEPS) < NUM_EXACT_STEPS)
+					break;
+				continue;
+			}
+			
+			boolean last = (tau >= tEnd - t_);
+			if (last)
+				tau = tEnd - t_;
+			
+			while (!tryLeap(tau)) {
+				tau /= 2;
+				last = false;
+				numRejectedLeaps_++;
+			}
+			t_ = last ? tEnd : t_ + tau;
+			numLeaps_++;
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Return the leap size of Cao et al.: for each species, the expected change and its
+	 * variance must be smaller than max(epsilon*count/order, 1) and its square.
+	 */
+	private double selectLeap() {
+		
+		double tau = Double.POSITIVE_INFINITY;
+		
+		for (int s=0; s<dimension_; s++) {
+			double production = propensity_[2*s];
+			double degradation = propensity_[2*s+1];
+			double mean = Math.abs(production - degradation);
+			double variance = production + degradation;
+			double bound = Math.max(epsilon_*counts_[s]/order_[s], 1);
+			
+			if (mean > 0)
+				tau = Math.min(tau, bound/mean);
+			if (variance > 0)
+				tau = Math.min(tau, bound*bound/variance);
+		}
+		return tau;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Draw the firings of all reactions during tau, apply them and return true unless a copy number would become negative */
+	private boolean tryLeap(double tau) {
+		
+		for (int r=0; r<numReactions_; r++) {
+			double mean = propensity_[r]*tau;
+			firings_[r] = (mean > 0) ? poisson_.nextInt(mean) : 0;
+		}
+		
+		for (int s=0; s<dimension_; s++)
+			if (counts_[s] + firings_[2*s] - firings_[2*s+1] < 0)
+				return false;
+		
+		for (int s=0; s<dimension_; s++) {
+			counts_[s] += firings_[2*s] - firings_[2*s+1];
+			c_[s] = counts_[s] / systemSize_;
+		}
+		return true;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return a random number from the exponential distribution with mean 1 */
+	private double exponential() {
+		
+		// nextDouble() is in the open interval (0 1)
+		return -Math.log(randomEngine_.nextDouble());
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Move reaction r to its position in the heap after tau_[r] has changed */
+	private void updateHeap(int r) {
+		
+		int k = heapPosition_[r];
+		if (k > 0 && tau_[r] < tau_[heap_[(k-1)/2]])
+			siftUp(k);
+		else
+			siftDown(k);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Move the element at position k of the heap up */
+	private void siftUp(int k) {
+		
+		while (k > 0) {
+			int parent = (k-1)/2;
+			if (!(tau_[heap_[k]] < tau_[heap_[parent]]))
+				break;
+			swap(k, parent);
+			k = parent;
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Move the element at position k of the heap down */
+	private void siftDown(int k) {
+		
+		while (true) {
+			int child = 2*k + 1;
+			if (child >= numReactions_)
+				break;
+			if (child+1 < numReactions_ && tau_[heap_[child+1]] < tau_[heap_[child]])
+				child++;
+			if (!(tau_[heap_[child]] < tau_[heap_[k]]))
+				break;
+			swap(k, child);
+			k = child;
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Swap the elements at the positions i and j of the heap */
+	private void swap(int i, int j) {
+		
+		int ri = heap_[i];
+		int rj = heap_[j];
+		heap_[i] = rj;
+		heap_[j] = ri;
+		heapPosition_[rj] = i;
+		heapPosition_[ri] = j;
+	}
+	
+	
+	// ============================================================================
+	// SETTERS AND GETTERS
+	
+	/** Set the source of the random numbers (must be called before the first step) */
+	public void setRandomEngine(RandomEngine engine) {
+		randomEngine_ = engine;
+		poisson_ = null;
+	}
+	public RandomEngine getRandomEngine() { return randomEngine_; }
+	
+	/** Set the time interval simulated by step() (by default dt of the settings) */
+	public void setStepSize(double h) { stepSize_ = h; }
+	public double getStepSize() { return stepSize_; }
+	
+	/**
+	 * Set the perturbed parameters of the reactions (null for the parameters of the network),
+	 * the propensities are recomputed at the next step (see restart())
+	 */
+	public void setParameterOverlay(ParameterOverlay overlay) {
+		compiledGrn_.setParameterOverlay(overlay);
+		initialized_ = false;
+	}
+	
+	/** Return the current concentrations (copy numbers divided by the system size) */
+	public double[] getState() { return c_; }
+	public int[] getCounts() { return counts_; }
+	public double getTime() { return t_; }
+	public double getSystemSize() { return systemSize_; }
+	
+	public long getNumFiredReactions() { return numFiredReactions_; }
+	public int getNumLeaps() { return numLeaps_; }
+	public int getNumRejectedLeaps() { return numRejectedLeaps_; }
+
+}
@@ -26,9 +26,12 @@ THE SOFTWARE.
 
 package ch.epfl.lis.gnw;
 
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.net.URL;
 import java.util.Properties;
 import java.util.logging.Logger;
@@ -124,6 +127,8 @@ public class GnwSettings {
 	private boolean tsDualKnockouts_ = false;
 	/** Number of time-series experiments from different initial conditions */
 	private int numTimeSeries_ = 10; 
+	/** Number of stochastic replicates of the wild-type time series (SDEs only, 0: none) */
+	private int numWildTypeReplicates_ = 0;
 	/** Number of measured points per time series (must be consistent with maxtTimeSeries_ and dt_, does *not* affect precision) */
 	//private int numMeasuredPoints_ = 21;
 	/** Default max duration time in time-series experiments (must be consistent with numTimePoints_ and dt_) */
@@ -146,14 +151,72 @@ public class GnwSettings {
 	private double absolutePrecision_ = 0.00001;
 	/** See absolutePrecision_, in addition, this is also the tolerance used for integration */ 
 	private double relativePrecision_ = 0.001;
+	/** Method used to compute the steady states: INTEGRATION of the ODEs or NEWTON (integration is used if Newton fails) */
+	private SteadyStateExperiment.steadyStateMethod steadyStateMethod_ = SteadyStateExperiment.steadyStateMethod.INTEGRATION;
+	/** Solver used to integrate the ODEs: MULTISTEP (ODEMultistepSolver of opensourcephysics) DORMAND_PRINCE (see DormandPrinceSolver), ROSENBROCK (stiff, see RosenbrockSolver) or AUTO (see StiffnessSwitchingSolver) */
+	private Solver.odeSolver odeSolver_ = Solver.odeSolver.MULTISTEP;
+	/** AUTO: switch to the implicit solver if h*|lambda| exceeds this fraction of the stability limit of the explicit solver */
+	private double stiffSwitchThreshold_ = 0.8;
+	/** AUTO: switch back to the explicit solver if h*|lambda| drops below this fraction of the stability limit */
+	private double nonstiffSwitchThreshold_ = 0.4;
+	/** If set true, the ODE steady states of the perturbations are computed starting from the closest perturbation already solved */
+	private boolean steadyStateContinuation_ = false;
 	
 	// STOCHASTIC MODEL (SDE)
 	/** If set true, a stochastic simulation of the experiments is done using the SDE model */ 
 	private boolean simulateSDE_ = true;
 	/** Time step used for integrating SDEs (internal dt used for integration, the measured points are defined by numMeasuredPoints) */
 	private double timeStepSDE_ = 1.0;
+	/** Solver used to integrate the SDEs: MILSTEIN (strong order 1.0), RUNGE_KUTTA (strong order 1.5, see ch.epfl.lis.sde.RungeKutta) or ADAPTIVE (see ch.epfl.lis.sde.AdaptiveRungeKutta) */
+	private Solver.sdeSolver sdeSolver_ = Solver.sdeSolver.MILSTEIN;
+	/** ADAPTIVE: absolute tolerance of the local error */
+	private double absoluteToleranceSDE_ = 0.001;
+	/** ADAPTIVE: relative tolerance of the local error */
+	private double relativeToleranceSDE_ = 0.01;
 	/** Coefficient of the noise term of the SDEs */
 	private double noiseCoefficientSDE_ = 0.05;
+	/** Stochastic model: SDE (chemical Langevin equation) or SSA (discrete model simulated exactly, see GillespieSolver) */
+	private Solver.type stochasticModel_ = Solver.type.SDE;
+	/** SSA: number of molecules per unit concentration (0: 1/noiseCoefficientSDE^2, see getSystemSizeSSA()) */
+	private double systemSizeSSA_ = 0;
+	/** SSA: if set true, adaptive tau-leaping is used instead of the exact next reaction method */
+	private boolean tauLeapingSSA_ = false;
+	/** SSA: bound of the relative change of the propensities during a tau-leap */
+	private double tauLeapingEpsilonSSA_ = 0.03;
+	/** If set true, the SDE steady states are sampled from the linear noise approximation at the ODE steady states (see LinearNoiseApproximation) */
+	private boolean linearNoiseApproximation_ = false;
+	/** If set true, the SDE steady-state simulations stop as soon as the trajectory is stationary (see StationarityMonitor) */
+	private boolean stationarityTestSDE_ = false;
+	/** Stationarity test: duration of the batches whose means are compared */
+	private double stationarityBatchSDE_ = 10;
+	/** Stationarity test: number of batches in each half of the window */
+	private int stationarityWindowSDE_ = 20;
+	/** If set true, the stochastic time series start from the snapshots of one long wild-type trajectory (see BurnInPool) */
+	private boolean burnInPool_ = false;
+	/** Burn-in pool: largest autocorrelation of the variables at the spacing of the snapshots */
+	private double burnInMaxCorrelation_ = 0.25;
+	
+	// PERFORMANCE
+	/** Evaluation of the Hill functions: EXACT, FAST (log/exp, multiplication chains for integer n), or TABLE (interpolated exp) */
+	private CompiledGeneNetwork.hillFunction hillFunctionEvaluation_ = CompiledGeneNetwork.hillFunction.EXACT;
+	/** If set true, the ODEs of all perturbations of an experiment are integrated together (see EnsembleODESolver) */
+	private boolean ensembleODE_ = false;
+	/** If set true, the perturbations of an experiment are simulated in parallel threads (see Experiment.runPerturbationsInParallel()) */
+	private boolean parallelPerturbations_ = false;
+	/** Number of threads used for parallel simulations, i.e., the perturbations of an experiment and the replicates of the wild-type time series (see SdeEnsemble, 0: number of available processors) */
+	private int numThreads_ = 0;
+	/** Number of stages of the benchmark generation executed at the same time (see BenchmarkGenerator, 1: one after the other, 0: number of available processors) */
+	private int numStageThreads_ = 1;
+	/** Number of SDE replicates integrated together in one thread (see BatchSdeSolver, Milstein only, 1: one solver per replicate) */
+	private int batchSizeSDE_ = 16;
+	/** Time in seconds between two checkpoints of the simulated perturbations of an experiment (0: no checkpoints, see BenchmarkGenerator) */
+	private double checkpointInterval_ = 0;
+	/** Set true to resume the benchmark generation from the checkpoints in the output directory */
+	private boolean resume_ = false;
+	/** Directory of the cache of simulated experiments (empty: no cache, see ResultCache) */
+	private String resultCacheDirectory_ = "";
+	/** Maximum size of the result cache in MB, the least recently used results are removed */
+	private double resultCacheMaxSize_ = 1000;
 	
 	// EXPERIMENTAL NOISE
 	/** Set true to add normal noise to the data */
@@ -334,6 +397,7 @@ public class GnwSettings {
 		tsDREAM4TimeSeries_ = gnwSettings.getProperty("tsDREAM4TimeSeries").equals("0") ?  false : true;
 		tsDualKnockouts_ = gnwSettings.getProperty("tsDualKnockouts").equals("0") ?  false : true;
 		numTimeSeries_ = Integer.valueOf(gnwSettings.getProperty("numTimeSeries"));
+		numWildTypeReplicates_ = Integer.valueOf(gnwSettings.getProperty("numWildTypeReplicates", "0").trim());
 		//numMeasuredPoints_ = Integer.valueOf(gnwSettings.getProperty("numMeasuredPoints"));
 		maxtTimeSeries_ = Integer.valueOf(gnwSettings.getProperty("maxtTimeSeries"));
 		dt_ = Double.valueOf(gnwSettings.getProperty("dt"));
@@ -351,11 +415,43 @@ public class GnwSettings {
 		simulateODE_ = gnwSettings.getProperty("simulateODE").equals("0") ?  false : true;
 		absolutePrecision_ = Double.valueOf(gnwSettings.getProperty("absolutePrecision"));
 		relativePrecision_ = Double.valueOf(gnwSettings.getProperty("relativePrecision"));
+		steadyStateMethod_ = SteadyStateExperiment.steadyStateMethod.valueOf(gnwSettings.getProperty("steadyStateMethod", "integration").trim().toUpperCase());
+		odeSolver_ = Solver.odeSolver.valueOf(gnwSettings.getProperty("odeSolver", "multistep").trim().toUpperCase());
+		stiffSwitchThreshold_ = Double.valueOf(gnwSettings.getProperty("stiffSwitchThreshold", "0.8"));
+		nonstiffSwitchThreshold_ = Double.valueOf(gnwSettings.getProperty("nonstiffSwitchThreshold", "0.4"));
+		steadyStateContinuation_ = gnwSettings.getProperty("steadyStateContinuation", "0").trim().equals("0") ?  false : true;
 		
 		// STOCHASTIC MODEL (SDE)
 		simulateSDE_ = gnwSettings.getProperty("simulateSDE").equals("0") ?  false : true;
 		timeStepSDE_ = Double.valueOf(gnwSettings.getProperty("timeStepSDE"));
+		sdeSolver_ = Solver.sdeSolver.valueOf(gnwSettings.getProperty("sdeSolver", "milstein").trim().toUpperCase());
+		absoluteToleranceSDE_ = Double.valueOf(gnwSettings.getProperty("absoluteToleranceSDE", "0.001"));
+		relativeToleranceSDE_ = Double.valueOf(gnwSettings.getProperty("relativeToleranceSDE", "0.01"));
 		noiseCoefficientSDE_ = Double.valueOf(gnwSettings.getProperty("noiseCoefficientSDE"));
+		stochasticModel_ = Solver.type.valueOf(gnwSettings.getProperty("stochasticModel", "sde").trim().toUpperCase());
+		if (stochasticModel_ != Solver.type.SDE && stochasticModel_ != Solver.type.SSA)
+			throw new IllegalArgumentException("stochasticModel must be sde or ssa");
+		systemSizeSSA_ = Double.valueOf(gnwSettings.getProperty("systemSizeSSA", "0"));
+		tauLeapingSSA_ = gnwSettings.getProperty("tauLeapingSSA", "0").trim().equals("0") ?  false : true;
+		tauLeapingEpsilonSSA_ = Double.valueOf(gnwSettings.getProperty("tauLeapingEpsilonSSA", "0.03"));
+		linearNoiseApproximation_ = gnwSettings.getProperty("linearNoiseApproximation", "0").trim().equals("0") ?  false : true;
+		stationarityTestSDE_ = gnwSettings.getProperty("stationarityTestSDE", "0").trim().equals("0") ?  false : true;
+		stationarityBatchSDE_ = Double.valueOf(gnwSettings.getProperty("stationarityBatchSDE", "10"));
+		stationarityWindowSDE_ = Integer.valueOf(gnwSettings.getProperty("stationarityWindowSDE", "20").trim());
+		burnInPool_ = gnwSettings.getProperty("burnInPool", "0").trim().equals("0") ?  false : true;
+		burnInMaxCorrelation_ = Double.valueOf(gnwSettings.getProperty("burnInMaxCorrelation", "0.25"));
+		
+		// PERFORMANCE (optional, the defaults are used if they are not specified)
+		hillFunctionEvaluation_ = CompiledGeneNetwork.hillFunction.valueOf(gnwSettings.getProperty("hillFunctionEvaluation", "exact").trim().toUpperCase());
+		ensembleODE_ = gnwSettings.getProperty("ensembleODE", "0").trim().equals("0") ?  false : true;
+		parallelPerturbations_ = gnwSettings.getProperty("parallelPerturbations", "0").trim().equals("0") ?  false : true;
+		numThreads_ = Integer.valueOf(gnwSettings.getProperty("numThreads", "0").trim());
+		numStageThreads_ = Integer.valueOf(gnwSettings.getProperty("numStageThreads", "1").trim());
+		batchSizeSDE_ = Integer.valueOf(gnwSettings.getProperty("batchSizeSDE", "16").trim());
+		checkpointInterval_ = Double.valueOf(gnwSettings.getProperty("checkpointInterval", "0"));
+		resume_ = gnwSettings.getProperty("resume", "0").trim().equals("0") ?  false : true;
+		resultCacheDirectory_ = gnwSettings.getProperty("resultCacheDirectory", "").trim();
+		resultCacheMaxSize_ = Double.valueOf(gnwSettings.getProperty("resultCacheMaxSize", "1000"));
 		
 		// EXPERIMENTAL NOISE
 		addNormalNoise_ = gnwSettings.getProperty("addNormalNoise").equals("0") ?  false : true;
@@ -455,6 +551,94 @@ public class GnwSettings {
 	}
 		
 		
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Write the settings that change the simulated data (not the experimental noise and the
+	 * output), they are part of the key of the ResultCache. New settings that change the
+	 * simulations must be added here. The seed is written by the experiments, only the
+	 * stochastic simulations depend on it.
+	 */
+	public void writeSimulationSettings(DataOutputStream out) throws IOException {
+		
+		out.writeBoolean(modelTranslation_);
+		
+		// steady states and time series
+		out.writeDouble(maxtSteadyStateODE_);
+		out.writeDouble(maxtSteadyStateSDE_);
+		out.writeDouble(maxtWildTypeSDE_);
+		out.writeDouble(maxtTimeSeries_);
+		out.writeDouble(dt_);
+		
+		// ODEs
+		out.writeDouble(absolutePrecision_);
+		out.writeDouble(relativePrecision_);
+		out.writeUTF(steadyStateMethod_.name());
+		out.writeUTF(odeSolver_.name());
+		out.writeDouble(stiffSwitchThreshold_);
+		out.writeDouble(nonstiffSwitchThreshold_);
+		out.writeBoolean(steadyStateContinuation_);
+		
+		// SDEs and SSA
+		out.writeDouble(timeStepSDE_);
+		out.writeUTF(sdeSolver_.name());
+		out.writeDouble(absoluteToleranceSDE_);
+		out.writeDouble(relativeToleranceSDE_);
+		out.writeDouble(noiseCoefficientSDE_);
+		out.writeUTF(stochasticModel_.name());
+		out.writeDouble(systemSizeSSA_);
+		out.writeBoolean(tauLeapingSSA_);
+		out.writeDouble(tauLeapingEpsilonSSA_);
+		out.writeBoolean(linearNoiseApproximation_);
+		out.writeBoolean(stationarityTestSDE_);
+		out.writeDouble(stationarityBatchSDE_);
+		out.writeInt(stationarityWindowSDE_);
+		out.writeBoolean(burnInPool_);
+		out.writeDouble(burnInMaxCorrelation_);
+		
+		// the performance settings that change the numerical results
+		out.writeUTF(hillFunctionEvaluation_.name());
+		out.writeBoolean(ensembleODE_);
+		out.writeBoolean(parallelPerturbations_);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Write the state of the random number generator and the distributions (see readRandomState()) */
+	public void writeRandomState(ObjectOutputStream out) throws IOException {
+		
+		out.writeObject(mersenneTwister_);
+		out.writeObject(uniformDistribution_);
+		out.writeObject(normalDistribution_);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Replace the random number generator and the distributions by the ones written by
+	 * writeRandomState(), the following random numbers are the same as after writing.
+	 * Objects that kept a reference to the previous distributions still use those.
+	 */
+	public void readRandomState(ObjectInputStream in) throws IOException {
+		
+		try {
+			MersenneTwister mersenneTwister = (MersenneTwister) in.readObject();
+			Uniform uniform = (Uniform) in.readObject();
+			Normal normal = (Normal) in.readObject();
+			
+			mersenneTwister_ = mersenneTwister;
+			uniformDistribution_ = uniform;
+			normalDistribution_ = normal;
+		} catch (ClassNotFoundException e) {
+			throw new IOException(e.getMessage());
+		} catch (ClassCastException e) {
+			throw new IOException(e.getMessage());
+		}
+	}
+	
+	
 	// ----------------------------------------------------------------------------
 	
 	public static void printArray(double[] v) {
@@ -492,6 +676,21 @@ public class GnwSettings {
 	public void setRelativePrecision(double value) { relativePrecision_ = value; }
 	public double getRelativePrecision() { return relativePrecision_; }
 	
+	public void setSteadyStateMethod(SteadyStateExperiment.steadyStateMethod method) { steadyStateMethod_ = method; }
+	public SteadyStateExperiment.steadyStateMethod getSteadyStateMethod() { return steadyStateMethod_; }
+	
+	public void setOdeSolver(Solver.odeSolver solver) { odeSolver_ = solver; }
+	public Solver.odeSolver getOdeSolver() { return odeSolver_; }
+	
+	public void setStiffSwitchThreshold(double value) { stiffSwitchThreshold_ = value; }
+	public double getStiffSwitchThreshold() { return stiffSwitchThreshold_; }
+	
+	public void setNonstiffSwitchThreshold(double value) { nonstiffSwitchThreshold_ = value; }
+	public double getNonstiffSwitchThreshold() { return nonstiffSwitchThreshold_; }
+	
+	public void setSteadyStateContinuation(boolean b) { steadyStateContinuation_ = b; }
+	public boolean getSteadyStateContinuation() { return steadyStateContinuation_; }
+	
 	public void setAddNormalNoise(boolean b) { addNormalNoise_ = b; }
 	public boolean getAddNormalNoise() { return addNormalNoise_; }
 	
@@ -512,6 +711,9 @@ public class GnwSettings {
 	
 	public void setNumTimeSeries(int n) { numTimeSeries_ = n; }
 	public int getNumTimeSeries() { return numTimeSeries_; }
+	
+	public void setNumWildTypeReplicates(int n) { numWildTypeReplicates_ = n; }
+	public int getNumWildTypeReplicates() { return numWildTypeReplicates_; }
 
 	public void setMaxtTimeSeries(double maxt) { maxtTimeSeries_ = maxt; }
 	public double getMaxtTimeSeries() { return maxtTimeSeries_; }
@@ -540,9 +742,88 @@ public class GnwSettings {
 	public void setTimeStepSDE(double dt) { timeStepSDE_ = dt; }
 	public double getTimeStepSDE() { return timeStepSDE_; }
 	
+	public void setSdeSolver(Solver.sdeSolver solver) { sdeSolver_ = solver; }
+	public Solver.sdeSolver getSdeSolver() { return sdeSolver_; }
+	
+	public void setAbsoluteToleranceSDE(double value) { absoluteToleranceSDE_ = value; }
+	public double getAbsoluteToleranceSDE() { return absoluteToleranceSDE_; }
+	
+	public void setRelativeToleranceSDE(double value) { relativeToleranceSDE_ = value; }
+	public double getRelativeToleranceSDE() { return relativeToleranceSDE_; }
+	
 	public void setNoiseCoefficientSDE(double coeff) { noiseCoefficientSDE_ = coeff; }
 	public double getNoiseCoefficientSDE() { return noiseCoefficientSDE_; }
 	
+	public void setStochasticModel(Solver.type model) { stochasticModel_ = model; }
+	public Solver.type getStochasticModel() { return stochasticModel_; }
+	
+	public void setSystemSizeSSA(double size) { systemSizeSSA_ = size; }
+	/**
+	 * Return the number of molecules per unit concentration of the SSA. If it's not set, it's
+	 * 1/noiseCoefficientSDE^2: the chemical Langevin equation of the discrete model is then
+	 * the SDE with the given noise coefficient (400 molecules for the default 0.05).
+	 */
+	public double getSystemSizeSSA() {
+		if (systemSizeSSA_ > 0)
+			return systemSizeSSA_;
+		else
+			return 1 / (noiseCoefficientSDE_*noiseCoefficientSDE_);
+	}
+	
+	public void setTauLeapingSSA(boolean b) { tauLeapingSSA_ = b; }
+	public boolean getTauLeapingSSA() { return tauLeapingSSA_; }
+	
+	public void setTauLeapingEpsilonSSA(double epsilon) { tauLeapingEpsilonSSA_ = epsilon; }
+	public double getTauLeapingEpsilonSSA() { return tauLeapingEpsilonSSA_; }
+	
+	public void setLinearNoiseApproximation(boolean b) { linearNoiseApproximation_ = b; }
+	public boolean getLinearNoiseApproximation() { return linearNoiseApproximation_; }
+	
+	public void setStationarityTestSDE(boolean b) { stationarityTestSDE_ = b; }
+	public boolean getStationarityTestSDE() { return stationarityTestSDE_; }
+	
+	public void setStationarityBatchSDE(double duration) { stationarityBatchSDE_ = duration; }
+	public double getStationarityBatchSDE() { return stationarityBatchSDE_; }
+	
+	public void setStationarityWindowSDE(int size) { stationarityWindowSDE_ = size; }
+	public int getStationarityWindowSDE() { return stationarityWindowSDE_; }
+	
+	public void setBurnInPool(boolean b) { burnInPool_ = b; }
+	public boolean getBurnInPool() { return burnInPool_; }
+	
+	public void setBurnInMaxCorrelation(double rho) { burnInMaxCorrelation_ = rho; }
+	public double getBurnInMaxCorrelation() { return burnInMaxCorrelation_; }
+	
+	public void setHillFunctionEvaluation(CompiledGeneNetwork.hillFunction mode) { hillFunctionEvaluation_ = mode; }
+	public CompiledGeneNetwork.hillFunction getHillFunctionEvaluation() { return hillFunctionEvaluation_; }
+	
+	public void setEnsembleODE(boolean b) { ensembleODE_ = b; }
+	public boolean getEnsembleODE() { return ensembleODE_; }
+	
+	public void setParallelPerturbations(boolean b) { parallelPerturbations_ = b; }
+	public boolean getParallelPerturbations() { return parallelPerturbations_; }
+	
+	public void setNumThreads(int n) { numThreads_ = n; }
+	public int getNumThreads() { return numThreads_; }
+	
+	public void setNumStageThreads(int n) { numStageThreads_ = n; }
+	public int getNumStageThreads() { return numStageThreads_; }
+	
+	public void setBatchSizeSDE(int n) { batchSizeSDE_ = n; }
+	public int getBatchSizeSDE() { return batchSizeSDE_; }
+	
+	public void setCheckpointInterval(double interval) { checkpointInterval_ = interval; }
+	public double getCheckpointInterval() { return checkpointInterval_; }
+	
+	public void setResume(boolean b) { resume_ = b; }
+	public boolean getResume() { return resume_; }
+	
+	public void setResultCacheDirectory(String directory) { resultCacheDirectory_ = directory; }
+	public String getResultCacheDirectory() { return resultCacheDirectory_; }
+	
+	public void setResultCacheMaxSize(double size) { resultCacheMaxSize_ = size; }
+	public double getResultCacheMaxSize() { return resultCacheMaxSize_; }
+	
 	public void setModelTranslation(boolean b) { modelTranslation_ = b; }
 	public boolean getModelTranslation() { return modelTranslation_; }
 
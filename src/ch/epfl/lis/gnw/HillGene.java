@@ -40,6 +40,10 @@ import ch.epfl.lis.networks.Edge;
  * especially the random initialization in order to achieve biologically plausible gene regulation
  * functions. This will be described in a paper as soon as possible.
  * 
+ * computeMRnaProductionRate() uses workspaces of the gene (no allocation per call), it is thus
+ * not reentrant: the rates of a network must not be evaluated from several threads at the same
+ * time (each thread can use its own CompiledGeneNetwork instead).
+ * 
  * @author Daniel Marbach (firstname.name@gmail.com)
  * @author Thomas Schaffter (firstname.name@gmail.com)
  * 
@@ -52,6 +56,10 @@ public class HillGene extends Gene {
 	private double[] alphaWildType_;
 	/** The regulatory modules (they are activated independently from each other) */
 	private ArrayList<RegulatoryModule> regulatoryModules_;
+	/** Workspace for the mean activations of the modules (see computeMRnaProductionRate(), not reentrant) */
+	private double[] m_;
+	/** Workspace for the probabilities of the states of the modules */
+	private double[] stateProbabilities_;
 	
     /** Logger for this class */
     @SuppressWarnings("unused")
@@ -105,7 +113,8 @@ public class HillGene extends Gene {
 	// ----------------------------------------------------------------------------
 
 	/**
-	 * Compute the production rate of this gene
+	 * Compute the production rate of this gene. Not reentrant, the workspaces m_ and
+	 * stateProbabilities_ are shared by all calls.
 	 * @param geneIndex Index of this gene in the network that it belongs to
 	 * @param c Current expression levels of all gene of the network
 	 * @return Production rate of this gene
@@ -114,7 +123,10 @@ public class HillGene extends Gene {
 		
 		int numModules = regulatoryModules_.size();
 		// The mean activations of the modules
-		double[] m = new double[numModules];
+		if (m_ == null || m_.length != numModules) {
+			m_ = new double[numModules];
+			stateProbabilities_ = new double[alpha_.length];
+		}
 		// Index of the next input
 		int nextInput = 0;
 		
@@ -127,33 +139,11 @@ public class HillGene extends Gene {
 			for (int k=0; k<x.length; k++)
 				x[k] = c.get( grn_.getIndexOfNode(inputGenes_.get(nextInput++)) );
 			
-			m[i] = regulatoryModules_.get(i).computeActivation(x);
+			m_[i] = regulatoryModules_.get(i).computeActivation(x);
 		}
 	
 		// The relative activation of the gene
-		double alpha = 0;
-		double sum = 0;
-		
-		for (int i=0; i<alpha_.length; i++) {
-			// binary representation of state i
-			String s = Integer.toBinaryString(i); // note, leading 0's are not included
-			double p = 1; // the probability of being in state i
-			
-			// if module j is active in this state, multiply with m_j, otherwise with (1-m_j)
-			for (int j=0; j<numModules; j++) {
-				// if s.length()-j-1 smaller than zero, the corresponding module is off (it's one of the leading zeros)
-				if (s.length()-j-1 >= 0 && s.charAt(s.length()-j-1) == '1')	
-					p *= m[j];
-				else
-					p *= 1 - m[j];
-			}
-			assert p >= 0 && p <= 1 : p;
-			assert (sum += p) >= 0; // always true, just to compute the sum
-			
-			alpha += alpha_[i] * p;
-		}
-		
-		assert sum < 1+1e-6 && sum > 1-1e-6 : sum;
+		double alpha = ModuleStates.computeRelativeActivation(alpha_, 0, m_, numModules, stateProbabilities_);
 		
 		return max_ * alpha;
 	}
@@ -236,20 +226,9 @@ public class HillGene extends Gene {
 		// Remember that alpha_i = alpha_0 + something. Thus, if we perturb alpha_0,
 		// it appears in all terms of the vector alpha_
 		
-		// first, adapt deltaBasalActivation so that alpha_0 is in [0 1]
-		if (alpha_[0] + deltaBasalActivation > 1)
-			deltaBasalActivation = 1 - alpha_[0];
-		else if (alpha_[0] + deltaBasalActivation < 0)
-			deltaBasalActivation = 0 - alpha_[0];		
-		
-		for (int i=0; i<alpha_.length; i++) {
-			alpha_[i] += deltaBasalActivation;
-			// truncate to [0 1]
-			if (alpha_[i] < 0)
-				alpha_[i] = 0;
-			else if (alpha_[i] > 1)
-				alpha_[i] = 1;
-		}
+		// alpha_0 is kept in [0 1] and the other terms are truncated (see ParameterOverlay)
+		ParameterOverlay.perturbBasalActivation(alpha_, 0, alpha_.length, deltaBasalActivation);
+		parametersChanged();
 	}
 	
 	
@@ -260,6 +239,7 @@ public class HillGene extends Gene {
 		
 		for (int i=0; i<alpha_.length; i++)
 			alpha_[i] = alphaWildType_[i];
+		parametersChanged();
 	}
 	
 	
@@ -267,6 +247,7 @@ public class HillGene extends Gene {
 
 	public ArrayList<RegulatoryModule> getRegulatoryModules() {return regulatoryModules_;}
 	public double getBasalActivation() { return alpha_[0]; }
+	public double[] getAlpha() { return alpha_; }
 	
 	
 	// ============================================================================
@@ -535,23 +516,7 @@ public class HillGene extends Gene {
 		// State s is interpreted as a binary number, bit k indicates whether module k
 		// is active (1) or inactive (0) in this state. State 0 (alpha_0) has already
 		// been set
-		for (int i=1; i<numStates; i++) {
-			alpha_[i] = alpha_[0];
-			String s = Integer.toBinaryString(i); // note, leading 0's are not included
-			
-			// if module j is active in this state, add its effect
-			for (int j=0; j<numModules; j++) {
-				// if s.length()-j-1 smaller than zero, the corresponding module is off (it's one of the leading zeros)
-				if (s.length()-j-1 >= 0 && s.charAt(s.length()-j-1) == '1')	
-					alpha_[i] +=  dalpha[j];
-			}
-			
-			// truncate to [0 1]
-			if (alpha_[i] < 0)
-				alpha_[i] = 0;
-			else if (alpha_[i] > 1)
-				alpha_[i] = 1;
-		}
+		ModuleStates.computeStateActivations(alpha_, dalpha, numModules);
 	}
 
 	
@@ -0,0 +1,168 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+
+package ch.epfl.lis.gnw;
+
+import java.net.URL;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import cern.jet.random.Uniform;
+import ch.epfl.lis.imod.ImodNetwork;
+import ch.epfl.lis.networks.Structure;
+
+
+/** Checks the accuracy and measures the speed of the kinetics of CompiledGeneNetwork.
+ * 
+ * For each Hill function evaluation mode (see CompiledGeneNetwork.hillFunction), the time
+ * per evaluation of dx/dt is measured on random states (uniformly distributed in [0 1]).
+ * The error of the approximate modes is given by the maximum and mean difference of the
+ * production rates to those of the exact evaluation (see
+ * CompiledGeneNetwork.reportHillFunctionAccuracy()). Finally, the analytic Jacobian is
+ * compared to finite differences at a few of the random states (see
+ * CompiledGeneNetwork.checkJacobian()).
+ * 
+ * The main() method extracts a random subnetwork from the yeast network that comes with
+ * GNW, initializes it randomly and runs the benchmark with and without translation.
+ * Usage: KineticsBenchmark [subnetwork size (default 200)] [number of random states (default 1000)]
+ * 
+ * @author Daniel Marbach (firstname.name@gmail.com)
+ * 
+ */
+public class KineticsBenchmark {
+	
+	/** The yeast network of GNW (structure only) */
+	public static final String YEAST_NETWORK = "/ch/epfl/lis/gnwgui/rsc/net/yeast_transcriptional_network_Balaji2006.tsv";
+	/** Number of times that dx/dt is evaluated for each random state to measure the time */
+	private static final int NUM_REPETITIONS = 20;
+	/** Number of random states at which the analytic Jacobian is checked (2*dim evaluations of dx/dt each) */
+	private static final int NUM_JACOBIAN_CHECKS = 5;
+	
+	/** The gene network */
+	private GeneNetwork grn_;
+	/** The random states (mRNA, and proteins if translation is modelled) */
+	private double[][] states_;
+	
+	/** Logger for this class */
+	private static Logger log = Logger.getLogger(KineticsBenchmark.class.getName());
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/** Constructor, draws the given number of random states */
+	public KineticsBenchmark(GeneNetwork grn, int numStates) {
+		
+		grn_ = grn;
+		
+		int dimension = GnwSettings.getInstance().getModelTranslation() ? 2*grn.getSize() : grn.getSize();
+		Uniform uniform = GnwSettings.getInstance().getUniformDistribution();
+		states_ = new double[numStates][dimension];
+		for (int s=0; s<numStates; s++)
+			for (int i=0; i<dimension; i++)
+				states_[s][i] = uniform.nextDouble();
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Run the benchmark for all Hill function evaluation modes */
+	public void run() {
+		
+		int dimension = states_[0].length;
+		log.log(Level.INFO, "Kinetics benchmark: " + grn_.getSize() + " genes, modelTranslation = " + (dimension > grn_.getSize()) +
+				", " + states_.length + " random states");
+		
+		double[] dxydt = new double[dimension];
+		
+		for (CompiledGeneNetwork.hillFunction mode : CompiledGeneNetwork.hillFunction.values()) {
+			CompiledGeneNetwork kinetics = new CompiledGeneNetwork(grn_);
+			kinetics.setHillFunctionEvaluation(mode);
+			
+			// warm up, then measure
+			for (int s=0; s<states_.length; s++)
+				kinetics.computeDxydt(states_[s], dxydt);
+			
+			long start = System.nanoTime();
+			for (int r=0; r<NUM_REPETITIONS; r++)
+				for (int s=0; s<states_.length; s++)
+					kinetics.computeDxydt(states_[s], dxydt);
+			double time = (System.nanoTime() - start) / 1e3 / (NUM_REPETITIONS*states_.length);
+			
+			log.log(Level.INFO, mode + ": " + String.format("%.2f", time) + " microseconds per evaluation of dx/dt");
+			
+			if (mode != CompiledGeneNetwork.hillFunction.EXACT)
+				CompiledGeneNetwork.reportHillFunctionAccuracy(grn_, mode, states_.length);
+		}
+		
+		// analytic Jacobian vs finite differences
+		CompiledGeneNetwork kinetics = new CompiledGeneNetwork(grn_);
+		double maxError = 0;
+		for (int s=0; s<Math.min(NUM_JACOBIAN_CHECKS, states_.length); s++)
+			maxError = Math.max(maxError, kinetics.checkJacobian(states_[s]));
+		log.log(Level.INFO, "Jacobian: max error " + maxError + " over " + Math.min(NUM_JACOBIAN_CHECKS, states_.length) + " random states");
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Extract a subnetwork from the yeast network, initialize it randomly and run the
+	 * benchmark without and with translation.
+	 */
+	public static void main(String[] args) throws Exception {
+		
+		int size = 200;
+		int numStates = 1000;
+		if (args.length > 0)
+			size = Integer.parseInt(args[0]);
+		if (args.length > 1)
+			numStates = Integer.parseInt(args[1]);
+		
+		URL url = KineticsBenchmark.class.getResource(YEAST_NETWORK);
+		if (url == null)
+			throw new RuntimeException("KineticsBenchmark: " + YEAST_NETWORK + " not found");
+		ImodNetwork yeast = new ImodNetwork();
+		yeast.load(url, Structure.TSV);
+		
+		SubnetExtractor extractor = new SubnetExtractor(yeast);
+		Structure structure = extractor.runExtraction("yeast-" + size, size, 1)[0];
+		
+		GnwSettings set = GnwSettings.getInstance();
+		boolean modelTranslation = set.getModelTranslation();
+		
+		for (int translation=0; translation<2; translation++) {
+			set.setModelTranslation(translation == 1);
+			GeneNetwork grn = new GeneNetwork(structure);
+			grn.randomInitialization();
+			
+			new KineticsBenchmark(grn, numStates).run();
+		}
+		set.setModelTranslation(modelTranslation);
+	}
+	
+}
@@ -0,0 +1,426 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+
+package ch.epfl.lis.gnw;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import cern.colt.matrix.DoubleMatrix2D;
+import cern.colt.matrix.impl.DenseDoubleMatrix2D;
+import cern.jet.random.engine.RandomEngine;
+import ch.epfl.lis.sde.SdeSettings;
+import ch.epfl.lis.sde.XoshiroRandomEngine;
+import ch.epfl.lis.sde.ZigguratNormal;
+
+
+/** Linear noise approximation (LNA) of the SDEs of a gene network at a steady state.
+ * 
+ * Close to a stable steady state x* of the ODEs, the SDEs of GeneNetworkSDE are approximated
+ * by the linear SDE dz = J z dt + B dW, where J is the Jacobian of the ODEs at x* and B is the
+ * diagonal diffusion of GeneNetworkSDE at x* (noiseCoefficientSDE times the square root of
+ * production + degradation). The stationary distribution is Gaussian with mean x* and the
+ * covariance C that solves the Lyapunov equation J*C + C*J' + B*B' = 0. A stochastic steady
+ * state is then sampled with one linear solve instead of a long simulation of the SDEs. (The
+ * SDEs are integrated in the Stratonovich interpretation, the difference of the drift is of
+ * the order of the noise coefficient squared and is neglected.)
+ * 
+ * The Lyapunov equation is solved with the low-rank ADI iteration (Li & White, Low rank
+ * solution of Lyapunov equations, SIAM J Matrix Anal Appl, 2002; Penzl, 1999), which gives
+ * C = Z*Z' with Z = [V_1 ... V_k], where
+ *   V_1 = sqrt(-2 p_1) (J + p_1 I)^-1 B
+ *   V_i = sqrt(p_i/p_(i-1)) (V_(i-1) - (p_i + p_(i-1)) (J + p_i I)^-1 V_(i-1))
+ * for negative real shifts p_i. Here B has full rank (one noise source per variable), thus Z
+ * isn't low-rank and is never formed: a sample x* + Z*w (w standard normal) is computed with
+ * a Horner scheme over the blocks, which needs k sparse solves (see sample()). All matrices
+ * (J + p I) are sparse with the pattern of the network and are factorized once with SparseLU,
+ * thus the memory and the cost per sample grow linearly with the size of the network.
+ * 
+ * The shifts are spaced geometrically between estimates of the smallest and the largest
+ * magnitude of the eigenvalues of J (power iterations on J^-1 and J) and used cyclically. The
+ * number of blocks k is chosen in solve() so that the Frobenius norm of the last block is
+ * smaller than TOLERANCE times the norm of Z (the norms are estimated with NUM_PROBES random
+ * probe vectors). solve() returns false if the steady state isn't stable or the iteration
+ * doesn't converge.
+ * 
+ * Negative concentrations of the samples are set to zero (as for the SDEs, see
+ * SdeSolver.checkX()).
+ * 
+ * @author Daniel Marbach (firstname.name@gmail.com)
+ * @author Thomas Schaffter (firstname.name@gmail.com)
+ * 
+ */
+public class LinearNoiseApproximation {
+	
+	/** The iteration stops when the norm of the last block is smaller than this times the norm of Z */
+	private static final double TOLERANCE = 1e-4;
+	/** Maximum number of blocks of Z */
+	private static final int MAX_ITERATIONS = 200;
+	/** Maximum number of different shifts */
+	private static final int MAX_SHIFTS = 16;
+	/** Maximum ratio between consecutive shifts */
+	private static final double SHIFT_RATIO = 3;
+	/** Number of random probe vectors used to estimate the norms of the blocks */
+	private static final int NUM_PROBES = 4;
+	/** Number of power iterations to estimate the spectral bounds of J */
+	private static final int NUM_POWER_ITERATIONS = 20;
+	/** Seed of the probe vectors (the number of blocks doesn't depend on the random seed of the settings) */
+	private static final long PROBE_SEED = 1;
+	
+	/** Number of variables */
+	private int dimension_;
+	/** The steady state x* */
+	private double[] xy_;
+	/** Jacobian at x* */
+	private SparseMatrix J_;
+	/** Diagonal of the diffusion B at x* */
+	private double[] diffusion_;
+	/** The different shifts (negative) */
+	private double[] shifts_;
+	/** LU factorizations of J + p I for each shift p */
+	private SparseLU[] lu_;
+	/** Number of blocks of Z */
+	private int numIterations_;
+	/** Estimated norm of the last block divided by the norm of Z */
+	private double relativeNorm_;
+	/** Normal distribution of the samples (SdeSettings if not set) */
+	private ZigguratNormal normal_;
+	/** Number of times a concentration of a sample was negative and set to zero */
+	private int numNegative_;
+	
+	/** Workspaces */
+	private double[] u_, v_, w_;
+
+    /** Logger for this class */
+	private static Logger log = Logger.getLogger(LinearNoiseApproximation.class.getName());
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/**
+	 * Constructor, xy is the steady state of the ODEs (mRNA and, if translation is modelled,
+	 * protein concentrations) for the current parameters of the network. The Jacobian and
+	 * the diffusion are evaluated here, call solve() before sampling.
+	 */
+	public LinearNoiseApproximation(GeneNetwork grn, double[] xy) {
+		this(grn, xy, null);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Same as above, for the parameters of the network with the given overlay (e.g., a
+	 * perturbation, see Perturbation.getOverlay()), xy is the steady state for these parameters.
+	 */
+	public LinearNoiseApproximation(GeneNetwork grn, double[] xy, ParameterOverlay overlay) {
+		
+		CompiledGeneNetwork compiledGrn = new CompiledGeneNetwork(grn);
+		if (overlay != null)
+			compiledGrn.setParameterOverlay(overlay);
+		dimension_ = xy.length;
+		xy_ = xy.clone();
+		
+		J_ = compiledGrn.createJacobian();
+		if (J_.getNumRows() != dimension_)
+			throw new IllegalArgumentException("LinearNoiseApproximation: xy.length = " + dimension_ +
+					" doesn't match the number of variables " + J_.getNumRows());
+		compiledGrn.computeJacobian(xy_, J_);
+		
+		// the diffusion of GeneNetworkSDE
+		double[] drift = new double[dimension_];
+		diffusion_ = new double[dimension_];
+		compiledGrn.computeDriftAndDiffusion(xy_, drift, diffusion_);
+		double m = GnwSettings.getInstance().getNoiseCoefficientSDE();
+		for (int i=0; i<dimension_; i++)
+			diffusion_[i] *= m;
+		
+		u_ = new double[dimension_];
+		v_ = new double[dimension_];
+		w_ = new double[dimension_];
+		numIterations_ = 0;
+		numNegative_ = 0;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Choose the shifts, factorize J + p I and determine the number of blocks of Z. Return
+	 * false if the steady state isn't stable or the ADI iteration doesn't converge.
+	 */
+	public boolean solve() {
+		
+		for (int k=0; k<J_.getValues().length; k++)
+			if (Double.isNaN(J_.getValues()[k]) || Double.isInfinite(J_.getValues()[k]))
+				return false;
+		for (int i=0; i<dimension_; i++)
+			if (Double.isNaN(diffusion_[i]))
+				return false;
+		
+		if (!computeShifts())
+			return false;
+		
+		// estimate the norms of the blocks with random probe vectors: ||V_i||_F^2 = E(||V_i w||^2)
+		ZigguratNormal probeNormal = new ZigguratNormal(new XoshiroRandomEngine(PROBE_SEED));
+		double[][] probes = new double[NUM_PROBES][dimension_];
+		double total = 0;
+		double last = 0;
+		for (int p=0; p<NUM_PROBES; p++) {
+			probeNormal.fill(w_, 1);
+			for (int i=0; i<dimension_; i++)
+				w_[i] *= diffusion_[i];
+			applyFirstBlock(w_, probes[p]);
+			last += squaredNorm(probes[p]);
+		}
+		total = last;
+		
+		int k = 1;
+		while (last > TOLERANCE*TOLERANCE*total) {
+			if (k == MAX_ITERATIONS || Double.isNaN(last) || Double.isInfinite(last))
+				return false;
+			
+			last = 0;
+			for (int p=0; p<NUM_PROBES; p++) {
+				applyNextBlock(k, probes[p], probes[p]);
+				last += squaredNorm(probes[p]);
+			}
+			total += last;
+			k++;
+		}
+		numIterations_ = k;
+		relativeNorm_ = (total > 0) ? Math.sqrt(last/total) : 0;
+		
+		return true;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Draw a sample from the stationary distribution N(x*, C) (negative concentrations are set
+	 * to zero). With C = Z*Z', the sample is x* + sum_i V_i w_i, which is computed from the
+	 * last block to the first as V_1 (u_1 + M_2 (u_2 + M_3 (u_3 + ...))), where u_i = B w_i and
+	 * M_i is the operator such that V_i = M_i V_(i-1) (the operators are rational functions of J
+	 * and commute).
+	 * @param xy Returns the sample
+	 */
+	public void sample(double[] xy) {
+		
+		if (numIterations_ == 0)
+			throw new IllegalStateException("LinearNoiseApproximation: solve() must be called before sample()");
+		if (normal_ == null) {
+			if (SdeSettings.getInstance().getZigguratNormal() == null)
+				SdeSettings.getInstance().initializeRNG();
+			normal_ = SdeSettings.getInstance().getZigguratNormal();
+		}
+		
+		// u = B w_k
+		normal_.fill(u_, 1);
+		for (int j=0; j<dimension_; j++)
+			u_[j] *= diffusion_[j];
+		
+		for (int i=numIterations_-1; i>=1; i--) {
+			applyNextBlock(i, u_, u_);
+			normal_.fill(w_, 1);
+			for (int j=0; j<dimension_; j++)
+				u_[j] += diffusion_[j]*w_[j];
+		}
+		applyFirstBlock(u_, v_);
+		
+		for (int j=0; j<dimension_; j++) {
+			xy[j] = xy_[j] + v_[j];
+			if (xy[j] < 0) {
+				xy[j] = 0;
+				numNegative_++;
+			}
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return the covariance C = Z*Z' as a dense matrix (use only for small networks) */
+	public DoubleMatrix2D computeCovariance() {
+		
+		DoubleMatrix2D C = new DenseDoubleMatrix2D(dimension_, dimension_);
+		
+		// the columns of the blocks V_i for the column j of B
+		for (int j=0; j<dimension_; j++) {
+			for (int i=0; i<dimension_; i++)
+				u_[i] = 0;
+			u_[j] = diffusion_[j];
+			applyFirstBlock(u_, v_);
+			addOuterProduct(C, v_);
+			
+			for (int i=1; i<numIterations_; i++) {
+				applyNextBlock(i, v_, v_);
+				addOuterProduct(C, v_);
+			}
+		}
+		return C;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Log the number of blocks and shifts, and the number of negative concentrations of the samples */
+	public void logStatistics() {
+		
+		log.log(Level.INFO, "LNA: " + numIterations_ + " ADI iterations with " + shifts_.length + " shifts (relative norm of the last block " +
+				relativeNorm_ + "), " + numNegative_ + " negative concentrations set to 0");
+	}
+	
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/**
+	 * Estimate the smallest and the largest magnitude of the eigenvalues of J, choose the
+	 * shifts geometrically between them and factorize J + p I. Return false if a matrix is
+	 * singular.
+	 */
+	private boolean computeShifts() {
+		
+		// largest magnitude: power iteration on J
+		double[] v = new double[dimension_];
+		double max = J_.estimateSpectralRadius(v, w_, NUM_POWER_ITERATIONS);
+		
+		// smallest magnitude: power iteration on J^-1
+		SparseLU lu = new SparseLU();
+		if (!lu.factorize(J_))
+			return false;
+		for (int i=0; i<dimension_; i++)
+			v[i] = 1;
+		double inverseRadius = 0;
+		for (int k=0; k<NUM_POWER_ITERATIONS; k++) {
+			double norm = Math.sqrt(squaredNorm(v));
+			for (int i=0; i<dimension_; i++)
+				v[i] /= norm;
+			lu.solve(v, w_);
+			inverseRadius = Math.sqrt(squaredNorm(w_));
+			System.arraycopy(w_, 0, v, 0, dimension_);
+		}
+		double min = 1/inverseRadius;
+		if (!(min > 0) || !(max >= min) || Double.isInfinite(max))
+			return false;
+		
+		int numShifts = 1 + (int) Math.ceil(Math.log(max/min) / Math.log(SHIFT_RATIO));
+		numShifts = Math.min(numShifts, MAX_SHIFTS);
+		shifts_ = new double[numShifts];
+		for (int s=0; s<numShifts; s++)
+			shifts_[s] = (numShifts == 1) ? -min : -min * Math.pow(max/min, s/(double)(numShifts-1));
+		
+		// factorize J + p I
+		lu_ = new SparseLU[numShifts];
+		for (int s=0; s<numShifts; s++) {
+			SparseMatrix A = new SparseMatrix(J_);
+			for (int i=0; i<dimension_; i++)
+				A.getValues()[A.getPosition(i, i)] += shifts_[s];
+			lu_[s] = new SparseLU();
+			if (!lu_[s].factorize(A))
+				return false;
+		}
+		return true;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return the shift p_i of block i (0-based, the shifts are used cyclically) */
+	private double shift(int i) {
+		return shifts_[i % shifts_.length];
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** result = sqrt(-2 p_1) (J + p_1 I)^-1 x */
+	private void applyFirstBlock(double[] x, double[] result) {
+		
+		lu_[0].solve(x, result);
+		double c = Math.sqrt(-2*shift(0));
+		for (int j=0; j<dimension_; j++)
+			result[j] *= c;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** result = M_i x = sqrt(p_i/p_(i-1)) (x - (p_i + p_(i-1)) (J + p_i I)^-1 x) for block i (0-based), result may be x */
+	private void applyNextBlock(int i, double[] x, double[] result) {
+		
+		double p = shift(i);
+		double previous = shift(i-1);
+		
+		lu_[i % shifts_.length].solve(x, w_);
+		double c = Math.sqrt(p/previous);
+		for (int j=0; j<dimension_; j++)
+			result[j] = c * (x[j] - (p + previous)*w_[j]);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return the squared Euclidean norm of x */
+	private static double squaredNorm(double[] x) {
+		
+		double sum = 0;
+		for (int i=0; i<x.length; i++)
+			sum += x[i]*x[i];
+		return sum;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** C = C + v*v' */
+	private static void addOuterProduct(DoubleMatrix2D C, double[] v) {
+		
+		for (int i=0; i<v.length; i++)
+			if (v[i] != 0)
+				for (int j=0; j<v.length; j++)
+					C.setQuick(i, j, C.getQuick(i, j) + v[i]*v[j]);
+	}
+	
+	
+	// ============================================================================
+	// SETTERS AND GETTERS
+	
+	/** Set the source of the random numbers of the samples (the normal distribution of SdeSettings is used otherwise) */
+	public void setRandomEngine(RandomEngine engine) { normal_ = new ZigguratNormal(engine); }
+	
+	public double[] getSteadyState() { return xy_; }
+	public SparseMatrix getJacobian() { return J_; }
+	public double[] getDiffusion() { return diffusion_; }
+	public double[] getShifts() { return shifts_; }
+	public int getNumIterations() { return numIterations_; }
+	public double getRelativeNorm() { return relativeNorm_; }
+	public int getNumNegative() { return numNegative_; }
+
+}
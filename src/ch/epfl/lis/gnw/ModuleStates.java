@@ -0,0 +1,151 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+
+package ch.epfl.lis.gnw;
+
+
+/** Computations over the 2^m possible states of the m regulatory modules of a HillGene.
+ * 
+ * State s is interpreted as a binary number, bit j indicates whether module j is
+ * active (1) or inactive (0) in this state. Instead of testing the bits of every state
+ * one by one (O(m*2^m) operations), the values for all states are built with a
+ * subset-product (or subset-sum) recurrence: once the values for the states of the
+ * first j modules are known, the states where module j is active are obtained from
+ * those where it is inactive with one operation each. This requires O(2^m) operations
+ * and no allocation (the caller provides the workspace).
+ * 
+ * The factors of each state are still multiplied (added) in the order of the modules,
+ * starting with module 0, thus the results are bit-for-bit identical to the direct
+ * evaluation state by state.
+ * 
+ * @author Daniel Marbach (firstname.name@gmail.com)
+ * @author Thomas Schaffter (firstname.name@gmail.com)
+ * 
+ */
+public final class ModuleStates {
+
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/**
+	 * Compute the relative activation of a gene, i.e., the sum over all states s of
+	 * alpha_s times the probability of state s, where the probability of state s is the
+	 * product of m_j (if module j is active in s) or 1-m_j (if module j is inactive).
+	 * @param alpha Relative activations of the states, starting at alpha[alphaOffset]
+	 * @param alphaOffset Index of alpha_0 in alpha
+	 * @param m Mean activations of the modules
+	 * @param numModules Number of modules
+	 * @param p Workspace of size at least 2^numModules, returns the probabilities of the states
+	 * @return The relative activation of the gene
+	 */
+	public static double computeRelativeActivation(double[] alpha, int alphaOffset, double[] m, int numModules, double[] p) {
+		
+		int numStates = 1 << numModules;
+		
+		p[0] = 1;
+		for (int j=0, half=1; j<numModules; j++, half<<=1) {
+			double on = m[j];
+			double off = 1 - m[j];
+			// states where module j is active are those where it is inactive + 2^j
+			for (int s=0; s<half; s++) {
+				p[s+half] = p[s] * on;
+				p[s] *= off;
+			}
+		}
+		
+		double activation = 0;
+		double sum = 0;
+		for (int s=0; s<numStates; s++) {
+			assert p[s] >= 0 && p[s] <= 1 : p[s];
+			assert (sum += p[s]) >= 0; // always true, just to compute the sum
+			activation += alpha[alphaOffset+s] * p[s];
+		}
+		assert sum < 1+1e-6 && sum > 1-1e-6 : sum;
+		
+		return activation;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Compute the derivative of the relative activation (see computeRelativeActivation())
+	 * with respect to the mean activation m_j of module j. Since the relative activation
+	 * is linear in each m_j, this is the relative activation for m_j = 1 minus the one
+	 * for m_j = 0. m is left unchanged.
+	 */
+	public static double computeRelativeActivationDerivative(double[] alpha, int alphaOffset, double[] m, int numModules, int j, double[] p) {
+		
+		double mj = m[j];
+		
+		m[j] = 1;
+		double on = computeRelativeActivation(alpha, alphaOffset, m, numModules, p);
+		m[j] = 0;
+		double off = computeRelativeActivation(alpha, alphaOffset, m, numModules, p);
+		m[j] = mj;
+		
+		return on - off;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Set the relative activations of all states given the basal activation alpha[0]
+	 * and the effect dalpha[j] of each module alone: alpha_s = alpha_0 + sum of the
+	 * dalpha of the modules that are active in s, truncated to [0 1]. alpha[0] must
+	 * already be set and is not changed.
+	 * @param alpha Relative activations of the states (output, except for alpha[0])
+	 * @param dalpha Difference in gene activation due to each module alone
+	 * @param numModules Number of modules
+	 */
+	public static void computeStateActivations(double[] alpha, double[] dalpha, int numModules) {
+		
+		int numStates = 1 << numModules;
+		
+		// first the untruncated sums, the recurrence only reads states that are already set
+		for (int j=0, half=1; j<numModules; j++, half<<=1)
+			for (int s=0; s<half; s++)
+				alpha[s+half] = alpha[s] + dalpha[j];
+		
+		// truncate to [0 1]
+		for (int s=1; s<numStates; s++) {
+			if (alpha[s] < 0)
+				alpha[s] = 0;
+			else if (alpha[s] > 1)
+				alpha[s] = 1;
+		}
+	}
+	
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/** No instances, only static methods */
+	private ModuleStates() {}
+	
+}
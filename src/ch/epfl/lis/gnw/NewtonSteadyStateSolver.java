@@ -0,0 +1,339 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+
+package ch.epfl.lis.gnw;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/** Computes steady states by solving f(x) = 0 directly instead of integrating the ODEs.
+ * 
+ * Uses pseudo-transient continuation (PTC), i.e., damped Newton steps
+ *    x <- x + (I/tau - J)^-1 f(x)
+ * where J is the analytic sparse Jacobian (see CompiledGeneNetwork) and the linear
+ * systems are solved with a sparse LU factorization. For small tau this is an implicit
+ * Euler step of the ODEs with step size tau, thus the iteration roughly follows the
+ * trajectory from the initial condition and ends up in the same basin of attraction
+ * (this is not guaranteed for multistable networks, but the typical case). The pseudo
+ * time step grows as the residual decreases (switched evolution relaxation:
+ * tau <- tau*|f_old|/|f_new|, but at least doubled), so that the last iterations are
+ * Newton steps with quadratic convergence. Negative concentrations are set to zero after each step.
+ * 
+ * In order to provide the times needed by the SDE simulations, the time to convergence
+ * of the ODE integration is estimated from the slowest relaxation rate at the steady
+ * state (see estimateTime()). This is only an estimate, the initial transients are
+ * nonlinear and the time is multiplied by TIME_SAFETY_FACTOR to be on the safe side.
+ * 
+ * @author Daniel Marbach (firstname.name@gmail.com)
+ * @author Thomas Schaffter (firstname.name@gmail.com)
+ * 
+ */
+public class NewtonSteadyStateSolver {
+
+	/** Compiled gene network, used to compute f(x) and the Jacobian */
+	private CompiledGeneNetwork compiledGrn_;
+	/** The Jacobian */
+	private SparseMatrix J_;
+	/** The matrix I/tau - J */
+	private SparseMatrix M_;
+	/** Positions of the diagonal elements in J_ and M_ */
+	private int[] diagonal_;
+	/** Sparse LU factorization of M_ */
+	private SparseLU lu_;
+	
+	/** Maximum number of iterations */
+	private int maxIterations_;
+	/** Initial pseudo time step */
+	private double initialTau_;
+	/** Maximum pseudo time step */
+	private double maxTau_;
+	/** Convergence: max_i |f_i| / (absolutePrecision + relativePrecision*|x_i|) < tolerance_ */
+	private double tolerance_;
+	
+	/** Number of inverse iterations used to estimate the slowest relaxation rate */
+	private static final int NUM_INVERSE_ITERATIONS = 10;
+	/** The estimated time is multiplied by this factor (the estimate tends to be too short) */
+	private static final double TIME_SAFETY_FACTOR = 1.5;
+	/** Estimated time to convergence of the ODE integration (last solve) */
+	private double time_;
+	/** Number of iterations (last solve) */
+	private int numIterations_;
+	
+	/** Logger for this class */
+	private static Logger log = Logger.getLogger(NewtonSteadyStateSolver.class.getName());
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/** Constructor */
+	public NewtonSteadyStateSolver(GeneNetwork grn) {
+		
+		compiledGrn_ = new CompiledGeneNetwork(grn);
+		J_ = compiledGrn_.createJacobian();
+		M_ = new SparseMatrix(J_);
+		lu_ = new SparseLU();
+		
+		int dim = J_.getNumRows();
+		diagonal_ = new int[dim];
+		for (int i=0; i<dim; i++)
+			diagonal_[i] = J_.getPosition(i, i);
+		
+		maxIterations_ = 200;
+		initialTau_ = 1;
+		maxTau_ = 1e12;
+		tolerance_ = 1e-6;
+		time_ = 0;
+		numIterations_ = 0;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Compute the steady state starting from the given initial condition. The estimated
+	 * time to convergence of the ODE integration is rounded up to a multiple of dt and
+	 * truncated to maxt, see getTime().
+	 * @param xy Initial condition, returns the steady state if successful (unchanged otherwise)
+	 * @param maxt Maximum time
+	 * @return true if the iteration converged
+	 */
+	public boolean solve(double[] xy, double maxt) {
+		
+		return solve(xy, maxt, initialTau_);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Same as solve(xy, maxt), but with the given initial pseudo time step. A large
+	 * initial tau is appropriate if xy is already close to the steady state (e.g.,
+	 * the steady state for slightly different parameters).
+	 */
+	public boolean solve(double[] xy, double maxt, double initialTau) {
+		
+		GnwSettings set = GnwSettings.getInstance();
+		double dt = set.getDt();
+		double absolutePrecision = set.getAbsolutePrecision();
+		double relativePrecision = set.getRelativePrecision();
+		
+		int dim = xy.length;
+		double[] x = xy.clone();
+		double[] f = new double[dim];
+		double[] xNew = new double[dim];
+		double[] fNew = new double[dim];
+		double[] delta = new double[dim];
+		double[] values = M_.getValues();
+		
+		compiledGrn_.computeDxydt(x, f);
+		double r = scaledResidual(x, f, absolutePrecision, relativePrecision);
+		double r0 = r;
+		double tau = initialTau;
+		boolean converged = false;
+		numIterations_ = 0;
+		
+		while (numIterations_ < maxIterations_) {
+			if (r < tolerance_) {
+				converged = true;
+				break;
+			}
+			numIterations_++;
+			
+			// M = I/tau - J
+			compiledGrn_.computeJacobian(x, J_);
+			double[] jacobian = J_.getValues();
+			for (int k=0; k<values.length; k++)
+				values[k] = -jacobian[k];
+			for (int i=0; i<dim; i++)
+				values[diagonal_[i]] += 1/tau;
+			
+			boolean ok = lu_.factorize(M_);
+			double rNew = Double.NaN;
+			
+			if (ok) {
+				lu_.solve(f, delta);
+				for (int i=0; i<dim; i++)
+					xNew[i] = Math.max(0, x[i] + delta[i]);
+				
+				compiledGrn_.computeDxydt(xNew, fNew);
+				rNew = scaledResidual(xNew, fNew, absolutePrecision, relativePrecision);
+			}
+			
+			// reject the step if it failed or if the residual increased a lot
+			if (!ok || Double.isNaN(rNew) || Double.isInfinite(rNew) || rNew > 10*r) {
+				tau /= 4;
+				if (tau < 1e-8*initialTau)
+					break;
+				continue;
+			}
+			
+			// switched evolution relaxation, the pseudo time step at least doubles as long as the
+			// residual decreases (the residual is dominated by the slowest modes, pure SER would
+			// increase tau only very slowly)
+			if (rNew < r)
+				tau = Math.min(maxTau_, tau * Math.max(2, Math.min(100, r/rNew)));
+			else
+				tau /= 2;
+			
+			double[] tmp = x; x = xNew; xNew = tmp;
+			tmp = f; f = fNew; fNew = tmp;
+			r = rNew;
+		}
+		
+		if (!converged) {
+			log.log(Level.INFO, "Newton steady-state solver did not converge after " + numIterations_ + " iterations (scaled residual " + r + ")");
+			return false;
+		}
+		
+		time_ = roundTime(TIME_SAFETY_FACTOR * estimateTime(x, r0, dt), dt, maxt);
+		System.arraycopy(x, 0, xy, 0, dim);
+		
+		return true;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Estimate the time needed by the ODE integration to converge from the initial
+	 * condition xy0 to the steady state xy (for the current parameters of the network).
+	 * Used when the steady state was found starting from another initial condition
+	 * (continuation, see SteadyStateExperiment). As for solve(), the time is rounded up
+	 * to a multiple of dt and truncated to maxt.
+	 */
+	public double estimateTime(double[] xy0, double[] xy, double maxt) {
+		
+		GnwSettings set = GnwSettings.getInstance();
+		double dt = set.getDt();
+		
+		double[] f = new double[xy0.length];
+		compiledGrn_.computeDxydt(xy0, f);
+		double r0 = scaledResidual(xy0, f, set.getAbsolutePrecision(), set.getRelativePrecision());
+		if (Double.isNaN(r0))
+			return maxt;
+		
+		return roundTime(TIME_SAFETY_FACTOR * estimateTime(xy, r0, dt), dt, maxt);
+	}
+	
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/**
+	 * Estimate the time needed by the ODE integration to satisfy its convergence criterion
+	 * (r*dt < 1, where r is the scaled residual). Close to the steady state x, the residual
+	 * decays as exp(-lambda*t), where lambda is the slowest relaxation rate, i.e., the
+	 * smallest eigenvalue of -J(x) in magnitude. It is obtained by inverse iteration.
+	 * Returns Double.MAX_VALUE if the Jacobian is singular.
+	 */
+	private double estimateTime(double[] x, double r0, double dt) {
+		
+		if (r0*dt < 1)
+			return 0;
+		
+		int dim = x.length;
+		compiledGrn_.computeJacobian(x, J_);
+		double[] jacobian = J_.getValues();
+		double[] values = M_.getValues();
+		for (int k=0; k<values.length; k++)
+			values[k] = -jacobian[k];
+		if (!lu_.factorize(M_))
+			return Double.MAX_VALUE;
+		
+		double[] v = new double[dim];
+		double[] w = new double[dim];
+		for (int i=0; i<dim; i++)
+			v[i] = 1/Math.sqrt(dim);
+		
+		double mu = 0;
+		for (int k=0; k<NUM_INVERSE_ITERATIONS; k++) {
+			lu_.solve(v, w);
+			mu = 0;
+			for (int i=0; i<dim; i++)
+				mu += w[i]*w[i];
+			mu = Math.sqrt(mu);
+			if (mu == 0 || Double.isNaN(mu) || Double.isInfinite(mu))
+				return Double.MAX_VALUE;
+			for (int i=0; i<dim; i++)
+				v[i] = w[i]/mu;
+		}
+		// mu approximates 1/lambda
+		return mu * Math.log(r0*dt);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** The time is a multiple of dt as for the integration (at least one step) and at most maxt */
+	private double roundTime(double time, double dt, double maxt) {
+		
+		return Math.min(maxt, dt * Math.max(1, Math.ceil(time/dt)));
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return max_i |f_i| / (absolutePrecision + relativePrecision*|x_i|) */
+	private double scaledResidual(double[] x, double[] f, double absolutePrecision, double relativePrecision) {
+		
+		double r = 0;
+		for (int i=0; i<x.length; i++) {
+			double ri = Math.abs(f[i]) / (absolutePrecision + relativePrecision*Math.abs(x[i]));
+			if (Double.isNaN(ri))
+				return Double.NaN;
+			if (ri > r)
+				r = ri;
+		}
+		return r;
+	}
+	
+	
+	// ============================================================================
+	// SETTERS AND GETTERS
+	
+	/** Estimated time to convergence of the ODE integration for the last solve (multiple of dt) */
+	public double getTime() { return time_; }
+	
+	/** Set the perturbed parameters of the network (null for the parameters of the network) */
+	public void setParameterOverlay(ParameterOverlay overlay) { compiledGrn_.setParameterOverlay(overlay); }
+	public ParameterOverlay getParameterOverlay() { return compiledGrn_.getParameterOverlay(); }
+	public int getNumIterations() { return numIterations_; }
+	
+	public void setMaxIterations(int n) { maxIterations_ = n; }
+	public int getMaxIterations() { return maxIterations_; }
+	
+	public void setInitialTau(double tau) { initialTau_ = tau; }
+	public double getInitialTau() { return initialTau_; }
+	
+	public void setTolerance(double tol) { tolerance_ = tol; }
+	public double getTolerance() { return tolerance_; }
+	
+	public SparseLU getLU() { return lu_; }
+	
+}
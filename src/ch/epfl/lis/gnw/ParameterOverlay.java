@@ -0,0 +1,144 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+
+package ch.epfl.lis.gnw;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+
+/** Perturbed parameters of a gene network, stored separately from the network.
+ * 
+ * Applying a perturbation to a GeneNetwork (Perturbation.applyPerturbation()) changes
+ * the parameters of all genes, and they have to be restored afterwards. An overlay
+ * instead holds only the parameters that differ from the network (e.g., the max
+ * transcription rate of the knocked-out gene), the network itself is not changed.
+ * The solvers read the parameters through the overlay: it is applied when the
+ * parameters are copied to a CompiledGeneNetwork (see CompiledGeneNetwork.setParameterOverlay()).
+ * Thus, several perturbations of the same network can be simulated at the same time,
+ * and nothing has to be restored afterwards. The overlay stores only the perturbed genes
+ * (building it from a perturbation vector scans the N genes once, see
+ * Perturbation.getOverlay()).
+ * 
+ * Two kinds of overrides are supported, corresponding to the perturbations of GNW:
+ * - The max transcription rate of a gene is replaced (single-gene and dual perturbations)
+ * - The basal activation of a gene is changed by a given amount (multifactorial perturbations),
+ *   exactly as HillGene.perturbBasalActivation()
+ * 
+ * Overlays are not changed by the solvers, the same overlay can be used by several
+ * solvers in parallel threads.
+ * 
+ * @author Daniel Marbach (firstname.name@gmail.com)
+ * @author Thomas Schaffter (firstname.name@gmail.com)
+ * 
+ */
+public class ParameterOverlay {
+	
+	/** Max transcription rates of the genes whose rate is replaced (gene index -> rate) */
+	private TreeMap<Integer, Double> max_;
+	/** Changes of the basal activations (gene index -> change) */
+	private TreeMap<Integer, Double> deltaBasalActivation_;
+	
+	
+	// ============================================================================
+	// STATIC METHODS
+	
+	/**
+	 * Change the basal activation of the alpha vector alpha[start] ... alpha[end-1] of a gene
+	 * by deltaBasalActivation. The basal activation alpha[start] appears in all elements of
+	 * the alpha vector, they are all shifted. The change is adapted so that the basal
+	 * activation stays in [0 1], and the other elements are truncated to [0 1].
+	 */
+	public static void perturbBasalActivation(double[] alpha, int start, int end, double deltaBasalActivation) {
+		
+		// first, adapt deltaBasalActivation so that alpha_0 is in [0 1]
+		if (alpha[start] + deltaBasalActivation > 1)
+			deltaBasalActivation = 1 - alpha[start];
+		else if (alpha[start] + deltaBasalActivation < 0)
+			deltaBasalActivation = 0 - alpha[start];
+		
+		for (int i=start; i<end; i++) {
+			alpha[i] += deltaBasalActivation;
+			// truncate to [0 1]
+			if (alpha[i] < 0)
+				alpha[i] = 0;
+			else if (alpha[i] > 1)
+				alpha[i] = 1;
+		}
+	}
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/** Constructor, an empty overlay (the parameters of the network) */
+	public ParameterOverlay() {
+		
+		max_ = new TreeMap<Integer, Double>();
+		deltaBasalActivation_ = new TreeMap<Integer, Double>();
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Apply the overlay to the parameters of a network, given as arrays of max transcription
+	 * rates and concatenated alpha vectors (the alpha vector of gene i is alpha[alphaStart[i]]
+	 * ... alpha[alphaStart[i+1]-1]), see CompiledGeneNetwork.
+	 */
+	public void apply(double[] max, double[] alpha, int[] alphaStart) {
+		
+		for (Map.Entry<Integer, Double> entry : max_.entrySet())
+			max[entry.getKey()] = entry.getValue();
+		
+		for (Map.Entry<Integer, Double> entry : deltaBasalActivation_.entrySet()) {
+			int i = entry.getKey();
+			perturbBasalActivation(alpha, alphaStart[i], alphaStart[i+1], entry.getValue());
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return true if the overlay doesn't change any parameter */
+	public boolean isEmpty() {
+		return max_.isEmpty() && deltaBasalActivation_.isEmpty();
+	}
+	
+	
+	// ============================================================================
+	// SETTERS AND GETTERS
+	
+	/** Replace the max transcription rate of gene i */
+	public void setMax(int i, double max) { max_.put(i, max); }
+	/** Change the basal activation of gene i by the given amount (see perturbBasalActivation()) */
+	public void setDeltaBasalActivation(int i, double delta) { deltaBasalActivation_.put(i, delta); }
+	
+	/** Return the number of perturbed parameters */
+	public int getNumOverrides() { return max_.size() + deltaBasalActivation_.size(); }
+	
+}
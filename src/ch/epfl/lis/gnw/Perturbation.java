@@ -48,6 +48,10 @@ import ch.epfl.lis.networks.ios.TSVParser;
  * a time. For two-gene perturbations, two m_i are perturbed. For multifactorial,
  * the max transcription rates of all genes are sampled from a normal
  * distribution with mean m_i and standard deviation m_i*CV_.
+ * 
+ * Instead of applying a perturbation to the network and restoring the wild-type
+ * afterwards, the perturbed parameters can be obtained as a ParameterOverlay
+ * (getOverlay()), which the solvers apply without changing the network.
  * @author Daniel Marbach
  */
 public abstract class Perturbation {
@@ -70,8 +74,10 @@ public abstract class Perturbation {
     // ============================================================================
 	// ABSTRACT METHODS
     
-	/** Apply the k'th perturbation to the grn_ */
-	public abstract void applyPerturbation(int k);
+	/** Apply the given perturbation (same format as the rows of perturbations_) to the grn_ */
+	public abstract void applyPerturbation(DoubleMatrix1D perturbation);
+	/** Return the parameters of grn_ changed by the given perturbation as an overlay (grn_ is not changed) */
+	public abstract ParameterOverlay getOverlay(DoubleMatrix1D perturbation);
 	/** Save the wild-type of the network grn_ in wildType_ */
 	protected abstract void saveWildType();
 	/** Restore the values before perturbations were applied */
@@ -92,6 +98,38 @@ public abstract class Perturbation {
 	}
 	
 
+	// ----------------------------------------------------------------------------
+
+	/** Apply the k'th perturbation to the grn_ */
+	public void applyPerturbation(int k) {
+		applyPerturbation(perturbations_.viewRow(k));
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+
+	/** Return the k'th perturbation as an overlay of the parameters of grn_ */
+	public ParameterOverlay getOverlay(int k) {
+		return getOverlay(perturbations_.viewRow(k));
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+
+	/**
+	 * Distance between two perturbations (same format as the rows of perturbations_),
+	 * used to order the perturbations for continuation (see SteadyStateExperiment).
+	 * The default is the L1 distance.
+	 */
+	public double distance(DoubleMatrix1D perturbation1, DoubleMatrix1D perturbation2) {
+		
+		double d = 0;
+		for (int i=0; i<numGenes_; i++)
+			d += Math.abs(perturbation1.get(i) - perturbation2.get(i));
+		return d;
+	}
+	
+	
 	// ----------------------------------------------------------------------------
 	
 	/**
@@ -159,5 +197,7 @@ public abstract class Perturbation {
 	// SETTERS AND GETTERS
 	
 	public int getNumPerturbations() { return numPerturbations_; }
+	public DoubleMatrix1D getPerturbation(int k) { return perturbations_.viewRow(k); }
+	public DoubleMatrix1D getWildType() { return wildType_; }
 	
 }
@@ -27,6 +27,7 @@ THE SOFTWARE.
 
 package ch.epfl.lis.gnw;
 
+import cern.colt.matrix.DoubleMatrix1D;
 import cern.colt.matrix.impl.DenseDoubleMatrix1D;
 import cern.colt.matrix.impl.DenseDoubleMatrix2D;
 import cern.jet.random.Normal;
@@ -110,11 +111,24 @@ public class PerturbationMultifactorial extends Perturbation {
 
 	// ----------------------------------------------------------------------------
 
-	/** Apply the k'th perturbation to the grn_ */
-	public void applyPerturbation(int k) {
+	/** Apply the given perturbation (changes of the basal activations of all genes) to the grn_ */
+	public void applyPerturbation(DoubleMatrix1D perturbation) {
 		
 		for (int i=0; i<numGenes_; i++)
-			grn_.getGene(i).perturbBasalActivation( perturbations_.get(k,i) );
+			grn_.getGene(i).perturbBasalActivation( perturbation.get(i) );
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+
+	/** Return the changes of the basal activations that are not zero as an overlay */
+	public ParameterOverlay getOverlay(DoubleMatrix1D perturbation) {
+		
+		ParameterOverlay overlay = new ParameterOverlay();
+		for (int i=0; i<numGenes_; i++)
+			if (perturbation.get(i) != 0)
+				overlay.setDeltaBasalActivation(i, perturbation.get(i));
+		return overlay;
 	}
 
 	
@@ -27,6 +27,7 @@ THE SOFTWARE.
 
 package ch.epfl.lis.gnw;
 
+import cern.colt.matrix.DoubleMatrix1D;
 import cern.colt.matrix.impl.DenseDoubleMatrix1D;
 import cern.colt.matrix.impl.DenseDoubleMatrix2D;
 
@@ -70,11 +71,24 @@ public class PerturbationSingleGene extends Perturbation {
 	
 	// ----------------------------------------------------------------------------
 
-	/** Apply the k'th perturbation to the grn_ */
-	public void applyPerturbation(int k) {
+	/** Apply the given perturbation (max transcription rates of all genes) to the grn_ */
+	public void applyPerturbation(DoubleMatrix1D perturbation) {
 		
 		for (int i=0; i<numGenes_; i++)
-			grn_.getGene(i).setMax( perturbations_.get(k,i) );
+			grn_.getGene(i).setMax( perturbation.get(i) );
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+
+	/** Return the max transcription rates that differ from the wild-type as an overlay */
+	public ParameterOverlay getOverlay(DoubleMatrix1D perturbation) {
+		
+		ParameterOverlay overlay = new ParameterOverlay();
+		for (int i=0; i<numGenes_; i++)
+			if (perturbation.get(i) != wildType_.get(i))
+				overlay.setMax(i, perturbation.get(i));
+		return overlay;
 	}
 	
 	
@@ -145,17 +145,23 @@ public class RegulatoryModule {
 		int numInputs = numActivators_ + numDeactivators_;
 		assert x.length == numInputs;
 		
-		// define xi_i := (x_i/k_i)^n_i
-		double[] xi = new double[numInputs];
+		// define xi_i := (x_i/k_i)^n_i, each xi is computed once. The inputs are multiplied
+		// in order, so the product of the first numActivators_ xi is the product of the
+		// activators, and the product of all xi is the one of all inputs
+		double multiplyActivators = 1;
+		double multiplyAllInputs = 1;
+		double multiplyXiPlusOne = 1;
 		for (int i=0; i<numInputs; i++) {
 			assert x[i] >= 0.0 : x[i];
-			xi[i] = Math.pow(x[i] / k_[i], n_[i]);
+			double xi = Math.pow(x[i] / k_[i], n_[i]);
+			
+			multiplyAllInputs *= xi;
+			multiplyXiPlusOne *= (xi + 1);
+			if (i < numActivators_)
+				multiplyActivators = multiplyAllInputs;
 		}
 		
 		// compute the numerator
-		double multiplyActivators = 1;
-		for (int i=0; i<numActivators_; i++)
-			multiplyActivators *= xi[i];
 		double numerator = multiplyActivators;
 		
 		// compute the partition function
@@ -168,12 +174,8 @@ public class RegulatoryModule {
 			// activated complex bound
 			denominator += multiplyActivators;
 			
-			if (numDeactivators_ > 0) { // BUG FIXED: this if was not here in v1
-				double multiplyAllInputs = multiplyActivators;
-				for (int j=numActivators_; j<numInputs; j++)
-					multiplyAllInputs *=  xi[j];
+			if (numDeactivators_ > 0) // BUG FIXED: this if was not here in v1
 				denominator += multiplyAllInputs;
-			}
 			
 		} else {
 			// I was actually computing (x0+1)(x1+1) ... = 1 + x0 + x1 + x0x1 + ... in the latter form!
@@ -192,8 +194,7 @@ public class RegulatoryModule {
 				denominator += term;
 			}*/
 			// ok, this *is* arguably faster
-			for (int i=0; i<numInputs; i++)
-				denominator *=  (xi[i] + 1);
+			denominator *= multiplyXiPlusOne;
 		}
 		double activation = numerator / denominator;
 		
@@ -0,0 +1,294 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+
+package ch.epfl.lis.gnw;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/** An on-disk cache of the results of simulated experiments.
+ * 
+ * Each entry contains the results of an experiment (in the format of the checkpoints, see
+ * Experiment.setCheckpoint()). The name of the file is the key of the results: a hash of
+ * the dynamical model (the structure and all parameters of the genes, see writeModel()),
+ * the perturbations and the simulation settings (see Experiment.computeCacheKey()). If an
+ * experiment is simulated again with the same model, perturbations and settings (e.g., to
+ * generate datasets with different experimental noise), the results are read from the cache
+ * instead. Whole experiments are cached, since the stochastic simulations of an experiment
+ * depend on each other (shared initial condition and random numbers).
+ * 
+ * The size of the cache is bounded, the least recently used entries are removed when an
+ * entry is added (the last modification time of a file is set when it's used). The main()
+ * method lists the entries and prunes the cache.
+ * Usage: ResultCache <directory> [list | prune <max size in MB> | clear]
+ * 
+ * @author Daniel Marbach (firstname.name@gmail.com)
+ * 
+ */
+public class ResultCache {
+	
+	/** The directory of the cache */
+	private File directory_;
+	/** Maximum size of the cache in bytes */
+	private long maxSize_;
+	
+	/** Extension of the files of the entries */
+	private static final String EXTENSION = ".result";
+	
+	/** Logger for this class */
+	private static Logger log = Logger.getLogger(ResultCache.class.getName());
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/** Constructor, the directory is created if it doesn't exist, maxSize is in MB */
+	public ResultCache(String directory, double maxSize) {
+		
+		directory_ = new File(directory);
+		maxSize_ = (long) (maxSize*1024*1024);
+		
+		if (!directory_.isDirectory() && !directory_.mkdirs())
+			throw new RuntimeException("ResultCache: can't create the directory " + directory);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return the entry with the given key and mark it as used, or null if the cache doesn't contain it */
+	public synchronized CheckpointFile lookup(String key) {
+		
+		File file = getFile(key);
+		if (!file.exists())
+			return null;
+		
+		file.setLastModified(System.currentTimeMillis());
+		return new CheckpointFile(file.getPath());
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return the entry with the given key for writing (see CheckpointFile), call entryAdded() after writing it */
+	public CheckpointFile createEntry(String key) {
+		
+		return new CheckpointFile(getFile(key).getPath());
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Remove the least recently used entries if the cache is larger than the maximum size */
+	public void entryAdded() {
+		
+		int numRemoved = prune(maxSize_);
+		if (numRemoved > 0)
+			log.log(Level.INFO, "Removed " + numRemoved + " results from the cache " + directory_.getPath());
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Remove the least recently used entries until the size of the cache is at most maxSize bytes, return the number of removed entries */
+	public synchronized int prune(long maxSize) {
+		
+		File[] entries = getEntries();
+		long size = 0;
+		for (int i=0; i<entries.length; i++)
+			size += entries[i].length();
+		
+		int numRemoved = 0;
+		for (int i=entries.length-1; i>=0 && size>maxSize; i--) {
+			size -= entries[i].length();
+			if (entries[i].delete())
+				numRemoved++;
+		}
+		return numRemoved;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return the files of the entries, the most recently used first */
+	public synchronized File[] getEntries() {
+		
+		File[] entries = directory_.listFiles(new FileFilter() {
+			public boolean accept(File file) {
+				return file.isFile() && file.getName().endsWith(EXTENSION);
+			}
+		});
+		if (entries == null)
+			return new File[0];
+		
+		Arrays.sort(entries, new Comparator<File>() {
+			public int compare(File a, File b) {
+				long ta = a.lastModified();
+				long tb = b.lastModified();
+				return (ta > tb) ? -1 : ((ta < tb) ? 1 : 0);
+			}
+		});
+		return entries;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Write the dynamical model of the network: for each gene, its type, the indexes of
+	 * its inputs and the names and values of all its parameters (see Gene.compileParameters(),
+	 * for HillGenes this includes the structure and the parameters of the RegulatoryModules).
+	 * Used for the keys of the cache.
+	 */
+	static void writeModel(GeneNetwork grn, DataOutputStream out) throws IOException {
+		
+		ArrayList<String> names = new ArrayList<String>();
+		ArrayList<Double> values = new ArrayList<Double>();
+		
+		out.writeInt(grn.getSize());
+		for (int i=0; i<grn.getSize(); i++) {
+			Gene gene = grn.getGene(i);
+			out.writeUTF(gene.getClass().getName());
+			
+			ArrayList<Gene> inputs = gene.getInputGenes();
+			int numInputs = (inputs == null) ? 0 : inputs.size();
+			out.writeInt(numInputs);
+			for (int j=0; j<numInputs; j++)
+				out.writeInt(grn.getIndexOfNode(inputs.get(j)));
+			
+			gene.compileParameters(names, values);
+			out.writeInt(names.size());
+			for (int p=0; p<names.size(); p++) {
+				out.writeUTF(names.get(p));
+				out.writeDouble(values.get(p));
+			}
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return the bytes as a hexadecimal string */
+	static String toHex(byte[] bytes) {
+		
+		StringBuilder hex = new StringBuilder();
+		for (int i=0; i<bytes.length; i++)
+			hex.append(String.format("%02x", bytes[i] & 0xff));
+		return hex.toString();
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Inspect and prune the cache.
+	 * Usage: ResultCache <directory> [list | prune <max size in MB> | clear]
+	 *   list: list the entries, the most recently used first (default)
+	 *   prune: remove the least recently used entries until the cache is at most the given size
+	 *   clear: remove all entries
+	 */
+	public static void main(String[] args) throws Exception {
+		
+		if (args.length < 1 || args.length > 3) {
+			System.out.println("Usage: ResultCache <directory> [list | prune <max size in MB> | clear]");
+			return;
+		}
+		
+		File directory = new File(args[0]);
+		if (!directory.isDirectory()) {
+			System.out.println("ResultCache: " + args[0] + " is not a directory");
+			return;
+		}
+		ResultCache cache = new ResultCache(args[0], 0);
+		String command = (args.length > 1) ? args[1] : "list";
+		
+		if (command.equals("list")) {
+			cache.list();
+		} else if (command.equals("prune") && args.length == 3) {
+			int numRemoved = cache.prune((long) (Double.parseDouble(args[2])*1024*1024));
+			System.out.println("Removed " + numRemoved + " entries");
+			cache.list();
+		} else if (command.equals("clear")) {
+			int numRemoved = cache.prune(-1);
+			System.out.println("Removed " + numRemoved + " entries");
+		} else {
+			System.out.println("Usage: ResultCache <directory> [list | prune <max size in MB> | clear]");
+		}
+	}
+	
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/** Return the file of the entry with the given key */
+	private File getFile(String key) {
+		
+		return new File(directory_, key + EXTENSION);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Print the entries (key, size, last use, experiment) and the total size */
+	private void list() {
+		
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+		File[] entries = getEntries();
+		long size = 0;
+		
+		for (int i=0; i<entries.length; i++) {
+			String description;
+			try {
+				DataInputStream in = new CheckpointFile(entries[i].getPath()).openForReading();
+				try {
+					description = Experiment.readDescription(in);
+				} finally {
+					in.close();
+				}
+			} catch (IOException e) {
+				description = "unreadable (" + e.getMessage() + ")";
+			}
+			
+			String key = entries[i].getName().substring(0, entries[i].getName().length() - EXTENSION.length());
+			System.out.println(key.substring(0, 16) + "  " + String.format("%10.1f kB", entries[i].length()/1024.0) + "  "
+					+ format.format(new Date(entries[i].lastModified())) + "  " + description);
+			size += entries[i].length();
+		}
+		System.out.println(entries.length + " entries, " + String.format("%.1f MB", size/(1024.0*1024.0)) + " in " + directory_.getPath());
+	}
+	
+}
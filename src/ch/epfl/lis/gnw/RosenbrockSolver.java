@@ -0,0 +1,510 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+
+package ch.epfl.lis.gnw;
+
+import org.opensourcephysics.numerics.ODE;
+
+
+/** Linearly implicit Rosenbrock-W solver for stiff ODEs, with adaptive step size.
+ * 
+ * With modelTranslation, the half-lives of the mRNAs and proteins of large networks
+ * differ by more than an order of magnitude and the ODEs become mildly stiff: the step
+ * size of explicit solvers is limited by stability rather than by accuracy. This solver
+ * uses the four-stage W-method ROS34PW2 of Rang & Angermann (BIT Numerical Mathematics
+ * 45:761-787, 2005), which is L-stable, of order 3 with an embedded method of order 2
+ * for the error estimate. Each stage solves a linear system with the matrix
+ *    I/(h*gamma) - J
+ * where J is the analytic sparse Jacobian (see CompiledGeneNetwork), using a sparse LU
+ * factorization (see SparseLU). No Newton iterations are needed.
+ * 
+ * Since it's a W-method, the order is retained when J is only an approximation of the
+ * Jacobian. Thus, J is reused for up to MAX_JACOBIAN_AGE steps (it's recomputed after
+ * a rejected step), and the LU factorization is reused as long as the step size differs
+ * by less than MAX_LU_STEP_RATIO from the one it was computed for (the factorization for
+ * step size h' is the one for h with J replaced by J + (1/(h*gamma) - 1/(h'*gamma))*I,
+ * which is still an approximation of the Jacobian).
+ * 
+ * The step size is chosen so that the root mean square of the estimated local errors,
+ * divided by absolutePrecision + relativePrecision*max(|x_old|, |x_new|), is smaller
+ * than 1 (same as DormandPrinceSolver). The states at the requested times are obtained
+ * by cubic Hermite interpolation between the steps. The state of the ODE (ODE.getState())
+ * is set to the interpolated state at each time that is reached with step().
+ * 
+ * The stages are written in the transformed form u_i = sum_j gamma_ij*k_j (see Hairer &
+ * Wanner, Solving Ordinary Differential Equations II, Section IV.7), thus the
+ * Jacobian is only used in the matrix of the linear systems.
+ * 
+ * @author Daniel Marbach (firstname.name@gmail.com)
+ * @author Thomas Schaffter (firstname.name@gmail.com)
+ * 
+ */
+public class RosenbrockSolver {
+	
+	/** Number of stages */
+	private static final int S = 4;
+	/** Diagonal element of the method */
+	private static final double GAMMA = 4.3586652150845900e-01;
+	/** Coefficients of ROS34PW2 in the original form: alpha_ij, gamma_ij (i > j), b and the embedded b */
+	private static final double[][] ALPHA = {
+		{},
+		{8.7173304301691801e-01},
+		{8.4457060015369423e-01, -1.1299064236484185e-01},
+		{0, 0, 1}};
+	private static final double[][] GAMMA_IJ = {
+		{},
+		{-8.7173304301691801e-01},
+		{-9.0338057013044082e-01, 5.4180672388095326e-02},
+		{2.4212380706095346e-01, -1.2232505839045147e+00, 5.4526025533510214e-01}};
+	private static final double[] B = {2.4212380706095346e-01, -1.2232505839045147e+00, 1.5452602553351020e+00, 4.3586652150845900e-01};
+	private static final double[] B_EMBEDDED = {3.7810903145819369e-01, -9.6042292212423178e-02, 5.0000000000000000e-01, 2.1793326075422950e-01};
+	
+	/** Coefficients of the transformed form (computed from the ones above) */
+	private static final double[][] A_U = new double[S][S];
+	private static final double[][] C_U = new double[S][S];
+	private static final double[] M_U = new double[S];
+	private static final double[] E_U = new double[S];
+	
+	static {
+		// inverse of the lower triangular matrix Gamma (with GAMMA on the diagonal)
+		double[][] inv = new double[S][S];
+		for (int i=0; i<S; i++) {
+			inv[i][i] = 1/GAMMA;
+			for (int j=0; j<i; j++) {
+				double sum = 0;
+				for (int k=j; k<i; k++)
+					sum += GAMMA_IJ[i][k] * inv[k][j];
+				inv[i][j] = -sum/GAMMA;
+			}
+		}
+		for (int i=0; i<S; i++) {
+			for (int j=0; j<i; j++) {
+				C_U[i][j] = -inv[i][j];
+				for (int k=j; k<i; k++)
+					A_U[i][j] += ALPHA[i][k] * inv[k][j];
+			}
+		}
+		for (int j=0; j<S; j++) {
+			for (int k=j; k<S; k++) {
+				M_U[j] += B[k] * inv[k][j];
+				E_U[j] += (B[k] - B_EMBEDDED[k]) * inv[k][j];
+			}
+		}
+	}
+	
+	/** Safety factor of the step size control */
+	private static final double SAFETY = 0.9;
+	/** Bounds of the ratio new / old step size */
+	private static final double MIN_FACTOR = 0.2, MAX_FACTOR = 6;
+	/** The LU factorization is reused as long as the step size differs by less than this factor from the one it was computed for */
+	private static final double MAX_LU_STEP_RATIO = 1.5;
+	/** Maximum number of steps for which the same Jacobian is used */
+	private static final int MAX_JACOBIAN_AGE = 20;
+	/** Maximum number of steps (accepted and rejected) per call of step() */
+	private static final int MAX_STEPS = 100000;
+	
+	/** The ODE system */
+	private ODE ode_;
+	/** Compiled gene network, used to compute the Jacobian */
+	private CompiledGeneNetwork compiledGrn_;
+	/** Number of variables */
+	private int dimension_;
+	
+	/** The Jacobian */
+	private SparseMatrix J_;
+	/** The matrix I/(h*gamma) - J */
+	private SparseMatrix M_;
+	/** Positions of the diagonal elements in J_ and M_ */
+	private int[] diagonal_;
+	/** Sparse LU factorization of M_ */
+	private SparseLU lu_;
+	/** Step size for which M_ was factorized (0 if the factorization is not valid) */
+	private double luStepSize_;
+	/** Number of steps since the Jacobian was computed (-1 if it's not valid) */
+	private int jacobianAge_;
+	
+	/** Time of the internal state x_ */
+	private double t_;
+	/** Internal state (at the end of the last step) and its rate */
+	private double[] x_, f_;
+	/** State and rate at the beginning of the last step */
+	private double[] xOld_, fOld_;
+	/** Time at the beginning and size of the last step */
+	private double tOld_, hOld_;
+	/** Proposed size of the next step */
+	private double h_;
+	/** Stages (transformed form) */
+	private double[][] u_;
+	/** Workspaces */
+	private double[] tmp_, rhs_;
+	
+	/** Time that was last reached with step() */
+	private double time_;
+	/** Time step of step() */
+	private double stepSize_;
+	/** Absolute precision */
+	private double absolutePrecision_;
+	/** Relative precision */
+	private double relativePrecision_;
+	
+	/** Number of accepted steps */
+	private int numSteps_;
+	/** Number of rejected steps */
+	private int numRejectedSteps_;
+	/** Number of evaluations of the rates */
+	private int numEvaluations_;
+	/** Number of evaluations of the Jacobian */
+	private int numJacobianEvaluations_;
+	/** Number of LU factorizations */
+	private int numFactorizations_;
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/**
+	 * Constructor, the initial condition is the current state of the ODE. The rates are
+	 * evaluated with the ODE, the Jacobian with a compiled form of grn (the ODE must be
+	 * the one of this network).
+	 */
+	public RosenbrockSolver(ODE ode, GeneNetwork grn) {
+		
+		GnwSettings set = GnwSettings.getInstance();
+		
+		ode_ = ode;
+		compiledGrn_ = new CompiledGeneNetwork(grn);
+		dimension_ = ode.getState().length;
+		
+		J_ = compiledGrn_.createJacobian();
+		if (J_.getNumRows() != dimension_)
+			throw new IllegalArgumentException("RosenbrockSolver: the ODE and the gene network have different dimensions");
+		M_ = new SparseMatrix(J_);
+		lu_ = new SparseLU();
+		diagonal_ = new int[dimension_];
+		for (int i=0; i<dimension_; i++)
+			diagonal_[i] = J_.getPosition(i, i);
+		luStepSize_ = 0;
+		jacobianAge_ = -1;
+		
+		x_ = ode.getState().clone();
+		f_ = new double[dimension_];
+		xOld_ = new double[dimension_];
+		fOld_ = new double[dimension_];
+		u_ = new double[S][dimension_];
+		tmp_ = new double[dimension_];
+		rhs_ = new double[dimension_];
+		
+		absolutePrecision_ = set.getAbsolutePrecision();
+		relativePrecision_ = set.getRelativePrecision();
+		stepSize_ = set.getDt();
+		t_ = 0;
+		time_ = 0;
+		tOld_ = 0;
+		hOld_ = 0;
+		numSteps_ = 0;
+		numRejectedSteps_ = 0;
+		numEvaluations_ = 0;
+		numJacobianEvaluations_ = 0;
+		numFactorizations_ = 0;
+		
+		evaluate(x_, f_);
+		h_ = initialStepSize();
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Advance the time by the step size (dt of the settings by default), the state of the
+	 * ODE is set to the interpolated state at the new time.
+	 * @return The time step
+	 */
+	public double step() {
+		
+		double tEnd = time_ + stepSize_;
+		int numSteps = 0;
+		
+		while (t_ < tEnd) {
+			if (++numSteps > MAX_STEPS)
+				throw new RuntimeException("RosenbrockSolver: maximum number of steps exceeded at t = " + t_);
+			if (t_ + h_ == t_)
+				throw new RuntimeException("RosenbrockSolver: step size too small at t = " + t_);
+			
+			tryStep();
+		}
+		
+		double[] state = ode_.getState();
+		if (t_ == tEnd)
+			System.arraycopy(x_, 0, state, 0, dimension_);
+		else
+			interpolate(tEnd, state);
+		
+		time_ = tEnd;
+		return stepSize_;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Restart the integration from the state of the ODE at the time that was last reached
+	 * with step(). Must be called when the parameters of the network are changed during the
+	 * integration (the internal state is already beyond this time). The step size is
+	 * reinitialized (the state may change rapidly with the new parameters).
+	 */
+	public void restart() {
+		
+		System.arraycopy(ode_.getState(), 0, x_, 0, dimension_);
+		t_ = time_;
+		tOld_ = time_;
+		hOld_ = 0;
+		jacobianAge_ = -1;
+		evaluate(x_, f_);
+		h_ = initialStepSize();
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Same as restart(), but the integration continues from the state of the ODE at time t
+	 * (e.g., after another solver was used) with the given initial step size.
+	 */
+	public void restart(double t, double h) {
+		
+		time_ = t;
+		restart();
+		h_ = h;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Interpolate the state at time t, which must be within the last step, i.e., between
+	 * getTime() and the internal time (cubic Hermite interpolation).
+	 */
+	public void interpolate(double t, double[] xy) {
+		
+		if (hOld_ == 0 || t < tOld_ || t > t_)
+			throw new IllegalArgumentException("RosenbrockSolver: t = " + t + " is not within the last step");
+		
+		double theta = (t - tOld_) / hOld_;
+		double theta1 = 1 - theta;
+		double h00 = theta1*theta1*(1 + 2*theta);
+		double h01 = theta*theta*(3 - 2*theta);
+		double h10 = hOld_*theta*theta1*theta1;
+		double h11 = -hOld_*theta*theta*theta1;
+		for (int i=0; i<dimension_; i++)
+			xy[i] = h00*xOld_[i] + h01*x_[i] + h10*fOld_[i] + h11*f_[i];
+	}
+	
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/** Try one step of size h_, update the state if it's accepted. Update the step size in any case. */
+	private void tryStep() {
+		
+		double h = h_;
+		double[] x = x_;
+		int n = dimension_;
+		
+		if (jacobianAge_ < 0 || jacobianAge_ >= MAX_JACOBIAN_AGE) {
+			compiledGrn_.computeJacobian(x, J_);
+			numJacobianEvaluations_++;
+			jacobianAge_ = 0;
+			luStepSize_ = 0;
+		}
+		// reuse the factorization of I/(h'*gamma) - J, which is I/(h*gamma) - W with W = J + (1/(h*gamma) - 1/(h'*gamma))*I
+		if ((luStepSize_ == 0 || h > MAX_LU_STEP_RATIO*luStepSize_ || h*MAX_LU_STEP_RATIO < luStepSize_) && !factorize(h)) {
+			// singular (only for specific step sizes), try a smaller one
+			numRejectedSteps_++;
+			h_ = h/2;
+			return;
+		}
+		
+		// stages: (I/(h*gamma) - J) u_i = f(x + sum_j a_ij u_j) + sum_j c_ij/h u_j
+		for (int i=0; i<S; i++) {
+			double[] rate = rhs_;
+			if (i == 0)
+				System.arraycopy(f_, 0, rate, 0, n);
+			else {
+				System.arraycopy(x, 0, tmp_, 0, n);
+				for (int j=0; j<i; j++)
+					axpy(A_U[i][j], u_[j], tmp_);
+				evaluate(tmp_, rate);
+				for (int j=0; j<i; j++)
+					axpy(C_U[i][j]/h, u_[j], rate);
+			}
+			lu_.solve(rate, u_[i]);
+		}
+		
+		// new state and error (root mean square of the scaled local errors)
+		double[] xNew = tmp_;
+		double[] localError = rhs_;
+		System.arraycopy(x, 0, xNew, 0, n);
+		for (int l=0; l<n; l++)
+			localError[l] = 0;
+		for (int j=0; j<S; j++) {
+			axpy(M_U[j], u_[j], xNew);
+			axpy(E_U[j], u_[j], localError);
+		}
+		double sum = 0;
+		for (int l=0; l<n; l++) {
+			double scale = absolutePrecision_ + relativePrecision_*Math.max(Math.abs(x[l]), Math.abs(xNew[l]));
+			sum += (localError[l]/scale) * (localError[l]/scale);
+		}
+		double error = Math.sqrt(sum / n);
+		if (Double.isNaN(error))
+			error = Double.POSITIVE_INFINITY;
+		
+		// step size control, the embedded method is of order 2
+		double factor;
+		if (error == 0)
+			factor = MAX_FACTOR;
+		else if (Double.isInfinite(error))
+			factor = MIN_FACTOR;
+		else
+			factor = Math.max(MIN_FACTOR, Math.min(MAX_FACTOR, SAFETY * Math.pow(error, -1.0/3.0)));
+		
+		if (error <= 1) {
+			// accept the step, the rate at the new state is the first stage of the next step
+			double[] swap = xOld_; xOld_ = x_; x_ = tmp_; tmp_ = swap;
+			swap = fOld_; fOld_ = f_; f_ = swap;
+			evaluate(x_, f_);
+			tOld_ = t_;
+			hOld_ = h;
+			t_ += h;
+			numSteps_++;
+			jacobianAge_++;
+			h_ = h * factor;
+		} else {
+			numRejectedSteps_++;
+			h_ = h * Math.min(1, factor);
+			// the Jacobian may be too old
+			if (jacobianAge_ > 0)
+				jacobianAge_ = -1;
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Factorize M = I/(h*gamma) - J, return false if it's singular */
+	private boolean factorize(double h) {
+		
+		double[] jacobian = J_.getValues();
+		double[] values = M_.getValues();
+		for (int k=0; k<values.length; k++)
+			values[k] = -jacobian[k];
+		for (int i=0; i<dimension_; i++)
+			values[diagonal_[i]] += 1/(h*GAMMA);
+		
+		numFactorizations_++;
+		if (!lu_.factorize(M_)) {
+			luStepSize_ = 0;
+			return false;
+		}
+		luStepSize_ = h;
+		return true;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Initial step size such that an explicit Euler step changes the state by about 1%
+	 * (relative to the scale of the variables), at most the step size of step().
+	 */
+	private double initialStepSize() {
+		
+		double normX = 0;
+		double normF = 0;
+		for (int i=0; i<dimension_; i++) {
+			double scale = absolutePrecision_ + relativePrecision_*Math.abs(x_[i]);
+			normX += (x_[i]/scale) * (x_[i]/scale);
+			normF += (f_[i]/scale) * (f_[i]/scale);
+		}
+		normX = Math.sqrt(normX / dimension_);
+		normF = Math.sqrt(normF / dimension_);
+		
+		double h;
+		if (normX < 1e-5 || normF < 1e-5)
+			h = 1e-6;
+		else
+			h = 0.01 * normX / normF;
+		
+		return Math.min(h, stepSize_);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** y = y + a*x */
+	private void axpy(double a, double[] x, double[] y) {
+		
+		for (int l=0; l<dimension_; l++)
+			y[l] += a*x[l];
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Evaluate the rates at the given state */
+	private void evaluate(double[] x, double[] rate) {
+		
+		ode_.getRate(x, rate);
+		numEvaluations_++;
+	}
+	
+	
+	// ============================================================================
+	// SETTERS AND GETTERS
+	
+	/** Set the time step of step() (dt of the settings by default) */
+	public void setStepSize(double dt) { stepSize_ = dt; }
+	public double getStepSize() { return stepSize_; }
+	
+	/** Set the perturbed parameters used for the Jacobian, must be the same as for the ODE (see GeneNetworkODE) */
+	public void setParameterOverlay(ParameterOverlay overlay) { compiledGrn_.setParameterOverlay(overlay); }
+	
+	/** Time that was last reached with step() */
+	public double getTime() { return time_; }
+	/** The internal state, at the end of the last step (getInternalTime()) */
+	public double[] getInternalState() { return x_; }
+	public double getInternalTime() { return t_; }
+	/** The proposed size of the next internal step */
+	public double getInternalStepSize() { return h_; }
+	
+	public int getNumSteps() { return numSteps_; }
+	public int getNumRejectedSteps() { return numRejectedSteps_; }
+	public int getNumEvaluations() { return numEvaluations_; }
+	public int getNumJacobianEvaluations() { return numJacobianEvaluations_; }
+	public int getNumFactorizations() { return numFactorizations_; }
+	
+}
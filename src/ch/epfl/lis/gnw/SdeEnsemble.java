@@ -0,0 +1,321 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+
+package ch.epfl.lis.gnw;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import cern.colt.matrix.DoubleMatrix2D;
+import cern.colt.matrix.impl.DenseDoubleMatrix1D;
+import cern.colt.matrix.impl.DenseDoubleMatrix2D;
+import ch.epfl.lis.sde.CounterRandomEngine;
+import ch.epfl.lis.sde.Sde;
+import ch.epfl.lis.sde.SdeSolver;
+
+
+/** Simulates R independent realizations (replicates) of the SDEs of a gene network in parallel.
+ * 
+ * The trajectories are distributed over the threads of a fork-join pool (the number of
+ * threads is defined by the setting numThreads). Each trajectory has its own GeneNetworkSDE,
+ * SDE solver and random number stream. The stream is a CounterRandomEngine defined by the
+ * triplet (seed, experiment, replicate), it does not depend on which thread simulates the
+ * trajectory nor on the order in which the trajectories are simulated. Thus, the results
+ * are bit-identical for any number of threads and a single trajectory can be reproduced
+ * on its own.
+ * 
+ * The GeneNetworkSDE (or BatchSdeSolver) of all trajectories are created in the calling
+ * thread before the simulation starts, they take a snapshot of the parameters of the network
+ * (i.e., apply the perturbation before calling run()). The network is not modified during
+ * the simulation.
+ * 
+ * The solver is the one defined by the settings (see Solver.createSDESolver()). The time
+ * series of each replicate are saved with the time step dt of the settings. If a burn-in
+ * time is set, each replicate first simulates the network for this time and its time
+ * series starts from the state that is reached (as in TimeSeriesExperiment, which uses
+ * the ensemble for the replicates of the wild type).
+ * 
+ * With the Milstein solver, the replicates can be integrated in batches (setting
+ * batchSizeSDE): each fork-join task integrates a batch of replicates with a BatchSdeSolver
+ * (replicates innermost). The random streams are the same, thus the results do not depend
+ * on the batch size either.
+ * 
+ * @author Thomas Schaffter (firstname.name@gmail.com)
+ * @author Daniel Marbach (firstname.name@gmail.com)
+ * 
+ */
+public class SdeEnsemble {
+	
+	/** The gene network */
+	private GeneNetwork grn_;
+	/** Number of replicates (trajectories) */
+	private int numReplicates_;
+	/** Index of the experiment, the second component of the random streams */
+	private int experiment_;
+	/** Seed of the random streams */
+	private long seed_;
+	/** Number of threads (0: number of available processors) */
+	private int numThreads_;
+	/** Time simulated before the first time point of the time series (0: the time series starts at xy0) */
+	private double burnIn_;
+	/** Number of replicates integrated together by a BatchSdeSolver (1: one solver per replicate) */
+	private int batchSize_;
+	
+	/** The SDEs of the replicates during run() (one solver per replicate) */
+	private GeneNetworkSDE[] sde_;
+	/** The batches of replicates during run() (BatchSdeSolver) */
+	private BatchSdeSolver[] batches_;
+	/** Number of time points of the time series */
+	private int numTimePoints_;
+	
+	/** Time series of the replicates (numTimePoints x dimension, mRNA then proteins if translation is modeled) */
+	private DoubleMatrix2D[] timeSeries_;
+	/** Number of integration steps of each replicate */
+	private int[] numSteps_;
+	
+	/** Logger for this class */
+	private static Logger log = Logger.getLogger(SdeEnsemble.class.getName());
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/**
+	 * Constructor, the seed is the random seed of the settings (the current time if it's -1).
+	 */
+	public SdeEnsemble(GeneNetwork grn, int numReplicates, int experiment) {
+		
+		GnwSettings set = GnwSettings.getInstance();
+		
+		if (numReplicates < 1)
+			throw new IllegalArgumentException("SdeEnsemble: the number of replicates must be at least 1");
+		
+		grn_ = grn;
+		numReplicates_ = numReplicates;
+		experiment_ = experiment;
+		seed_ = (set.getRandomSeed() == -1) ? System.currentTimeMillis() : set.getRandomSeed();
+		numThreads_ = set.getNumThreads();
+		burnIn_ = 0;
+		batchSize_ = set.getBatchSizeSDE();
+		timeSeries_ = null;
+		numSteps_ = null;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Simulate all replicates from the initial condition xy0 for the given duration,
+	 * which must be a multiple of dt.
+	 */
+	public void run(double[] xy0, double duration) throws Exception {
+		
+		double dt = GnwSettings.getInstance().getDt();
+		int numTimePoints = (int) Math.round(duration/dt) + 1;
+		
+		if (Math.abs((numTimePoints-1)*dt - duration) > 1e-12*duration)
+			throw new IllegalArgumentException("SdeEnsemble: the duration must be a multiple of dt");
+		
+		// settings shared by the solvers, the SDEs or batches with a snapshot of the network
+		Solver.initializeSdeSettings();
+		boolean batch = batchSize_ > 1 && GnwSettings.getInstance().getSdeSolver() == Solver.sdeSolver.MILSTEIN;
+		int numUnits;
+		if (batch) {
+			numUnits = (numReplicates_ + batchSize_ - 1) / batchSize_;
+			batches_ = new BatchSdeSolver[numUnits];
+			for (int u=0; u<numUnits; u++) {
+				int first = u*batchSize_;
+				batches_[u] = new BatchSdeSolver(grn_, Math.min(batchSize_, numReplicates_ - first));
+				batches_[u].setRandomStreams(seed_, experiment_, first);
+				batches_[u].setState(xy0);
+			}
+		} else {
+			numUnits = numReplicates_;
+			sde_ = new GeneNetworkSDE[numReplicates_];
+			for (int r=0; r<numReplicates_; r++)
+				sde_[r] = new GeneNetworkSDE(grn_, Sde.STRATONOVICH, new DenseDoubleMatrix1D(xy0));
+		}
+		
+		numTimePoints_ = numTimePoints;
+		timeSeries_ = new DoubleMatrix2D[numReplicates_];
+		numSteps_ = new int[numReplicates_];
+		
+		int numThreads = (numThreads_ > 0) ? numThreads_ : Runtime.getRuntime().availableProcessors();
+		log.log(Level.INFO, "Simulating " + numReplicates_ + " SDE trajectories using " + numThreads + " threads" +
+				(batch ? " (batches of " + batchSize_ + " replicates)" : ""));
+		
+		ForkJoinPool pool = new ForkJoinPool(numThreads);
+		try {
+			pool.invoke(new ReplicateTask(0, numUnits));
+		} catch (RuntimeException e) {
+			// exceptions of the solvers are wrapped by ReplicateTask
+			if (e.getCause() instanceof Exception)
+				throw (Exception) e.getCause();
+			throw e;
+		} finally {
+			pool.shutdown();
+			sde_ = null;
+			batches_ = null;
+		}
+	}
+	
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/** Simulate replicate r (or batch r) and save its time series */
+	private void simulate(int r) throws Exception {
+		
+		if (batches_ != null) {
+			simulateBatch(r);
+			return;
+		}
+		
+		GeneNetworkSDE sde = sde_[r];
+		int numTimePoints = numTimePoints_;
+		SdeSolver solver = Solver.createSDESolver(sde);
+		solver.setRandomEngine(new CounterRandomEngine(seed_, experiment_, r));
+		solver.initialize(GnwSettings.getInstance().getDt());
+		
+		double t = 0;
+		while (t < burnIn_)
+			t += solver.step();
+		
+		int dimension = sde.getDimension();
+		DoubleMatrix2D ts = new DenseDoubleMatrix2D(numTimePoints, dimension);
+		
+		double[] xy = solver.getX();
+		for (int i=0; i<dimension; i++)
+			ts.setQuick(0, i, xy[i]);
+		
+		for (int pt=1; pt<numTimePoints; pt++) {
+			solver.step();
+			xy = solver.getX(); // the solver swaps its buffers, get the current one after each step
+			for (int i=0; i<dimension; i++)
+				ts.setQuick(pt, i, xy[i]);
+		}
+		
+		timeSeries_[r] = ts;
+		numSteps_[r] = solver.getNumSteps();
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Simulate the replicates of batch u and save their time series */
+	private void simulateBatch(int u) throws Exception {
+		
+		BatchSdeSolver solver = batches_[u];
+		int first = u*batchSize_;
+		int B = solver.getNumReplicates();
+		int dimension = solver.getDimension();
+		
+		DoubleMatrix2D[] ts = new DoubleMatrix2D[B];
+		for (int b=0; b<B; b++)
+			ts[b] = new DenseDoubleMatrix2D(numTimePoints_, dimension);
+		
+		double t = 0;
+		while (t < burnIn_)
+			t += solver.step();
+		
+		for (int pt=0; pt<numTimePoints_; pt++) {
+			if (pt > 0)
+				solver.step();
+			for (int b=0; b<B; b++)
+				solver.getState(b, ts[b], pt);
+		}
+		
+		for (int b=0; b<B; b++) {
+			timeSeries_[first+b] = ts[b];
+			numSteps_[first+b] = solver.getNumSteps();
+		}
+	}
+	
+	
+	// ============================================================================
+	// PRIVATE CLASSES
+	
+	/**
+	 * Simulates the replicates (or batches) from ... to-1, splits the range until it
+	 * contains one replicate (or batch)
+	 */
+	@SuppressWarnings("serial")
+	private class ReplicateTask extends RecursiveAction {
+		
+		/** Range of replicates (or batches) */
+		private int from_, to_;
+		
+		public ReplicateTask(int from, int to) {
+			from_ = from;
+			to_ = to;
+		}
+		
+		protected void compute() {
+			
+			if (to_ - from_ == 1) {
+				try {
+					simulate(from_);
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			} else {
+				int mid = (from_ + to_) >>> 1;
+				invokeAll(new ReplicateTask(from_, mid), new ReplicateTask(mid, to_));
+			}
+		}
+	}
+	
+	
+	// ============================================================================
+	// SETTERS AND GETTERS
+	
+	public int getNumReplicates() { return numReplicates_; }
+	
+	public void setExperiment(int experiment) { experiment_ = experiment; }
+	public int getExperiment() { return experiment_; }
+	
+	public void setSeed(long seed) { seed_ = seed; }
+	public long getSeed() { return seed_; }
+	
+	/** Set the time simulated before the first time point of each replicate (0: no burn-in) */
+	public void setBurnIn(double burnIn) { burnIn_ = burnIn; }
+	public double getBurnIn() { return burnIn_; }
+	
+	/** Set the number of threads (0: number of available processors) */
+	public void setNumThreads(int n) { numThreads_ = n; }
+	public int getNumThreads() { return numThreads_; }
+	
+	/** Set the number of replicates per BatchSdeSolver (1: one solver per replicate, batches are used only with Milstein) */
+	public void setBatchSize(int n) { batchSize_ = n; }
+	public int getBatchSize() { return batchSize_; }
+	
+	/** Time series of replicate r (numTimePoints x dimension) */
+	public DoubleMatrix2D getTimeSeries(int r) { return timeSeries_[r]; }
+	public int getNumSteps(int r) { return numSteps_[r]; }
+}
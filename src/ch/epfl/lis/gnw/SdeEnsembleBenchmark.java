@@ -0,0 +1,206 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+
+
+package ch.epfl.lis.gnw;
+
+import java.net.URL;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import cern.colt.matrix.DoubleMatrix2D;
+import ch.epfl.lis.imod.ImodNetwork;
+import ch.epfl.lis.networks.Structure;
+
+
+/** Throughput and reproducibility of the parallel SDE ensembles (see SdeEnsemble).
+ * 
+ * The same ensemble of replicates (same seed and experiment index, thus the same random
+ * streams) is simulated with different numbers of threads, and with one thread and
+ * different batch sizes (see BatchSdeSolver, batch size 1 is one solver per replicate).
+ * For each run, the wall time and the number of trajectories per second are reported, and
+ * the time series of all replicates are compared to those of the first run: they must be
+ * bit-identical. The batches are only used with the Milstein solver.
+ * 
+ * The main() method extracts a random subnetwork from the yeast network that comes with
+ * GNW and simulates the replicates from its wild-type steady state (ODEs), with the SDE
+ * solver, time steps and duration of the time series defined in the settings.
+ * Usage: SdeEnsembleBenchmark [subnetwork size (default 50)] [number of replicates (default 32)]
+ * 
+ * @author Daniel Marbach (firstname.name@gmail.com)
+ * 
+ */
+public class SdeEnsembleBenchmark {
+	
+	/** The numbers of threads that are compared (with the batch size of the settings) */
+	private static final int[] NUM_THREADS = {1, 2, 4, 8};
+	/** The batch sizes that are compared (with one thread) */
+	private static final int[] BATCH_SIZES = {1, 4, 16, 64};
+	/** Seed of the random streams of the ensembles */
+	private static final long SEED = 42;
+	
+	/** The gene network */
+	private GeneNetwork grn_;
+	/** Initial condition of the replicates */
+	private double[] xy0_;
+	/** Number of replicates */
+	private int numReplicates_;
+	/** Duration of the time series */
+	private double duration_;
+	/** The ensemble of the first run, the others are compared to it */
+	private SdeEnsemble reference_;
+	
+	/** Logger for this class */
+	private static Logger log = Logger.getLogger(SdeEnsembleBenchmark.class.getName());
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/**
+	 * Constructor
+	 */
+	public SdeEnsembleBenchmark(GeneNetwork grn, double[] xy0, int numReplicates, double duration) {
+		
+		grn_ = grn;
+		xy0_ = xy0;
+		numReplicates_ = numReplicates;
+		duration_ = duration;
+		reference_ = null;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Simulate the ensemble with each of the given numbers of threads */
+	public void runThreads(int[] numThreads) throws Exception {
+		
+		int batchSize = GnwSettings.getInstance().getBatchSizeSDE();
+		log.log(Level.INFO, "SDE ensemble benchmark: " + grn_.getSize() + " genes, " + numReplicates_ + " replicates, duration " + duration_ +
+				", batch size " + batchSize);
+		
+		for (int n : numThreads)
+			run(n, batchSize, n + " threads");
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Simulate the ensemble with one thread and each of the given batch sizes */
+	public void runBatchSizes(int[] batchSizes) throws Exception {
+		
+		log.log(Level.INFO, "SDE ensemble benchmark: " + grn_.getSize() + " genes, " + numReplicates_ + " replicates, duration " + duration_ +
+				", 1 thread, solver " + GnwSettings.getInstance().getSdeSolver());
+		
+		for (int b : batchSizes)
+			run(1, b, "batch size " + b);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Extract a subnetwork from the yeast network and run the benchmark from its wild-type
+	 * steady state.
+	 */
+	public static void main(String[] args) throws Exception {
+		
+		int size = 50;
+		int numReplicates = 32;
+		if (args.length > 0)
+			size = Integer.parseInt(args[0]);
+		if (args.length > 1)
+			numReplicates = Integer.parseInt(args[1]);
+		
+		URL url = SolverBenchmark.class.getResource(SolverBenchmark.YEAST_NETWORK);
+		if (url == null)
+			throw new RuntimeException("SdeEnsembleBenchmark: " + SolverBenchmark.YEAST_NETWORK + " not found");
+		ImodNetwork yeast = new ImodNetwork();
+		yeast.load(url, Structure.TSV);
+		
+		SubnetExtractor extractor = new SubnetExtractor(yeast);
+		Structure structure = extractor.runExtraction("yeast-" + size, size, 1)[0];
+		
+		GeneNetwork grn = new GeneNetwork(structure);
+		grn.randomInitialization();
+		
+		SteadyStateExperiment wt = new SteadyStateExperiment(Solver.type.ODE, null, "wild-type");
+		wt.setGrn(grn);
+		wt.run(null);
+		
+		double duration = GnwSettings.getInstance().getMaxtTimeSeries();
+		SdeEnsembleBenchmark benchmark = new SdeEnsembleBenchmark(grn, wt.getSteadyState(0), numReplicates, duration);
+		// the first run is the reference of the others, it also warms up the JIT compiler
+		benchmark.run(1, 1, "warm-up (1 thread, batch size 1)");
+		benchmark.runThreads(NUM_THREADS);
+		benchmark.runBatchSizes(BATCH_SIZES);
+	}
+	
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/** Simulate the ensemble with the given number of threads and batch size, log the results */
+	private void run(int numThreads, int batchSize, String label) throws Exception {
+		
+		SdeEnsemble ensemble = new SdeEnsemble(grn_, numReplicates_, 0);
+		ensemble.setSeed(SEED);
+		ensemble.setNumThreads(numThreads);
+		ensemble.setBatchSize(batchSize);
+		
+		long start = System.nanoTime();
+		ensemble.run(xy0_, duration_);
+		double time = (System.nanoTime() - start) / 1e9;
+		
+		boolean identical = true;
+		if (reference_ == null)
+			reference_ = ensemble;
+		else
+			identical = isIdentical(reference_, ensemble);
+		
+		log.log(Level.INFO, label + ": " + String.format("%.2f", time) + " s, " + String.format("%.1f", numReplicates_/time) +
+				" trajectories/s, time series identical to the first run: " + identical);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return true if the time series of all replicates of the two ensembles are bit-identical */
+	private boolean isIdentical(SdeEnsemble a, SdeEnsemble b) {
+		
+		for (int r=0; r<numReplicates_; r++) {
+			DoubleMatrix2D tsA = a.getTimeSeries(r);
+			DoubleMatrix2D tsB = b.getTimeSeries(r);
+			for (int i=0; i<tsA.rows(); i++)
+				for (int j=0; j<tsA.columns(); j++)
+					if (Double.doubleToLongBits(tsA.getQuick(i, j)) != Double.doubleToLongBits(tsB.getQuick(i, j)))
+						return false;
+		}
+		return true;
+	}
+	
+}
@@ -0,0 +1,212 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+
+
+package ch.epfl.lis.gnw;
+
+import java.net.URL;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import cern.colt.matrix.impl.DenseDoubleMatrix1D;
+import ch.epfl.lis.imod.ImodNetwork;
+import ch.epfl.lis.networks.Structure;
+import ch.epfl.lis.sde.Sde;
+import ch.epfl.lis.sde.SdeSettings;
+import ch.epfl.lis.sde.SdeSolver;
+import ch.epfl.lis.sde.SdeSolverFactory;
+import ch.epfl.lis.sde.TestFunction;
+
+
+/** Work-precision comparison of the SDE solvers Milstein and RungeKutta (strong error).
+ * 
+ * The system is integrated from X0 to time maxt along the same Wiener paths with
+ * increasing step sizes h = multiplier*dt, where dt is the step size of the Wiener
+ * process (see SdeSettings). The strong error is the mean over the paths of the maximum
+ * difference at maxt to a reference solution, which is computed with RungeKutta and the
+ * step size dt. For each solver and step size, the error, the number of evaluations of
+ * the drift and diffusion and the wall time are reported. Both solvers generate the
+ * double integrals Z (see SdeSolver.generateWZ()), so that they use the same Wiener paths.
+ * The settings of the SDE package are changed by the benchmark.
+ * 
+ * The main() method runs the benchmark on the TestFunction of the SDE package and on
+ * a GeneNetworkSDE (Stratonovich scheme, as in the experiments) of a random subnetwork of
+ * the yeast network that comes with GNW, starting from its wild-type steady state.
+ * Usage: SdeSolverBenchmark [subnetwork size (default 20)] [number of paths (default 20)]
+ * 
+ * @author Daniel Marbach (firstname.name@gmail.com)
+ * @author Thomas Schaffter (firstname.name@gmail.com)
+ * 
+ */
+public class SdeSolverBenchmark {
+	
+	/** The solvers that are compared (see SdeSolverFactory) */
+	private static final int[] SOLVERS = {SdeSolverFactory.MILSTEIN, SdeSolverFactory.RUNGEKUTTA};
+	/** The labels of the solvers */
+	private static final String[] SOLVER_NAMES = {"Milstein", "Runge-Kutta"};
+	
+	/** The system to integrate */
+	private Sde system_;
+	/** Set true if the solution must stay positive (see SdeSolver.setXPositiveOnly()) */
+	private boolean XPositiveOnly_;
+	/** Step size of the Wiener process */
+	private double dt_;
+	/** Integration time */
+	private double maxt_;
+	/** Number of Wiener paths */
+	private int numPaths_;
+	/** The reference solution at maxt for each path */
+	private double[][] reference_;
+	
+	/** Logger for this class */
+	private static Logger log = Logger.getLogger(SdeSolverBenchmark.class.getName());
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/**
+	 * Constructor
+	 */
+	public SdeSolverBenchmark(Sde system, boolean XPositiveOnly, double dt, double maxt, int numPaths) {
+		
+		system_ = system;
+		XPositiveOnly_ = XPositiveOnly;
+		dt_ = dt;
+		maxt_ = maxt;
+		numPaths_ = numPaths;
+		reference_ = null;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Run the benchmark for all solvers and the step sizes h = multiplier*dt, where
+	 * the multipliers are the powers of two from 2 to maxMultiplier.
+	 */
+	public void run(int maxMultiplier) throws Exception {
+		
+		log.log(Level.INFO, "SDE solver benchmark: " + system_.getId() + ", dimension " + system_.getDimension() + ", maxt " + maxt_ +
+				", " + numPaths_ + " Wiener paths with dt " + dt_);
+		
+		reference_ = new double[numPaths_][];
+		for (int p=0; p<numPaths_; p++)
+			reference_[p] = integrate(SdeSolverFactory.RUNGEKUTTA, 1, p).getX().clone();
+		
+		for (int s=0; s<SOLVERS.length; s++) {
+			for (int multiplier=2; multiplier<=maxMultiplier; multiplier*=2) {
+				double error = 0;
+				long evaluations = 0;
+				long start = System.currentTimeMillis();
+				
+				for (int p=0; p<numPaths_; p++) {
+					SdeSolver solver = integrate(SOLVERS[s], multiplier, p);
+					evaluations += solver.getNumEvaluations();
+					
+					double[] X = solver.getX();
+					double maxDiff = 0;
+					for (int i=0; i<X.length; i++)
+						maxDiff = Math.max(maxDiff, Math.abs(X[i] - reference_[p][i]));
+					error += maxDiff;
+				}
+				long time = System.currentTimeMillis() - start;
+				
+				log.log(Level.INFO, String.format("%-12s h = %-9.4g %6d ms, evaluations %9d, strong error %.2e",
+						SOLVER_NAMES[s], multiplier*dt_, time, evaluations, error/numPaths_));
+			}
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Run the benchmark on the TestFunction and on a GeneNetworkSDE of a subnetwork of the
+	 * yeast network (the wild type, with translation).
+	 */
+	public static void main(String[] args) throws Exception {
+		
+		int size = 20;
+		int numPaths = 20;
+		if (args.length > 0)
+			size = Integer.parseInt(args[0]);
+		if (args.length > 1)
+			numPaths = Integer.parseInt(args[1]);
+		
+		// test function (additive noise)
+		TestFunction test = new TestFunction(10);
+		test.setScheme(Sde.ITO);
+		new SdeSolverBenchmark(test, false, Math.pow(2, -12), 1, numPaths).run(512);
+		
+		// gene network
+		URL url = SolverBenchmark.class.getResource(SolverBenchmark.YEAST_NETWORK);
+		if (url == null)
+			throw new RuntimeException("SdeSolverBenchmark: " + SolverBenchmark.YEAST_NETWORK + " not found");
+		ImodNetwork yeast = new ImodNetwork();
+		yeast.load(url, Structure.TSV);
+		
+		SubnetExtractor extractor = new SubnetExtractor(yeast);
+		Structure structure = extractor.runExtraction("yeast-" + size, size, 1)[0];
+		
+		GeneNetwork grn = new GeneNetwork(structure);
+		grn.randomInitialization();
+		
+		SteadyStateExperiment wt = new SteadyStateExperiment(Solver.type.ODE, null, "wild-type");
+		wt.setGrn(grn);
+		wt.run(null);
+		
+		GeneNetworkSDE sde = new GeneNetworkSDE(grn, Sde.STRATONOVICH, new DenseDoubleMatrix1D(wt.getSteadyState(0)));
+		new SdeSolverBenchmark(sde, true, Math.pow(2, -6), 64, numPaths).run(256);
+	}
+	
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/**
+	 * Integrate the system from X0 to maxt with the given solver and step size
+	 * multiplier*dt along the Wiener path with the given index, return the solver.
+	 */
+	private SdeSolver integrate(int type, int multiplier, int path) throws Exception {
+		
+		SdeSettings settings = SdeSettings.getInstance();
+		settings.setDt(dt_);
+		settings.setMultiplier(multiplier);
+		settings.setSeed(path + 1);
+		
+		SdeSolver solver = SdeSolverFactory.createSolver(type);
+		solver.setSystem(system_);
+		solver.setXPositiveOnly(XPositiveOnly_);
+		solver.setGenerateZ(true);
+		solver.initialize(maxt_);
+		solver.step();
+		
+		return solver;
+	}
+	
+}
@@ -3,14 +3,15 @@ package ch.epfl.lis.gnw;
 import org.opensourcephysics.numerics.ODEMultistepSolver;
 
 import cern.colt.matrix.impl.DenseDoubleMatrix1D;
+import cern.jet.random.engine.RandomEngine;
 import ch.epfl.lis.sde.Sde;
 import ch.epfl.lis.sde.SdeSettings;
 import ch.epfl.lis.sde.SdeSolver;
 import ch.epfl.lis.sde.SdeSolverFactory;
 
 /**
- * This class can be used to integrate either ODEs or SDEs. It provides a
- * common interface for the two two types of solvers.
+ * This class can be used to integrate either ODEs or SDEs, or to simulate the discrete
+ * stochastic model (SSA). It provides a common interface for the three types of solvers.
  * 
  * ODEs are numerically integrated using the ODEMultistepSolver from opensourcephysics. To step the time
  * by dt, it performs multiple smaller internal steps of fixed size to guarantee the
@@ -23,12 +24,33 @@ import ch.epfl.lis.sde.SdeSolverFactory;
  * multiple times (see numStepsODE_) (for each of these steps the ODEMultistepSolver will
  * in turn perform multiple steps to guarantee the precision).
  * 
- * SDEs are numerically integrated using our own solver, see the class SdeSolver.
+ * Alternatively (see GnwSettings.getOdeSolver()), ODEs are integrated with our own adaptive
+ * Dormand-Prince solver (DormandPrinceSolver). It chooses its step size freely according
+ * to the absolute and relative precision of the settings, the state at t+dt is obtained by
+ * interpolation (dense output). For stiff networks (large networks with modelTranslation,
+ * where the half-lives of mRNAs and proteins differ a lot), the linearly implicit
+ * Rosenbrock solver (RosenbrockSolver) needs much fewer steps than the explicit solvers.
+ * StiffnessSwitchingSolver chooses automatically between the Dormand-Prince and the
+ * Rosenbrock solver, depending on whether the step size is limited by stability.
+ * 
+ * SDEs are numerically integrated using our own solver, see the class SdeSolver. The Milstein
+ * solver is used by default, the stochastic Runge-Kutta solver (RungeKutta, strong order 1.5)
+ * allows to use a much larger time step timeStepSDE for the same accuracy. Its adaptive version
+ * (AdaptiveRungeKutta) chooses the step size according to the tolerances absoluteToleranceSDE
+ * and relativeToleranceSDE, timeStepSDE is only the initial step size.
+ * 
+ * The discrete model (molecule numbers instead of concentrations) is simulated exactly
+ * with the next reaction method or approximately with tau-leaping, see GillespieSolver.
+ * It uses the random number generator of SdeSettings.
  */
 public class Solver {
 
-	/** The type of solver (ordinary or stochastic differential equation) */
-	public enum type {ODE, SDE, NONE};
+	/** The type of solver (ordinary or stochastic differential equation, or stochastic simulation of the discrete model) */
+	public enum type {ODE, SDE, SSA, NONE};
+	/** The solvers for ODEs: ODEMultistepSolver of opensourcephysics, DormandPrinceSolver, RosenbrockSolver or StiffnessSwitchingSolver */
+	public enum odeSolver {MULTISTEP, DORMAND_PRINCE, ROSENBROCK, AUTO};
+	/** The solvers for SDEs: Milstein, the stochastic Runge-Kutta scheme of strong order 1.5 or its adaptive version (see the package ch.epfl.lis.sde) */
+	public enum sdeSolver {MILSTEIN, RUNGE_KUTTA, ADAPTIVE};
 	
 	/**
 	 * ODEMultistepSolver performs multiple ODE steps so that a uniform step size is maintained.
@@ -39,12 +61,72 @@ public class Solver {
 	private ODEMultistepSolver ODESolver_;
 	/** Used by the ODESolver_ */
 	private GeneNetworkODE ODE_;
+	/** Dormand-Prince solver for ODEs (used instead of ODESolver_, see odeSolver) */
+	private DormandPrinceSolver dormandPrinceSolver_;
+	/** Rosenbrock solver for stiff ODEs (used instead of ODESolver_, see odeSolver) */
+	private RosenbrockSolver rosenbrockSolver_;
+	/** Switches automatically between Dormand-Prince and Rosenbrock (used instead of ODESolver_, see odeSolver) */
+	private StiffnessSwitchingSolver switchingSolver_;
+	/** The gene network */
+	private GeneNetwork grn_;
 	/** Solver for SDEs */
 	private SdeSolver SDESolver_;
 	/** Used by the SDESolver_ */
 	private GeneNetworkSDE SDE_;
+	/** Stochastic simulation of the discrete model */
+	private GillespieSolver gillespieSolver_;
 	/** For ODEs, we have to make sure that the time steps are not too big (see introductory comment for the class above) */
 	private double numStepsODE_;
+	/** If set false, the state of grn_ is not set after each step (see setUpdateNetworkState()) */
+	private boolean updateNetworkState_;
+	
+	
+	// ============================================================================
+	// STATIC METHODS
+	
+	/**
+	 * Create the SDE solver defined in the settings for the given SDE (not initialized).
+	 * Also used by SdeEnsemble.
+	 */
+	static SdeSolver createSDESolver(GeneNetworkSDE sde) {
+		
+		GnwSettings set = GnwSettings.getInstance();
+		SdeSolver solver;
+		
+		if (set.getSdeSolver() == sdeSolver.RUNGE_KUTTA)
+			solver = SdeSolverFactory.createSolver(SdeSolverFactory.RUNGEKUTTA);
+		else if (set.getSdeSolver() == sdeSolver.ADAPTIVE) {
+			solver = SdeSolverFactory.createSolver(SdeSolverFactory.ADAPTIVE_RUNGEKUTTA);
+			solver.setAbsolutePrecision(set.getAbsoluteToleranceSDE());
+			solver.setRelativePrecision(set.getRelativeToleranceSDE());
+		} else
+			solver = SdeSolverFactory.createSolver(SdeSolverFactory.MILSTEIN); // integrate according to the scheme of the SDE
+		solver.setSystem(sde);
+		solver.setXPositiveOnly(true); // take care to not have negative concentration
+		
+		return solver;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Set the parameters of SdeSettings from GnwSettings, must be called before the SDE
+	 * solvers are initialized. Also used by SdeEnsemble.
+	 */
+	static void initializeSdeSettings() {
+		
+		GnwSettings set = GnwSettings.getInstance();
+		SdeSettings sdeSettings = SdeSettings.getInstance();
+		// Set Wiener path step size
+		sdeSettings.setDt(set.getTimeStepSDE());
+		// Set relation between Wiener path step size and integration step size
+		sdeSettings.setMultiplier(1);
+		// Set the seed used to generate Wiener path
+		sdeSettings.setSeed(set.getRandomSeed());
+		// Set maxt
+		//sdeSettings.setMaxt(maxt_);
+	}
 	
 	
 	// ============================================================================
@@ -54,6 +136,35 @@ public class Solver {
 	 * Constructor
 	 */
 	public Solver(type solverType, GeneNetwork grn, double[] xy0) {
+		this(solverType, grn, xy0, null);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Constructor for the network with the given perturbed parameters (see ParameterOverlay,
+	 * null for the parameters of the network). Same as applying the perturbation to the
+	 * network before creating the solver, but the network is not changed.
+	 */
+	public Solver(type solverType, GeneNetwork grn, double[] xy0, ParameterOverlay overlay) {
+		this(solverType, grn, xy0, overlay, null);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Same as above, for SDEs and SSA the random numbers are drawn from the given engine
+	 * instead of the random number generator of SdeSettings (null). In this case, the
+	 * settings of SdeSettings are not changed, they must have been initialized before
+	 * (see initializeSdeSettings()). Together with setUpdateNetworkState(false), this allows
+	 * to use several solvers of the same network in parallel threads.
+	 */
+	public Solver(type solverType, GeneNetwork grn, double[] xy0, ParameterOverlay overlay, RandomEngine randomEngine) {
+		
+		grn_ = grn;
+		updateNetworkState_ = true;
 		
 		double dt = GnwSettings.getInstance().getDt();
 		if (dt < 10)
@@ -62,9 +173,11 @@ public class Solver {
 			numStepsODE_ = 10*Math.floor(Math.log10(dt));
 		
 		if (solverType == type.ODE)
-			initializeODE(grn, xy0);
+			initializeODE(grn, xy0, overlay);
 		else if (solverType == type.SDE)
-			initializeSDE(grn, xy0);
+			initializeSDE(grn, xy0, overlay, randomEngine);
+		else if (solverType == type.SSA)
+			initializeSSA(grn, xy0, overlay, randomEngine);
 		else
 			throw new IllegalArgumentException("Unknown simulation type");
 	}
@@ -84,13 +197,114 @@ public class Solver {
 				t += ODESolver_.step();
 			return t;
 			
-		} else if (SDESolver_ != null)
-			return SDESolver_.step();
-		else
+		} else if (dormandPrinceSolver_ != null) {
+			double t = dormandPrinceSolver_.step();
+			// the experiments read the state from the gene network (the last evaluation
+			// of the rates was not necessarily at this state)
+			if (updateNetworkState_)
+				grn_.setState(ODE_.getState());
+			return t;
+			
+		} else if (rosenbrockSolver_ != null) {
+			double t = rosenbrockSolver_.step();
+			if (updateNetworkState_)
+				grn_.setState(ODE_.getState());
+			return t;
+			
+		} else if (switchingSolver_ != null) {
+			double t = switchingSolver_.step();
+			if (updateNetworkState_)
+				grn_.setState(ODE_.getState());
+			return t;
+			
+		} else if (SDESolver_ != null) {
+			double t = SDESolver_.step();
+			// the experiments read the state from the gene network (the last evaluation
+			// of the drift and diffusion was at a supporting value, not at this state)
+			if (updateNetworkState_)
+				grn_.setState(SDESolver_.getX());
+			return t;
+			
+		} else if (gillespieSolver_ != null) {
+			double t = gillespieSolver_.step();
+			if (updateNetworkState_)
+				grn_.setState(gillespieSolver_.getState());
+			return t;
+			
+		} else
 			throw new RuntimeException("Solver not correctly initialized");
 	}
 	
 	
+	// ----------------------------------------------------------------------------
+
+	/**
+	 * Must be called when the parameters of the network are changed between two steps.
+	 * The adaptive ODE solvers take internal steps beyond the current time, they are
+	 * restarted from the current state.
+	 */
+	public void restart() {
+		
+		if (dormandPrinceSolver_ != null)
+			dormandPrinceSolver_.restart();
+		else if (rosenbrockSolver_ != null)
+			rosenbrockSolver_.restart();
+		else if (switchingSolver_ != null)
+			switchingSolver_.restart();
+		else if (gillespieSolver_ != null)
+			gillespieSolver_.restart();
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+
+	/**
+	 * Simulate the network with the given perturbed parameters (null for the parameters of
+	 * the network), see ParameterOverlay. The network itself is not changed. As when the
+	 * parameters of the network are changed, call restart() if this is done between two steps.
+	 */
+	public void setParameterOverlay(ParameterOverlay overlay) {
+		
+		if (ODE_ != null)
+			ODE_.setParameterOverlay(overlay);
+		if (rosenbrockSolver_ != null)
+			rosenbrockSolver_.setParameterOverlay(overlay);
+		if (switchingSolver_ != null)
+			switchingSolver_.setParameterOverlay(overlay);
+		if (SDE_ != null)
+			SDE_.setParameterOverlay(overlay);
+		if (gillespieSolver_ != null)
+			gillespieSolver_.setParameterOverlay(overlay);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+
+	/**
+	 * By default, the state of the network is set after each step (the experiments read
+	 * the state from the network). Set false if several solvers of the same network are
+	 * used in parallel threads, the state must then be read with getState().
+	 */
+	public void setUpdateNetworkState(boolean b) {
+		
+		updateNetworkState_ = b;
+		if (ODE_ != null)
+			ODE_.setUpdateNetworkState(b);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Log statistics of the integration (for the automatic switching of ODE solvers and the SSA only) */
+	public void logStatistics() {
+		
+		if (switchingSolver_ != null)
+			switchingSolver_.logStatistics();
+		else if (gillespieSolver_ != null)
+			gillespieSolver_.logStatistics();
+	}
+	
+	
 	// ----------------------------------------------------------------------------
 
 	/**
@@ -101,12 +315,47 @@ public class Solver {
 		if (ODE_ != null)
 			return ODE_.getState();
 		else if (SDE_ != null)
-			return SDESolver_.getX().toArray();
+			return SDESolver_.getX();
+		else if (gillespieSolver_ != null)
+			return gillespieSolver_.getState();
 		else
 			throw new RuntimeException("Solver not correctly initialized");
 	}
 	
 	
+	// ----------------------------------------------------------------------------
+
+	/**
+	 * Return the state that step() sets in the network (see setUpdateNetworkState()). Same
+	 * as getState(), except for the MULTISTEP ODE solver, for which it's the state of the
+	 * last evaluation of the rates.
+	 */
+	public double[] getNetworkState() {
+		
+		if (ODESolver_ != null)
+			return ODE_.getLastEvaluatedState();
+		else
+			return getState();
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+
+	/**
+	 * For SDEs and SSA: set the time step of step(), by default dt of the settings. For SDEs,
+	 * it should be a multiple of the integration step size.
+	 */
+	public void setStepSize(double h) {
+		
+		if (SDESolver_ != null)
+			SDESolver_.setH(h);
+		else if (gillespieSolver_ != null)
+			gillespieSolver_.setStepSize(h);
+		else
+			throw new IllegalArgumentException("Solver: the step size can only be set for stochastic simulations");
+	}
+	
+	
 	// ----------------------------------------------------------------------------
 
 	/**
@@ -118,6 +367,8 @@ public class Solver {
 			return ODE_.converged();
 		else if (SDE_ != null)
 			return SDESolver_.converged();
+		else if (gillespieSolver_ != null)
+			return false;
 		else
 			throw new RuntimeException("Solver not correctly initialized");
 	}
@@ -128,52 +379,96 @@ public class Solver {
 	// PRIVATE METHODS
 
 	/** Initialize the solver for deterministic simulation using ODEs */
-	private void initializeODE(GeneNetwork grn, double[] xy0) {
+	private void initializeODE(GeneNetwork grn, double[] xy0, ParameterOverlay overlay) {
 		
 		GnwSettings set = GnwSettings.getInstance();
 		
 		ODE_ = new GeneNetworkODE(grn, xy0);
-		ODESolver_ = new ODEMultistepSolver(ODE_);
+		// the integrators evaluate the rates already in their constructor
+		if (overlay != null)
+			ODE_.setParameterOverlay(overlay);
 		
-		ODESolver_.setTolerance(set.getRelativePrecision());
-		// See introductory comment for class above
-		ODESolver_.initialize(set.getDt()/numStepsODE_);		
-		ODESolver_.setMaxIterations(1000);
+		ODESolver_ = null;
+		dormandPrinceSolver_ = null;
+		rosenbrockSolver_ = null;
+		switchingSolver_ = null;
 		
-		// Set SDE stuff to null
+		if (set.getOdeSolver() == odeSolver.DORMAND_PRINCE)
+			dormandPrinceSolver_ = new DormandPrinceSolver(ODE_);
+		else if (set.getOdeSolver() == odeSolver.ROSENBROCK) {
+			rosenbrockSolver_ = new RosenbrockSolver(ODE_, grn);
+			rosenbrockSolver_.setParameterOverlay(overlay);
+		} else if (set.getOdeSolver() == odeSolver.AUTO) {
+			switchingSolver_ = new StiffnessSwitchingSolver(ODE_, grn);
+			switchingSolver_.setParameterOverlay(overlay);
+		} else {
+			ODESolver_ = new ODEMultistepSolver(ODE_);
+			
+			ODESolver_.setTolerance(set.getRelativePrecision());
+			// See introductory comment for class above
+			ODESolver_.initialize(set.getDt()/numStepsODE_);		
+			ODESolver_.setMaxIterations(1000);
+		}
+		
+		// Set SDE and SSA stuff to null
 		SDE_ = null;
 		SDESolver_ = null;
+		gillespieSolver_ = null;
 	}
 	
 	
 	// ----------------------------------------------------------------------------
 	
 	/** Initialize the solver for stochastic simulation using SDEs */
-	private void initializeSDE(GeneNetwork grn, double[] xy0) {
+	private void initializeSDE(GeneNetwork grn, double[] xy0, ParameterOverlay overlay, RandomEngine randomEngine) {
 		
 		// Set SDE, solver, settings
 		SDE_ = new GeneNetworkSDE(grn, Sde.STRATONOVICH, new DenseDoubleMatrix1D(xy0));
-		SDESolver_ = SdeSolverFactory.createSolver(SdeSolverFactory.MILSTEIN); // integrate according to the scheme of the SDE
-		SDESolver_.setSystem(SDE_);
-		SDESolver_.setXPositiveOnly(true); // take care to not have negative concentration
-		
+		if (overlay != null)
+			SDE_.setParameterOverlay(overlay);
 		GnwSettings set = GnwSettings.getInstance(); 
-		SdeSettings sdeSettings = SdeSettings.getInstance();
-		// Set Wiener path step size
-		sdeSettings.setDt(set.getTimeStepSDE());
-		// Set relation between Wiener path step size and integration step size
-		sdeSettings.setMultiplier(1);
-		// Set the seed used to generate Wiener path
-		sdeSettings.setSeed(set.getRandomSeed());
-		// Set maxt
-		//sdeSettings.setMaxt(maxt_);
+		SDESolver_ = createSDESolver(SDE_);
+		if (randomEngine == null)
+			initializeSdeSettings();
+		else
+			SDESolver_.setRandomEngine(randomEngine);
 		
 		// Initialize only after having set all the necessary parameters in SDESettings
 		SDESolver_.initialize(set.getDt());
 		
-		// Set ODE stuff to null
+		// Set ODE and SSA stuff to null
+		ODE_ = null;
+		ODESolver_ = null;
+		dormandPrinceSolver_ = null;
+		rosenbrockSolver_ = null;
+		switchingSolver_ = null;
+		gillespieSolver_ = null;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Initialize the solver for stochastic simulation of the discrete model (see GillespieSolver) */
+	private void initializeSSA(GeneNetwork grn, double[] xy0, ParameterOverlay overlay, RandomEngine randomEngine) {
+		
+		// the random number generator of SdeSettings is used (with the seed of the settings)
+		// if no random engine is given
+		if (randomEngine == null)
+			initializeSdeSettings();
+		gillespieSolver_ = new GillespieSolver(grn, xy0);
+		if (randomEngine != null)
+			gillespieSolver_.setRandomEngine(randomEngine);
+		if (overlay != null)
+			gillespieSolver_.setParameterOverlay(overlay);
+		
+		// Set ODE and SDE stuff to null
 		ODE_ = null;
 		ODESolver_ = null;
+		dormandPrinceSolver_ = null;
+		rosenbrockSolver_ = null;
+		switchingSolver_ = null;
+		SDE_ = null;
+		SDESolver_ = null;
 	}
 	
 	
@@ -181,5 +476,10 @@ public class Solver {
 	// SETTERS AND GETTERS
 	
 	public SdeSolver getSDESolver() { return SDESolver_; }
+	public GillespieSolver getGillespieSolver() { return gillespieSolver_; }
+	public DormandPrinceSolver getDormandPrinceSolver() { return dormandPrinceSolver_; }
+	public RosenbrockSolver getRosenbrockSolver() { return rosenbrockSolver_; }
+	public StiffnessSwitchingSolver getStiffnessSwitchingSolver() { return switchingSolver_; }
+	public GeneNetworkODE getODE() { return ODE_; }
 	
 }
@@ -0,0 +1,257 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+
+package ch.epfl.lis.gnw;
+
+import java.net.URL;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import ch.epfl.lis.imod.ImodNetwork;
+import ch.epfl.lis.networks.Structure;
+
+
+/** Compares the ODE solvers (see Solver.odeSolver) on time series of a gene network.
+ * 
+ * For each solver, the time series of multifactorial perturbations are integrated from
+ * the wild type (the wild type is restored at half time, as in the DREAM4 time series),
+ * and the wall time, the number of steps, the number of evaluations of the rates and
+ * (for the Rosenbrock solver) the number of Jacobians and LU factorizations are reported
+ * (for the automatic switching, also the number of implicit steps and of switches).
+ * The accuracy is given by the maximum difference to a reference solution, which is
+ * computed with the Dormand-Prince solver and 1000 times smaller tolerances. The
+ * solver of the settings is restored at the end.
+ * 
+ * The main() method extracts a random subnetwork from the yeast network that comes with
+ * GNW, initializes it randomly and runs the benchmark with and without translation.
+ * Usage: SolverBenchmark [subnetwork size (default 200)] [number of time series (default 10)]
+ * 
+ * @author Daniel Marbach (firstname.name@gmail.com)
+ * @author Thomas Schaffter (firstname.name@gmail.com)
+ * 
+ */
+public class SolverBenchmark {
+	
+	/** The yeast network of GNW (structure only) */
+	public static final String YEAST_NETWORK = "/ch/epfl/lis/gnwgui/rsc/net/yeast_transcriptional_network_Balaji2006.tsv";
+	
+	/** The gene network */
+	private GeneNetwork grn_;
+	/** The wild-type steady state (initial condition of the time series) */
+	private double[] wildType_;
+	/** The perturbations of the time series */
+	private PerturbationMultifactorial perturbation_;
+	/** Number of time points of the time series */
+	private int numTimePoints_;
+	/** The time series of the reference solution, [experiment][time point][variable] */
+	private double[][][] reference_;
+	
+	/** Logger for this class */
+	private static Logger log = Logger.getLogger(SolverBenchmark.class.getName());
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/**
+	 * Constructor, computes the wild type of the network and generates the perturbations
+	 * (multifactorialStrong() of PerturbationMultifactorial)
+	 */
+	public SolverBenchmark(GeneNetwork grn, int numTimeSeries) {
+		
+		grn_ = grn;
+		GnwSettings set = GnwSettings.getInstance();
+		numTimePoints_ = (int)Math.round(set.getMaxtTimeSeries()/set.getDt()) + 1;
+		
+		SteadyStateExperiment wt = new SteadyStateExperiment(Solver.type.ODE, null, "wild-type");
+		wt.setGrn(grn);
+		wt.run(null);
+		wildType_ = wt.getSteadyState(0);
+		
+		perturbation_ = new PerturbationMultifactorial(grn);
+		perturbation_.multifactorialStrong(numTimeSeries);
+		reference_ = null;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Run the benchmark for all ODE solvers */
+	public void run() {
+		
+		GnwSettings set = GnwSettings.getInstance();
+		Solver.odeSolver defaultSolver = set.getOdeSolver();
+		double absolutePrecision = set.getAbsolutePrecision();
+		double relativePrecision = set.getRelativePrecision();
+		
+		log.log(Level.INFO, "ODE solver benchmark: " + grn_.getSize() + " genes, modelTranslation = " + (wildType_.length > grn_.getSize()) +
+				", " + perturbation_.getNumPerturbations() + " time series of " + numTimePoints_ + " points");
+		
+		try {
+			set.setOdeSolver(Solver.odeSolver.DORMAND_PRINCE);
+			set.setAbsolutePrecision(absolutePrecision/1000);
+			set.setRelativePrecision(relativePrecision/1000);
+			reference_ = integrate(null);
+			set.setAbsolutePrecision(absolutePrecision);
+			set.setRelativePrecision(relativePrecision);
+			
+			for (Solver.odeSolver solver : Solver.odeSolver.values()) {
+				set.setOdeSolver(solver);
+				integrate(solver.name());
+			}
+		} finally {
+			set.setOdeSolver(defaultSolver);
+			set.setAbsolutePrecision(absolutePrecision);
+			set.setRelativePrecision(relativePrecision);
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Extract a subnetwork from the yeast network, initialize it randomly and run the
+	 * benchmark without and with translation.
+	 */
+	public static void main(String[] args) throws Exception {
+		
+		int size = 200;
+		int numTimeSeries = 10;
+		if (args.length > 0)
+			size = Integer.parseInt(args[0]);
+		if (args.length > 1)
+			numTimeSeries = Integer.parseInt(args[1]);
+		
+		URL url = SolverBenchmark.class.getResource(YEAST_NETWORK);
+		if (url == null)
+			throw new RuntimeException("SolverBenchmark: " + YEAST_NETWORK + " not found");
+		ImodNetwork yeast = new ImodNetwork();
+		yeast.load(url, Structure.TSV);
+		
+		SubnetExtractor extractor = new SubnetExtractor(yeast);
+		Structure structure = extractor.runExtraction("yeast-" + size, size, 1)[0];
+		
+		GnwSettings set = GnwSettings.getInstance();
+		boolean modelTranslation = set.getModelTranslation();
+		
+		for (int translation=0; translation<2; translation++) {
+			set.setModelTranslation(translation == 1);
+			GeneNetwork grn = new GeneNetwork(structure);
+			grn.randomInitialization();
+			
+			new SolverBenchmark(grn, numTimeSeries).run();
+		}
+		set.setModelTranslation(modelTranslation);
+	}
+	
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/**
+	 * Integrate the time series with the solver of the settings and return them. If label
+	 * is not null, the statistics and the difference to the reference are logged.
+	 */
+	private double[][][] integrate(String label) {
+		
+		int numTimeSeries = perturbation_.getNumPerturbations();
+		double[][][] timeSeries = new double[numTimeSeries][numTimePoints_][];
+		double maxError = 0;
+		int numSteps = 0;
+		int numRejectedSteps = 0;
+		int numEvaluations = 0;
+		int numJacobians = 0;
+		int numFactorizations = 0;
+		int numImplicitSteps = 0;
+		int numSwitches = 0;
+		
+		long start = System.currentTimeMillis();
+		
+		for (int k=0; k<numTimeSeries; k++) {
+			Solver solver = new Solver(Solver.type.ODE, grn_, wildType_);
+			timeSeries[k][0] = wildType_.clone();
+			perturbation_.applyPerturbation(k);
+			
+			for (int pt=1; pt<numTimePoints_; pt++) {
+				try {
+					solver.step();
+				} catch (Exception e) {
+					perturbation_.restoreWildType();
+					throw new RuntimeException("SolverBenchmark: " + e.getMessage());
+				}
+				if (pt == (numTimePoints_-1)/2) {
+					perturbation_.restoreWildType();
+					solver.restart();
+				}
+				timeSeries[k][pt] = solver.getState().clone();
+			}
+			perturbation_.restoreWildType();
+			
+			numEvaluations += solver.getODE().getNumEvaluations();
+			if (solver.getDormandPrinceSolver() != null) {
+				numSteps += solver.getDormandPrinceSolver().getNumSteps();
+				numRejectedSteps += solver.getDormandPrinceSolver().getNumRejectedSteps();
+			} else if (solver.getRosenbrockSolver() != null) {
+				RosenbrockSolver rosenbrock = solver.getRosenbrockSolver();
+				numSteps += rosenbrock.getNumSteps();
+				numRejectedSteps += rosenbrock.getNumRejectedSteps();
+				numJacobians += rosenbrock.getNumJacobianEvaluations();
+				numFactorizations += rosenbrock.getNumFactorizations();
+			} else if (solver.getStiffnessSwitchingSolver() != null) {
+				StiffnessSwitchingSolver switching = solver.getStiffnessSwitchingSolver();
+				numSteps += switching.getExplicitSolver().getNumSteps();
+				numRejectedSteps += switching.getExplicitSolver().getNumRejectedSteps();
+				numSwitches += switching.getNumSwitches();
+				RosenbrockSolver rosenbrock = switching.getImplicitSolver();
+				if (rosenbrock != null) {
+					numSteps += rosenbrock.getNumSteps();
+					numImplicitSteps += rosenbrock.getNumSteps();
+					numRejectedSteps += rosenbrock.getNumRejectedSteps();
+					numJacobians += rosenbrock.getNumJacobianEvaluations();
+					numFactorizations += rosenbrock.getNumFactorizations();
+				}
+			}
+			
+			if (reference_ != null)
+				for (int pt=0; pt<numTimePoints_; pt++)
+					for (int i=0; i<wildType_.length; i++)
+						maxError = Math.max(maxError, Math.abs(timeSeries[k][pt][i] - reference_[k][pt][i]));
+		}
+		
+		long time = System.currentTimeMillis() - start;
+		
+		if (label != null) {
+			String steps = (numSteps == 0) ? "" : ", steps " + numSteps + " (rejected " + numRejectedSteps + ")";
+			String lu = (numFactorizations == 0) ? "" : ", Jacobians " + numJacobians + ", LU factorizations " + numFactorizations;
+			String switches = (label.equals(Solver.odeSolver.AUTO.name())) ? ", implicit steps " + numImplicitSteps + ", switches " + numSwitches : "";
+			log.log(Level.INFO, String.format("%-15s %6d ms, rate evaluations %7d%s%s%s, max error %.2e",
+					label, time, numEvaluations, steps, lu, switches, maxError));
+		}
+		return timeSeries;
+	}
+	
+}
@@ -0,0 +1,466 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+
+package ch.epfl.lis.gnw;
+
+
+/** Sparse LU factorization P*A*Q = L*U with threshold partial pivoting.
+ * 
+ * Implements the left-looking algorithm of Gilbert and Peierls (the same algorithm as
+ * cs_lu of CSparse, T. Davis): column k of L and U is obtained by solving a sparse
+ * triangular system with the columns of L computed so far, where the nonzero pattern
+ * of the solution is found with a depth-first search in the graph of L. The cost is
+ * thus proportional to the number of floating-point operations, not to N^2.
+ * 
+ * Rows are pivoted for stability: the diagonal element is preferred if its magnitude
+ * is at least pivotTolerance_ times the largest candidate in its column. The columns
+ * are ordered by increasing number of non-zeros (a simple static ordering that moves
+ * the columns of hub regulators to the end and thus reduces fill-in).
+ * 
+ * The pattern of the matrix may change from one factorization to the next, but the
+ * workspaces are reused if the size doesn't change.
+ * 
+ * @author Daniel Marbach (firstname.name@gmail.com)
+ * @author Thomas Schaffter (firstname.name@gmail.com)
+ * 
+ */
+public class SparseLU {
+
+	/** Size of the matrix */
+	private int n_;
+	/** Diagonal preference for pivoting, in [0 1] (1 = partial pivoting, 0 = always diagonal if nonzero) */
+	private double pivotTolerance_;
+	
+	/** Column pointers of L (the first element of each column is the unit diagonal) */
+	private int[] Lp_;
+	/** Row indexes of L */
+	private int[] Li_;
+	/** Values of L */
+	private double[] Lx_;
+	/** Column pointers of U (the last element of each column is the diagonal) */
+	private int[] Up_;
+	/** Row indexes of U */
+	private int[] Ui_;
+	/** Values of U */
+	private double[] Ux_;
+	/** Inverse row permutation: row i of A is row pinv_[i] of L*U */
+	private int[] pinv_;
+	/** Column permutation: column k of L*U is column q_[k] of A */
+	private int[] q_;
+	
+	/** A in compressed column format (column pointers, row indexes, values) */
+	private int[] Ap_;
+	private int[] Ai_;
+	private double[] Ax_;
+	
+	/** Workspace: dense vector */
+	private double[] x_;
+	/** Workspace: pattern of the sparse triangular solve (topologically ordered in xi_[top ... n-1]) */
+	private int[] xi_;
+	/** Workspace: DFS stack */
+	private int[] stack_;
+	/** Workspace: DFS position in the column of each node on the stack */
+	private int[] pstack_;
+	/** Workspace: nodes marked in the current DFS have mark_[j] == markStamp_ */
+	private int[] mark_;
+	/** Current mark */
+	private int markStamp_;
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/** Constructor */
+	public SparseLU() {
+		
+		n_ = -1;
+		pivotTolerance_ = 0.1;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Factorize the given square matrix.
+	 * @return false if the matrix is (numerically) singular
+	 */
+	public boolean factorize(SparseMatrix A) {
+		
+		if (A.getNumRows() != A.getNumColumns())
+			throw new IllegalArgumentException("SparseLU: the matrix must be square");
+		
+		int n = A.getNumRows();
+		if (n != n_)
+			allocateWorkspaces(n, A.getNumNonZeros());
+		
+		toCompressedColumns(A);
+		orderColumns();
+		
+		int lnz = 0;
+		int unz = 0;
+		for (int i=0; i<n; i++) {
+			pinv_[i] = -1;
+			x_[i] = 0;
+		}
+		
+		for (int k=0; k<n; k++) {
+			// make sure there is enough space for column k
+			if (lnz + n > Li_.length)
+				growL(2*Li_.length + n);
+			if (unz + n > Ui_.length)
+				growU(2*Ui_.length + n);
+			
+			Lp_[k] = lnz;
+			Up_[k] = unz;
+			int col = q_[k];
+			
+			// solve L*x = A(:,col)
+			int top = sparseLowerSolve(col);
+			
+			// find the pivot, copy the elements of U
+			int ipiv = -1;
+			double a = -1;
+			for (int p=top; p<n; p++) {
+				int i = xi_[p];
+				if (pinv_[i] < 0) {
+					double t = Math.abs(x_[i]);
+					if (t > a) {
+						a = t;
+						ipiv = i;
+					}
+				} else {
+					Ui_[unz] = pinv_[i];
+					Ux_[unz++] = x_[i];
+				}
+			}
+			if (ipiv == -1 || a <= 0 || Double.isNaN(a) || Double.isInfinite(a)) {
+				clearWorkspace();
+				return false;
+			}
+			// prefer the diagonal if it's large enough
+			if (pinv_[col] < 0 && Math.abs(x_[col]) >= a*pivotTolerance_)
+				ipiv = col;
+			
+			// the last element of U(:,k) is the pivot, the first element of L(:,k) is 1
+			double pivot = x_[ipiv];
+			Ui_[unz] = k;
+			Ux_[unz++] = pivot;
+			pinv_[ipiv] = k;
+			Li_[lnz] = ipiv;
+			Lx_[lnz++] = 1;
+			
+			for (int p=top; p<n; p++) {
+				int i = xi_[p];
+				if (pinv_[i] < 0) {
+					Li_[lnz] = i;
+					Lx_[lnz++] = x_[i] / pivot;
+				}
+				x_[i] = 0;
+			}
+		}
+		Lp_[n] = lnz;
+		Up_[n] = unz;
+		
+		// final row indexes of L
+		for (int p=0; p<lnz; p++)
+			Li_[p] = pinv_[Li_[p]];
+		
+		return true;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Solve A*x = b using the last factorization.
+	 * @param b Right-hand side (not modified)
+	 * @param x Returns the solution (may not be the same array as b)
+	 */
+	public void solve(double[] b, double[] x) {
+		
+		int n = n_;
+		double[] y = x_;
+		
+		// y = P*b
+		for (int i=0; i<n; i++)
+			y[pinv_[i]] = b[i];
+		
+		// L*z = y, L is unit lower triangular, its diagonal is the first element of each column
+		for (int j=0; j<n; j++) {
+			double yj = y[j];
+			for (int p=Lp_[j]+1; p<Lp_[j+1]; p++)
+				y[Li_[p]] -= Lx_[p] * yj;
+		}
+		
+		// U*w = z, the diagonal of U is the last element of each column
+		for (int j=n-1; j>=0; j--) {
+			y[j] /= Ux_[Up_[j+1]-1];
+			double yj = y[j];
+			for (int p=Up_[j]; p<Up_[j+1]-1; p++)
+				y[Ui_[p]] -= Ux_[p] * yj;
+		}
+		
+		// x = Q*w
+		for (int k=0; k<n; k++) {
+			x[q_[k]] = y[k];
+			y[k] = 0; // the workspace must be zero for the next factorization
+		}
+	}
+	
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/**
+	 * Solve L*x = A(:,col) where L is the part of the factor computed so far, with
+	 * the rows of L in the original numbering (pinv_[i] < 0 for rows that are not
+	 * pivotal yet). The nonzero pattern of x is returned in xi_[top ... n-1].
+	 * @return top
+	 */
+	private int sparseLowerSolve(int col) {
+		
+		int top = reach(col);
+		
+		for (int p=top; p<n_; p++)
+			x_[xi_[p]] = 0;
+		for (int p=Ap_[col]; p<Ap_[col+1]; p++)
+			x_[Ai_[p]] = Ax_[p];
+		
+		for (int px=top; px<n_; px++) {
+			int j = xi_[px];
+			int J = pinv_[j];
+			if (J < 0)
+				continue;
+			// the diagonal of L is 1, skip it
+			double xj = x_[j];
+			for (int p=Lp_[J]+1; p<Lp_[J+1]; p++)
+				x_[Li_[p]] -= Lx_[p] * xj;
+		}
+		return top;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Compute the set of nodes reachable in the graph of L from the pattern of A(:,col) (topological order) */
+	private int reach(int col) {
+		
+		newMark();
+		int top = n_;
+		
+		for (int p=Ap_[col]; p<Ap_[col+1]; p++)
+			if (mark_[Ai_[p]] != markStamp_)
+				top = depthFirstSearch(Ai_[p], top);
+		
+		return top;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Non-recursive depth-first search starting at node j, the finished nodes are added to xi_ before top */
+	private int depthFirstSearch(int j, int top) {
+		
+		int head = 0;
+		stack_[0] = j;
+		
+		while (head >= 0) {
+			j = stack_[head];
+			int jnew = pinv_[j];
+			
+			if (mark_[j] != markStamp_) {
+				mark_[j] = markStamp_;
+				pstack_[head] = (jnew < 0) ? 0 : Lp_[jnew];
+			}
+			
+			boolean done = true;
+			int p2 = (jnew < 0) ? 0 : Lp_[jnew+1];
+			for (int p=pstack_[head]; p<p2; p++) {
+				int i = Li_[p];
+				if (mark_[i] == markStamp_)
+					continue;
+				pstack_[head] = p;
+				stack_[++head] = i;
+				done = false;
+				break;
+			}
+			if (done) {
+				head--;
+				xi_[--top] = j;
+			}
+		}
+		return top;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Start a new set of marks */
+	private void newMark() {
+		
+		markStamp_++;
+		if (markStamp_ == Integer.MAX_VALUE) {
+			for (int i=0; i<n_; i++)
+				mark_[i] = 0;
+			markStamp_ = 1;
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Clear the dense workspace after a failed factorization */
+	private void clearWorkspace() {
+		
+		for (int i=0; i<n_; i++)
+			x_[i] = 0;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Copy the CSR matrix A to compressed columns (Ap_, Ai_, Ax_) */
+	private void toCompressedColumns(SparseMatrix A) {
+		
+		int n = n_;
+		int nnz = A.getNumNonZeros();
+		int[] rowStart = A.getRowStart();
+		int[] columns = A.getColumns();
+		double[] values = A.getValues();
+		
+		if (Ai_ == null || Ai_.length < nnz) {
+			Ai_ = new int[nnz];
+			Ax_ = new double[nnz];
+		}
+		
+		// count the elements of each column
+		for (int j=0; j<=n; j++)
+			Ap_[j] = 0;
+		for (int p=0; p<nnz; p++)
+			Ap_[columns[p]+1]++;
+		for (int j=0; j<n; j++)
+			Ap_[j+1] += Ap_[j];
+		
+		// fill the columns (stack_ is used as insertion pointer)
+		for (int j=0; j<n; j++)
+			stack_[j] = Ap_[j];
+		for (int i=0; i<n; i++) {
+			for (int p=rowStart[i]; p<rowStart[i+1]; p++) {
+				int k = stack_[columns[p]]++;
+				Ai_[k] = i;
+				Ax_[k] = values[p];
+			}
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Order the columns by increasing number of non-zeros (stable counting sort) */
+	private void orderColumns() {
+		
+		int n = n_;
+		// pstack_ is used for the counts
+		for (int c=0; c<=n; c++)
+			pstack_[c] = 0;
+		for (int j=0; j<n; j++)
+			pstack_[Ap_[j+1] - Ap_[j]]++;
+		for (int c=0, start=0; c<=n; c++) {
+			int count = pstack_[c];
+			pstack_[c] = start;
+			start += count;
+		}
+		for (int j=0; j<n; j++)
+			q_[pstack_[Ap_[j+1] - Ap_[j]]++] = j;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Allocate the workspaces for matrices of size n */
+	private void allocateWorkspaces(int n, int nnz) {
+		
+		n_ = n;
+		Lp_ = new int[n+1];
+		Up_ = new int[n+1];
+		Li_ = new int[2*nnz + n];
+		Lx_ = new double[2*nnz + n];
+		Ui_ = new int[2*nnz + n];
+		Ux_ = new double[2*nnz + n];
+		pinv_ = new int[n];
+		q_ = new int[n];
+		Ap_ = new int[n+1];
+		Ai_ = null;
+		Ax_ = null;
+		x_ = new double[n];
+		xi_ = new int[n];
+		stack_ = new int[n];
+		pstack_ = new int[n+1];
+		mark_ = new int[n];
+		markStamp_ = 0;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Increase the capacity of L */
+	private void growL(int capacity) {
+		
+		int[] i = new int[capacity];
+		double[] x = new double[capacity];
+		System.arraycopy(Li_, 0, i, 0, Li_.length);
+		System.arraycopy(Lx_, 0, x, 0, Lx_.length);
+		Li_ = i;
+		Lx_ = x;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Increase the capacity of U */
+	private void growU(int capacity) {
+		
+		int[] i = new int[capacity];
+		double[] x = new double[capacity];
+		System.arraycopy(Ui_, 0, i, 0, Ui_.length);
+		System.arraycopy(Ux_, 0, x, 0, Ux_.length);
+		Ui_ = i;
+		Ux_ = x;
+	}
+	
+	
+	// ============================================================================
+	// SETTERS AND GETTERS
+	
+	public int getSize() { return n_; }
+	/** Number of non-zeros of L and U (fill-in indicator) */
+	public int getNumNonZeros() { return Lp_[n_] + Up_[n_]; }
+	
+	public double getPivotTolerance() { return pivotTolerance_; }
+	public void setPivotTolerance(double t) { pivotTolerance_ = t; }
+	
+}
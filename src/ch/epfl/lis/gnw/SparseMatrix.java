@@ -0,0 +1,224 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+
+package ch.epfl.lis.gnw;
+
+import cern.colt.matrix.DoubleMatrix2D;
+import cern.colt.matrix.impl.DenseDoubleMatrix2D;
+
+
+/** Sparse matrix in compressed sparse row (CSR) format.
+ * 
+ * The non-zero elements of row i are values_[rowStart_[i]] ... values_[rowStart_[i+1]-1],
+ * their column indexes are given in columns_ (sorted in increasing order for every row).
+ * The pattern of non-zero elements is fixed at construction, only the values can be
+ * changed. This is used for the Jacobian of gene networks (see CompiledGeneNetwork),
+ * whose pattern is given by the edges of the network, thus memory and cost scale
+ * with the number of edges instead of N^2.
+ * 
+ * @author Daniel Marbach (firstname.name@gmail.com)
+ * @author Thomas Schaffter (firstname.name@gmail.com)
+ * 
+ */
+public class SparseMatrix {
+
+	/** Number of rows */
+	private int numRows_;
+	/** Number of columns */
+	private int numColumns_;
+	/** The elements of row i start at rowStart_[i], rowStart_[numRows_] is the number of non-zeros */
+	private int[] rowStart_;
+	/** Column indexes of the non-zero elements */
+	private int[] columns_;
+	/** Values of the non-zero elements */
+	private double[] values_;
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/**
+	 * Constructor, the values are initialized with zeros
+	 * @param numRows Number of rows
+	 * @param numColumns Number of columns
+	 * @param rowStart Index of the first element of each row (size numRows+1)
+	 * @param columns Column indexes of the elements, sorted in increasing order for every row
+	 */
+	public SparseMatrix(int numRows, int numColumns, int[] rowStart, int[] columns) {
+		
+		numRows_ = numRows;
+		numColumns_ = numColumns;
+		rowStart_ = rowStart;
+		columns_ = columns;
+		values_ = new double[columns.length];
+		
+		for (int i=0; i<numRows; i++)
+			for (int k=rowStart[i]+1; k<rowStart[i+1]; k++)
+				if (columns[k] <= columns[k-1])
+					throw new IllegalArgumentException("SparseMatrix: column indexes must be strictly increasing in every row");
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Copy constructor (the pattern is shared, the values are copied) */
+	public SparseMatrix(SparseMatrix A) {
+		
+		numRows_ = A.numRows_;
+		numColumns_ = A.numColumns_;
+		rowStart_ = A.rowStart_;
+		columns_ = A.columns_;
+		values_ = A.values_.clone();
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Compute result = A*v */
+	public void multiply(double[] v, double[] result) {
+		
+		for (int i=0; i<numRows_; i++) {
+			double sum = 0;
+			for (int k=rowStart_[i]; k<rowStart_[i+1]; k++)
+				sum += values_[k] * v[columns_[k]];
+			result[i] = sum;
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Estimate the spectral radius (largest eigenvalue in magnitude) of this square matrix
+	 * by power iteration. v is the initial vector, it returns the last (normalized) iterate,
+	 * which is a good initial vector for the next estimate if the matrix changes only
+	 * slightly. If v is zero, the iteration starts with (1, ..., 1). w is a workspace.
+	 */
+	public double estimateSpectralRadius(double[] v, double[] w, int numIterations) {
+		
+		double norm = norm(v);
+		if (norm == 0 || Double.isNaN(norm) || Double.isInfinite(norm)) {
+			for (int i=0; i<numRows_; i++)
+				v[i] = 1;
+			norm = norm(v);
+		}
+		for (int i=0; i<numRows_; i++)
+			v[i] /= norm;
+		
+		double radius = 0;
+		for (int k=0; k<numIterations; k++) {
+			multiply(v, w);
+			radius = norm(w);
+			if (radius == 0 || Double.isNaN(radius) || Double.isInfinite(radius))
+				break;
+			for (int i=0; i<numRows_; i++)
+				v[i] = w[i] / radius;
+		}
+		return radius;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return the index in values_ of element (i,j), or -1 if it's not part of the pattern */
+	public int getPosition(int i, int j) {
+		
+		int low = rowStart_[i];
+		int high = rowStart_[i+1] - 1;
+		
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (columns_[mid] < j)
+				low = mid + 1;
+			else if (columns_[mid] > j)
+				high = mid - 1;
+			else
+				return mid;
+		}
+		return -1;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return element (i,j) (zero if it's not part of the pattern) */
+	public double get(int i, int j) {
+		
+		int k = getPosition(i, j);
+		return (k == -1) ? 0 : values_[k];
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Set all values to zero */
+	public void clear() {
+		
+		for (int k=0; k<values_.length; k++)
+			values_[k] = 0;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return a dense copy of this matrix (use only for small matrices) */
+	public DoubleMatrix2D toDense() {
+		
+		DoubleMatrix2D A = new DenseDoubleMatrix2D(numRows_, numColumns_);
+		for (int i=0; i<numRows_; i++)
+			for (int k=rowStart_[i]; k<rowStart_[i+1]; k++)
+				A.setQuick(i, columns_[k], values_[k]);
+		
+		return A;
+	}
+	
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/** Euclidean norm of v */
+	private double norm(double[] v) {
+		
+		double sum = 0;
+		for (int i=0; i<numRows_; i++)
+			sum += v[i]*v[i];
+		return Math.sqrt(sum);
+	}
+	
+	
+	// ============================================================================
+	// SETTERS AND GETTERS
+	
+	public int getNumRows() { return numRows_; }
+	public int getNumColumns() { return numColumns_; }
+	public int getNumNonZeros() { return rowStart_[numRows_]; }
+	
+	public int[] getRowStart() { return rowStart_; }
+	public int[] getColumns() { return columns_; }
+	public double[] getValues() { return values_; }
+	
+}
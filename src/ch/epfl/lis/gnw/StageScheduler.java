@@ -0,0 +1,214 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+
+package ch.epfl.lis.gnw;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/** Executes the stages of a computation with dependencies between them on a bounded thread pool.
+ * 
+ * The stages form a directed acyclic graph: a stage is started as soon as all the stages it
+ * depends on are done, at most numThreads_ stages are executed at the same time, so that
+ * independent stages overlap (see BenchmarkGenerator, e.g., the SDE knockouts depend on
+ * the ODE knockouts, but not on the ODE knockdowns). The dependencies of a stage must be
+ * added before the stage itself, thus the order in which the stages are added is a valid
+ * order of execution. When several stages are ready, they are started in this order. With
+ * a single thread, the stages are simply executed one after the other in this order in
+ * the calling thread.
+ * 
+ * If a stage throws an exception (e.g., a CancelException when the user interrupts the
+ * benchmark generation), no further stages are started, the stages that are running are
+ * completed, and the exception is thrown by run().
+ * 
+ * @author Daniel Marbach (firstname.name@gmail.com)
+ * 
+ */
+public class StageScheduler {
+	
+	/** The stages, in the order in which they were added */
+	private ArrayList<Stage> stages_;
+	/** Maximum number of stages executed at the same time */
+	private int numThreads_;
+	
+	/** Logger for this class */
+	private static Logger log = Logger.getLogger(StageScheduler.class.getName());
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/** Constructor, numThreads is the maximum number of stages executed at the same time (0: number of available processors) */
+	public StageScheduler(int numThreads) {
+		
+		stages_ = new ArrayList<Stage>();
+		numThreads_ = (numThreads <= 0) ? Runtime.getRuntime().availableProcessors() : numThreads;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Add a stage, the stages it depends on must have been added before. Returns the stage. */
+	public Stage add(Stage stage) {
+		
+		for (int i=0; i<stage.dependencies_.size(); i++)
+			if (!stages_.contains(stage.dependencies_.get(i)))
+				throw new IllegalArgumentException("StageScheduler: stage " + stage.name_ + " depends on a stage that was not added before");
+		
+		stages_.add(stage);
+		return stage;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Execute all stages, returns when they are done (see class documentation) */
+	public void run() throws Exception {
+		
+		if (numThreads_ == 1) {
+			for (int i=0; i<stages_.size(); i++) {
+				stages_.get(i).run();
+				stages_.get(i).done_ = true;
+			}
+			return;
+		}
+		
+		log.log(Level.INFO, "Executing " + stages_.size() + " stages using up to " + numThreads_ + " threads");
+		
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads_);
+		CompletionService<Stage> completionService = new ExecutorCompletionService<Stage>(pool);
+		int numRunning = 0;
+		Throwable exception = null;
+		
+		try {
+			while (true) {
+				// start the stages that are ready, in the order in which they were added
+				for (int i=0; i<stages_.size() && numRunning < numThreads_ && exception == null; i++) {
+					Stage stage = stages_.get(i);
+					if (!stage.started_ && stage.isReady()) {
+						stage.started_ = true;
+						completionService.submit(new StageTask(stage));
+						numRunning++;
+					}
+				}
+				if (numRunning == 0)
+					break;
+				
+				// wait for the next stage to be done
+				Future<Stage> future = completionService.take();
+				numRunning--;
+				try {
+					future.get().done_ = true;
+				} catch (ExecutionException e) {
+					// keep the first exception, the stages that are running are completed
+					if (exception == null)
+						exception = e.getCause();
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+		
+		if (exception instanceof Exception)
+			throw (Exception) exception;
+		else if (exception instanceof Error)
+			throw (Error) exception;
+	}
+	
+	
+	// ============================================================================
+	// PRIVATE CLASSES
+	
+	/** Executes a stage in a thread of the pool, returns the stage */
+	private class StageTask implements Callable<Stage> {
+		
+		/** The stage */
+		private Stage stage_;
+		
+		public StageTask(Stage stage) {
+			stage_ = stage;
+		}
+		
+		public Stage call() throws Exception {
+			stage_.run();
+			return stage_;
+		}
+	}
+	
+	
+	// ============================================================================
+	// PUBLIC CLASSES
+	
+	/** A stage of the computation, implement run() */
+	public static abstract class Stage {
+		
+		/** Name of the stage (used for error messages) */
+		private String name_;
+		/** The stages that must be done before this one is started */
+		private ArrayList<Stage> dependencies_;
+		/** Set true when the stage was started (only accessed by the thread calling StageScheduler.run()) */
+		private boolean started_;
+		/** Set true when the stage is done (only accessed by the thread calling StageScheduler.run()) */
+		private boolean done_;
+		
+		/** Constructor, the stage depends on the given stages (null entries are ignored) */
+		public Stage(String name, Stage... dependencies) {
+			
+			name_ = name;
+			dependencies_ = new ArrayList<Stage>();
+			for (int i=0; i<dependencies.length; i++)
+				if (dependencies[i] != null)
+					dependencies_.add(dependencies[i]);
+			started_ = false;
+			done_ = false;
+		}
+		
+		/** Execute the stage */
+		abstract public void run() throws Exception;
+		
+		/** Return true if all the stages this one depends on are done */
+		private boolean isReady() {
+			
+			for (int i=0; i<dependencies_.size(); i++)
+				if (!dependencies_.get(i).done_)
+					return false;
+			return true;
+		}
+		
+		public String getName() { return name_; }
+	}
+	
+}
@@ -26,7 +26,6 @@ THE SOFTWARE.
 
 package ch.epfl.lis.gnw;
 
-import java.awt.Frame;
 import java.io.*;
 import java.util.ArrayList;
 import java.util.logging.Level;
@@ -37,9 +36,12 @@ import org.apache.commons.math.optimization.CostException;
 
 import cern.colt.matrix.DoubleMatrix1D;
 import cern.colt.matrix.DoubleMatrix2D;
+import cern.colt.matrix.impl.DenseDoubleMatrix1D;
 import cern.colt.matrix.impl.DenseDoubleMatrix2D;
+import cern.jet.random.engine.RandomEngine;
+import ch.epfl.lis.sde.SdeSettings;
+import ch.epfl.lis.sde.StationarityMonitor;
 import ch.epfl.lis.gnwgui.GnwGuiSettings;
-import ch.epfl.lis.gnwgui.windows.ErrorWindow;
 import ch.epfl.lis.gnwgui.windows.GenericWindow;
 
 
@@ -51,6 +53,9 @@ import ch.epfl.lis.gnwgui.windows.GenericWindow;
  */
 public class SteadyStateExperiment extends Experiment {
 	
+	/** Methods to compute the ODE steady states: integration of the ODEs or Newton (see NewtonSteadyStateSolver) */
+	public enum steadyStateMethod {INTEGRATION, NEWTON};
+	
 	/** Perturbed steady-states */
 	private DoubleMatrix2D ssPerturbation_;
 	/** Perturbed steady-states for the proteins */
@@ -65,7 +70,7 @@ public class SteadyStateExperiment extends Experiment {
 	 */
 	private double maxtODE_;
 	/**
-	 * For stochastic simulations (SDEs), If maxtSDE < 0, we return the state at time 1.5*timeToConvergenceODE_,
+	 * For stochastic simulations (SDEs or SSA), If maxtSDE < 0, we return the state at time 1.5*timeToConvergenceODE_,
 	 * where timeToConvergenceODE_ should be set to the time of convergence for the deterministic simulation 
 	 * of the same experiment. If maxtSteadyStateSDE > 0, we return the state at that time.
 	 */
@@ -75,6 +80,48 @@ public class SteadyStateExperiment extends Experiment {
 	 * For SDEs: return the state at these times.
 	 */
 	private ArrayList<Double> timeToConvergenceODE_;
+	/**
+	 * For SDEs: the time at which the simulation of each perturbation stopped, this is
+	 * before the time limit if the trajectory was found to be stationary (see StationarityMonitor)
+	 */
+	private ArrayList<Double> stoppingTimeSDE_;
+	/** Method used to compute the ODE steady states (not used for SDEs) */
+	private steadyStateMethod steadyStateMethod_;
+	/** Solver used if steadyStateMethod_ is NEWTON (created when needed) */
+	private NewtonSteadyStateSolver newtonSolver_;
+	/**
+	 * Parameters of the perturbation that is currently simulated (null for the wild type).
+	 * The perturbations are not applied to grn_, the solvers read the perturbed parameters
+	 * through this overlay (see ParameterOverlay).
+	 */
+	private ParameterOverlay overlay_;
+	/** Compiled network with the parameters of overlay_, for the initial conditions and the log (created when needed) */
+	private CompiledGeneNetwork compiledGrn_;
+	/**
+	 * State (steady state) of the perturbation that was simulated last. The state is not
+	 * passed through grn_, so that several experiments of the same network can be simulated
+	 * at the same time (see BenchmarkGenerator).
+	 */
+	private double[] state_;
+	/** If set true, the ODE steady states are computed by continuation (see computeSteadyStatesWithContinuation()) */
+	private boolean continuation_;
+	/**
+	 * Optional, for continuation: experiment with the same type and number of perturbations whose
+	 * steady states are used as starting points (e.g., the knockouts for the knockdowns)
+	 */
+	private SteadyStateExperiment continuationSource_;
+	/**
+	 * Optional, for SDEs: ODE experiment with the same perturbations. If it's set, the steady
+	 * states are sampled from the linear noise approximation at its steady states instead
+	 * of being simulated (see computeSteadyStatesWithLinearNoiseApproximation())
+	 */
+	private SteadyStateExperiment linearNoiseSource_;
+	/** Number of steps to go from the perturbation of continuationSource_ to the perturbation */
+	private static final int NUM_CONTINUATION_STEPS = 4;
+	/** Initial pseudo time step of the Newton solver when starting from another steady state (continuation) */
+	private static final double CONTINUATION_TAU = 100;
+	/** Significance level of the stationarity test of the SDE simulations */
+	private static final double STATIONARITY_SIGNIFICANCE = 0.05;
 	
     /** Logger for this class */
     private static Logger log = Logger.getLogger(SteadyStateExperiment.class.getName());
@@ -97,6 +144,12 @@ public class SteadyStateExperiment extends Experiment {
 		maxtODE_ = GnwSettings.getInstance().getMaxtSteadyStateODE();
 		maxtSDE_ = GnwSettings.getInstance().getMaxtSteadyStateSDE();
 		timeToConvergenceODE_ = null;
+		steadyStateMethod_ = GnwSettings.getInstance().getSteadyStateMethod();
+		newtonSolver_ = null;
+		continuation_ = GnwSettings.getInstance().getSteadyStateContinuation();
+		continuationSource_ = null;
+		linearNoiseSource_ = null;
+		state_ = null;
 	}
 
 	
@@ -113,19 +166,31 @@ public class SteadyStateExperiment extends Experiment {
 			String simulationType = "ODEs";
 			if (solverType_ == Solver.type.SDE)
 				simulationType = "SDEs";
+			else if (solverType_ == Solver.type.SSA)
+				simulationType = "SSA";
 			log.log(Level.INFO, "Simulating steady-state " + label_ + " using " + simulationType + " ...");
 			
-			if (solverType_ == Solver.type.SDE && timeToConvergenceODE_ == null && maxtSDE_ < 0)
-				throw new RuntimeException("For SDE steady-state simulation, either specify timeToConvergenceODE_ or maxtSDE_");
+			if (solverType_ != Solver.type.ODE && timeToConvergenceODE_ == null && maxtSDE_ < 0)
+				throw new RuntimeException("For stochastic steady-state simulation, either specify timeToConvergenceODE_ or maxtSDE_");
 				
 			ssPerturbation_ = new DenseDoubleMatrix2D(numExperiments_, numGenes_);
 			if (modelTranslation_)
 				ssPerturbationProteins_ = new DenseDoubleMatrix2D(numExperiments_, numGenes_);
 				
-			if (solverType_ == Solver.type.ODE)
+			if (solverType_ == Solver.type.ODE) {
 				timeToConvergenceODE_ = new ArrayList<Double>();
+				for (int i=0; i<numExperiments_; i++)
+					timeToConvergenceODE_.add(0.0);
+			} else if (solverType_ == Solver.type.SDE) {
+				stoppingTimeSDE_ = new ArrayList<Double>();
+				for (int i=0; i<numExperiments_; i++)
+					stoppingTimeSDE_.add(0.0);
+			}
 			
-			computeSteadyStates();
+			// the perturbations saved in the checkpoint or the result cache are not simulated again
+			if (!restoreResults())
+				computeSteadyStates();
+			allPerturbationsDone();
 			
 			// display the longest time to convergence
 			if (solverType_ == Solver.type.ODE) {
@@ -139,13 +204,13 @@ public class SteadyStateExperiment extends Experiment {
 
 		} catch (ConvergenceException e) {
 			log.log(Level.INFO, "SteadyStateExperiment::runAll(): ConvergenceException " + e.getMessage());
-			throw new RuntimeException();
+			throw new RuntimeException(e);
 		} catch (CostException e) {
 			log.log(Level.INFO, "SteadyStateExperiment::runAll(): CostException " + e.getMessage());
-			throw new RuntimeException();
+			throw new RuntimeException(e);
 		} catch (Exception e) {
 			log.log(Level.INFO, "SteadyStateExperiment::runAll(): Exception " + e.getMessage());
-			throw new RuntimeException();
+			throw new RuntimeException(e);
 		}
 	}
 	
@@ -197,50 +262,333 @@ public class SteadyStateExperiment extends Experiment {
 	// ----------------------------------------------------------------------------
 	
 	/** 
-	 * Compute the steady-states for all the single-gene perturbations, one after the other.
-	 * The result is stored in ssPerturbation.  
+	 * Compute the steady-states for all the single-gene perturbations, one after the other
+	 * or in parallel threads (setting parallelPerturbations, see simulatePerturbation()).
+	 * The result is stored in ssPerturbation. The perturbations that are done (restored
+	 * from the checkpoint) are skipped, except for continuation, the linear noise
+	 * approximation and ensembleODE, which always compute all perturbations (their
+	 * perturbations depend on each other).
 	 * @throws Exception 
 	 */ 
 	public void computeSteadyStates() throws Exception {
 		
+		if (continuation_ && solverType_ == Solver.type.ODE && perturbation_ != null) {
+			computeSteadyStatesWithContinuation();
+			return;
+		}
+		if (linearNoiseSource_ != null && solverType_ == Solver.type.SDE) {
+			computeSteadyStatesWithLinearNoiseApproximation();
+			return;
+		}
+		if (GnwSettings.getInstance().getEnsembleODE() && solverType_ == Solver.type.ODE
+				&& steadyStateMethod_ == steadyStateMethod.INTEGRATION && perturbation_ != null) {
+			computeSteadyStatesWithEnsemble();
+			return;
+		}
+		if (GnwSettings.getInstance().getParallelPerturbations() && numExperiments_ > 1) {
+			runPerturbationsInParallel();
+			return;
+		}
+		
 		// apply each perturbation, one after the other, and compute the steady-states
 		for (int i=0; i<numExperiments_; i++) {
 			
-			// the time limit for the simulation
-			double maxt;
-			if (solverType_ == Solver.type.SDE) {
-				if (maxtSDE_ > 0)
-					maxt = maxtSDE_;
-				else
-					maxt = timeToConvergenceODE_.get(i); 
-			} else
-				maxt = maxtODE_;
+			if (isPerturbationDone(i))
+				continue;
 			
-			// apply the perturbation
+			// the perturbed parameters (the network itself is not changed)
 			if (perturbation_ != null)
-				perturbation_.applyPerturbation(i);
+				overlay_ = perturbation_.getOverlay(i);
 			
 			// compute the steady-state
-			computeSteadyState(maxt);
-			
-			// remove the perturbation
-			if (perturbation_ != null)
-				perturbation_.restoreWildType();
+			computeSteadyState(i, constructInitialCondition(getCompiledGrn()), null, getMaxt(i));
 			
 			// put the steady-state into the corresponding line in ssPerturbation_
-			DoubleMatrix1D x = grn_.getX();
+			saveSteadyState(i);
+			perturbationDone(i);
+		}
+		overlay_ = null;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Compute the steady state of perturbation i in a thread of the parallel simulation (see
+	 * Experiment.runPerturbationsInParallel()). Same as computeSteadyState(), except that
+	 * everything is local to this perturbation: its own solvers and compiled network, the
+	 * state is not saved in state_, and the stochastic simulations use the random stream
+	 * of the perturbation.
+	 * @throws Exception 
+	 */
+	void simulatePerturbation(int i) throws Exception {
+		
+		ParameterOverlay overlay = (perturbation_ != null) ? perturbation_.getOverlay(i) : null;
+		CompiledGeneNetwork compiledGrn = createCompiledGrn(overlay);
+		double[] xy0 = constructInitialCondition(compiledGrn);
+		double maxt = getMaxt(i);
+		
+		double t;
+		double[] xy;
+		Solver solver = null;
+		NewtonSteadyStateSolver newtonSolver = null;
+		if (solverType_ == Solver.type.ODE && steadyStateMethod_ == steadyStateMethod.NEWTON) {
+			newtonSolver = new NewtonSteadyStateSolver(grn_);
+			newtonSolver.setParameterOverlay(overlay);
+		}
+		
+		if (newtonSolver != null && solveNewton(newtonSolver, xy0, maxt, false)) {
+			t = newtonSolver.getTime();
+			xy = xy0;
+		} else {
+			solver = createSolver(xy0, overlay, createRandomEngine(i));
+			t = integrate(solver, maxt);
+			xy = solver.getNetworkState().clone();
+		}
+		
+		saveTime(i, t);
+		logSteadyState(t, xy, compiledGrn);
+		logStochasticSimulation(solver, maxt);
+		saveSteadyState(i, xy);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Write the steady states (mRNA and, if translation is modelled, proteins) and the time
+	 * to convergence (ODEs) or the stopping time (SDEs) of the perturbations that are done.
+	 * The perturbations don't depend on each other, no other state is needed to continue.
+	 */
+	void writeCheckpointData(DataOutputStream out) throws IOException {
+		
+		for (int i=0; i<numExperiments_; i++) {
+			if (!isPerturbationDone(i))
+				continue;
+			
 			for (int j=0; j<numGenes_; j++)
-				ssPerturbation_.set(i, j, x.get(j));
+				out.writeDouble(ssPerturbation_.get(i, j));
+			if (modelTranslation_)
+				for (int j=0; j<numGenes_; j++)
+					out.writeDouble(ssPerturbationProteins_.get(i, j));
 			
-			if (modelTranslation_) {
-				DoubleMatrix1D y = grn_.getY();
+			if (solverType_ == Solver.type.ODE)
+				out.writeDouble(timeToConvergenceODE_.get(i));
+			else if (solverType_ == Solver.type.SDE)
+				out.writeDouble(stoppingTimeSDE_.get(i));
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Read the data written by writeCheckpointData() */
+	void readCheckpointData(DataInputStream in) throws IOException {
+		
+		for (int i=0; i<numExperiments_; i++) {
+			if (!isPerturbationDone(i))
+				continue;
+			
+			for (int j=0; j<numGenes_; j++)
+				ssPerturbation_.set(i, j, in.readDouble());
+			if (modelTranslation_)
 				for (int j=0; j<numGenes_; j++)
-					ssPerturbationProteins_.set(i, j, y.get(j));
+					ssPerturbationProteins_.set(i, j, in.readDouble());
+			
+			if (solverType_ != Solver.type.SSA)
+				saveTime(i, in.readDouble());
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Write the inputs of the steady-state simulation to the key of the result cache: the
+	 * method and maxt, and the results of the other experiments that are used (the time
+	 * to convergence of the ODEs for stochastic simulations, the steady states of the
+	 * continuation source and of the source of the linear noise approximation).
+	 */
+	void writeCacheKey(DataOutputStream out) throws IOException {
+		
+		out.writeUTF(steadyStateMethod_.name());
+		out.writeBoolean(continuation_);
+		out.writeDouble(maxtSDE_);
+		
+		boolean useTimeToConvergence = (solverType_ != Solver.type.ODE && timeToConvergenceODE_ != null);
+		out.writeBoolean(useTimeToConvergence);
+		if (useTimeToConvergence) {
+			out.writeInt(timeToConvergenceODE_.size());
+			for (int i=0; i<timeToConvergenceODE_.size(); i++)
+				out.writeDouble(timeToConvergenceODE_.get(i));
+		}
+		
+		writeSourceSteadyStates(out, continuation_ ? continuationSource_ : null);
+		writeSourceSteadyStates(out, linearNoiseSource_);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Sample the SDE steady states of all perturbations from the linear noise approximation
+	 * at the ODE steady states of linearNoiseSource_ (see LinearNoiseApproximation). If the
+	 * approximation fails for a perturbation (e.g., the ODE steady state isn't stable), the
+	 * SDEs are simulated instead.
+	 * @throws Exception 
+	 */
+	private void computeSteadyStatesWithLinearNoiseApproximation() throws Exception {
+		
+		if (linearNoiseSource_.getNumExperiments() != numExperiments_)
+			throw new IllegalArgumentException("The linear noise approximation needs the ODE steady states of the same perturbations");
+		
+		// the samples of all perturbations are drawn from the same stream
+		Solver.initializeSdeSettings();
+		SdeSettings.getInstance().initializeRNG();
+		
+		for (int i=0; i<numExperiments_; i++) {
+			
+			if (perturbation_ != null)
+				overlay_ = perturbation_.getOverlay(i);
+			
+			double[] xy = linearNoiseSource_.getSteadyState(i);
+			LinearNoiseApproximation lna = new LinearNoiseApproximation(grn_, xy, overlay_);
+			
+			if (lna.solve()) {
+				lna.sample(xy);
+				state_ = xy;
+				lna.logStatistics();
+			} else {
+				log.log(Level.INFO, "Linear noise approximation failed, simulating the SDEs instead");
+				computeSteadyState(i, constructInitialCondition(getCompiledGrn()), null, getMaxt(i));
+			}
+			saveSteadyState(i);
+		}
+		overlay_ = null;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** 
+	 * Compute the ODE steady-states of all perturbations together by integrating them in
+	 * lockstep (see EnsembleODESolver). Each perturbation is removed from the ensemble as
+	 * soon as it has converged. 
+	 */ 
+	private void computeSteadyStatesWithEnsemble() {
+		
+		EnsembleODESolver solver = new EnsembleODESolver(grn_, numExperiments_);
+		
+		for (int i=0; i<numExperiments_; i++) {
+			overlay_ = perturbation_.getOverlay(i);
+			solver.setParameters(i, overlay_);
+			solver.setState(i, constructInitialCondition(getCompiledGrn()));
+		}
+		
+		solver.setCheckConvergence(true);
+		double t = 0;
+		do {
+			t += solver.step();
+		} while (!solver.converged() && t < maxtODE_);
+		
+		for (int i=0; i<numExperiments_; i++) {
+			t_ = solver.converged(i) ? solver.getConvergenceTime(i) : t;
+			timeToConvergenceODE_.set(i, t_);
+			
+			overlay_ = perturbation_.getOverlay(i);
+			double[] xy = solver.getState(i);
+			state_ = xy;
+			logSteadyState(t_, xy, getCompiledGrn());
+			saveSteadyState(i, xy);
+		}
+		overlay_ = null;
+		log.log(Level.INFO, "Ensemble integration: " + solver.getNumSteps() + " steps, " + solver.getNumRejectedSteps() + " rejected");
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** 
+	 * Compute the ODE steady-states of the perturbations by continuation. If a continuation
+	 * source is set (e.g., the knockouts for the knockdowns) and the Newton method is used,
+	 * perturbation i starts from the steady state of perturbation i of the source and the
+	 * parameters are moved from the source perturbation to the perturbation in
+	 * NUM_CONTINUATION_STEPS steps (integrating the ODEs from the source steady states is not
+	 * faster than from the wild type, the source is not used in this case). Otherwise, the perturbations are ordered so that consecutive perturbations are
+	 * close to each other (greedy nearest neighbor starting from the wild type, see
+	 * Perturbation.distance()) and each perturbation starts from the steady state of the
+	 * closest perturbation already solved (or the wild type). The results are saved in the
+	 * original order. For multistable networks, a different steady state may be found than
+	 * when starting from the wild type.
+	 * @throws Exception 
+	 */ 
+	private void computeSteadyStatesWithContinuation() throws Exception {
+		
+		if (continuationSource_ != null && !isValidContinuationSource(continuationSource_)) {
+			log.log(Level.INFO, "Continuation source is not compatible with " + label_ + ", ignored");
+			continuationSource_ = null;
+		}
+		
+		if (continuationSource_ == null || steadyStateMethod_ != steadyStateMethod.NEWTON) {
+			int[] order = orderPerturbations();
+			double[][] solved = new double[numExperiments_][];
+			
+			for (int n=0; n<numExperiments_; n++) {
+				int i = order[n];
+				
+				overlay_ = perturbation_.getOverlay(i);
+				double[] xy0 = constructInitialCondition(getCompiledGrn());
+				
+				// start from the closest perturbation already solved, or the wild type
+				DoubleMatrix1D p = perturbation_.getPerturbation(i);
+				double[] start = xy0;
+				double minDistance = Double.MAX_VALUE;
+				if (xy0_ != null && perturbation_.getWildType() != null)
+					minDistance = perturbation_.distance(p, perturbation_.getWildType());
+				
+				for (int m=0; m<n; m++) {
+					double d = perturbation_.distance(p, perturbation_.getPerturbation(order[m]));
+					if (d < minDistance) {
+						minDistance = d;
+						start = solved[order[m]].clone();
+					}
+				}
+				
+				computeSteadyState(i, start, start == xy0 ? null : xy0, maxtODE_);
+				
+				solved[i] = getState();
+				saveSteadyState(i);
+			}
+		} else {
+			Perturbation source = continuationSource_.getPerturbation();
+			DoubleMatrix1D p = new DenseDoubleMatrix1D(numGenes_);
+			
+			for (int i=0; i<numExperiments_; i++) {
+				
+				double[] start = continuationSource_.getSteadyState(i);
+				DoubleMatrix1D from = source.getPerturbation(i);
+				DoubleMatrix1D to = perturbation_.getPerturbation(i);
+				
+				// go from the source to the perturbation in small steps (the steady state of the
+				// last step that converged is used as starting point)
+				for (int s=1; s<NUM_CONTINUATION_STEPS; s++) {
+					double lambda = s / (double) NUM_CONTINUATION_STEPS;
+					for (int g=0; g<numGenes_; g++)
+						p.set(g, (1-lambda)*from.get(g) + lambda*to.get(g));
+					
+					overlay_ = perturbation_.getOverlay(p);
+					boolean converged = getNewtonSolver().solve(start, maxtODE_, CONTINUATION_TAU);
+					if (!converged)
+						break;
+				}
+				
+				overlay_ = perturbation_.getOverlay(i);
+				computeSteadyState(i, start, constructInitialCondition(getCompiledGrn()), maxtODE_);
+				
+				saveSteadyState(i);
 			}
 		}
-		// remove the perturbation from the network
-		if (perturbation_ != null)
-			perturbation_.restoreWildType();
+		overlay_ = null;
 	}
 	
 	
@@ -249,63 +597,307 @@ public class SteadyStateExperiment extends Experiment {
 	
 	/**
 	 * Compute the steady state of the network after integrating from the given
-	 * initial conditions x0 and y0.
+	 * initial conditions xy0 (for ODEs, see also steadyStateMethod_). If xy0 is a steady
+	 * state of another perturbation (continuation), nominalXy0 is the initial condition
+	 * of the experiment, which is used to estimate the time to convergence (null otherwise).
+	 * The time to convergence of experiment i is saved in timeToConvergenceODE_.
 	 * @throws Exception 
 	 */
-	private void computeSteadyState(double maxt) throws Exception {
-						
-		double[] xy0 = constructInitialCondition(); // initial condition
+	private void computeSteadyState(int i, double[] xy0, double[] nominalXy0, double maxt) throws Exception {
+		
 		t_ = 0;
-		double dt = GnwSettings.getInstance().getDt();
 		
-		Solver solver = new Solver(solverType_, grn_, xy0);
+		Solver solver = null;
+		if (solverType_ == Solver.type.ODE && steadyStateMethod_ == steadyStateMethod.NEWTON && solveNewton(getNewtonSolver(), xy0, maxt, nominalXy0 != null)) {
+			t_ = getNewtonSolver().getTime();
+			state_ = xy0.clone();
+		} else {
+			solver = createSolver(xy0, overlay_, null);
+			t_ = integrate(solver, maxt);
+			state_ = solver.getNetworkState().clone();
+		}
+		
+		// the time needed to converge from the initial condition of the experiment (not xy0)
+		if (nominalXy0 != null)
+			t_ = getNewtonSolver().estimateTime(nominalXy0, getState(), maxt);
+		
+		saveTime(i, t_);
+		logSteadyState(t_, getState(), getCompiledGrn());
+		logStochasticSimulation(solver, maxt);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Write the steady states of the given source experiment to the key of the result cache (may be null or not simulated) */
+	private void writeSourceSteadyStates(DataOutputStream out, SteadyStateExperiment source) throws IOException {
+		
+		boolean simulated = (source != null && source.getSsPerturbation() != null);
+		out.writeBoolean(simulated);
+		if (simulated) {
+			out.writeInt(source.getNumExperiments());
+			for (int i=0; i<source.getNumExperiments(); i++)
+				writeArray(out, source.getSteadyState(i));
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Log the time t and the max rate of change at the given state xy (the steady state) */
+	private void logSteadyState(double t, double[] xy, CompiledGeneNetwork compiledGrn) {
+		
+		double[] dxydt = new double[xy.length];
+		compiledGrn.computeDxydt(xy, dxydt);
+		
+		double max = 0;
+		for (int k=0; k<dxydt.length; k++)
+			if (dxydt[k] > max)
+				max = dxydt[k];
 
-		try{
-			do {
-				double t1 = t_;
-				// this steps the time by dt_, but using a smaller internal step size of the solver
-				// (getRate() may be called several times for one step)
-				t_ += solver.step();
+		log.log(Level.INFO, "Saved state at t = " + t + ", with maximum dx_i/dt = " + max);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Log the stationarity test and the negative concentrations of an SDE simulation (nothing for other solvers) */
+	private void logStochasticSimulation(Solver solver, double maxt) {
+		
+		if (solver == null || solverType_ != Solver.type.SDE)
+			return;
+		
+		StationarityMonitor monitor = solver.getSDESolver().getStationarityMonitor();
+		if (monitor != null) {
+			if (monitor.isStationary())
+				log.log(Level.INFO, "SDE: trajectory stationary at t = " + monitor.getStationaryTime() + " (time limit " + maxt + ")");
+			else
+				log.log(Level.INFO, "SDE: trajectory not found to be stationary until the time limit, max |z| = " + monitor.getMaxZ() + " (critical value " + monitor.getCriticalZ() + ")");
+		}
+		if (solver.getSDESolver().getXNegativeCounter() > 0)
+			log.log(Level.INFO, "SDE: " + solver.getSDESolver().getXNegativeCounter() + " times a concentration became negative due to noise and was set to 0");
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Compute the ODE steady state with the given Newton solver, the estimated time to
+	 * convergence of the integration is then given by newtonSolver.getTime(). Return false
+	 * if the solver failed, in this case xy0 is unchanged. Set warmStart if xy0 is the
+	 * steady state of another perturbation.
+	 */
+	private boolean solveNewton(NewtonSteadyStateSolver newtonSolver, double[] xy0, double maxt, boolean warmStart) {
+		
+		double initialTau = warmStart ? CONTINUATION_TAU : newtonSolver.getInitialTau();
+		
+		if (!newtonSolver.solve(xy0, maxt, initialTau)) {
+			log.log(Level.INFO, "Newton steady-state solver failed, integrating the ODEs instead");
+			return false;
+		}
+		log.log(Level.INFO, "Newton steady-state solver converged after " + newtonSolver.getNumIterations() + " iterations");
+		
+		return true;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Get the Newton solver (created when needed) with the parameters of overlay_ */
+	private NewtonSteadyStateSolver getNewtonSolver() {
+		
+		if (newtonSolver_ == null)
+			newtonSolver_ = new NewtonSteadyStateSolver(grn_);
+		if (newtonSolver_.getParameterOverlay() != overlay_)
+			newtonSolver_.setParameterOverlay(overlay_);
+		return newtonSolver_;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Get the compiled network (created when needed) with the parameters of overlay_ */
+	private CompiledGeneNetwork getCompiledGrn() {
+		
+		if (compiledGrn_ == null)
+			compiledGrn_ = createCompiledGrn(overlay_);
+		if (compiledGrn_.getParameterOverlay() != overlay_)
+			compiledGrn_.setParameterOverlay(overlay_);
+		return compiledGrn_;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Create a compiled network with the parameters of the given overlay (may be null) */
+	private CompiledGeneNetwork createCompiledGrn(ParameterOverlay overlay) {
+		
+		CompiledGeneNetwork compiledGrn = new CompiledGeneNetwork(grn_);
+		// same results as the rates computed by grn_
+		compiledGrn.setHillFunctionEvaluation(CompiledGeneNetwork.hillFunction.EXACT);
+		compiledGrn.setParameterOverlay(overlay);
+		return compiledGrn;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Create the solver for the integration from xy0 with the parameters of the given
+	 * overlay. The stochastic solvers use the given random stream, or the one of SdeSettings
+	 * if it is null.
+	 */
+	private Solver createSolver(double[] xy0, ParameterOverlay overlay, RandomEngine randomEngine) {
+		
+		GnwSettings set = GnwSettings.getInstance();
+		Solver solver = new Solver(solverType_, grn_, xy0, overlay, randomEngine);
+		// the state is read from the solver, not from grn_ (see state_)
+		solver.setUpdateNetworkState(false);
+		
+		// stop the SDE simulation as soon as the trajectory is stationary
+		if (solverType_ == Solver.type.SDE && set.getStationarityTestSDE())
+			solver.getSDESolver().setStationarityMonitor(new StationarityMonitor(xy0.length,
+					set.getStationarityBatchSDE(), set.getStationarityWindowSDE(), STATIONARITY_SIGNIFICANCE));
+		
+		return solver;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Integrate with the given solver until convergence (ODE, or SDE with the stationarity
+	 * test) or until maxt. Return the time at which the integration stopped, the state is
+	 * then given by solver.getNetworkState(). 
+	 * @throws Exception 
+	 */
+	private double integrate(Solver solver, double maxt) throws Exception {
+		
+		double dt = GnwSettings.getInstance().getDt();
+		double t = 0;
 
-				if (t_ != t1 + dt)
-					throw new RuntimeException("Solver failed to step time by dt, expected t = " + (t1+dt) + ", obtained t = " + t_);
+		// exceptions of the solver are passed on (this may run in a worker thread, the GUI
+		// shows the error, see gnwgui.Simulation)
+		do {
+			double t1 = t;
+			// this steps the time by dt_, but using a smaller internal step size of the solver
+			// (getRate() may be called several times for one step)
+			t += solver.step();
 
-			} while (!solver.converged() && t_ < maxt);
-		}catch(RuntimeException e){
-			ErrorWindow dialog = new ErrorWindow(new Frame(), false, "Duration (t_max) must be a multiple of [measured points - 1].");
-			dialog.setVisible(true);
-		}
+			if (t != t1 + dt)
+				throw new RuntimeException("Solver failed to step time by dt, expected t = " + (t1+dt) + ", obtained t = " + t);
+
+		} while (!solver.converged() && t < maxt);
+		solver.logStatistics();
 		
-		// note, the state at the last step is already saved both in ODE.state and grn.x_, grn.y_
+		return t;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return the time limit of the simulation of experiment i */
+	private double getMaxt(int i) {
 		
-		// save the time of this experiment
 		if (solverType_ == Solver.type.ODE)
-			timeToConvergenceODE_.add(t_);
+			return maxtODE_;
+		else
+			return (maxtSDE_ > 0) ? maxtSDE_ : timeToConvergenceODE_.get(i);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Save the time t of experiment i (time to convergence for ODEs, stopping time for SDEs) */
+	private void saveTime(int i, double t) {
+		
+		if (solverType_ == Solver.type.ODE)
+			timeToConvergenceODE_.set(i, t);
+		else if (solverType_ == Solver.type.SDE)
+			stoppingTimeSDE_.set(i, t);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Copy the current state of the network (the steady state) to line i of ssPerturbation_ */
+	private void saveSteadyState(int i) {
+		
+		saveSteadyState(i, getState());
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Copy the state xy (mRNA and, if translation is modelled, protein concentrations) to
+	 * line i of ssPerturbation_. The rows are preallocated, so different threads can
+	 * write different lines.
+	 */
+	private void saveSteadyState(int i, double[] xy) {
+		
+		for (int j=0; j<numGenes_; j++)
+			ssPerturbation_.set(i, j, xy[j]);
 		
-		// Check the max rate of change at the found solution
-		DoubleMatrix1D lastX = grn_.getX();
-		DoubleMatrix1D lastY = grn_.getY();
-		double[] dxydt;
-		double[] xy;
 		if (modelTranslation_) {
-			dxydt = new double[2*numGenes_];
-			xy = concatenateVectors(lastX, lastY);
-		} else {
-			dxydt = new double[numGenes_];
-			xy = lastX.toArray();
+			for (int j=0; j<numGenes_; j++)
+				ssPerturbationProteins_.set(i, j, xy[numGenes_+j]);
 		}
-			
-		grn_.computeDxydt(xy, dxydt);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return the state of the last simulated perturbation (mRNA and, if translation is modelled, protein concentrations) */
+	private double[] getState() {
 		
-		double max = 0;
-		for (int i=0; i<dxydt.length; i++)
-			if (dxydt[i] > max)
-				max = dxydt[i];
-
-		log.log(Level.INFO, "Saved state at t = " + t_ + ", with maximum dx_i/dt = " + max);
+		return state_.clone();
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Order the perturbations for continuation: start with the perturbation closest to the
+	 * wild type, then always take the closest perturbation to the previous one (greedy).
+	 */
+	private int[] orderPerturbations() {
 		
-		if (solverType_ == Solver.type.SDE && solver.getSDESolver().getXNegativeCounter() > 0)
-			log.log(Level.INFO, "SDE: " + solver.getSDESolver().getXNegativeCounter() + " times a concentration became negative due to noise and was set to 0");
+		int[] order = new int[numExperiments_];
+		boolean[] done = new boolean[numExperiments_];
+		DoubleMatrix1D previous = perturbation_.getWildType();
+		
+		for (int n=0; n<numExperiments_; n++) {
+			int next = -1;
+			double minDistance = Double.MAX_VALUE;
+			
+			for (int k=0; k<numExperiments_; k++) {
+				if (done[k])
+					continue;
+				double d = (previous == null) ? 0 : perturbation_.distance(previous, perturbation_.getPerturbation(k));
+				if (next == -1 || d < minDistance) {
+					next = k;
+					minDistance = d;
+				}
+			}
+			order[n] = next;
+			done[next] = true;
+			previous = perturbation_.getPerturbation(next);
+		}
+		return order;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return true if the steady states of the given experiment can be used as starting points for this one */
+	private boolean isValidContinuationSource(SteadyStateExperiment source) {
+		
+		return source.getSolverType() == Solver.type.ODE
+			&& source.getSsPerturbation() != null
+			&& source.getPerturbation() != null
+			&& source.getPerturbation().getClass() == perturbation_.getClass()
+			&& source.getNumExperiments() == numExperiments_;
 	}
 	
 	
@@ -314,9 +906,10 @@ public class SteadyStateExperiment extends Experiment {
 	/**
 	 * Construct xy0, the initial conditions as an array of double. If x0 is null,
 	 * we estimate the initial conditions as the concentration of the genes in the
-	 * absence of regulation.
+	 * absence of regulation (computed with the given compiled network, i.e., with the
+	 * parameters of the perturbation).
 	 */
-	private double[] constructInitialCondition() {
+	private double[] constructInitialCondition(CompiledGeneNetwork compiledGrn) {
 		
 		double[] xy0 = null;
 		
@@ -335,7 +928,7 @@ public class SteadyStateExperiment extends Experiment {
 
 			// Estimate the initial conditions as the concentration of the genes without regulation.
 			// 0 = m*f(0) -delta*x_i  =>  x_i = m*f(0) / delta
-			grn_.computeDxydt(zeros, xy0); // since x=0, this actually computes m*f(0)
+			compiledGrn.computeDxydt(zeros, xy0); // since x=0, this actually computes m*f(0)
 			
 			for (int i=0; i<numGenes_; i++) {
 				xy0[i] /= grn_.getGene(i).getDelta();
@@ -488,6 +1081,23 @@ public class SteadyStateExperiment extends Experiment {
 	public DoubleMatrix2D getSsPerturbationProteins() { return ssPerturbationProteins_; }
 	public ArrayList<Double> getTimeToConvergenceODE() { return timeToConvergenceODE_; }
 	public void setTimeToConvergenceODE(ArrayList<Double> t) { timeToConvergenceODE_ = t; }
+	public ArrayList<Double> getStoppingTimeSDE() { return stoppingTimeSDE_; }
 	public void setMaxtSDE(double maxt) { maxtSDE_ = maxt; }
 	
+	/** Return the steady state of experiment i (mRNA and, if translation is modelled, protein concentrations) */
+	public double[] getSteadyState(int i) {
+		if (modelTranslation_)
+			return concatenateVectors(ssPerturbation_.viewRow(i), ssPerturbationProteins_.viewRow(i));
+		else
+			return ssPerturbation_.viewRow(i).toArray();
+	}
+	
+	public void setSteadyStateMethod(steadyStateMethod method) { steadyStateMethod_ = method; }
+	public steadyStateMethod getSteadyStateMethod() { return steadyStateMethod_; }
+	
+	public void setContinuation(boolean b) { continuation_ = b; }
+	public boolean getContinuation() { return continuation_; }
+	public void setContinuationSource(SteadyStateExperiment source) { continuationSource_ = source; }
+	public void setLinearNoiseApproximationSource(SteadyStateExperiment source) { linearNoiseSource_ = source; }
+	
 }
@@ -0,0 +1,244 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+
+package ch.epfl.lis.gnw;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.opensourcephysics.numerics.ODE;
+
+
+/** ODE solver that switches automatically between an explicit and an implicit method.
+ * 
+ * Similar to LSODA, the integration starts with the explicit DormandPrinceSolver. After
+ * every step() (i.e., every dt), the largest eigenvalue |lambda| of the Jacobian at the
+ * current state is estimated by power iteration on Jacobian-vector products (the Jacobian
+ * is the analytic sparse Jacobian of CompiledGeneNetwork, the iterate of the previous
+ * estimate is used as initial vector). An explicit method is stable only for
+ * h*|lambda| < STABILITY_LIMIT, thus if the step size h of the explicit solver is close
+ * to this limit (h*|lambda| > stiffThreshold*STABILITY_LIMIT), the step size is limited
+ * by stability rather than by accuracy and the solver switches to the implicit
+ * RosenbrockSolver. It switches back to the explicit solver when the step size of the
+ * implicit solver becomes small enough that the explicit solver would be accurate and
+ * stable (h*|lambda| < nonstiffThreshold*STABILITY_LIMIT).
+ * 
+ * The thresholds are given by stiffSwitchThreshold and nonstiffSwitchThreshold of the
+ * settings. The switches are logged (level FINE) with the estimated eigenvalue, so that
+ * the thresholds can be tuned, and logStatistics() logs the number of steps of each method.
+ * 
+ * Both solvers work on the same ODE, the one that takes over is restarted from the
+ * current state of the ODE. The implicit solver is only created if it's needed. No
+ * check is done during the first step after a switch or a restart.
+ * 
+ * @author Daniel Marbach (firstname.name@gmail.com)
+ * @author Thomas Schaffter (firstname.name@gmail.com)
+ * 
+ */
+public class StiffnessSwitchingSolver {
+	
+	/** Stability limit h*|lambda| of the Dormand-Prince method (on the negative real axis) */
+	public static final double STABILITY_LIMIT = 3.3;
+	/** Number of power iterations per estimate of the largest eigenvalue */
+	private static final int NUM_POWER_ITERATIONS = 8;
+	
+	/** The ODE system */
+	private ODE ode_;
+	/** The gene network */
+	private GeneNetwork grn_;
+	/** Compiled gene network, used to compute the Jacobian */
+	private CompiledGeneNetwork compiledGrn_;
+	/** Perturbed parameters of the network (null for the parameters of grn_) */
+	private ParameterOverlay overlay_;
+	/** The Jacobian */
+	private SparseMatrix J_;
+	/** Iterate and workspace of the power iteration */
+	private double[] v_, w_;
+	
+	/** The explicit solver */
+	private DormandPrinceSolver explicitSolver_;
+	/** The implicit solver (null until the first switch) */
+	private RosenbrockSolver implicitSolver_;
+	/** True if the implicit solver is currently used */
+	private boolean stiff_;
+	
+	/** Switch to the implicit solver if h*|lambda| > stiffThreshold_*STABILITY_LIMIT */
+	private double stiffThreshold_;
+	/** Switch to the explicit solver if h*|lambda| < nonstiffThreshold_*STABILITY_LIMIT */
+	private double nonstiffThreshold_;
+	
+	/** Time that was last reached with step() */
+	private double time_;
+	/** Last estimate of the largest eigenvalue of the Jacobian (in magnitude) */
+	private double lambda_;
+	/** Number of switches */
+	private int numSwitches_;
+	/** The check is skipped after a restart or a switch (the step size is not yet representative) */
+	private boolean skipCheck_;
+	
+	/** Logger for this class */
+	private static Logger log = Logger.getLogger(StiffnessSwitchingSolver.class.getName());
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/**
+	 * Constructor, the initial condition is the current state of the ODE. The ODE must
+	 * be the one of the given network.
+	 */
+	public StiffnessSwitchingSolver(ODE ode, GeneNetwork grn) {
+		
+		GnwSettings set = GnwSettings.getInstance();
+		
+		ode_ = ode;
+		grn_ = grn;
+		compiledGrn_ = new CompiledGeneNetwork(grn);
+		overlay_ = null;
+		J_ = compiledGrn_.createJacobian();
+		v_ = new double[J_.getNumRows()];
+		w_ = new double[J_.getNumRows()];
+		
+		explicitSolver_ = new DormandPrinceSolver(ode);
+		implicitSolver_ = null;
+		stiff_ = false;
+		
+		stiffThreshold_ = set.getStiffSwitchThreshold();
+		nonstiffThreshold_ = set.getNonstiffSwitchThreshold();
+		time_ = 0;
+		lambda_ = 0;
+		numSwitches_ = 0;
+		skipCheck_ = true;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Advance the time by dt with the current solver, the state of the ODE is set to the
+	 * state at the new time. Then check whether the solver should be switched.
+	 * @return The time step
+	 */
+	public double step() {
+		
+		double dt;
+		if (stiff_)
+			dt = implicitSolver_.step();
+		else
+			dt = explicitSolver_.step();
+		time_ += dt;
+		
+		if (skipCheck_)
+			skipCheck_ = false;
+		else
+			checkStiffness();
+		return dt;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Restart the current solver, see DormandPrinceSolver.restart() */
+	public void restart() {
+		
+		if (stiff_)
+			implicitSolver_.restart();
+		else
+			explicitSolver_.restart();
+		skipCheck_ = true;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Log the number of steps of each method and the number of switches */
+	public void logStatistics() {
+		
+		int numImplicitSteps = (implicitSolver_ == null) ? 0 : implicitSolver_.getNumSteps();
+		log.log(Level.INFO, "ODE solver: " + explicitSolver_.getNumSteps() + " explicit steps, " + numImplicitSteps +
+				" implicit steps, " + numSwitches_ + " switches");
+	}
+	
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/** Estimate the largest eigenvalue of the Jacobian at the current state and switch the solver if necessary */
+	private void checkStiffness() {
+		
+		double h = stiff_ ? implicitSolver_.getInternalStepSize() : explicitSolver_.getInternalStepSize();
+		
+		compiledGrn_.computeJacobian(ode_.getState(), J_);
+		lambda_ = J_.estimateSpectralRadius(v_, w_, NUM_POWER_ITERATIONS);
+		double ratio = h*lambda_ / STABILITY_LIMIT;
+		
+		if (!stiff_ && ratio > stiffThreshold_) {
+			if (implicitSolver_ == null) {
+				implicitSolver_ = new RosenbrockSolver(ode_, grn_);
+				implicitSolver_.setParameterOverlay(overlay_);
+			}
+			implicitSolver_.restart(time_, h);
+			stiff_ = true;
+			numSwitches_++;
+			skipCheck_ = true;
+			log.log(Level.FINE, "ODE solver: switched to implicit at t = " + time_ + " (h = " + h + ", |lambda| = " + lambda_ + ", h*|lambda| = " + h*lambda_ + ")");
+			
+		} else if (stiff_ && ratio < nonstiffThreshold_) {
+			explicitSolver_.restart(time_, h);
+			stiff_ = false;
+			numSwitches_++;
+			skipCheck_ = true;
+			log.log(Level.FINE, "ODE solver: switched to explicit at t = " + time_ + " (h = " + h + ", |lambda| = " + lambda_ + ", h*|lambda| = " + h*lambda_ + ")");
+		}
+	}
+	
+	
+	// ============================================================================
+	// SETTERS AND GETTERS
+	
+	/** True if the implicit solver is currently used */
+	public boolean isStiff() { return stiff_; }
+	/** Last estimate of the largest eigenvalue of the Jacobian (in magnitude) */
+	public double getLambda() { return lambda_; }
+	public int getNumSwitches() { return numSwitches_; }
+	
+	public DormandPrinceSolver getExplicitSolver() { return explicitSolver_; }
+	/** The implicit solver (null if it was never used) */
+	public RosenbrockSolver getImplicitSolver() { return implicitSolver_; }
+	
+	public double getTime() { return time_; }
+	
+	/** Set the perturbed parameters used for the Jacobians, must be the same as for the ODE (see GeneNetworkODE) */
+	public void setParameterOverlay(ParameterOverlay overlay) {
+		overlay_ = overlay;
+		compiledGrn_.setParameterOverlay(overlay);
+		if (implicitSolver_ != null)
+			implicitSolver_.setParameterOverlay(overlay);
+	}
+	public ParameterOverlay getParameterOverlay() { return overlay_; }
+	
+}
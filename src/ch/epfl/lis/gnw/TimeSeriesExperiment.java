@@ -26,6 +26,8 @@ THE SOFTWARE.
 
 package ch.epfl.lis.gnw;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -39,6 +41,10 @@ import cern.colt.matrix.impl.DenseDoubleMatrix2D;
 
 
 /** Time course experiments, see documentation for details.
+ * 
+ * Instead of perturbations, the experiment can also consist of stochastic replicates of
+ * the wild type (SDEs only): the replicates are simulated in parallel with independent
+ * noise (see integrateReplicates()).
  *
  * @author Thomas Schaffter (firstname.name@gmail.com)
  * @author Daniel Marbach (firstname.name@gmail.com)
@@ -56,6 +62,12 @@ public class TimeSeriesExperiment extends Experiment {
 	private int numTimePoints_;
 	/** Set true to remove the perturbation after maxt/2 */
 	private boolean restoreWildTypeAtHalftime_;
+	/** Number of stochastic replicates of the wild type (0 if the experiment has perturbations) */
+	private int numReplicates_;
+	/** For SDEs and SSA: if set, the time series start from the states of this pool instead of phase 0 (see BurnInPool) */
+	private BurnInPool burnInPool_;
+	/** For the parallel simulation with a burn-in pool: the initial condition of each time series (drawn in order) */
+	private double[][] poolSamples_;
 	
     /** Logger for this class */
 	private Logger log = Logger.getLogger(TimeSeriesExperiment.class.getName());
@@ -74,14 +86,37 @@ public class TimeSeriesExperiment extends Experiment {
 		timeSeriesProteins_ = null;
 		xy0_ = null;
 		restoreWildTypeAtHalftime_ = restoreWildTypeAtHalftime;
+		numReplicates_ = 0;
+		burnInPool_ = null;
+		poolSamples_ = null;
 		setMaxtAndNumTimePoints();
 	}
 	
 	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Constructor for numReplicates stochastic replicates of the wild type (SDEs only,
+	 * see integrateReplicates())
+	 */
+	public TimeSeriesExperiment(int numReplicates, String label) {
+		
+		this(Solver.type.SDE, null, false, label);
+		
+		if (numReplicates < 1)
+			throw new IllegalArgumentException("TimeSeriesExperiment: the number of replicates must be at least 1");
+		numReplicates_ = numReplicates;
+		numExperiments_ = numReplicates;
+	}
+	
+	
 	// ----------------------------------------------------------------------------
 
 	/**
-	 * Run all experiments
+	 * Run all experiments, one after the other or in parallel threads (setting
+	 * parallelPerturbations, see simulatePerturbation()). The time-series restored from
+	 * the checkpoint are not simulated again. The replicates of the wild type are simulated
+	 * together, they are only restored once all of them are done.
 	 */
 	public void run(DoubleMatrix1D xy0) {
 		
@@ -90,23 +125,60 @@ public class TimeSeriesExperiment extends Experiment {
 		String simulationType = "ODEs";
 		if (solverType_ == Solver.type.SDE)
 			simulationType = "SDEs";
+		else if (solverType_ == Solver.type.SSA)
+			simulationType = "SSA";
 		log.log(Level.INFO, "Simulating time-series " + label_ + " using " + simulationType + " ...");
+		
+		// pool of burn-in states for the stochastic time series (the replicates of the wild type do
+		// their own burn-in, see integrateReplicates())
+		if (solverType_ != Solver.type.ODE && numReplicates_ == 0 && burnInPool_ == null && GnwSettings.getInstance().getBurnInPool())
+			burnInPool_ = new BurnInPool(grn_, solverType_, xy0_.toArray(), maxt_/10.0);
 
 		boolean simulateLoadedExperiments = (timeSeries_ != null);
 		if (simulateLoadedExperiments)
 			throw new RuntimeException("NEEDS TO BE FIXED, NOT FUNCTIONAL");
 		
 		if (!simulateLoadedExperiments) {
+			// the slots are preallocated, each time-series is saved at its position
 			timeSeries_ = new ArrayList<DoubleMatrix2D>();
 			if (modelTranslation_)
 				timeSeriesProteins_ = new ArrayList<DoubleMatrix2D>();
+			for (int k=0; k<numExperiments_; k++) {
+				timeSeries_.add(null);
+				if (modelTranslation_)
+					timeSeriesProteins_.add(null);
+			}
 		}
 		
 		// create and run the time series experiments
-		for (int i=0; i<numExperiments_; i++) {
-			log.log(Level.INFO, "Simulating time-series number " + (i+1) + " ...");
-			integrate(i);
+		boolean usePool = (solverType_ != Solver.type.ODE && burnInPool_ != null);
+		if (restoreResults()) {
+			// draw the samples of the restored time-series, the next experiments start from
+			// the same samples as without interruption
+			if (usePool)
+				for (int k=0; k<numExperiments_; k++)
+					nextPoolSample();
+		} else if (numReplicates_ > 0) {
+			log.log(Level.INFO, "Simulating " + numReplicates_ + " replicates of the wild type in parallel ...");
+			integrateReplicates();
+		} else if (solverType_ == Solver.type.ODE && GnwSettings.getInstance().getEnsembleODE()) {
+			log.log(Level.INFO, "Simulating " + numExperiments_ + " time-series together ...");
+			integrateEnsemble();
+		} else if (GnwSettings.getInstance().getParallelPerturbations() && numExperiments_ > 1) {
+			integrateInParallel();
+		} else {
+			for (int i=0; i<numExperiments_; i++) {
+				if (isPerturbationDone(i)) {
+					if (usePool)
+						nextPoolSample();
+					continue;
+				}
+				log.log(Level.INFO, "Simulating time-series number " + (i+1) + " ...");
+				integrate(i);
+				perturbationDone(i);
+			}
 		}
+		allPerturbationsDone();
 		log.log(Level.INFO, "");
 		
 	}
@@ -135,11 +207,104 @@ public class TimeSeriesExperiment extends Experiment {
 	// ----------------------------------------------------------------------------
 	
 	/**
-	 * Run the numerical integration of the k'th time-series and add the results to timeSeries_ and timeSeriesProteins_.
-	 * The wild-type is restored after the experiments.
+	 * Run the numerical integration of the k'th time-series and save the results at position k of timeSeries_ and timeSeriesProteins_.
+	 * The perturbation is not applied to the network, the solver reads the perturbed parameters
+	 * through an overlay (see ParameterOverlay).
 	 */
 	public void integrate(int k) {
 
+		if (xy0_ == null)
+			throw new NullPointerException("TimeSeriesExperiment:integrate(): No initial condition set!");
+
+		// for SDEs and SSA with a burn-in pool, start from the next wild-type sample of the pool
+		if (solverType_ != Solver.type.ODE && burnInPool_ != null)
+			xy0_ = new DenseDoubleMatrix1D(nextPoolSample());
+		
+		// for SDEs and SSA without burn-in pool, phase 0 sets xy0_ to its final state (the
+		// next time-series starts from there)
+		Solver solver = new Solver(solverType_, grn_, xy0_.toArray());
+		solver.setUpdateNetworkState(false);
+		DoubleMatrix2D[] result = simulateTimeSeries(k, xy0_, solver);
+		
+		timeSeries_.set(k, result[0]);
+		if (modelTranslation_)
+			timeSeriesProteins_.set(k, result[1]);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Simulate the k'th time-series in a thread of the parallel simulation (see
+	 * Experiment.runPerturbationsInParallel()). Same as integrate(), except that the time
+	 * series has its own copy of the initial condition (phase 0 doesn't change xy0_), the
+	 * stochastic solvers use the random stream of the time series, and the result is saved
+	 * at position k of timeSeries_.
+	 */
+	void simulatePerturbation(int k) {
+		
+		log.log(Level.INFO, "Simulating time-series number " + (k+1) + " ...");
+		
+		DoubleMatrix1D xy0;
+		if (poolSamples_ != null)
+			xy0 = new DenseDoubleMatrix1D(poolSamples_[k]);
+		else
+			xy0 = xy0_.copy();
+		
+		Solver solver = new Solver(solverType_, grn_, xy0.toArray(), null, createRandomEngine(k));
+		solver.setUpdateNetworkState(false);
+		DoubleMatrix2D[] result = simulateTimeSeries(k, xy0, solver);
+		
+		// the slots are preallocated, different threads set different slots
+		timeSeries_.set(k, result[0]);
+		if (modelTranslation_)
+			timeSeriesProteins_.set(k, result[1]);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Same as integrateEnsemble() for all time-series at once, but each time-series is
+	 * simulated separately in parallel threads (see simulatePerturbation()). The samples
+	 * of the burn-in pool are drawn beforehand in the order of the time-series, so that
+	 * the results don't depend on the number of threads.
+	 */
+	private void integrateInParallel() {
+		
+		if (xy0_ == null)
+			throw new NullPointerException("TimeSeriesExperiment:integrateInParallel(): No initial condition set!");
+		
+		// the samples of the time-series restored from the checkpoint are drawn as well
+		if (solverType_ != Solver.type.ODE && burnInPool_ != null) {
+			poolSamples_ = new double[numExperiments_][];
+			for (int k=0; k<numExperiments_; k++)
+				poolSamples_[k] = nextPoolSample();
+		}
+		
+		try {
+			runPerturbationsInParallel();
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			log.log(Level.INFO, "TimeSeriesExperiment.integrateInParallel(): " + e.getMessage());
+			throw new RuntimeException(e);
+		} finally {
+			poolSamples_ = null;
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Run the numerical integration of the k'th time-series from xy0 with the given solver
+	 * (created with the wild-type parameters and xy0 as initial condition). For SDEs and
+	 * SSA without burn-in pool, xy0 is set to the state at the end of phase 0. Return the
+	 * mRNA and (if translation is modelled, otherwise null) protein time-series.
+	 */
+	private DoubleMatrix2D[] simulateTimeSeries(int k, DoubleMatrix1D xy0, Solver solver) {
+
 		if (GnwSettings.getInstance().getDt()*(numTimePoints_-1) != maxt_)
 			throw new RuntimeException("dt * (numTimePoints-1) != maxt");
 		
@@ -149,14 +314,10 @@ public class TimeSeriesExperiment extends Experiment {
 		if (modelTranslation_)
 			tsProteins = new DenseDoubleMatrix2D(numTimePoints_, numGenes_);
 
-		if (xy0_ == null)
-			throw new NullPointerException("TimeSeriesExperiment:integrate(): No initial condition set!");
-
-		Solver solver = new Solver(solverType_, grn_, xy0_.toArray());
 		double t = 0;
 		
-		// for SDEs, simulate the wild-type for a short time to get a new independent sample
-		if (solverType_ == Solver.type.SDE) {
+		// for SDEs and SSA, simulate the wild-type for a short time to get a new independent sample
+		if (solverType_ != Solver.type.ODE && burnInPool_ == null) {
 			double tlim = maxt_/10.0;
 			do {
 				try {
@@ -168,18 +329,19 @@ public class TimeSeriesExperiment extends Experiment {
 			} while (t < tlim);
 
 			// set this sample as the new initial condition
-			xy0_.assign(solver.getState()); 
+			xy0.assign(solver.getState()); 
 		}
 		
 		// Set first line of the time series dataset (at t=0)
 		for (int i=0; i<numGenes_; i++)
-			ts.set(0, i, xy0_.get(i));
+			ts.set(0, i, xy0.get(i));
 		if (modelTranslation_)
 			for (int i=0; i<numGenes_; i++)
-				tsProteins.set(0, i, xy0_.get(numGenes_+i));
+				tsProteins.set(0, i, xy0.get(numGenes_+i));
 		
-		// apply perturbation
-		perturbation_.applyPerturbation(k);
+		// apply perturbation (the solver reads the perturbed parameters through the overlay,
+		// the network itself is not changed)
+		solver.setParameterOverlay(perturbation_.getOverlay(k));
 		t = 0; // reset time, the time-series only really starts here
 		double dt = GnwSettings.getInstance().getDt();
 		double tlim = maxt_/2.0 - 1e-12;
@@ -203,7 +365,8 @@ public class TimeSeriesExperiment extends Experiment {
 				throw new RuntimeException("Solver failed to step time by dt, expected t = " + (t1+dt) + ", obtained t = " + t);
 			
 			if (restoreWildTypeAtHalftime_ && t >= tlim && !wildTypeRestored) {
-				perturbation_.restoreWildType();
+				solver.setParameterOverlay(null);
+				solver.restart();
 				wildTypeRestored = true;
 			}
 			
@@ -221,19 +384,248 @@ public class TimeSeriesExperiment extends Experiment {
 
 		assert t == maxt_ : "t=" + t + " maxt=" + maxt_;
 		assert pt == numTimePoints_;
-		
-		// make sure the wild-type is restored
-		if (!wildTypeRestored)
-			perturbation_.restoreWildType();
-		
-		// add the new time-series data to the array lists
-		timeSeries_.add(ts);
-		if (modelTranslation_)
-			timeSeriesProteins_.add(tsProteins);
+		solver.logStatistics();
 		
 		if (solverType_ == Solver.type.SDE && solver.getSDESolver().getXNegativeCounter() > 0)
 			log.log(Level.INFO, "SDE: " + solver.getSDESolver().getXNegativeCounter() + " times a concentration became negative due to noise and was set to 0");
-
+		
+		return new DoubleMatrix2D[] {ts, tsProteins};
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Write a time-series (numTimePoints_ x numGenes_) to the checkpoint */
+	private void writeMatrix(DataOutputStream out, DoubleMatrix2D ts) throws IOException {
+		
+		for (int pt=0; pt<numTimePoints_; pt++)
+			for (int g=0; g<numGenes_; g++)
+				out.writeDouble(ts.get(pt, g));
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Read a time-series written by writeMatrix() */
+	private DoubleMatrix2D readMatrix(DataInputStream in) throws IOException {
+		
+		DoubleMatrix2D ts = new DenseDoubleMatrix2D(numTimePoints_, numGenes_);
+		for (int pt=0; pt<numTimePoints_; pt++)
+			for (int g=0; g<numGenes_; g++)
+				ts.set(pt, g, in.readDouble());
+		return ts;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return the next wild-type sample of the burn-in pool */
+	private double[] nextPoolSample() {
+		
+		try {
+			return burnInPool_.nextSample();
+		} catch (Exception e) {
+			log.log(Level.INFO, "TimeSeriesExperiment.integrate(): Exception in the burn-in pool: " + e.getMessage());
+			throw new RuntimeException();
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Same as integrate() for all time-series at once (ODEs only): the time-series are integrated
+	 * together in lockstep (see EnsembleODESolver) and added to timeSeries_ and timeSeriesProteins_.
+	 */
+	public void integrateEnsemble() {
+		
+		if (GnwSettings.getInstance().getDt()*(numTimePoints_-1) != maxt_)
+			throw new RuntimeException("dt * (numTimePoints-1) != maxt");
+		if (solverType_ != Solver.type.ODE)
+			throw new IllegalArgumentException("TimeSeriesExperiment:integrateEnsemble(): only for ODEs");
+		if (xy0_ == null)
+			throw new NullPointerException("TimeSeriesExperiment:integrateEnsemble(): No initial condition set!");
+		
+		EnsembleODESolver solver = new EnsembleODESolver(grn_, numExperiments_);
+		double[] xy0 = xy0_.toArray();
+		DoubleMatrix2D[] ts = new DoubleMatrix2D[numExperiments_];
+		DoubleMatrix2D[] tsProteins = new DoubleMatrix2D[numExperiments_];
+		
+		for (int k=0; k<numExperiments_; k++) {
+			// allocate space and set the first line (at t=0)
+			ts[k] = new DenseDoubleMatrix2D(numTimePoints_, numGenes_);
+			for (int i=0; i<numGenes_; i++)
+				ts[k].set(0, i, xy0[i]);
+			if (modelTranslation_) {
+				tsProteins[k] = new DenseDoubleMatrix2D(numTimePoints_, numGenes_);
+				for (int i=0; i<numGenes_; i++)
+					tsProteins[k].set(0, i, xy0[numGenes_+i]);
+			}
+			
+			// the parameters of the perturbed network
+			solver.setParameters(k, perturbation_.getOverlay(k));
+			solver.setState(k, xy0);
+		}
+		
+		double t = 0;
+		double tlim = maxt_/2.0 - 1e-12;
+		boolean wildTypeRestored = false;
+		int pt = 1;
+		
+		do {
+			t += solver.step();
+			
+			if (restoreWildTypeAtHalftime_ && t >= tlim && !wildTypeRestored) {
+				// the network has the wild-type parameters
+				for (int k=0; k<numExperiments_; k++)
+					solver.setParameters(k);
+				wildTypeRestored = true;
+			}
+			
+			// Save the states
+			for (int k=0; k<numExperiments_; k++) {
+				double[] xy = solver.getState(k);
+				for (int g=0; g<numGenes_; g++)
+					ts[k].set(pt, g, xy[g]);
+				
+				if (modelTranslation_)
+					for (int g=0; g<numGenes_; g++)
+						tsProteins[k].set(pt, g, xy[numGenes_+g]);
+			}
+			pt++;
+		} while (t < maxt_);
+		
+		assert pt == numTimePoints_;
+		
+		for (int k=0; k<numExperiments_; k++) {
+			timeSeries_.set(k, ts[k]);
+			if (modelTranslation_)
+				timeSeriesProteins_.set(k, tsProteins[k]);
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Simulate the stochastic replicates of the wild type in parallel (see SdeEnsemble) and
+	 * save them in timeSeries_ and timeSeriesProteins_. As in integrate(), each replicate first
+	 * simulates the wild type for maxt/10 to get an independent sample. The random stream
+	 * of replicate r is defined by (seed, hash code of the label, r), thus the results don't
+	 * depend on the number of threads.
+	 */
+	public void integrateReplicates() {
+		
+		if (GnwSettings.getInstance().getDt()*(numTimePoints_-1) != maxt_)
+			throw new RuntimeException("dt * (numTimePoints-1) != maxt");
+		if (solverType_ != Solver.type.SDE)
+			throw new IllegalArgumentException("TimeSeriesExperiment:integrateReplicates(): only for SDEs");
+		if (xy0_ == null)
+			throw new NullPointerException("TimeSeriesExperiment:integrateReplicates(): No initial condition set!");
+		
+		SdeEnsemble ensemble = new SdeEnsemble(grn_, numReplicates_, label_.hashCode());
+		ensemble.setBurnIn(maxt_/10.0);
+		try {
+			ensemble.run(xy0_.toArray(), maxt_);
+		} catch (Exception e) {
+			log.log(Level.INFO, "TimeSeriesExperiment.integrateReplicates(): Exception: " + e.getMessage());
+			throw new RuntimeException(e);
+		}
+		
+		// the time series of the ensemble have the mRNA and then the protein concentrations
+		for (int r=0; r<numReplicates_; r++) {
+			DoubleMatrix2D xy = ensemble.getTimeSeries(r);
+			timeSeries_.set(r, xy.viewPart(0, 0, numTimePoints_, numGenes_).copy());
+			if (modelTranslation_)
+				timeSeriesProteins_.set(r, xy.viewPart(0, numGenes_, numTimePoints_, numGenes_).copy());
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Write the time-series (mRNA and, if translation is modelled, proteins) that are done
+	 * and the initial condition xy0_. For the stochastic time-series without burn-in pool,
+	 * xy0_ is the state at the end of phase 0 of the last time-series, the next one starts
+	 * from there (with a burn-in pool, the samples of the restored time-series are drawn
+	 * again when resuming, see run()).
+	 */
+	void writeCheckpointData(DataOutputStream out) throws IOException {
+		
+		out.writeInt(numTimePoints_);
+		out.writeDouble(maxt_);
+		
+		out.writeInt(xy0_.size());
+		for (int i=0; i<xy0_.size(); i++)
+			out.writeDouble(xy0_.get(i));
+		
+		for (int k=0; k<numExperiments_; k++) {
+			if (!isPerturbationDone(k))
+				continue;
+			
+			writeMatrix(out, timeSeries_.get(k));
+			if (modelTranslation_)
+				writeMatrix(out, timeSeriesProteins_.get(k));
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Read the data written by writeCheckpointData() */
+	void readCheckpointData(DataInputStream in) throws IOException {
+		
+		if (in.readInt() != numTimePoints_ || in.readDouble() != maxt_)
+			throw new IOException("the checkpoint doesn't match the duration of the time-series");
+		
+		int length = in.readInt();
+		if (length != xy0_.size())
+			throw new IOException("the checkpoint doesn't match the initial condition");
+		double[] xy0 = new double[length];
+		for (int i=0; i<length; i++)
+			xy0[i] = in.readDouble();
+		
+		for (int k=0; k<numExperiments_; k++) {
+			if (!isPerturbationDone(k))
+				continue;
+			
+			timeSeries_.set(k, readMatrix(in));
+			if (modelTranslation_)
+				timeSeriesProteins_.set(k, readMatrix(in));
+		}
+		
+		// continue from the end of phase 0 of the last time-series (xy0_ is shared with the next experiments)
+		if (solverType_ != Solver.type.ODE && burnInPool_ == null)
+			xy0_.assign(xy0);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Write the inputs of the time-series simulation to the key of the result cache: the
+	 * duration and the time points, for the replicates of the wild type their number and
+	 * burn-in (see integrateReplicates()), and for the stochastic time-series that start
+	 * from the samples of a burn-in pool, the pool and the number of samples drawn before.
+	 */
+	void writeCacheKey(DataOutputStream out) throws IOException {
+		
+		out.writeDouble(maxt_);
+		out.writeInt(numTimePoints_);
+		out.writeBoolean(restoreWildTypeAtHalftime_);
+		
+		out.writeInt(numReplicates_);
+		if (numReplicates_ > 0)
+			out.writeDouble(maxt_/10.0);
+		
+		boolean usePool = (solverType_ != Solver.type.ODE && burnInPool_ != null);
+		out.writeBoolean(usePool);
+		if (usePool) {
+			out.writeDouble(burnInPool_.getBurnIn());
+			out.writeInt(burnInPool_.getNumSamples());
+			writeArray(out, burnInPool_.getInitialCondition());
+		}
 	}
 	
 	
@@ -413,6 +805,11 @@ public class TimeSeriesExperiment extends Experiment {
 	public ArrayList<DoubleMatrix2D> getTimeSeries() { return timeSeries_; }
 	public ArrayList<DoubleMatrix2D> getTimeSeriesProteins() { return timeSeriesProteins_; }
 	public boolean getRestoreWildTypeAtHalftime() { return restoreWildTypeAtHalftime_; }
+	public int getNumReplicates() { return numReplicates_; }
+	
+	/** Set the pool of wild-type states used as initial conditions (SDEs and SSA, before run()) */
+	public void setBurnInPool(BurnInPool pool) { burnInPool_ = pool; }
+	public BurnInPool getBurnInPool() { return burnInPool_; }
 	//public DoubleMatrix1D getXy0() { return xy0_; }
 	
 	
@@ -51,6 +51,7 @@ import ch.epfl.lis.gnw.BenchmarkGenerator;
 import ch.epfl.lis.gnw.CancelException;
 import ch.epfl.lis.gnw.GeneNetwork;
 import ch.epfl.lis.gnw.GnwSettings;
+import ch.epfl.lis.gnwgui.windows.ErrorWindow;
 import ch.epfl.lis.gnwgui.windows.SimulationWindow;
 import ch.epfl.lis.gnwgui.windows.WaitingSnake;
 import ch.epfl.lis.imod.ImodNetwork;
@@ -673,6 +674,12 @@ public class Simulation extends SimulationWindow {
 				log.info(e.getMessage());
 			} catch (Exception e) {
 				log.warning(e.getMessage());
+				// the errors of the simulations (also those of worker threads) end up here
+				snake_.stop();
+				myCardLayout_.show(runButtonAndSnakePanel_, runButton_.getName());
+				String description = (e.getCause() != null) ? e.getCause().toString() : e.toString();
+				ErrorWindow dialog = new ErrorWindow(GnwGuiSettings.getInstance().getGnwGui().getFrame(), false, "The simulation failed: " + description);
+				dialog.setVisible(true);
 			}
 	    }
 		
@@ -0,0 +1,352 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+
+
+package ch.epfl.lis.sde;
+
+/** Adaptive step size version of the stochastic Runge-Kutta solver (see RungeKutta).
+ * 
+ * The local error is estimated by the difference between the solution of order 1.5
+ * and the embedded solution of order 1.0, which are computed from the same stages
+ * (see RungeKutta.advance()). A step is accepted if
+ * 
+ * max_i error_i / (absolutePrecision + relativePrecision*max(|Xn_i|, |Xn+1_i|)) <= 1,
+ * 
+ * where the precisions are those of SdeSolver. If a step is rejected, it is repeated
+ * with half the step size. The Wiener increments dW and dZ of the two halves are not
+ * drawn independently, they are sampled from their distribution conditional on the
+ * increments of the rejected step (Brownian bridge), thus the solution follows the
+ * same Wiener path. The increments of the second half are saved on a stack and used
+ * for the next step(s). When the stack is empty, the step size is increased or decreased
+ * according to the error of the last step and new increments are drawn.
+ * 
+ * step() returns exactly at t+H (the last step before t+H is shortened), thus the
+ * solution is obtained on the grid of the time series. The initial step size is
+ * SdeSettings.dt*multiplier, the maximum step size is H. The step loop does not
+ * allocate memory (except the first time the stack of increments grows).
+ * 
+ * [1] C. Rackauckas and Q. Nie, Adaptive methods for stochastic differential equations
+ *     via natural embeddings and rejection sampling with memory, Discrete and Continuous
+ *     Dynamical Systems - Series B 22 (2017), no. 7, 2731-2761.
+ * 
+ * @author Thomas Schaffter (firstname.name@gmail.com)
+ *
+ */
+public class AdaptiveRungeKutta extends RungeKutta {
+	
+	/** Safety factor of the step size control */
+	private static final double SAFETY = 0.9;
+	/** Exponent of the step size control, the local error of the embedded solution is O(h^1.5) */
+	private static final double EXPONENT = 2.0/3.0;
+	/** Maximum increase of the step size after an accepted step */
+	private static final double MAX_FACTOR = 2.0;
+	/** Steps smaller than this fraction of H are accepted in any case */
+	private static final double MIN_STEP_RATIO = 1e-12;
+	/** 1/sqrt(3) */
+	private static final double INV_SQRT_3 = 1.0/Math.sqrt(3.0);
+	/** 1/(2*sqrt(3)), coefficient of the Brownian bridge (see split()) */
+	private static final double K = 0.5/Math.sqrt(3.0);
+	
+	/** Step size for the next step with new increments */
+	private double proposedStepSize_;
+	/** Stack of the step sizes of the increments that remain from rejected steps */
+	private double[] stackH_;
+	/** Stack of the dW increments that remain from rejected steps */
+	private double[][] stackW_;
+	/** Stack of the dZ increments that remain from rejected steps */
+	private double[][] stackZ_;
+	/** Number of increments on the stack */
+	private int stackSize_;
+	/** Number of rejected steps */
+	private int numRejectedSteps_;
+	/** Block of N(0,1) random numbers used to draw and split the increments (4 x n) */
+	private double[] noise_;
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/**
+	 * Default constructor
+	 */
+	public AdaptiveRungeKutta() {
+		super();
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Cleanup the solver
+	 */
+	public void reset() {
+		
+		super.reset();
+		error_ = null;
+		proposedStepSize_ = 0;
+		stackH_ = null;
+		stackW_ = null;
+		stackZ_ = null;
+		stackSize_ = 0;
+		numRejectedSteps_ = 0;
+		noise_ = null;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Initialisation of the solver.
+	 */
+	public void initialize(double H) throws IllegalArgumentException {
+		
+		super.initialize(H);
+		int n = system_.getDimension();
+		error_ = new double[n];
+		proposedStepSize_ = Math.min(h_, H_);
+		
+		stackH_ = new double[8];
+		stackW_ = new double[8][n];
+		stackZ_ = new double[8][n];
+		stackSize_ = 0;
+		noise_ = new double[4*n];
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Step the integration from the current time t1 to t1+H_ with adaptive step sizes,
+	 * return H_.
+	 * @throws Exception
+	 */
+	public double step() throws Exception {
+		
+		double t1 = time_.get(0); // get the current time
+		double t1_bkp = t1; // to compute the effective step size in the end
+		double t2 = t1 + H_; // get the time at which step() must return
+		double minStepSize = MIN_STEP_RATIO*H_;
+		
+		while (t2 - t1 > minStepSize) {
+			
+			double h;
+			boolean shortened = false;
+			
+			if (stackSize_ > 0) {
+				// use the remaining increments of a rejected step
+				stackSize_--;
+				h = stackH_[stackSize_];
+				System.arraycopy(stackW_[stackSize_], 0, dW_, 0, dW_.length);
+				System.arraycopy(stackZ_[stackSize_], 0, dZ_, 0, dZ_.length);
+			} else {
+				h = proposedStepSize_;
+				if (h >= t2 - t1) {
+					shortened = (h > t2 - t1);
+					h = t2 - t1;
+				}
+				drawIncrements(h);
+			}
+			
+			double error;
+			while (true) {
+				// compute the drift and the diffusion
+				evaluate(t1, X_, F_, G_);
+				// compute the next approximation and its error
+				advance(t1, h, dW_, dZ_, X_, Xout_);
+				error = errorNorm(X_, Xout_);
+				
+				if (error <= 1 || h <= minStepSize)
+					break;
+				
+				// reject, repeat with the first half of the increments
+				split(h);
+				h /= 2.0;
+				numRejectedSteps_++;
+			}
+			
+			// check the solution before saving it
+			checkX(Xout_);
+			checkStationarity(h, Xout_);
+			
+			// save the current solution (swap the buffers instead of copying)
+			double[] X = X_;
+			X_ = Xout_;
+			Xout_ = X;
+			
+			t1 += h;
+			numEvaluations_++;
+			
+			// step size for the next new increments (a step shortened to return at t2 does not decrease it)
+			double factor = (error == 0) ? MAX_FACTOR : Math.min(MAX_FACTOR, SAFETY*Math.pow(error, -EXPONENT));
+			if (!shortened || h*factor > proposedStepSize_)
+				proposedStepSize_ = Math.min(h*factor, H_);
+		}
+		
+		time_.set(0, t2);
+		return time_.get(0) - t1_bkp;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Returns the description of this solver.
+	 */
+	public String getDescription() {
+		
+		String desc = "Adaptive stochastic Runge-Kutta solver SRI1W1 (explicit), Rößler, 2010.\n";
+		desc += "Rejected steps are halved using a Brownian bridge (Rackauckas and Nie, 2017).\n";
+		desc += "Only diagonal noise is handled, avoids use of derivatives (i.e. Runge-Kutta style approach).";
+		
+		return desc;
+	}
+	
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/** Draw new independent increments dW and dZ for a step of size h */
+	private void drawIncrements(double h) {
+		
+		double sqrt_h = Math.sqrt(h);
+		double c = 0.5*h*sqrt_h;
+		int n = dW_.length;
+		double[] noise = noise_;
+		
+		normal_.fill(noise, 0, 2*n, 1.0);
+		for (int j=0; j<n; j++) {
+			double N1 = noise[j];
+			double N2 = noise[n+j];
+			dW_[j] = N1*sqrt_h;
+			dZ_[j] = c*(N1 + INV_SQRT_3*N2);
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Split the increments dW_ and dZ_ of a step of size h into two halves (Brownian
+	 * bridge). The increments of the first half are saved in dW_ and dZ_, those of the
+	 * second half are pushed on the stack. With tau = h/2 and independent N(0,1) variables
+	 * u1..u4, the increments of the halves are dW1 = sqrt(tau)*u1, dZ1 = tau^1.5/2*(u1 + u3/sqrt(3)),
+	 * dW2 = sqrt(tau)*u2, dZ2 = tau^1.5/2*(u2 + u4/sqrt(3)). They must satisfy dW = dW1 + dW2
+	 * and dZ = dZ1 + dZ2 + dW1*tau, i.e., the linear constraints A*u = c. A sample of u given
+	 * c is obtained from a sample v of N(0,I) as u = v + A'*inv(A*A')*(c - A*v).
+	 */
+	private void split(double h) {
+		
+		if (stackSize_ == stackH_.length)
+			growStack();
+		
+		double tau = h/2.0;
+		double s = Math.sqrt(tau);
+		double ts = tau*s;
+		double[] W2 = stackW_[stackSize_];
+		double[] Z2 = stackZ_[stackSize_];
+		int n = dW_.length;
+		double[] noise = noise_;
+		
+		normal_.fill(noise, 1.0);
+		for (int j=0; j<n; j++) {
+			double v1 = noise[j];
+			double v2 = noise[n+j];
+			double v3 = noise[2*n+j];
+			double v4 = noise[3*n+j];
+			
+			// c - A*v, with the constraints scaled to c = (dW/sqrt(tau), dZ/tau^1.5)
+			double r1 = dW_[j]/s - (v1 + v2);
+			double r2 = dZ_[j]/ts - (1.5*v1 + 0.5*v2 + K*v3 + K*v4);
+			// inv(A*A') = [2 -1.5; -1.5 1.5]
+			double m1 = 2.0*r1 - 1.5*r2;
+			double m2 = -1.5*r1 + 1.5*r2;
+			
+			double u1 = v1 + m1 + 1.5*m2;
+			double u2 = v2 + m1 + 0.5*m2;
+			double u3 = v3 + K*m2;
+			double u4 = v4 + K*m2;
+			
+			dW_[j] = s*u1;
+			dZ_[j] = 0.5*ts*(u1 + INV_SQRT_3*u3);
+			W2[j] = s*u2;
+			Z2[j] = 0.5*ts*(u2 + INV_SQRT_3*u4);
+		}
+		stackH_[stackSize_] = tau;
+		stackSize_++;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Double the capacity of the stack of increments */
+	private void growStack() {
+		
+		int n = dW_.length;
+		int capacity = 2*stackH_.length;
+		double[] stackH = new double[capacity];
+		double[][] stackW = new double[capacity][];
+		double[][] stackZ = new double[capacity][];
+		
+		for (int k=0; k<capacity; k++) {
+			if (k < stackH_.length) {
+				stackH[k] = stackH_[k];
+				stackW[k] = stackW_[k];
+				stackZ[k] = stackZ_[k];
+			} else {
+				stackW[k] = new double[n];
+				stackZ[k] = new double[n];
+			}
+		}
+		stackH_ = stackH;
+		stackW_ = stackW;
+		stackZ_ = stackZ;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Return the norm of the error estimate relative to the tolerance */
+	private double errorNorm(double[] Xin, double[] Xout) {
+		
+		double atol = getAbsolutePrecision();
+		double rtol = getRelativePrecision();
+		double norm = 0;
+		
+		for (int i=0; i<Xin.length; i++) {
+			double scale = atol + rtol*Math.max(Math.abs(Xin[i]), Math.abs(Xout[i]));
+			norm = Math.max(norm, error_[i]/scale);
+		}
+		return norm;
+	}
+	
+	
+	// ============================================================================
+	// SETTERS AND GETTERS
+	
+	public int getNumRejectedSteps() { return numRejectedSteps_; }
+	public double getProposedStepSize() { return proposedStepSize_; }
+}
@@ -0,0 +1,174 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package ch.epfl.lis.sde;
+
+import cern.jet.random.engine.RandomEngine;
+
+/** Counter-based random number generator Philox4x32-10 of Salmon et al. [1].
+ * 
+ * The n-th block of four 32-bit random numbers is obtained by encrypting the counter
+ * (n, stream) with the key seed, there is no state other than the counter. Thus, each
+ * triplet (seed, experiment, replicate) defines its own stream of random numbers that
+ * is independent of the other streams and does not depend on the order in which the
+ * streams are used. This is used to give each trajectory of an ensemble of SDE
+ * simulations its own stream (see SdeSolver.setRandomEngine()), the results are then
+ * reproducible regardless of the number of threads.
+ * 
+ * The counter has 128 bits: 64 bits for the block number, 32 bits for the experiment and
+ * 32 bits for the replicate. The key has 64 bits (the seed). The generator passes the
+ * BigCrush tests of TestU01 [1].
+ * 
+ * [1] J.K. Salmon, M.A. Moraes, R.O. Dror, and D.E. Shaw, Parallel random numbers: as
+ *     easy as 1, 2, 3, Proceedings of the International Conference for High Performance
+ *     Computing, Networking, Storage and Analysis (SC11), 2011.
+ * 
+ * @author Thomas Schaffter (firstname.name@gmail.com)
+ *
+ */
+public class CounterRandomEngine extends RandomEngine {
+	
+	/** Serialization */
+	private static final long serialVersionUID = 1L;
+	
+	/** Multipliers of the Philox rounds */
+	private static final long M0 = 0xD2511F53L;
+	private static final long M1 = 0xCD9E8D57L;
+	/** Increments of the key between the rounds (Weyl sequence) */
+	private static final int W0 = 0x9E3779B9;
+	private static final int W1 = 0xBB67AE85;
+	/** Number of rounds */
+	private static final int NUM_ROUNDS = 10;
+	
+	/** Key (low and high 32 bits of the seed) */
+	private final int key0_, key1_;
+	/** Stream (experiment and replicate), high 64 bits of the counter */
+	private final int stream0_, stream1_;
+	/** Number of the next block, low 64 bits of the counter */
+	private long block_;
+	/** Current block of random numbers */
+	private final int[] output_;
+	/** Index of the next random number in output_ (4: the block is used up) */
+	private int index_;
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/**
+	 * Constructor, the stream of the given replicate of the given experiment.
+	 */
+	public CounterRandomEngine(long seed, int experiment, int replicate) {
+		
+		key0_ = (int) seed;
+		key1_ = (int) (seed >>> 32);
+		stream0_ = experiment;
+		stream1_ = replicate;
+		output_ = new int[4];
+		setPosition(0);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Returns a 32 bit uniformly distributed random number in the closed interval
+	 * [Integer.MIN_VALUE,Integer.MAX_VALUE] (including Integer.MIN_VALUE and Integer.MAX_VALUE).
+	 */
+	public int nextInt() {
+		
+		if (index_ == 4) {
+			nextBlock();
+			index_ = 0;
+		}
+		return output_[index_++];
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Jump to the given position of the stream (number of 32-bit random numbers
+	 * already drawn). This costs at most one block, independent of the position.
+	 */
+	public void setPosition(long position) {
+		
+		if (position < 0)
+			throw new IllegalArgumentException("CounterRandomEngine: negative position " + position);
+		
+		block_ = position / 4;
+		index_ = 4;
+		if (position % 4 != 0) {
+			nextBlock();
+			index_ = (int) (position % 4);
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Returns the number of 32-bit random numbers drawn so far */
+	public long getPosition() {
+		
+		return index_ == 4 ? 4*block_ : 4*(block_-1) + index_;
+	}
+	
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/** Compute the block of the current counter and increment the counter */
+	private void nextBlock() {
+		
+		int c0 = (int) block_;
+		int c1 = (int) (block_ >>> 32);
+		int c2 = stream0_;
+		int c3 = stream1_;
+		int k0 = key0_;
+		int k1 = key1_;
+		
+		for (int r=0; r<NUM_ROUNDS; r++) {
+			if (r > 0) {
+				k0 += W0;
+				k1 += W1;
+			}
+			long p0 = M0 * (c0 & 0xFFFFFFFFL);
+			long p1 = M1 * (c2 & 0xFFFFFFFFL);
+			int hi0 = (int) (p0 >>> 32), lo0 = (int) p0;
+			int hi1 = (int) (p1 >>> 32), lo1 = (int) p1;
+			c0 = hi1 ^ c1 ^ k0;
+			c1 = lo1;
+			c2 = hi0 ^ c3 ^ k1;
+			c3 = lo0;
+		}
+		
+		output_[0] = c0;
+		output_[1] = c1;
+		output_[2] = c2;
+		output_[3] = c3;
+		block_++;
+	}
+}
@@ -26,11 +26,6 @@ THE SOFTWARE.
 
 package ch.epfl.lis.sde;
 
-import cern.colt.matrix.DoubleMatrix1D;
-import cern.colt.matrix.DoubleMatrix2D;
-import cern.colt.matrix.impl.DenseDoubleMatrix1D;
-import cern.colt.matrix.impl.DenseDoubleMatrix2D;
-
 /** This class implements the explicit Euler-Maruyama method (only for Ito scheme, strong order of convergence 0.5)
  * 
  * The iterative Euler method is given by the formula [1]
@@ -73,6 +68,13 @@ import cern.colt.matrix.impl.DenseDoubleMatrix2D;
  */
 public class Euler extends SdeSolver {
 	
+	/** Support vector Xaux (Stratonovich scheme) */
+	private double[] supportX_;
+	/** Drift evaluated at the support vector (not used, but computed by the system) */
+	private double[] supportF_;
+	/** Diffusion evaluated at the support vector */
+	private double[] supportG_;
+	
 	
 	// ============================================================================
 	// PUBLIC METHODS
@@ -85,33 +87,59 @@ public class Euler extends SdeSolver {
 	}
 	
 	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Cleanup the solver
+	 */
+	public void reset() {
+		
+		super.reset();
+		supportX_ = null;
+		supportF_ = null;
+		supportG_ = null;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Initialisation of the solver.
+	 */
+	public void initialize(double H) throws IllegalArgumentException {
+		
+		super.initialize(H);
+		int n = system_.getDimension();
+		supportX_ = new double[n];
+		supportF_ = new double[n];
+		supportG_ = new double[n];
+	}
+	
+	
 	// ----------------------------------------------------------------------------
 	
 	/**
 	 * Steps the integration of one step size h.
 	 * @throws Exception
 	 */
-	public void advance(final double t, final double h, final DoubleMatrix1D dW,
-			final DoubleMatrix1D dZ, DoubleMatrix1D Xin, DoubleMatrix1D Xout) throws Exception {
+	public void advance(final double t, final double h, final double[] dW,
+			final double[] dZ, final double[] Xin, double[] Xout) throws Exception {
 		
 		int n = system_.getDimension();
 		
 		if (system_.getScheme() == Sde.ITO) {
 			for (int i=0; i<n; i++)
-				Xout.set(i, Xin.get(i) + F_.get(i)*h + G_.get(i, i)*dW.get(i));
+				Xout[i] = Xin[i] + F_[i]*h + G_[i]*dW[i];
 		}
 		else if (system_.getScheme() == Sde.STRATONOVICH) {
 			// Computes Xaux to compute later GXaux
-			DoubleMatrix1D Xaux = new DenseDoubleMatrix1D(n);
 			for (int i=0; i<n; i++)
-				Xaux.set(i, Xin.get(i) + G_.get(i, i)*dW.get(i)); // Xaux = Xn + Gn*dWn
+				supportX_[i] = Xin[i] + G_[i]*dW[i]; // Xaux = Xn + Gn*dWn
 			// Computes GXaux
-			DoubleMatrix2D GXaux = new DenseDoubleMatrix2D(n,n);
-			system_.getDriftAndDiffusion(t, Xaux, new DenseDoubleMatrix1D(n), GXaux);
+			evaluate(t, supportX_, supportF_, supportG_);
 			
-			for (int i=0; i<n; i++) {
-				Xout.set(i, Xin.get(i) + F_.get(i)*h + 0.5*(G_.get(i, i) + GXaux.get(i, i))*dW.get(i));
-			}
+			for (int i=0; i<n; i++)
+				Xout[i] = Xin[i] + F_[i]*h + 0.5*(G_[i] + supportG_[i])*dW[i];
 		}
 		else
 			throw new Exception("Euler:advance(): unhandled scheme for \"" + system_.getId()  + "\" (" + system_.getScheme() + ")");
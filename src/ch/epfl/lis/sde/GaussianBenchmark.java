@@ -0,0 +1,277 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+
+
+package ch.epfl.lis.sde;
+
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import cern.jet.random.Normal;
+import cern.jet.random.engine.MersenneTwister;
+import cern.jet.stat.Probability;
+
+
+/** Statistical tests and throughput benchmark of the Gaussian random number generators.
+ * 
+ * The tests are applied to ZigguratNormal with the engines XoshiroRandomEngine (default of
+ * the SDE package) and CounterRandomEngine (ensembles), and to the polar method of Colt
+ * (cern.jet.random.Normal with MersenneTwister, used by previous versions) for comparison:
+ * 
+ * - Moments: the mean, variance, skewness and excess kurtosis of N samples are compared to
+ *   those of N(0,1), the deviations are given in standard errors (z-scores).
+ * - Tails: the frequencies of |x| > R (the start of the tail of the ziggurat) and |x| > 5
+ *   are compared to the exact probabilities (z-scores of the binomial distribution).
+ * - Kolmogorov-Smirnov test: the maximum distance D between the empirical distribution
+ *   function of N samples and the normal distribution function, with the p-value of
+ *   the asymptotic Kolmogorov distribution.
+ * 
+ * A generator passes if all z-scores are below 4 and the p-value is above 0.001. The
+ * throughput is measured by generating blocks of samples, one at a time (nextDouble())
+ * and with a single call of ZigguratNormal.fill() per block.
+ * Usage: GaussianBenchmark [number of samples (default 10000000)]
+ * 
+ * @author Thomas Schaffter (firstname.name@gmail.com)
+ * 
+ */
+public class GaussianBenchmark {
+	
+	/** Size of the blocks of the throughput benchmark */
+	private static final int BLOCK_SIZE = 1000;
+	/** Maximum number of samples for the Kolmogorov-Smirnov test (they are sorted) */
+	private static final int MAX_KS_SAMPLES = 1000000;
+	/** Maximum z-score of the tests */
+	private static final double MAX_Z = 4.0;
+	/** Minimum p-value of the Kolmogorov-Smirnov test */
+	private static final double MIN_P_VALUE = 0.001;
+	
+	/** Number of samples */
+	private int numSamples_;
+	
+	/** Logger for this class */
+	private static Logger log = Logger.getLogger(GaussianBenchmark.class.getName());
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/**
+	 * Constructor
+	 */
+	public GaussianBenchmark(int numSamples) {
+		
+		numSamples_ = numSamples;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Run the tests and the benchmark, return true if all generators pass the tests */
+	public boolean run() {
+		
+		boolean passed = true;
+		
+		log.log(Level.INFO, "Statistical tests with " + numSamples_ + " samples");
+		passed &= test("Ziggurat/xoshiro256++", new Generator(new ZigguratNormal(new XoshiroRandomEngine(1))));
+		passed &= test("Ziggurat/Philox", new Generator(new ZigguratNormal(new CounterRandomEngine(1, 0, 0))));
+		passed &= test("Colt polar/MT", new Generator(new Normal(0, 1, new MersenneTwister(1))));
+		
+		log.log(Level.INFO, "Throughput (blocks of " + BLOCK_SIZE + " samples)");
+		throughput("Colt polar/MT nextDouble", new Generator(new Normal(0, 1, new MersenneTwister(1))), false);
+		throughput("Ziggurat/xoshiro256++ nextDouble", new Generator(new ZigguratNormal(new XoshiroRandomEngine(1))), false);
+		throughput("Ziggurat/xoshiro256++ fill", new Generator(new ZigguratNormal(new XoshiroRandomEngine(1))), true);
+		throughput("Ziggurat/Philox fill", new Generator(new ZigguratNormal(new CounterRandomEngine(1, 0, 0))), true);
+		throughput("Ziggurat/MT fill", new Generator(new ZigguratNormal(new MersenneTwister(1))), true);
+		
+		return passed;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Main method
+	 * Usage: GaussianBenchmark [number of samples (default 10000000)]
+	 */
+	public static void main(String[] args) {
+		
+		int numSamples = (args.length > 0) ? Integer.parseInt(args[0]) : 10000000;
+		boolean passed = new GaussianBenchmark(numSamples).run();
+		log.log(Level.INFO, passed ? "All generators passed the tests" : "Some generators FAILED the tests");
+	}
+	
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/** Apply the statistical tests to the given generator, return true if it passes */
+	private boolean test(String name, Generator generator) {
+		
+		int N = numSamples_;
+		int numKs = Math.min(N, MAX_KS_SAMPLES);
+		double[] block = new double[BLOCK_SIZE];
+		double[] ks = new double[numKs];
+		
+		// sums of the powers (the mean is 0, no need for a two-pass algorithm)
+		double s1 = 0, s2 = 0, s3 = 0, s4 = 0;
+		long tailR = 0, tail5 = 0;
+		int k = 0;
+		for (int done=0; done<N; done+=BLOCK_SIZE) {
+			int m = Math.min(BLOCK_SIZE, N - done);
+			generator.fill(block, m);
+			for (int j=0; j<m; j++) {
+				double x = block[j];
+				double x2 = x*x;
+				s1 += x;
+				s2 += x2;
+				s3 += x2*x;
+				s4 += x2*x2;
+				if (Math.abs(x) > 3.6541528853610088)
+					tailR++;
+				if (Math.abs(x) > 5)
+					tail5++;
+				if (k < numKs)
+					ks[k++] = x;
+			}
+		}
+		
+		double mean = s1/N;
+		double variance = s2/N - mean*mean;
+		double zMean = mean / Math.sqrt(1.0/N);
+		double zVariance = (variance - 1) / Math.sqrt(2.0/N);
+		double zSkewness = (s3/N) / Math.sqrt(6.0/N);
+		double zKurtosis = (s4/N - 3) / Math.sqrt(96.0/N); // the variance of x^4 is 105-9 = 96
+		double zTailR = binomialZ(tailR, N, 2*Probability.normal(-3.6541528853610088));
+		double zTail5 = binomialZ(tail5, N, 2*Probability.normal(-5.0));
+		
+		// Kolmogorov-Smirnov
+		Arrays.sort(ks);
+		double D = 0;
+		for (int i=0; i<numKs; i++) {
+			double F = Probability.normal(ks[i]);
+			D = Math.max(D, Math.max((i+1.0)/numKs - F, F - (double) i/numKs));
+		}
+		double pValue = kolmogorovP(Math.sqrt(numKs)*D);
+		
+		double maxZ = Math.max(Math.max(Math.abs(zMean), Math.abs(zVariance)), Math.max(Math.abs(zSkewness), Math.abs(zKurtosis)));
+		maxZ = Math.max(maxZ, Math.max(Math.abs(zTailR), Math.abs(zTail5)));
+		boolean passed = maxZ < MAX_Z && pValue > MIN_P_VALUE;
+		
+		log.log(Level.INFO, String.format("%-22s z-scores: mean %5.2f, var %5.2f, skew %5.2f, kurt %5.2f, tail R %5.2f, tail 5 %5.2f; KS D %.2e p %.3f  %s",
+				name, zMean, zVariance, zSkewness, zKurtosis, zTailR, zTail5, D, pValue, passed ? "passed" : "FAILED"));
+		
+		return passed;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Measure the throughput of the given generator */
+	private void throughput(String name, Generator generator, boolean fill) {
+		
+		double[] block = new double[BLOCK_SIZE];
+		double sum = 0; // use the samples, so that the JIT doesn't remove the loop
+		
+		// warm up, then measure
+		for (int pass=0; pass<2; pass++) {
+			long start = System.nanoTime();
+			for (int done=0; done<numSamples_; done+=BLOCK_SIZE) {
+				if (fill)
+					generator.fill(block, BLOCK_SIZE);
+				else
+					generator.nextDoubles(block, BLOCK_SIZE);
+				sum += block[0];
+			}
+			long time = System.nanoTime() - start;
+			
+			if (pass == 1)
+				log.log(Level.INFO, String.format("%-34s %8.1f Msamples/s (%.1f ns/sample)  [%.1g]",
+						name, 1e3*numSamples_/time, (double) time/numSamples_, sum));
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** The z-score of k successes in n trials with probability p */
+	private static double binomialZ(long k, int n, double p) {
+		
+		return (k - n*p) / Math.sqrt(n*p*(1-p));
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** P(K > lambda) for the Kolmogorov distribution K (asymptotic p-value of the KS test) */
+	private static double kolmogorovP(double lambda) {
+		
+		if (lambda < 0.2)
+			return 1;
+		
+		double p = 0;
+		for (int k=1; k<=100; k++) {
+			double term = Math.exp(-2.0*k*k*lambda*lambda);
+			p += (k % 2 == 1) ? term : -term;
+			if (term < 1e-16)
+				break;
+		}
+		return Math.min(1, Math.max(0, 2*p));
+	}
+	
+	
+	// ============================================================================
+	// PRIVATE CLASSES
+	
+	/** Wraps ZigguratNormal or the Normal distribution of Colt */
+	private static class Generator {
+		
+		private ZigguratNormal ziggurat_;
+		private Normal normal_;
+		
+		public Generator(ZigguratNormal ziggurat) { ziggurat_ = ziggurat; }
+		public Generator(Normal normal) { normal_ = normal; }
+		
+		/** Generate m samples one at a time */
+		public void nextDoubles(double[] x, int m) {
+			if (ziggurat_ != null)
+				for (int j=0; j<m; j++)
+					x[j] = ziggurat_.nextDouble();
+			else
+				for (int j=0; j<m; j++)
+					x[j] = normal_.nextDouble();
+		}
+		
+		/** Generate m samples as a block (one at a time for Colt) */
+		public void fill(double[] x, int m) {
+			if (ziggurat_ != null)
+				ziggurat_.fill(x, 0, m, 1.0);
+			else
+				nextDoubles(x, m);
+		}
+	}
+}
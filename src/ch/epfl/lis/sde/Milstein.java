@@ -26,11 +26,6 @@ THE SOFTWARE.
 
 package ch.epfl.lis.sde;
 
-import cern.colt.matrix.DoubleMatrix1D;
-import cern.colt.matrix.DoubleMatrix2D;
-import cern.colt.matrix.impl.DenseDoubleMatrix1D;
-import cern.colt.matrix.impl.DenseDoubleMatrix2D;
-
 /** This class implements the explicit Milstein solver with strong convergence order of 1.0.
  * 
  * The iterative Milstein scheme is given by the formula [1]
@@ -54,11 +49,11 @@ import cern.colt.matrix.impl.DenseDoubleMatrix2D;
 public class Milstein extends SdeSolver {
 
 	/** Support vector */
-	private DoubleMatrix1D supportX_;
+	private double[] supportX_;
 	/** Drift evaluated at the support vector */
-	private DoubleMatrix1D supportF_;
+	private double[] supportF_;
 	/** Diffusion evaluated at the support vector */
-	private DoubleMatrix2D supportG_;
+	private double[] supportG_;
 	
 	
 	// ============================================================================
@@ -95,9 +90,9 @@ public class Milstein extends SdeSolver {
 		
 		super.initialize(H);
 		int n = system_.getDimension();
-		supportX_ = new DenseDoubleMatrix1D(n);
-		supportF_ = new DenseDoubleMatrix1D(n);
-		supportG_ = new DenseDoubleMatrix2D(n, n);
+		supportX_ = new double[n];
+		supportF_ = new double[n];
+		supportG_ = new double[n];
 	}
 	
 	
@@ -108,34 +103,32 @@ public class Milstein extends SdeSolver {
 	 * NOTE: must handle both Itô and Stratonovich scheme.
 	 * @throws Exception
 	 */
-	public void advance(final double t, final double h, final DoubleMatrix1D dW,
-			final DoubleMatrix1D dZ, final DoubleMatrix1D Xin, DoubleMatrix1D Xout) throws Exception {
+	public void advance(final double t, final double h, final double[] dW,
+			final double[] dZ, final double[] Xin, double[] Xout) throws Exception {
 		
 		int n = system_.getDimension();
-		double xout = 0.;
 		double sqrt_h = Math.sqrt(h);
+		double c = 1.0/(2.0*sqrt_h);
+		
+		// the dW^2 term of the Ito scheme has the correction -h
+		double correction;
+		if (system_.getScheme() == Sde.ITO)
+			correction = h;
+		else if (system_.getScheme() == Sde.STRATONOVICH)
+			correction = 0;
+		else
+			throw new Exception("Milstein:advance(): unhandled scheme for \"" + system_.getId()  + "\" (" + system_.getScheme() + ")");
 				
 		// vector supporting value
 		for (int i=0; i<n; i++)
-			supportX_.set(i, Xin.get(i) + F_.get(i)*h + G_.get(i, i)*sqrt_h);
+			supportX_[i] = Xin[i] + F_[i]*h + G_[i]*sqrt_h;
 		
-		system_.getDriftAndDiffusion(t, supportX_, supportF_, supportG_);
+		evaluate(t, supportX_, supportF_, supportG_);
 		
 		// for each dimension, we iterate the solution by h
 		for (int i=0; i<n; i++) {
-						
-			if (system_.getScheme() == Sde.ITO) {
-				xout = Xin.get(i) + F_.get(i)*h + G_.get(i, i)*dW.get(i) + (1.0/(2.0*sqrt_h))
-					*(supportG_.get(i, i) - G_.get(i, i))*(Math.pow(dW.get(i), 2.0) - h);
-			}
-			else if (system_.getScheme() == Sde.STRATONOVICH) {
-				xout = Xin.get(i) + F_.get(i)*h + G_.get(i, i)*dW.get(i) + (1.0/(2.0*sqrt_h))
-					*(supportG_.get(i, i) - G_.get(i, i))*Math.pow(dW.get(i), 2.0);
-			}
-			else
-				throw new Exception("Milstein:advance(): unhandled scheme for \"" + system_.getId()  + "\" (" + system_.getScheme() + ")");
-			
-			Xout.set(i, xout);
+			double dWi = dW[i];
+			Xout[i] = Xin[i] + F_[i]*h + G_[i]*dWi + c*(supportG_[i] - G_[i])*(dWi*dWi - correction);
 		}
 	}
 	
@@ -0,0 +1,278 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+
+
+package ch.epfl.lis.sde;
+
+/** This class implements the stochastic Runge-Kutta method SRI1W1 of Rößler for diagonal
+ * noise (derivative-free, strong convergence order 1.5).
+ * 
+ * The iterative scheme is given by the formula [1]
+ * 
+ * Xn+1 = Xn + (1/3*F(H0) + 2/3*F(H1))*h
+ *        + sum_i (b1_i*dWn + b2_i*I11/sqrt(h) + b3_i*dZn/h + b4_i*I111/h)*G(K_i)
+ * 
+ * with I11 = (dWn^2 - h)/2, I111 = (dWn^3 - 3*h*dWn)/6, the stages
+ * 
+ * H0 = Xn,  H1 = Xn + 3/4*Fn*h + 3/2*Gn*dZn/h
+ * K1 = Xn,  K2 = Xn + 1/4*Fn*h + 1/2*Gn*sqrt(h),  K3 = Xn + Fn*h - Gn*sqrt(h)
+ * K4 = Xn + 1/4*Fn*h + (-5*Gn + 3*G(K2) + 1/2*G(K3))*sqrt(h)
+ * 
+ * and the weights b1 = (-1, 4/3, 2/3, 0), b2 = (-1, 4/3, -1/3, 0), b3 = (2, -4/3, -2/3, 0),
+ * b4 = (-2, 5/3, -2/3, 1). Here h is the integration step size and dZn is the double
+ * integral of the Wiener process over the step (see SdeSolver.generateWZ()). All products
+ * are taken per dimension. The stage H1 accounts for the effect of the noise on the drift
+ * of the other dimensions.
+ * 
+ * The scheme is given for the Ito scheme. For the Stratonovich scheme, the drift F is
+ * converted to the Ito drift F + 0.5*G*G' at Xn and H1, where G*G' is computed by finite
+ * differences. Thus, a step requires 5 evaluations of the system (Ito) or 7 (Stratonovich),
+ * compared to 2 for Milstein, but much larger step sizes can be used for the same accuracy.
+ * 
+ * Like for Milstein, the stages of all dimensions are computed together. This is exact if
+ * the diffusion of dimension i depends only on X(i), otherwise the strong order is reduced
+ * (for gene networks, the diffusion depends also on the regulators). If XPositiveOnly is
+ * set, negative values of the stages are set to zero.
+ * 
+ * [1] A. Rößler, Runge-Kutta methods for the strong approximation of solutions of
+ *     stochastic differential equations, SIAM Journal on Numerical Analysis 48 (2010),
+ *     no. 3, 922-952. (Table 5.2)
+ * 
+ * [2] P.E. Kloeden and E. Platen, Numerical solution of stochastic differential
+ *     equations, Springer, 1992. (Section 10.4)
+ * 
+ * @author Thomas Schaffter (firstname.name@gmail.com)
+ *
+ */
+public class RungeKutta extends SdeSolver {
+	
+	/** Relative step of the finite differences for G*G' (Stratonovich scheme) */
+	private static final double FINITE_DIFFERENCE_STEP = 1e-7;
+	
+	/** Support vector (stages H1, K2, K3 and K4) */
+	private double[] supportX_;
+	/** Drift evaluated at H1 */
+	private double[] FH1_;
+	/** Diffusion evaluated at K2 */
+	private double[] GK2_;
+	/** Diffusion evaluated at K3 */
+	private double[] GK3_;
+	/** Diffusion evaluated at K4 */
+	private double[] GK4_;
+	/** Drift evaluated at K2, K3, K4 and for the finite differences, diffusion evaluated at H1 (not used) */
+	private double[] unusedF_;
+	/** Diffusion evaluated at H1 */
+	private double[] GH1_;
+	/** Perturbed state for the finite differences (Stratonovich scheme) */
+	private double[] perturbedX_;
+	/** Diffusion evaluated for the finite differences (Stratonovich scheme) */
+	private double[] perturbedG_;
+	/** If not null, advance() saves the local error estimate here (see AdaptiveRungeKutta) */
+	protected double[] error_;
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/**
+	 * Default constructor
+	 */
+	public RungeKutta() {
+		super();
+		generateZ_ = true;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Cleanup the solver
+	 */
+	public void reset() {
+		
+		super.reset();
+		supportX_ = null;
+		FH1_ = null;
+		GK2_ = null;
+		GK3_ = null;
+		GK4_ = null;
+		unusedF_ = null;
+		GH1_ = null;
+		perturbedX_ = null;
+		perturbedG_ = null;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Initialisation of the solver.
+	 */
+	public void initialize(double H) throws IllegalArgumentException {
+		
+		generateZ_ = true; // dZ is needed in any case
+		super.initialize(H);
+		int n = system_.getDimension();
+		supportX_ = new double[n];
+		FH1_ = new double[n];
+		GK2_ = new double[n];
+		GK3_ = new double[n];
+		GK4_ = new double[n];
+		unusedF_ = new double[n];
+		GH1_ = new double[n];
+		perturbedX_ = new double[n];
+		perturbedG_ = new double[n];
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Proceed on iteration of the numerical integration.
+	 * NOTE: must handle both Itô and Stratonovich scheme.
+	 * @throws Exception
+	 */
+	public void advance(final double t, final double h, final double[] dW,
+			final double[] dZ, final double[] Xin, double[] Xout) throws Exception {
+		
+		int n = system_.getDimension();
+		double sqrt_h = Math.sqrt(h);
+		
+		if (system_.getScheme() != Sde.ITO && system_.getScheme() != Sde.STRATONOVICH)
+			throw new Exception("RungeKutta:advance(): unhandled scheme for \"" + system_.getId()  + "\" (" + system_.getScheme() + ")");
+		
+		// Ito drift at Xn
+		toItoDrift(t, Xin, F_, G_);
+		
+		// stage H1 (drift)
+		for (int i=0; i<n; i++)
+			supportX_[i] = Xin[i] + 0.75*F_[i]*h + 1.5*G_[i]*dZ[i]/h;
+		checkSupport(supportX_);
+		evaluate(t + 0.75*h, supportX_, FH1_, GH1_);
+		toItoDrift(t + 0.75*h, supportX_, FH1_, GH1_);
+		
+		// stages K2, K3 and K4 (diffusion)
+		for (int i=0; i<n; i++)
+			supportX_[i] = Xin[i] + 0.25*F_[i]*h + 0.5*G_[i]*sqrt_h;
+		checkSupport(supportX_);
+		evaluate(t + 0.25*h, supportX_, unusedF_, GK2_);
+		
+		for (int i=0; i<n; i++)
+			supportX_[i] = Xin[i] + F_[i]*h - G_[i]*sqrt_h;
+		checkSupport(supportX_);
+		evaluate(t + h, supportX_, unusedF_, GK3_);
+		
+		for (int i=0; i<n; i++)
+			supportX_[i] = Xin[i] + 0.25*F_[i]*h + (-5.0*G_[i] + 3.0*GK2_[i] + 0.5*GK3_[i])*sqrt_h;
+		checkSupport(supportX_);
+		evaluate(t + 0.25*h, supportX_, unusedF_, GK4_);
+		
+		// for each dimension, we iterate the solution by h
+		for (int i=0; i<n; i++) {
+			double dWi = dW[i];
+			double I11 = 0.5*(dWi*dWi - h)/sqrt_h; // I_(1,1)/sqrt(h)
+			double I10 = dZ[i]/h; // I_(1,0)/h
+			double I111 = (dWi*dWi*dWi - 3.0*h*dWi)/(6.0*h); // I_(1,1,1)/h
+			double G1 = G_[i];
+			double G2 = GK2_[i];
+			double G3 = GK3_[i];
+			
+			Xout[i] = Xin[i] + (F_[i] + 2.0*FH1_[i])*h/3.0
+				+ dWi*(-G1 + 4.0/3.0*G2 + 2.0/3.0*G3)
+				+ I11*(-G1 + 4.0/3.0*G2 - 1.0/3.0*G3)
+				+ I10*(2.0*G1 - 4.0/3.0*G2 - 2.0/3.0*G3)
+				+ I111*(-2.0*G1 + 5.0/3.0*G2 - 2.0/3.0*G3 + GK4_[i]);
+			
+			// difference to the embedded scheme of order 1.0 (Euler drift, without the I10 and I111 terms)
+			if (error_ != null)
+				error_[i] = Math.abs(2.0*(FH1_[i] - F_[i])*h/3.0)
+					+ Math.abs(I10*(2.0*G1 - 4.0/3.0*G2 - 2.0/3.0*G3) + I111*(-2.0*G1 + 5.0/3.0*G2 - 2.0/3.0*G3 + GK4_[i]));
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Returns the description of this solver.
+	 */
+	public String getDescription() {
+		
+		String desc = "Stochastic Runge-Kutta solver SRI1W1 (explicit), Rößler, 2010.\n";
+		desc += "Strong/weak convergence orders: 1.5/2.0\n";
+		desc += "Only diagonal noise is handled, avoids use of derivatives (i.e. Runge-Kutta style approach).";
+		
+		return desc;
+	}
+	
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/**
+	 * For the Stratonovich scheme, convert the drift F at X to the Ito drift F + 0.5*G*G'.
+	 * G*G' is approximated by a forward difference along the diffusion vector G.
+	 * @throws Exception 
+	 */
+	private void toItoDrift(final double t, final double[] X, double[] F, final double[] G) throws Exception {
+		
+		if (system_.getScheme() != Sde.STRATONOVICH)
+			return;
+		
+		int n = system_.getDimension();
+		double maxG = 0;
+		double maxX = 1;
+		for (int i=0; i<n; i++) {
+			maxG = Math.max(maxG, Math.abs(G[i]));
+			maxX = Math.max(maxX, Math.abs(X[i]));
+		}
+		if (maxG == 0)
+			return;
+		
+		double s = FINITE_DIFFERENCE_STEP*maxX/maxG;
+		for (int i=0; i<n; i++)
+			perturbedX_[i] = X[i] + s*G[i];
+		evaluate(t, perturbedX_, unusedF_, perturbedG_);
+		
+		for (int i=0; i<n; i++)
+			F[i] += 0.5*(perturbedG_[i] - G[i])/s; // (G(X + s*G) - G(X))/s = G*G'
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** If XPositiveOnly is set, negative values of the stages are set to zero */
+	private void checkSupport(double[] X) {
+		
+		if (XPositiveOnly_) {
+			int n = system_.getDimension();
+			for (int i=0; i<n; i++)
+				if (X[i] < 0)
+					X[i] = 0;
+		}
+	}
+}
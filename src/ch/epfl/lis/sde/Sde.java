@@ -27,11 +27,16 @@ THE SOFTWARE.
 package ch.epfl.lis.sde;
 
 import cern.colt.matrix.DoubleMatrix1D;
-import cern.colt.matrix.DoubleMatrix2D;
 import cern.colt.matrix.impl.DenseDoubleMatrix1D;
 
 
 /** This class represents a system of stochastic differential equations (SDE).
+ * 
+ * Only diagonal noise is handled: the diffusion matrix G is diagonal, i.e., variable i
+ * is driven by the independent Wiener process Wi only. Thus, the diffusion is given as
+ * the vector of the diagonal elements of G. The drift and the diffusion are computed
+ * on primitive arrays given by the solver, which are allocated once when the solver
+ * is initialized.
  * 
  * @author Thomas Schaffter (firstname.name@gmail.com)
  *
@@ -58,11 +63,12 @@ public abstract class Sde {
 	// ABSTRACT METHODS
 	
 	/**
-	 * Computes the drift coefficients F and diffusion coefficient G at a given time.
+	 * Computes the drift coefficients F and the diffusion coefficients G (diagonal of
+	 * the diffusion matrix) at a given time. Xin must not be modified. 
 	 * @throws Exception If the scheme asked for is not implemented.
 	 */
-	abstract public void getDriftAndDiffusion(final double t, final DoubleMatrix1D Xin, 
-			DoubleMatrix1D F, DoubleMatrix2D G) throws Exception ;
+	abstract public void getDriftAndDiffusion(final double t, final double[] Xin, 
+			double[] F, double[] G) throws Exception ;
 	
 	
 	// ============================================================================
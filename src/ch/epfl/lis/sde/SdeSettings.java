@@ -31,7 +31,6 @@ import java.net.URL;
 
 import cern.colt.matrix.DoubleMatrix2D;
 import cern.jet.random.Normal;
-import cern.jet.random.engine.MersenneTwister;
 
 
 /** Offers global parameters (settings) and functions used by the classes of the
@@ -54,9 +53,11 @@ public class SdeSettings {
 	/** Optional seed used to generate the Wiener process (no seed: -1) */
 	private int seed_;
 	
-	/** Mersenne Twister random engine */
-	private MersenneTwister mersenneTwister_;
-	/** Normal distribution N(0,1) (use Polar Box-Muller transformation) */
+	/** Uniform random engine (xoshiro256++) */
+	private XoshiroRandomEngine randomEngine_;
+	/** Normal distribution N(0,1) (ziggurat algorithm), used to generate the Wiener process */
+	private ZigguratNormal zigguratNormal_;
+	/** Normal distribution N(0,1) of Colt (use Polar Box-Muller transformation) */
 	private Normal normalDistribution_;
 	
 	
@@ -99,11 +100,12 @@ public class SdeSettings {
 	public void initializeRNG() {
 		
 		if (seed_ == -1)
-			mersenneTwister_ = new MersenneTwister(new java.util.Date());
+			randomEngine_ = new XoshiroRandomEngine(new java.util.Date());
 		else
-			mersenneTwister_ = new MersenneTwister(seed_);
+			randomEngine_ = new XoshiroRandomEngine(seed_);
 		
-		normalDistribution_ = new Normal(0, 1, mersenneTwister_); // mean=0, std=1
+		zigguratNormal_ = new ZigguratNormal(randomEngine_);
+		normalDistribution_ = new Normal(0, 1, randomEngine_); // mean=0, std=1
 	}
 	
 	
@@ -154,5 +156,7 @@ public class SdeSettings {
 	public void setSeed(int seed) { seed_ = seed; }
 	public int getSeed() { return seed_; }
 	
+	public XoshiroRandomEngine getRandomEngine() { return randomEngine_; }
+	public ZigguratNormal getZigguratNormal() { return zigguratNormal_; }
 	public Normal getNormalDistribution() { return normalDistribution_; }
 }
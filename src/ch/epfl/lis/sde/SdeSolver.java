@@ -36,9 +36,18 @@ import cern.colt.matrix.DoubleMatrix1D;
 import cern.colt.matrix.DoubleMatrix2D;
 import cern.colt.matrix.impl.DenseDoubleMatrix1D;
 import cern.colt.matrix.impl.DenseDoubleMatrix2D;
-import cern.jet.random.Normal;
+import cern.jet.random.engine.RandomEngine;
 
 /** This class serves as basis for the implementation of a SDE solver.
+ * 
+ * The solvers handle diagonal noise only (see Sde). All vectors used during the
+ * integration (state, Wiener increments, drift and diffusion) are primitive arrays
+ * allocated in initialize(), step() does not allocate any memory.
+ * 
+ * By default, the Wiener increments are drawn from the random number generator of
+ * SdeSettings, which is re-seeded in initialize(). A solver can be given its own random
+ * engine instead (see setRandomEngine()), so that several solvers can be used in parallel
+ * threads, each with its own reproducible stream (see CounterRandomEngine).
  * 
  * @author Thomas Schaffter (firstname.name@gmail.com)
  *
@@ -48,12 +57,24 @@ public abstract class SdeSolver {
 	/** SDE system to solve */
 	protected Sde system_;
 	
-	/** dW increments */
-	protected DoubleMatrix2D W_;
-	/** dZ increments */
-	protected DoubleMatrix2D Z_;
-	/** Approximation of the SDE system */
-	protected DoubleMatrix1D X_;
+	/** dW increments (numTimePointsWiener_ x n) */
+	protected double[][] W_;
+	/** dZ increments (numTimePointsWiener_ x n) */
+	protected double[][] Z_;
+	/** Approximation of the SDE system */
+	protected double[] X_;
+	/** Approximation of the SDE system at the end of the current integration step */
+	protected double[] Xout_;
+	/** Sum of the dW increments over the current integration step */
+	protected double[] dW_;
+	/** dZ increment over the current integration step (only if generateZ_ is set) */
+	protected double[] dZ_;
+	/** Set true to generate Z in addition to W (see generateWZ()) */
+	protected boolean generateZ_;
+	/** Random engine of this solver (null: the shared random number generator of SdeSettings is used) */
+	private RandomEngine randomEngine_;
+	/** Normal distribution N(0,1) used to generate the Wiener increments (set in initialize()) */
+	protected ZigguratNormal normal_;
 
 	/** Time scale */
 	protected DoubleMatrix1D time_;
@@ -64,9 +85,9 @@ public abstract class SdeSolver {
 	/** Number of time points for the Wiener process */
 	protected int numTimePointsWiener_;
 	/** Drift coefficients */
-	protected DoubleMatrix1D F_;
-	/** Diffusion coefficients */
-	protected DoubleMatrix2D G_;
+	protected double[] F_;
+	/** Diffusion coefficients (diagonal of the diffusion matrix) */
+	protected double[] G_;
 	/** Internal integration step size */
 	protected double h_;
 	/** External integration step  size */
@@ -82,11 +103,15 @@ public abstract class SdeSolver {
 	/** See absolutePrecision_, in addition, this is also the tolerance used for integration */ 
 	private double relativePrecision_ = 0.0001;
 	
-	/** Current number of evaluations of the system */
-	private int numEvaluations_;
+	/** Current number of integration steps */
+	protected int numEvaluations_;
+	/** Current number of evaluations of the drift and diffusion of the system (see evaluate()) */
+	private int numSystemEvaluations_;
 	
-	/** Is true if the system has converged */
+	/** Is true if the system has converged */
 	private boolean converged_;
+	/** Online test for stationarity of the trajectory, sets converged_ (null: not used) */
+	private StationarityMonitor stationarityMonitor_;
 	
     /** Logger for this class */
 	private static Logger log = Logger.getLogger(SdeSolver.class.getName());
@@ -99,8 +124,8 @@ public abstract class SdeSolver {
 	 * Proceed on iteration of the numerical integration.
 	 * @throws Exception
 	 */
-	abstract public void advance(final double t, final double h, final DoubleMatrix1D dW, 
-			final DoubleMatrix1D dZ, final DoubleMatrix1D Xin, DoubleMatrix1D Xout) throws Exception;
+	abstract public void advance(final double t, final double h, final double[] dW, 
+			final double[] dZ, final double[] Xin, double[] Xout) throws Exception;
 	
 	
 	// ============================================================================
@@ -123,15 +148,10 @@ public abstract class SdeSolver {
 	 */
 	public void generateW() {
 		
-		Normal normal = SdeSettings.getInstance().getNormalDistribution();
 		double sqrt_dt = Math.sqrt(SdeSettings.getInstance().getDt());
 		
-		for (int i=0; i<numTimePointsWiener_; i++) {
-			for (int j=0; j<system_.getDimension(); j++) {
-				double N1 = normal.nextDouble();
-				W_.set(i, j, N1*sqrt_dt);
-			}
-		}
+		for (int i=0; i<numTimePointsWiener_; i++)
+			normal_.fill(W_[i], sqrt_dt);
 	}
 	
 	
@@ -146,14 +166,19 @@ public abstract class SdeSolver {
 		double sqrt_dt = Math.sqrt(settings.getDt());
 		double sqrt_3 = Math.sqrt(3.);
 		double pow_dt_3_2 = Math.pow(settings.getDt(), 3.0/2.0);
-		double N1, N2;
+		int n = system_.getDimension();
 
 		for (int i=0; i<numTimePointsWiener_; i++) {
-			for (int j=0; j<system_.getDimension(); j++) {
-				N1 = settings.getNormalDistribution().nextDouble();
-				N2 = settings.getNormalDistribution().nextDouble();
-				W_.set(i, j, N1*sqrt_dt);
-				Z_.set(i, j, 0.5*(N1+1/sqrt_3*N2)*pow_dt_3_2);
+			double[] Wi = W_[i];
+			double[] Zi = Z_[i];
+			// N1 in W, N2 in Z
+			normal_.fill(Wi, 1.0);
+			normal_.fill(Zi, 1.0);
+			for (int j=0; j<n; j++) {
+				double N1 = Wi[j];
+				double N2 = Zi[j];
+				Wi[j] = N1*sqrt_dt;
+				Zi[j] = 0.5*(N1+1/sqrt_3*N2)*pow_dt_3_2;
 			}
 		}
 	}
@@ -195,8 +220,10 @@ public abstract class SdeSolver {
 			numTimePointsWiener_ = (int) (numTimePoints_-1)*settings.getMultiplier() + 1;
 		
 		// Set the X with X(0)
-		X_ = new DenseDoubleMatrix1D(n);
-		X_.assign(system_.getX0());
+		X_ = system_.getX0().toArray();
+		Xout_ = new double[n];
+		dW_ = new double[n];
+		dZ_ = generateZ_ ? new double[n] : null;
 		
 		// Set the time scale
 		time_ = new DenseDoubleMatrix1D(numTimePoints_);
@@ -205,14 +232,18 @@ public abstract class SdeSolver {
 		h_ = settings.getDt()*(double)settings.getMultiplier(); // the integration step
 		H_ = H; // when step() is called, the integration will step with time H_ (integration steps are still h_)
 		
-		W_ = new DenseDoubleMatrix2D(numTimePointsWiener_, n);
-		Z_ = new DenseDoubleMatrix2D(numTimePointsWiener_, n);
+		W_ = new double[numTimePointsWiener_][n];
+		Z_ = new double[numTimePointsWiener_][n];
 		
-		settings.initializeRNG(); // use the defined seed to set up the RNG
+		if (randomEngine_ == null) {
+			settings.initializeRNG(); // use the defined seed to set up the RNG
+			normal_ = settings.getZigguratNormal();
+		} else
+			normal_ = new ZigguratNormal(randomEngine_);
 		
-		// drift vector and diffusion matrix
-		F_ = new DenseDoubleMatrix1D(n);
-		G_ = new DenseDoubleMatrix2D(n, n);
+		// drift vector and diffusion vector (diagonal noise)
+		F_ = new double[n];
+		G_ = new double[n];
 		
 		//System.out.println("Solver will run with parameters:");
 		//System.out.println("System dimension: " + n);
@@ -235,33 +266,38 @@ public abstract class SdeSolver {
 		double t2 = t1 + H_; // get the time at which step() must return
 		
 		int n = system_.getDimension();
-		DoubleMatrix1D Xout = new DenseDoubleMatrix1D(n);
-		DoubleMatrix1D dW = new DenseDoubleMatrix1D(n);
 		
 		while (t1 < t2) {
 			
-			generateW(); // generate new independent Wiener process samples
-			
-			for (int j=0; j<n; j++) {
-				dW.set(j, 0);
-				for (int k=0; k < W_.rows(); k++)
-					dW.set(j, dW.get(j)+W_.get(k, j));
+			if (generateZ_)
+				sumWZ(); // generate new independent samples of W and Z
+			else {
+				generateW(); // generate new independent Wiener process samples
+				
+				for (int j=0; j<n; j++) {
+					double dW = 0;
+					for (int k=0; k < numTimePointsWiener_; k++)
+						dW += W_[k][j];
+					dW_[j] = dW;
+				}
 			}
 			
 			// compute the drift and the diffusion
-			system_.getDriftAndDiffusion(t1, X_, F_, G_);
+			evaluate(t1, X_, F_, G_);
 			
 			// compute the next approximation
-			advance(t1, h_, dW, null, X_, Xout);
+			advance(t1, h_, dW_, dZ_, X_, Xout_);
 			
 			// check the solution before saving it
-			checkX(Xout);
+			checkX(Xout_);
 			
 			// check convergence
-//			checkConvergence();
+			checkStationarity(h_, Xout_);
 			
-			// save the current solution
-			X_.assign(Xout);
+			// save the current solution (swap the buffers instead of copying)
+			double[] X = X_;
+			X_ = Xout_;
+			Xout_ = X;
 			
 			t1 += h_;
 			numEvaluations_++;
@@ -303,7 +339,7 @@ public abstract class SdeSolver {
 	 * that the mRNA and protein concentrations are never lower that 0. In this case,
 	 * each time a element of X is lower than 0, this element is set to zero.
 	 */
-	public void checkX(DoubleMatrix1D X) {
+	public void checkX(double[] X) {
 		
 		if (XPositiveOnly_) {
 			
@@ -311,8 +347,8 @@ public abstract class SdeSolver {
 			int count = 0;
 			
 			for(int i=0; i<n; i++) {
-				if (X.get(i) < 0) {
-					X.set(i, 0);
+				if (X[i] < 0) {
+					X[i] = 0;
 					count++;
 				}
 			}
@@ -333,6 +369,10 @@ public abstract class SdeSolver {
 		W_ = null;
 		Z_ = null;
 		X_ = null;
+		Xout_ = null;
+		dW_ = null;
+		dZ_ = null;
+		normal_ = null;
 		time_ = null;
 		timeWiener_ = null;
 		numTimePoints_ = 0;
@@ -342,8 +382,11 @@ public abstract class SdeSolver {
 		h_ = 0.;
 		H_ = 0.;
 		numEvaluations_ = 0;
+		numSystemEvaluations_ = 0;
 		converged_ = false;
 		XNegativeCounter_ = 0;
+		if (stationarityMonitor_ != null)
+			stationarityMonitor_.reset();
 	}
 	
 	
@@ -379,7 +422,7 @@ public abstract class SdeSolver {
 		int index = 0;
 		time.set(index, time_.get(0)); // save current time
 		for (int i=0; i<n; i++)
-			ts.set(index, i, X_.get(i)); // save the current solution
+			ts.set(index, i, X_[i]); // save the current solution
 		index++;
 		
 		System.out.println("Integration starts now ...");
@@ -391,7 +434,7 @@ public abstract class SdeSolver {
 				time.set(index, t); // save current time
 				
 				for (int i=0; i<n; i++)
-					ts.set(index, i, X_.get(i)); // save the current solution
+					ts.set(index, i, X_[i]); // save the current solution
 				
 				index++;
 				
@@ -470,13 +513,70 @@ public abstract class SdeSolver {
 //	}
 
 	
+	// ============================================================================
+	// PROTECTED METHODS
+	
+	/**
+	 * Pass the state X at the end of an integration step of size h to the stationarity
+	 * monitor (if any), converged_ is set once the trajectory is stationary.
+	 */
+	protected void checkStationarity(double h, double[] X) {
+		
+		if (stationarityMonitor_ != null && !converged_)
+			converged_ = stationarityMonitor_.add(h, X);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Computes the drift and the diffusion of the system at Xin. The solvers must use this
+	 * method instead of calling the system directly, so that the evaluations are counted.
+	 * @throws Exception
+	 */
+	protected void evaluate(final double t, final double[] Xin, double[] F, double[] G) throws Exception {
+		
+		system_.getDriftAndDiffusion(t, Xin, F, G);
+		numSystemEvaluations_++;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Generates W and Z and sums them over the integration step into dW_ and dZ_. The
+	 * integral Z over the integration step of length multiplier*dt is the sum of the Z
+	 * of the Wiener process steps, plus the value of the Wiener process at the beginning
+	 * of each of these steps (relative to the beginning of the integration step) times dt.
+	 */
+	protected void sumWZ() {
+		
+		generateWZ();
+		
+		double dt = SdeSettings.getInstance().getDt();
+		int n = system_.getDimension();
+		
+		for (int j=0; j<n; j++) {
+			double dW = 0;
+			double dZ = 0;
+			for (int k=0; k < numTimePointsWiener_; k++) {
+				dZ += Z_[k][j] + dW*dt;
+				dW += W_[k][j];
+			}
+			dW_[j] = dW;
+			dZ_[j] = dZ;
+		}
+	}
+	
+	
     // =======================================================================================
     // GETTERS AND SETTERS
 	
 	public void setSystem(Sde sde) { system_ = sde; }
 	public Sde getSystem() { return system_; }
 	
-	public DoubleMatrix1D getX() { return X_; }
+	/** Return the current solution (the array is reused by the solver, copy it to keep it) */
+	public double[] getX() { return X_; }
 	
 	public DoubleMatrix1D getTime() { return time_; }
 	
@@ -495,4 +595,19 @@ public abstract class SdeSolver {
 	public double getRelativePrecision() { return relativePrecision_; }
 	
 	public boolean converged() { return converged_; }
+	
+	/** Set a monitor to test the trajectory for stationarity, converged() returns true once it is stationary */
+	public void setStationarityMonitor(StationarityMonitor monitor) { stationarityMonitor_ = monitor; }
+	public StationarityMonitor getStationarityMonitor() { return stationarityMonitor_; }
+	
+	/** Set true before initialize() to generate Z in addition to W, e.g., to use the same Wiener path as RungeKutta */
+	public void setGenerateZ(boolean b) { generateZ_ = b; }
+	public boolean getGenerateZ() { return generateZ_; }
+	
+	/** Set the random engine of this solver before initialize() (null: use the shared generator of SdeSettings) */
+	public void setRandomEngine(RandomEngine engine) { randomEngine_ = engine; }
+	public RandomEngine getRandomEngine() { return randomEngine_; }
+	
+	public int getNumSteps() { return numEvaluations_; }
+	public int getNumEvaluations() { return numSystemEvaluations_; }
 }
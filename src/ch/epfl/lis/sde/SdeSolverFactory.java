@@ -37,6 +37,7 @@ public class SdeSolverFactory {
 	public static final int EULER = 1;
 	public static final int MILSTEIN = 2;
 	public static final int RUNGEKUTTA = 3;
+	public static final int ADAPTIVE_RUNGEKUTTA = 4;
 	
 	
 	// ============================================================================
@@ -68,7 +69,10 @@ public class SdeSolverFactory {
 				solver = new Milstein();
 				break;
 			case RUNGEKUTTA:
-				System.out.println("Runge-Kutta solver not implemented yet.");
+				solver = new RungeKutta();
+				break;
+			case ADAPTIVE_RUNGEKUTTA:
+				solver = new AdaptiveRungeKutta();
 				break;
 			default:
 				System.out.println("Invalid selected solver");
@@ -0,0 +1,268 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+
+package ch.epfl.lis.sde;
+
+import cern.jet.stat.Probability;
+
+/** Online test of whether the trajectory of an SDE simulation has become stationary.
+ * 
+ * The trajectory is divided into batches of duration batchDuration_, the (time-weighted)
+ * mean of each batch is computed for every variable. After each batch, the means of the
+ * last 2*windowSize_ batches are split into an older and a newer half, and the two halves
+ * are compared with a Geweke-type z-score [1]:
+ * 
+ * 		z = (mean_new - mean_old) / sqrt(2 s^2 (1 + rho) / (windowSize_ (1 - rho))),
+ * 
+ * where the means, the covariance with time and the variance are computed with Welford's
+ * algorithm. Using batch means instead of the samples accounts for most of the
+ * autocorrelation of the trajectory (batch means method), the remaining lag-1
+ * autocorrelation rho of the batch means is accounted for with an AR(1) approximation.
+ * The variance s^2 and rho are computed from the residuals of a linear fit over the
+ * whole window, otherwise a transient (e.g., the exponential decay of a knocked-out
+ * gene) would be mistaken for noise and pass the test.
+ * 
+ * A variable passes the test if |z| is below the critical value of the Student
+ * t-distribution for the given significance level, Bonferroni corrected for the number
+ * of variables. The trajectory is considered stationary once all variables passed the
+ * test for NUM_PASSES consecutive batches, the time at which this happened is saved (see
+ * getStationaryTime()). The test needs windows that are long compared to the correlation
+ * time of the slowest variable, otherwise it rarely passes.
+ * 
+ * [1] J. Geweke, Evaluating the accuracy of sampling-based approaches to the calculation
+ *     of posterior moments, Bayesian Statistics 4, 1992.
+ * 
+ * @author Thomas Schaffter (firstname.name@gmail.com)
+ * 
+ */
+public class StationarityMonitor {
+	
+	/** Number of consecutive batches for which the test must pass */
+	private static final int NUM_PASSES = 3;
+	/** Upper bound of the estimated lag-1 autocorrelation of the batch means */
+	private static final double MAX_CORRELATION = 0.8;
+	
+	/** Number of variables */
+	private int n_;
+	/** Duration of a batch */
+	private double batchDuration_;
+	/** Number of batches in each half of the window */
+	private int windowSize_;
+	/** Critical value of the z-score */
+	private double criticalZ_;
+	
+	/** Means of the last 2*windowSize_ batches (ring buffer, 2*windowSize_ x n) */
+	private double[][] batchMeans_;
+	/** Number of completed batches */
+	private int numBatches_;
+	/** Time-weighted sum of the states of the current batch */
+	private double[] batchSum_;
+	/** Time covered by the current batch */
+	private double batchTime_;
+	/** Total time of the trajectory */
+	private double time_;
+	/** Number of consecutive batches for which the test passed */
+	private int numPasses_;
+	/** Time at which the trajectory was found to be stationary (negative if it isn't yet) */
+	private double stationaryTime_;
+	/** Largest |z| of the last test */
+	private double maxZ_;
+	/** Index of the variable with the largest |z| */
+	private int maxZIndex_;
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/**
+	 * Constructor for n variables, batches of the given duration, windows of windowSize
+	 * batches per half, and the given (overall) significance level of the test.
+	 */
+	public StationarityMonitor(int n, double batchDuration, int windowSize, double significance) {
+		
+		if (batchDuration <= 0 || windowSize < 2)
+			throw new IllegalArgumentException("StationarityMonitor: batch duration must be positive and window size at least 2");
+		
+		n_ = n;
+		batchDuration_ = batchDuration;
+		windowSize_ = windowSize;
+		// two-sided test, Bonferroni corrected for the n variables (the variance is estimated
+		// from 2*windowSize batch means, one degree of freedom is lost for the mean of each half)
+		criticalZ_ = Probability.studentTInverse(significance/n, 2*(windowSize - 1));
+		
+		batchMeans_ = new double[2*windowSize][n];
+		batchSum_ = new double[n];
+		reset();
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Add the state X at the end of an integration step of size h. Return true if the
+	 * trajectory is stationary.
+	 */
+	public boolean add(double h, double[] X) {
+		
+		time_ += h;
+		if (stationaryTime_ >= 0)
+			return true;
+		
+		for (int i=0; i<n_; i++)
+			batchSum_[i] += h*X[i];
+		batchTime_ += h;
+		
+		if (batchTime_ < batchDuration_)
+			return false;
+		
+		// the batch is complete
+		double[] mean = batchMeans_[numBatches_ % (2*windowSize_)];
+		for (int i=0; i<n_; i++) {
+			mean[i] = batchSum_[i]/batchTime_;
+			batchSum_[i] = 0;
+		}
+		batchTime_ = 0;
+		numBatches_++;
+		
+		if (numBatches_ >= 2*windowSize_ && test())
+			numPasses_++;
+		else
+			numPasses_ = 0;
+		
+		if (numPasses_ >= NUM_PASSES)
+			stationaryTime_ = time_;
+		
+		return stationaryTime_ >= 0;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Reset the monitor for a new trajectory */
+	public void reset() {
+		
+		for (int i=0; i<n_; i++)
+			batchSum_[i] = 0;
+		batchTime_ = 0;
+		numBatches_ = 0;
+		time_ = 0;
+		numPasses_ = 0;
+		stationaryTime_ = -1;
+		maxZ_ = Double.NaN;
+		maxZIndex_ = -1;
+	}
+	
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/** Compare the older and the newer half of the window for every variable, return true if all pass */
+	private boolean test() {
+		
+		int size = 2*windowSize_;
+		// index of the oldest batch in the ring buffer
+		int first = numBatches_ % size;
+		maxZ_ = 0;
+		maxZIndex_ = -1;
+		
+		int m = 2*windowSize_;
+		for (int i=0; i<n_; i++) {
+			// Welford's algorithm for the means of the two halves, the mean and variance of
+			// the whole window, and the covariance of the batch means with time (batch number)
+			double meanOld = 0, meanNew = 0;
+			double mean = 0, m2 = 0, meanK = 0, m2K = 0, cKx = 0;
+			for (int k=0; k<m; k++) {
+				double x = batchMeans_[(first + k) % size][i];
+				if (k < windowSize_)
+					meanOld += (x - meanOld)/(k+1);
+				else
+					meanNew += (x - meanNew)/(k-windowSize_+1);
+				
+				double delta = x - mean;
+				double deltaK = k - meanK;
+				mean += delta/(k+1);
+				meanK += deltaK/(k+1);
+				m2 += delta*(x - mean);
+				m2K += deltaK*(k - meanK);
+				cKx += deltaK*(x - mean);
+			}
+			double diff = Math.abs(meanNew - meanOld);
+			
+			// the noise is estimated from the residuals of a linear fit, otherwise a trend
+			// (i.e., a transient) would be mistaken for noise
+			double slope = cKx/m2K;
+			double ss = 0, cov = 0, previous = 0;
+			for (int k=0; k<m; k++) {
+				double residual = batchMeans_[(first + k) % size][i] - mean - slope*(k - meanK);
+				ss += residual*residual;
+				if (k > 0)
+					cov += residual*previous;
+				previous = residual;
+			}
+			double var = ss/(m - 2);
+			
+			// lag-1 autocorrelation of the residuals, corrected for the bias of the estimate
+			// for short series (Marriott and Pope)
+			double rho = (ss > 0) ? cov/ss : 0;
+			rho = Math.min(MAX_CORRELATION, Math.max(0, (m*rho + 2)/(m - 4)));
+			
+			double z;
+			if (var == 0)
+				// constant variables (e.g., knocked-out genes) pass if both halves are equal
+				z = (diff == 0) ? 0 : Double.POSITIVE_INFINITY;
+			else
+				// variance of the difference of the means of the two halves for correlated
+				// batch means (AR(1) approximation)
+				z = diff/Math.sqrt(2*var/windowSize_ * (1 + rho)/(1 - rho));
+			
+			if (z > maxZ_) {
+				maxZ_ = z;
+				maxZIndex_ = i;
+			}
+		}
+		return maxZ_ <= criticalZ_;
+	}
+	
+	
+	// ============================================================================
+	// SETTERS AND GETTERS
+	
+	/** Return true if the trajectory was found to be stationary */
+	public boolean isStationary() { return stationaryTime_ >= 0; }
+	/** Return the time at which the trajectory was found to be stationary (negative if it isn't) */
+	public double getStationaryTime() { return stationaryTime_; }
+	
+	public double getTime() { return time_; }
+	public int getNumBatches() { return numBatches_; }
+	public double getBatchDuration() { return batchDuration_; }
+	public int getWindowSize() { return windowSize_; }
+	public double getCriticalZ() { return criticalZ_; }
+	/** Return the largest |z| of the last test (NaN before the first test) */
+	public double getMaxZ() { return maxZ_; }
+	/** Return the index of the variable with the largest |z| in the last test */
+	public int getMaxZIndex() { return maxZIndex_; }
+}
@@ -26,9 +26,6 @@ THE SOFTWARE.
 
 package ch.epfl.lis.sde;
 
-import cern.colt.matrix.DoubleMatrix1D;
-import cern.colt.matrix.DoubleMatrix2D;
-
 /** Test function to test SDE solvers.
  * 
  * dX = (-3X+1)dt + sigma*dW	with	X(0) = 1	(1)
@@ -81,17 +78,17 @@ public class TestFunction extends Sde {
 	// ----------------------------------------------------------------------------
 
 	/**
-	 * Computes the drift coefficients F and diffusion coefficient G at a given time.
+	 * Computes the drift coefficients F and diffusion coefficients G at a given time.
 	 * @throws Exception If the scheme asked for is not implemented.
 	 */
-	public void getDriftAndDiffusion(final double t, final DoubleMatrix1D Xin,
-			DoubleMatrix1D F, DoubleMatrix2D G) throws Exception {
+	public void getDriftAndDiffusion(final double t, final double[] Xin,
+			double[] F, double[] G) throws Exception {
 		
 		// Here Ito and Stratonovich drift terms are equivalent because diffusion = const
 		// See the above class description
 		for (int i=0; i<dimension_; i++) {
-			F.set(i, -3*Xin.get(i) + 1);
-			G.set(i, i, sigma_);
+			F[i] = -3*Xin[i] + 1;
+			G[i] = sigma_;
 		}
 	}
 	
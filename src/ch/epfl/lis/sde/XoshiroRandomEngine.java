@@ -0,0 +1,135 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+
+
+package ch.epfl.lis.sde;
+
+import cern.jet.random.engine.RandomEngine;
+
+/** Fast uniform random number generator xoshiro256++ of Blackman and Vigna [1].
+ * 
+ * The state has 256 bits, the period is 2^256-1. The generator produces 64 random bits
+ * per call with a few shifts, rotations and additions, it is several times faster than
+ * the Mersenne Twister of Colt and passes the BigCrush tests of TestU01. It is the
+ * default engine underneath the Gaussian generator ZigguratNormal of the SDE package
+ * (see SdeSettings). The state is initialized from the seed with SplitMix64, as
+ * recommended by the authors.
+ * 
+ * [1] D. Blackman and S. Vigna, Scrambled linear pseudorandom number generators, ACM
+ *     Transactions on Mathematical Software 47 (2021), no. 4, 36:1-36:32.
+ * 
+ * @author Thomas Schaffter (firstname.name@gmail.com)
+ *
+ */
+public class XoshiroRandomEngine extends RandomEngine {
+	
+	/** Serialization */
+	private static final long serialVersionUID = 1L;
+	
+	/** State */
+	private long s0_, s1_, s2_, s3_;
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/**
+	 * Constructor, the state is initialized from the given seed.
+	 */
+	public XoshiroRandomEngine(long seed) {
+		
+		setSeed(seed);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Constructor, the seed is the given date (in milliseconds) combined with the
+	 * high-resolution time of the JVM.
+	 */
+	public XoshiroRandomEngine(java.util.Date date) {
+		
+		this(date.getTime() ^ System.nanoTime());
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Initialize the state from the given seed (SplitMix64) */
+	public void setSeed(long seed) {
+		
+		long z = seed;
+		s0_ = splitMix64(z += 0x9E3779B97F4A7C15L);
+		s1_ = splitMix64(z += 0x9E3779B97F4A7C15L);
+		s2_ = splitMix64(z += 0x9E3779B97F4A7C15L);
+		s3_ = splitMix64(z += 0x9E3779B97F4A7C15L);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Returns 64 random bits */
+	public long nextLong() {
+		
+		long result = Long.rotateLeft(s0_ + s3_, 23) + s0_;
+		long t = s1_ << 17;
+		
+		s2_ ^= s0_;
+		s3_ ^= s1_;
+		s1_ ^= s2_;
+		s0_ ^= s3_;
+		s2_ ^= t;
+		s3_ = Long.rotateLeft(s3_, 45);
+		
+		return result;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/**
+	 * Returns a 32 bit uniformly distributed random number in the closed interval
+	 * [Integer.MIN_VALUE,Integer.MAX_VALUE] (the high bits of nextLong()).
+	 */
+	public int nextInt() {
+		
+		return (int) (nextLong() >>> 32);
+	}
+	
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/** The output function of SplitMix64 */
+	private static long splitMix64(long z) {
+		
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+}
@@ -0,0 +1,198 @@
+/*
+Copyright (c) 2008-2010 Daniel Marbach & Thomas Schaffter
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper(s) listed
+on http://gnw.sourceforge.net.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+
+
+package ch.epfl.lis.sde;
+
+import cern.jet.random.engine.RandomEngine;
+
+/** Generates normally distributed random numbers N(0,1) with the ziggurat algorithm of
+ * Marsaglia and Tsang [1].
+ * 
+ * The area under the density is covered by 256 horizontal layers of equal area: the base
+ * layer (a rectangle and the tail beyond R) and 255 rectangles. A layer i and a position
+ * x within its rectangle are drawn from a single 64-bit random number. If x lies within
+ * the part of the rectangle that is completely below the density (about 99% of the
+ * samples), it is accepted immediately: the cost is one call of the uniform engine, a
+ * table lookup, a multiplication and a comparison. Otherwise, x is accepted or rejected
+ * by evaluating the density (wedges) or drawn from the tail with the method of Marsaglia.
+ * 
+ * Unlike [1], the layer index (8 bits), the sign (1 bit) and the position (53 bits) are
+ * taken from independent bits of the random number, and the position has double
+ * precision. fill() generates a whole block of samples at once, this is how the Wiener
+ * increments are generated by the SDE solvers (see SdeSolver.generateW()). This is much
+ * faster than the polar method of cern.jet.random.Normal, which needs two uniforms and a
+ * logarithm and a square root for every second sample and is synchronized (see
+ * GaussianBenchmark).
+ * 
+ * [1] G. Marsaglia and W.W. Tsang, The ziggurat method for generating random variables,
+ *     Journal of Statistical Software 5 (2000), no. 8, 1-7.
+ * 
+ * @author Thomas Schaffter (firstname.name@gmail.com)
+ *
+ */
+public class ZigguratNormal {
+	
+	/** Number of layers */
+	private static final int NUM_LAYERS = 256;
+	/** Start of the tail (right edge of the base rectangle) */
+	private static final double R = 3.6541528853610088;
+	/** Area of each layer */
+	private static final double V = 0.00492867323399;
+	/** 2^-53 */
+	private static final double DOUBLE_UNIT = 1.0 / (1L << 53);
+	
+	/** Right edges of the layers, X[0] = V/f(R) for the base layer, X[1] = R, X[NUM_LAYERS] = 0 */
+	private static final double[] X = new double[NUM_LAYERS + 1];
+	/** Density at the right edges, F[i] = f(X[i]) with f(x) = exp(-x^2/2) */
+	private static final double[] F = new double[NUM_LAYERS + 1];
+	
+	static {
+		X[0] = V / Math.exp(-0.5*R*R);
+		X[1] = R;
+		for (int i=1; i<NUM_LAYERS-1; i++)
+			X[i+1] = Math.sqrt(-2.0*Math.log(V/X[i] + Math.exp(-0.5*X[i]*X[i])));
+		X[NUM_LAYERS] = 0;
+		
+		for (int i=0; i<=NUM_LAYERS; i++)
+			F[i] = Math.exp(-0.5*X[i]*X[i]);
+	}
+	
+	/** Uniform random engine */
+	private RandomEngine engine_;
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/**
+	 * Constructor, the uniform random numbers are drawn from the given engine.
+	 */
+	public ZigguratNormal(RandomEngine engine) {
+		
+		engine_ = engine;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Returns a random number from N(0,1) */
+	public double nextDouble() {
+		
+		long r = engine_.nextLong();
+		int i = (int) (r & 0xFF);
+		double x = (r >>> 11) * DOUBLE_UNIT * X[i];
+		
+		if (x < X[i+1])
+			return ((r & 0x100) == 0) ? x : -x;
+		else
+			return nextDoubleSlow(r);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Fill the array with random numbers from N(0,stdev^2) */
+	public void fill(double[] x, double stdev) {
+		
+		fill(x, 0, x.length, stdev);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Fill the elements from ... to-1 of the array with random numbers from N(0,stdev^2) */
+	public void fill(double[] x, int from, int to, double stdev) {
+		
+		RandomEngine engine = engine_;
+		
+		for (int j=from; j<to; j++) {
+			long r = engine.nextLong();
+			int i = (int) (r & 0xFF);
+			double z = (r >>> 11) * DOUBLE_UNIT * X[i];
+			
+			if (z < X[i+1])
+				z = Double.longBitsToDouble(Double.doubleToRawLongBits(z) ^ ((r & 0x100) << 55)); // sign without branch
+			else
+				z = nextDoubleSlow(r);
+			x[j] = stdev * z;
+		}
+	}
+	
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/**
+	 * The slow path: r was drawn by nextDouble() or fill(), but the sample is not within
+	 * the part of the layer that is completely below the density.
+	 */
+	private double nextDoubleSlow(long r) {
+		
+		while (true) {
+			int i = (int) (r & 0xFF);
+			boolean negative = (r & 0x100) != 0;
+			double x = (r >>> 11) * DOUBLE_UNIT * X[i];
+			
+			if (x < X[i+1])
+				return negative ? -x : x;
+			
+			if (i == 0) {
+				// the tail beyond R (Marsaglia 1964)
+				double xx, yy;
+				do {
+					xx = -Math.log(nextOpenUniform()) / R;
+					yy = -Math.log(nextOpenUniform());
+				} while (yy + yy < xx*xx);
+				return negative ? -(R + xx) : R + xx;
+			}
+			
+			// the wedge between the rectangle and the density
+			double y = F[i] + nextOpenUniform() * (F[i+1] - F[i]);
+			if (y < Math.exp(-0.5*x*x))
+				return negative ? -x : x;
+			
+			r = engine_.nextLong();
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+	
+	/** Returns a uniform random number in (0,1] */
+	private double nextOpenUniform() {
+		
+		return ((engine_.nextLong() >>> 11) + 1) * DOUBLE_UNIT;
+	}
+	
+	
+	// ============================================================================
+	// SETTERS AND GETTERS
+	
+	public void setRandomEngine(RandomEngine engine) { engine_ = engine; }
+	public RandomEngine getRandomEngine() { return engine_; }
+}